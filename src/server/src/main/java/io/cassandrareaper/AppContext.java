@@ -18,7 +18,11 @@
 package io.cassandrareaper;
 
 import io.cassandrareaper.jmx.JmxConnectionFactory;
+import io.cassandrareaper.service.CoordinatorSelector;
+import io.cassandrareaper.service.NodeHealthCache;
 import io.cassandrareaper.service.RepairManager;
+import io.cassandrareaper.service.SegmentWatchdog;
+import io.cassandrareaper.service.TopologyCache;
 import io.cassandrareaper.storage.IStorage;
 
 import java.net.InetAddress;
@@ -47,6 +51,10 @@ public final class AppContext {
   public JmxConnectionFactory jmxConnectionFactory;
   public ReaperApplicationConfiguration config;
   public MetricRegistry metricRegistry = new MetricRegistry();
+  public final NodeHealthCache nodeHealthCache = NodeHealthCache.create(this);
+  public final CoordinatorSelector coordinatorSelector = CoordinatorSelector.create(this);
+  public final TopologyCache topologyCache = TopologyCache.create(this);
+  public final SegmentWatchdog segmentWatchdog = SegmentWatchdog.create(this);
 
   private static String initialiseInstanceAddress() {
     String reaperInstanceAddress;
@@ -61,6 +61,7 @@ import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.jdbi.DBIFactory;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.prometheus.client.CollectorRegistry;
@@ -163,6 +164,8 @@ public final class ReaperApplication extends Application<ReaperApplicationConfig
     context.repairManager = RepairManager.create(
         context,
         environment.lifecycle().scheduledExecutorService("RepairRunner").threads(repairThreads).build(),
+        // as many threads as the runners, a slow JMX host or storage call only holding back one segment at a time
+        environment.lifecycle().scheduledExecutorService("SegmentRunner").threads(repairThreads).build(),
         config.getHangingRepairTimeoutMins(),
         TimeUnit.MINUTES,
         config.getRepairManagerSchedulingIntervalSeconds(),
@@ -340,6 +343,10 @@ public final class ReaperApplication extends Application<ReaperApplicationConfig
       throw new ReaperException("invalid storage type: " + config.getStorageType());
     }
     Preconditions.checkState(storage.isStorageConnected(), "Failed to connect storage");
+    if (storage instanceof Managed) {
+      // stopped before the connections the storage was built upon
+      environment.lifecycle().manage((Managed) storage);
+    }
     return storage;
   }
 
@@ -21,6 +21,7 @@ import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.DecimalMin;
@@ -40,6 +41,10 @@ public final class ReaperApplicationConfiguration extends Configuration {
 
   private static final int DEFAULT_SEGMENT_COUNT_PER_NODE = 16;
   private static final Integer DEFAULT_MAX_PENDING_COMPACTIONS = 20;
+  private static final Integer DEFAULT_MAX_IN_FLIGHT_SEGMENT_BATCHES = 16;
+  private static final int DEFAULT_SEGMENT_SPLIT_FAILURE_THRESHOLD = 3;
+  private static final int DEFAULT_SEGMENT_SPLIT_COUNT = 4;
+  private static final int DEFAULT_SEGMENT_BATCH_SIZE = 1;
 
   @JsonProperty
   private Integer maxPendingCompactions;
@@ -50,6 +55,20 @@ public final class ReaperApplicationConfiguration extends Configuration {
 
   @JsonProperty private Integer segmentCountPerNode;
 
+  @JsonProperty private Integer segmentSplitFailureThreshold;
+
+  @JsonProperty private Integer segmentSplitCount;
+
+  @JsonProperty private Integer segmentBatchSize;
+
+  @JsonProperty
+  @DefaultValue("false")
+  private Boolean balanceSegmentsByDataSize;
+
+  @JsonProperty
+  @DefaultValue("false")
+  private Boolean skipTablesWithoutWrites;
+
   @JsonProperty
   @NotNull
   private RepairParallelism repairParallelism;
@@ -100,6 +119,9 @@ public final class ReaperApplicationConfiguration extends Configuration {
   @JsonProperty
   private AutoSchedulingConfiguration autoScheduling;
 
+  @JsonProperty
+  private AdaptiveIntensityConfiguration adaptiveIntensity;
+
   @JsonProperty
   @DefaultValue("true")
   private Boolean enableDynamicSeedList;
@@ -111,6 +133,9 @@ public final class ReaperApplicationConfiguration extends Configuration {
   @DefaultValue("false")
   private Boolean activateQueryLogger;
 
+  @JsonProperty
+  private Integer maxInFlightSegmentBatches;
+
   @JsonProperty
   @DefaultValue("5")
   private Integer jmxConnectionTimeoutInSeconds;
@@ -156,6 +181,51 @@ public final class ReaperApplicationConfiguration extends Configuration {
     this.segmentCountPerNode = segmentCountPerNode;
   }
 
+  /**
+   * @return the amount of failures, timeouts included, after which a segment is split. Zero disables splitting.
+   */
+  public int getSegmentSplitFailureThreshold() {
+    return segmentSplitFailureThreshold == null
+        ? DEFAULT_SEGMENT_SPLIT_FAILURE_THRESHOLD
+        : segmentSplitFailureThreshold;
+  }
+
+  public void setSegmentSplitFailureThreshold(int segmentSplitFailureThreshold) {
+    this.segmentSplitFailureThreshold = segmentSplitFailureThreshold;
+  }
+
+  public int getSegmentSplitCount() {
+    return segmentSplitCount == null ? DEFAULT_SEGMENT_SPLIT_COUNT : segmentSplitCount;
+  }
+
+  public void setSegmentSplitCount(int segmentSplitCount) {
+    this.segmentSplitCount = segmentSplitCount;
+  }
+
+  public int getSegmentBatchSize() {
+    return segmentBatchSize == null ? DEFAULT_SEGMENT_BATCH_SIZE : segmentBatchSize;
+  }
+
+  public void setSegmentBatchSize(int segmentBatchSize) {
+    this.segmentBatchSize = segmentBatchSize;
+  }
+
+  public boolean getBalanceSegmentsByDataSize() {
+    return balanceSegmentsByDataSize == null ? false : balanceSegmentsByDataSize;
+  }
+
+  public void setBalanceSegmentsByDataSize(boolean balanceSegmentsByDataSize) {
+    this.balanceSegmentsByDataSize = balanceSegmentsByDataSize;
+  }
+
+  public boolean getSkipTablesWithoutWrites() {
+    return skipTablesWithoutWrites == null ? false : skipTablesWithoutWrites;
+  }
+
+  public void setSkipTablesWithoutWrites(boolean skipTablesWithoutWrites) {
+    this.skipTablesWithoutWrites = skipTablesWithoutWrites;
+  }
+
   public int getMaxPendingCompactions() {
     return maxPendingCompactions == null ? DEFAULT_MAX_PENDING_COMPACTIONS : maxPendingCompactions;
   }
@@ -309,6 +379,14 @@ public final class ReaperApplicationConfiguration extends Configuration {
     return this.activateQueryLogger == null ? false : this.activateQueryLogger;
   }
 
+  public int getMaxInFlightSegmentBatches() {
+    return maxInFlightSegmentBatches == null ? DEFAULT_MAX_IN_FLIGHT_SEGMENT_BATCHES : maxInFlightSegmentBatches;
+  }
+
+  public void setMaxInFlightSegmentBatches(int maxInFlightSegmentBatches) {
+    this.maxInFlightSegmentBatches = maxInFlightSegmentBatches;
+  }
+
   public void setUseAddressTranslator(boolean useAddressTranslator) {
     this.useAddressTranslator = useAddressTranslator;
   }
@@ -386,6 +464,18 @@ public final class ReaperApplicationConfiguration extends Configuration {
     return repairThreadCount != null ? repairThreadCount : 1;
   }
 
+  public AdaptiveIntensityConfiguration getAdaptiveIntensity() {
+    return adaptiveIntensity;
+  }
+
+  public void setAdaptiveIntensity(AdaptiveIntensityConfiguration adaptiveIntensity) {
+    this.adaptiveIntensity = adaptiveIntensity;
+  }
+
+  public boolean isAdaptiveIntensityEnabled() {
+    return null != adaptiveIntensity && Boolean.TRUE.equals(adaptiveIntensity.isEnabled());
+  }
+
   public Integer getPurgeRecordsAfterInDays() {
     return purgeRecordsAfterInDays == null ? 0 : purgeRecordsAfterInDays;
   }
@@ -511,6 +601,63 @@ public final class ReaperApplicationConfiguration extends Configuration {
     }
   }
 
+  public static final class AdaptiveIntensityConfiguration {
+
+    private static final double DEFAULT_MAX_DROPPED_MESSAGES_PER_SECOND = 1.0;
+
+    @JsonProperty
+    private Boolean enabled;
+
+    @JsonProperty
+    private Integer maxPendingCompactions;
+
+    @JsonProperty
+    private Double maxDroppedMessagesPerSecond;
+
+    @JsonProperty
+    private Double maxClientLatencyP99Millis;
+
+    public Boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(Boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    /**
+     * @return the pending compactions to stay under, if other than half of the amount that postpones segments
+     */
+    public Optional<Integer> getMaxPendingCompactions() {
+      return Optional.ofNullable(maxPendingCompactions);
+    }
+
+    public void setMaxPendingCompactions(Integer maxPendingCompactions) {
+      this.maxPendingCompactions = maxPendingCompactions;
+    }
+
+    public double getMaxDroppedMessagesPerSecond() {
+      return null != maxDroppedMessagesPerSecond
+          ? maxDroppedMessagesPerSecond
+          : DEFAULT_MAX_DROPPED_MESSAGES_PER_SECOND;
+    }
+
+    public void setMaxDroppedMessagesPerSecond(Double maxDroppedMessagesPerSecond) {
+      this.maxDroppedMessagesPerSecond = maxDroppedMessagesPerSecond;
+    }
+
+    /**
+     * @return the client read and write p99 latency to stay under, no limit if not set
+     */
+    public Optional<Double> getMaxClientLatencyP99Millis() {
+      return Optional.ofNullable(maxClientLatencyP99Millis);
+    }
+
+    public void setMaxClientLatencyP99Millis(Double maxClientLatencyP99Millis) {
+      this.maxClientLatencyP99Millis = maxClientLatencyP99Millis;
+    }
+  }
+
   public enum DatacenterAvailability {
     /* We require direct JMX access to all nodes across all datacenters */
     ALL,
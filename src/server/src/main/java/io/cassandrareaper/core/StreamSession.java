@@ -36,6 +36,11 @@ public final class StreamSession {
    */
   private final String planId;
 
+  /**
+   * What the session streams for, such as "Repair" or "Bootstrap".
+   */
+  private final String description;
+
   /**
    * The streams belonging to this session.
    *
@@ -46,6 +51,7 @@ public final class StreamSession {
 
   private StreamSession(Builder builder) {
     this.planId = builder.planId;
+    this.description = builder.description;
     this.streams = ImmutableMap.copyOf(builder.streams);
   }
 
@@ -53,6 +59,10 @@ public final class StreamSession {
     return planId;
   }
 
+  public String getDescription() {
+    return description;
+  }
+
   public ImmutableMap<String, Stream> getStreams() {
     return streams;
   }
@@ -85,6 +95,7 @@ public final class StreamSession {
   public static final class Builder {
 
     private String planId;
+    private String description;
     private Map<String, Stream> streams;
 
     private Builder() {
@@ -92,6 +103,7 @@ public final class StreamSession {
 
     private Builder(StreamSession oldSession) {
       this.planId = oldSession.getPlanId();
+      this.description = oldSession.getDescription();
       this.streams = oldSession.getStreams();
     }
 
@@ -100,6 +112,11 @@ public final class StreamSession {
       return this;
     }
 
+    public Builder withDescription(String description) {
+      this.description = description;
+      return this;
+    }
+
     public Builder withStreams(Map<String, Stream> streams) {
       this.streams = streams;
       return this;
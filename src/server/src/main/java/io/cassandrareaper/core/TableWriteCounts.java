@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cassandrareaper.core;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The writes the tables of a repair run had received when the run was registered, summed over all the nodes, and the
+ * tables the run skips because they had no writes since the previous successful run.
+ */
+public final class TableWriteCounts {
+
+  private final Map<String, Long> writeCounts;
+  private final Set<String> skippedTables;
+
+  public TableWriteCounts(Map<String, Long> writeCounts, Set<String> skippedTables) {
+    this.writeCounts = ImmutableMap.copyOf(writeCounts);
+    this.skippedTables = ImmutableSet.copyOf(skippedTables);
+  }
+
+  public Map<String, Long> getWriteCounts() {
+    return writeCounts;
+  }
+
+  public Set<String> getSkippedTables() {
+    return skippedTables;
+  }
+}
@@ -33,6 +33,8 @@ public final class HostConnectionCounters {
 
   private final ConcurrentMap<String, AtomicInteger> successfulConnections = Maps.newConcurrentMap();
 
+  private final ConcurrentMap<String, Long> connectionLatencies = Maps.newConcurrentMap();
+
   private final MetricRegistry metricRegistry;
 
   HostConnectionCounters(MetricRegistry metricRegistry) {
@@ -81,4 +83,16 @@ public final class HostConnectionCounters {
     return successfulConnections.getOrDefault(host, new AtomicInteger(0)).get();
   }
 
+  void recordConnectionLatency(String host, long latencyMillis) {
+    // smoothed, so that a single slow handshake doesn't rule the host out
+    connectionLatencies.merge(host, latencyMillis, (previous, latest) -> (previous + latest) / 2);
+  }
+
+  /**
+   * @return the smoothed time it took to connect to the host, zero if it is unknown
+   */
+  public long getConnectionLatencyMillis(String host) {
+    return connectionLatencies.getOrDefault(host, 0L);
+  }
+
 }
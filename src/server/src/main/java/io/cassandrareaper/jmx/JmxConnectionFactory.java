@@ -219,9 +219,11 @@ public class JmxConnectionFactory {
     public JmxProxy apply(String host) {
       Preconditions.checkArgument(host.equals(this.host));
       try {
+        long start = System.currentTimeMillis();
         JmxProxy proxy = JmxProxyImpl.connect(
                 host, username, password, addressTranslator, connectionTimeout, metricRegistry);
         hostConnectionCounters.incrementSuccessfulConnections(host);
+        hostConnectionCounters.recordConnectionLatency(host, System.currentTimeMillis() - start);
         return proxy;
       } catch (ReaperException | InterruptedException ex) {
         hostConnectionCounters.decrementSuccessfulConnections(host);
@@ -66,6 +66,18 @@ public interface JmxProxy extends NotificationListener {
 
   List<String> getLiveNodes() throws ReaperException;
 
+  /**
+   * @param keyspace the keyspace of the tables
+   * @param tables the tables to sum up, all the tables of the keyspace if empty
+   * @return the bytes of live sstables of the tables on the node this proxy is connected to
+   */
+  long getLiveDiskSpaceUsed(String keyspace, Collection<String> tables) throws ReaperException;
+
+  /**
+   * @return the number of local writes of each table of the keyspace since the node this proxy is connected to started
+   */
+  Map<String, Long> getWriteCounts(String keyspace) throws ReaperException;
+
   /**
    * @return full class name of Cassandra's partitioner.
    */
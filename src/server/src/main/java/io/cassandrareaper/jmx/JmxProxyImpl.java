@@ -21,6 +21,7 @@ import io.cassandrareaper.ReaperException;
 import io.cassandrareaper.core.Cluster;
 import io.cassandrareaper.core.Segment;
 import io.cassandrareaper.service.RingRange;
+import io.cassandrareaper.service.RingTopology;
 
 import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
@@ -331,21 +332,17 @@ final class JmxProxyImpl implements JmxProxy {
   public List<String> tokenRangeToEndpoint(String keyspace, Segment segment) {
     Preconditions.checkNotNull(ssProxy, "Looks like the proxy is not connected");
 
-    Set<Map.Entry<List<String>, List<String>>> entries = ssProxy.getRangeToEndpointMap(keyspace).entrySet();
-
-    for (Map.Entry<List<String>, List<String>> entry : entries) {
-      BigInteger rangeStart = new BigInteger(entry.getKey().get(0));
-      BigInteger rangeEnd = new BigInteger(entry.getKey().get(1));
-      if (new RingRange(rangeStart, rangeEnd).encloses(segment.getTokenRanges().get(0))) {
-        LOG.debug(
-            "[tokenRangeToEndpoint] Found replicas for token range {} : {}",
-            segment.getTokenRanges().get(0),
-            entry.getValue());
-        return entry.getValue();
-      }
+    Map<List<String>, List<String>> rangeToEndpoint = ssProxy.getRangeToEndpointMap(keyspace);
+    List<String> replicas = RingTopology.of(rangeToEndpoint).getReplicas(segment.getTokenRanges().get(0));
+    if (!replicas.isEmpty()) {
+      LOG.debug(
+          "[tokenRangeToEndpoint] Found replicas for token range {} : {}",
+          segment.getTokenRanges().get(0),
+          replicas);
+      return Lists.newArrayList(replicas);
     }
     LOG.error("[tokenRangeToEndpoint] no replicas found for token range {}", segment);
-    LOG.debug("[tokenRangeToEndpoint] checked token ranges were {}", entries);
+    LOG.debug("[tokenRangeToEndpoint] checked token ranges were {}", rangeToEndpoint.entrySet());
     return Lists.newArrayList();
   }
 
@@ -398,6 +395,40 @@ final class JmxProxyImpl implements JmxProxy {
     return tableNames;
   }
 
+  @Override
+  public long getLiveDiskSpaceUsed(String keyspace, Collection<String> tables) throws ReaperException {
+    try {
+      ObjectName pattern = new ObjectName(
+          "org.apache.cassandra.metrics:type=ColumnFamily,keyspace=" + keyspace + ",scope=*,name=LiveDiskSpaceUsed");
+
+      long bytes = 0;
+      for (ObjectName table : mbeanServer.queryNames(pattern, null)) {
+        if (tables.isEmpty() || tables.contains(table.getKeyProperty("scope"))) {
+          bytes += ((Number) mbeanServer.getAttribute(table, "Count")).longValue();
+        }
+      }
+      return bytes;
+    } catch (IOException | JMException e) {
+      throw new ReaperException("failed reading the disk space used by keyspace " + keyspace, e);
+    }
+  }
+
+  @Override
+  public Map<String, Long> getWriteCounts(String keyspace) throws ReaperException {
+    try {
+      ObjectName pattern = new ObjectName(
+          "org.apache.cassandra.metrics:type=ColumnFamily,keyspace=" + keyspace + ",scope=*,name=WriteLatency");
+
+      Map<String, Long> writeCounts = Maps.newHashMap();
+      for (ObjectName table : mbeanServer.queryNames(pattern, null)) {
+        writeCounts.put(table.getKeyProperty("scope"), ((Number) mbeanServer.getAttribute(table, "Count")).longValue());
+      }
+      return writeCounts;
+    } catch (IOException | JMException e) {
+      throw new ReaperException("failed reading the write counts of keyspace " + keyspace, e);
+    }
+  }
+
   @Override
   public int getPendingCompactions() throws JMException {
     try {
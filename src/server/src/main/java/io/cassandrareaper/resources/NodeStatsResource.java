@@ -22,7 +22,6 @@ import io.cassandrareaper.ReaperException;
 import io.cassandrareaper.core.Node;
 import io.cassandrareaper.core.StreamSession;
 import io.cassandrareaper.service.CompactionService;
-import io.cassandrareaper.service.MetricsService;
 import io.cassandrareaper.service.StreamService;
 
 import java.util.List;
@@ -47,13 +46,11 @@ public final class NodeStatsResource {
 
   private final AppContext context;
   private final StreamService streamManager;
-  private final MetricsService metricsGrabber;
   private final CompactionService compactionService;
 
   public NodeStatsResource(AppContext context) {
     this.context = context;
     this.streamManager = StreamService.create(context);
-    this.metricsGrabber = MetricsService.create(context);
     this.compactionService = CompactionService.create(context);
   }
 
@@ -71,7 +68,7 @@ public final class NodeStatsResource {
 
     try {
       Node node = Node.builder().withClusterName(clusterName).withHostname(host).build();
-      return Response.ok().entity(metricsGrabber.getTpStats(node)).build();
+      return Response.ok().entity(context.nodeHealthCache.getTpStats(node)).build();
     } catch (RuntimeException | ReaperException e) {
       LOG.error(e.getMessage(), e);
       return Response.serverError().entity(e.getMessage()).build();
@@ -92,7 +89,7 @@ public final class NodeStatsResource {
 
     try {
       Node node = Node.builder().withClusterName(clusterName).withHostname(host).build();
-      return Response.ok().entity(metricsGrabber.getDroppedMessages(node)).build();
+      return Response.ok().entity(context.nodeHealthCache.getDroppedMessages(node)).build();
     } catch (RuntimeException | ReaperException e) {
       LOG.error(e.getMessage(), e);
       return Response.serverError().entity(e.getMessage()).build();
@@ -113,7 +110,7 @@ public final class NodeStatsResource {
 
     try {
       Node node = Node.builder().withClusterName(clusterName).withHostname(host).build();
-      return Response.ok().entity(metricsGrabber.getClientRequestLatencies(node)).build();
+      return Response.ok().entity(context.nodeHealthCache.getClientRequestLatencies(node)).build();
     } catch (RuntimeException | ReaperException e) {
       LOG.error(e.getMessage(), e);
       return Response.serverError().entity(e.getMessage()).build();
@@ -30,6 +30,7 @@ import io.cassandrareaper.resources.view.RepairRunStatus;
 import io.cassandrareaper.service.PurgeService;
 import io.cassandrareaper.service.RepairRunService;
 import io.cassandrareaper.service.RepairUnitService;
+import io.cassandrareaper.service.SegmentDurationModel;
 
 import java.net.URI;
 import java.util.ArrayList;
@@ -369,7 +370,7 @@ public final class RepairRunResource {
         return createMissingArgumentResponse("state");
       }
 
-      Optional<RepairRun> repairRun = context.storage.getRepairRun(repairRunId);
+      Optional<RepairRun> repairRun = context.storage.getRepairRunUncached(repairRunId);
       if (!repairRun.isPresent()) {
         return Response.status(Status.NOT_FOUND).entity("repair run " + repairRunId + " doesn't exist").build();
       }
@@ -426,7 +427,7 @@ public final class RepairRunResource {
       }
       final double intensity = parseIntensity(intensityStr.get());
 
-      Optional<RepairRun> repairRun = context.storage.getRepairRun(repairRunId);
+      Optional<RepairRun> repairRun = context.storage.getRepairRunUncached(repairRunId);
       if (!repairRun.isPresent()) {
         return Response.status(Status.NOT_FOUND).entity("repair run " + repairRunId + " doesn't exist").build();
       }
@@ -620,7 +621,23 @@ public final class RepairRunResource {
   private RepairRunStatus getRepairRunStatus(RepairRun repairRun) {
     RepairUnit repairUnit = context.storage.getRepairUnit(repairRun.getRepairUnitId());
     int segmentsRepaired = getSegmentAmountForRepairRun(repairRun.getId());
-    return new RepairRunStatus(repairRun, repairUnit, segmentsRepaired);
+    return withSegmentBasedEta(new RepairRunStatus(repairRun, repairUnit, segmentsRepaired), repairRun);
+  }
+
+  /**
+   * Replaces the estimated time of arrival of an ongoing run with one based on the expected durations of its remaining
+   * segments, when previous runs of its repair unit tell them.
+   */
+  private RepairRunStatus withSegmentBasedEta(RepairRunStatus status, RepairRun repairRun) {
+    if (RepairRun.RunState.RUNNING == repairRun.getRunState() || RepairRun.RunState.PAUSED == repairRun.getRunState()) {
+      SegmentDurationModel durations = SegmentDurationModel.create(context, repairRun);
+      if (!durations.isEmpty()) {
+        durations
+            .estimateTimeOfArrival(repairRun, context.storage.getRepairSegmentsForRun(repairRun.getId()))
+            .ifPresent(status::setEstimatedTimeOfArrival);
+      }
+    }
+    return status;
   }
 
   /**
@@ -690,7 +707,7 @@ public final class RepairRunResource {
       if (!run.getRunState().equals(RepairRun.RunState.DONE)) {
         segmentsRepaired = getSegmentAmountForRepairRun(run.getId());
       }
-      runStatuses.add(new RepairRunStatus(run, runsUnit, segmentsRepaired));
+      runStatuses.add(withSegmentBasedEta(new RepairRunStatus(run, runsUnit, segmentsRepaired), run));
     }
 
     return runStatuses;
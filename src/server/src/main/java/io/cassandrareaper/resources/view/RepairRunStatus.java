@@ -438,6 +438,14 @@ public final class RepairRunStatus {
     this.duration = duration;
   }
 
+  public DateTime getEstimatedTimeOfArrival() {
+    return estimatedTimeOfArrival;
+  }
+
+  public void setEstimatedTimeOfArrival(DateTime estimatedTimeOfArrival) {
+    this.estimatedTimeOfArrival = estimatedTimeOfArrival;
+  }
+
   @JsonProperty("estimated_time_of_arrival")
   public String getEstimatedTimeOfArrivalIso8601() {
     return dateTimeToIso8601(estimatedTimeOfArrival);
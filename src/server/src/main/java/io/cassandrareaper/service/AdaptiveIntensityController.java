@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperApplicationConfiguration.AdaptiveIntensityConfiguration;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.DroppedMessages;
+import io.cassandrareaper.core.MetricsHistogram;
+import io.cassandrareaper.core.Node;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts the pace of a repair run to the load of the nodes it repairs.
+ *
+ * <p>The pending compactions, dropped messages and client latencies of the replicas of the running segments are sampled
+ * periodically. While they stay under their limits the intensity and the amount of concurrent segments grow
+ * additively, as soon as one limit is exceeded both are halved.
+ */
+final class AdaptiveIntensityController {
+
+  static final double MIN_INTENSITY = 0.01;
+  static final double MAX_INTENSITY = 1.0;
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveIntensityController.class);
+
+  private static final long SAMPLE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final double INTENSITY_STEP = 0.05;
+  private static final ImmutableSet<String> CLIENT_REQUESTS = ImmutableSet.of("Read", "Write");
+  private static final String LATENCY = "Latency";
+
+  private final AppContext context;
+  private final String clusterName;
+  private final AdaptiveIntensityConfiguration config;
+  private volatile double intensity;
+  private double runIntensity;
+  private volatile int maxConcurrentSegments = Integer.MAX_VALUE;
+  private long lastSampleMillis;
+
+  AdaptiveIntensityController(AppContext context, String clusterName, double initialIntensity) {
+    this.context = context;
+    this.clusterName = clusterName;
+    this.config = context.config.getAdaptiveIntensity();
+    this.intensity = initialIntensity;
+    this.runIntensity = initialIntensity;
+  }
+
+  double getIntensity() {
+    return intensity;
+  }
+
+  int getMaxConcurrentSegments() {
+    return maxConcurrentSegments;
+  }
+
+  /**
+   * Restarts the adaptation from the intensity set on the run when it was changed since the last call, so that
+   * changing the intensity of a running repair takes effect.
+   *
+   * @param runIntensity the intensity currently set on the repair run
+   */
+  synchronized void resetIfChanged(double runIntensity) {
+    if (Double.compare(this.runIntensity, runIntensity) != 0) {
+      LOG.info("Intensity of the repairs on cluster {} was set to {}", clusterName, runIntensity);
+      this.runIntensity = runIntensity;
+      intensity = runIntensity;
+    }
+  }
+
+  /**
+   * Samples the load of the given replicas and adapts the pace, at most once per sample interval.
+   *
+   * @param replicas the replicas of the running segments
+   * @param runningSegments the amount of running segments
+   */
+  synchronized void update(Collection<String> replicas, int runningSegments) {
+    if (replicas.isEmpty() || lastSampleMillis + SAMPLE_INTERVAL_MILLIS > System.currentTimeMillis()) {
+      return;
+    }
+    lastSampleMillis = System.currentTimeMillis();
+
+    Optional<String> overloaded = Optional.empty();
+    for (String replica : replicas) {
+      overloaded = checkLimits(Node.builder().withClusterName(clusterName).withHostname(replica).build());
+      if (overloaded.isPresent()) {
+        break;
+      }
+    }
+    if (overloaded.isPresent()) {
+      decrease(runningSegments);
+      LOG.info(
+          "Slowing down repairs on cluster {} as {}. Intensity is now {} with at most {} concurrent segments",
+          clusterName, overloaded.get(), intensity, maxConcurrentSegments);
+    } else {
+      increase(runningSegments);
+      LOG.debug(
+          "Speeding up repairs on cluster {}. Intensity is now {} with at most {} concurrent segments",
+          clusterName, intensity, maxConcurrentSegments);
+    }
+  }
+
+  @VisibleForTesting
+  void decrease(int runningSegments) {
+    intensity = Math.max(MIN_INTENSITY, intensity / 2);
+    maxConcurrentSegments = Math.max(1, Math.min(maxConcurrentSegments, runningSegments) / 2);
+  }
+
+  @VisibleForTesting
+  void increase(int runningSegments) {
+    intensity = Math.min(MAX_INTENSITY, intensity + INTENSITY_STEP);
+    if (Integer.MAX_VALUE != maxConcurrentSegments) {
+      // only grow past what is actually running by one at a time
+      maxConcurrentSegments = Math.min(maxConcurrentSegments, runningSegments) + 1;
+    }
+  }
+
+  /**
+   * @return the reason why the node is overloaded, if it is
+   */
+  private Optional<String> checkLimits(Node node) {
+    try {
+      int maxPendingCompactions
+          = config.getMaxPendingCompactions().orElse(context.config.getMaxPendingCompactions() / 2);
+
+      int pendingCompactions = context.nodeHealthCache.getPendingCompactions(node);
+      if (pendingCompactions > maxPendingCompactions) {
+        return Optional.of(String.format("%s has %d pending compactions", node.getHostname(), pendingCompactions));
+      }
+
+      double droppedPerSecond = 0;
+      for (DroppedMessages dropped : context.nodeHealthCache.getDroppedMessages(node)) {
+        droppedPerSecond += Optional.ofNullable(dropped.getOneMinuteRate()).orElse(0.0);
+      }
+      if (droppedPerSecond > config.getMaxDroppedMessagesPerSecond()) {
+        return Optional.of(String.format("%s drops %.2f messages/s", node.getHostname(), droppedPerSecond));
+      }
+
+      if (config.getMaxClientLatencyP99Millis().isPresent()) {
+        for (MetricsHistogram latency : context.nodeHealthCache.getClientRequestLatencies(node)) {
+          if (CLIENT_REQUESTS.contains(latency.getName()) && LATENCY.equals(latency.getType())) {
+            // latencies are reported in microseconds
+            double p99Millis = Optional.ofNullable(latency.getP99()).orElse(0.0) / 1000;
+            if (p99Millis > config.getMaxClientLatencyP99Millis().get()) {
+              return Optional.of(String.format(
+                  "%s has a %s p99 latency of %.1f ms", node.getHostname(), latency.getName(), p99Millis));
+            }
+          }
+        }
+      }
+    } catch (ReaperException | RuntimeException e) {
+      // unreachable nodes postpone the segments already, they don't tell anything about the load
+      LOG.debug("failed reading the load of {}", node, e);
+    }
+    return Optional.empty();
+  }
+}
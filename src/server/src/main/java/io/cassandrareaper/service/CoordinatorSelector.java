@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.Node;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the replica that coordinates the repair of a segment.
+ *
+ * <p>The coordinator merges the validations of all the replicas, so the replicas are scored on what makes them slow at
+ * it: taking part in repair sessions already, pending compactions, slow JMX connections, and the amount of segments
+ * they coordinated recently. The lowest scored replica is tried first, ties are broken randomly.
+ */
+public final class CoordinatorSelector {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CoordinatorSelector.class);
+
+  private static final double REPAIR_RUNNING_SCORE = 10;
+  private static final double PENDING_COMPACTIONS_PER_POINT = 20;
+  private static final double CONNECTION_MILLIS_PER_POINT = 100;
+  private static final long COORDINATIONS_HALF_LIFE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+  private final AppContext context;
+  // recently coordinated segments by cluster name and host
+  private final ConcurrentMap<Pair<String, String>, DecayingCount> coordinations = Maps.newConcurrentMap();
+
+  private CoordinatorSelector(AppContext context) {
+    this.context = context;
+  }
+
+  public static CoordinatorSelector create(AppContext context) {
+    return new CoordinatorSelector(context);
+  }
+
+  /**
+   * Connects to the best scored of the candidates, falling back on the next ones when it can't be reached.
+   *
+   * @param clusterName the cluster of the candidates
+   * @param candidates the hosts that can coordinate the repair
+   * @return the connection to the coordinator
+   * @throws ReaperException if none of the candidates could be reached
+   */
+  public JmxProxy connect(String clusterName, Collection<String> candidates) throws ReaperException {
+    for (String host : rank(clusterName, candidates)) {
+      try {
+        JmxProxy coordinator = context.jmxConnectionFactory.connect(
+            Node.builder().withClusterName(clusterName).withHostname(host).build(),
+            context.config.getJmxConnectionTimeoutInSeconds());
+
+        long now = System.currentTimeMillis();
+        coordinations.merge(Pair.of(clusterName, host), new DecayingCount(1, now), (count, one) -> count.add(1, now));
+        return coordinator;
+      } catch (ReaperException | RuntimeException e) {
+        LOG.info("Unreachable host {}: {}", host, e.getMessage());
+        LOG.debug("Unreachable host: ", e);
+      } catch (InterruptedException expected) {
+        LOG.trace("Expected exception", expected);
+      }
+    }
+    throw new ReaperException("no host could be reached through JMX");
+  }
+
+  /**
+   * @return the candidates, best scored first
+   */
+  @VisibleForTesting
+  List<String> rank(String clusterName, Collection<String> candidates) {
+    List<String> ranked = Lists.newArrayList(candidates);
+    Collections.shuffle(ranked);
+    Map<String, Double> scores = Maps.newHashMap();
+    ranked.forEach(host -> scores.put(host, score(clusterName, host)));
+    ranked.sort(Comparator.comparingDouble(scores::get));
+    LOG.debug("coordinator scores of cluster {} are {}", clusterName, scores);
+    return ranked;
+  }
+
+  private double score(String clusterName, String host) {
+    Node node = Node.builder().withClusterName(clusterName).withHostname(host).build();
+    double score = coordinations
+        .getOrDefault(Pair.of(clusterName, host), DecayingCount.ZERO)
+        .valueAt(System.currentTimeMillis());
+
+    try {
+      score += context.jmxConnectionFactory.getHostConnectionCounters().getConnectionLatencyMillis(host)
+          / CONNECTION_MILLIS_PER_POINT;
+
+      score += context.nodeHealthCache.getPendingCompactions(node) / PENDING_COMPACTIONS_PER_POINT;
+      if (context.nodeHealthCache.isRepairRunning(node)) {
+        score += REPAIR_RUNNING_SCORE;
+      }
+    } catch (ReaperException | RuntimeException e) {
+      LOG.debug("failed scoring {}, it will be tried last", node, e);
+      return Double.MAX_VALUE;
+    }
+    return score;
+  }
+
+  private static final class DecayingCount {
+
+    static final DecayingCount ZERO = new DecayingCount(0, 0);
+
+    private final double count;
+    private final long timestamp;
+
+    DecayingCount(double count, long timestamp) {
+      this.count = count;
+      this.timestamp = timestamp;
+    }
+
+    double valueAt(long now) {
+      return count * Math.pow(0.5, (double) (now - timestamp) / COORDINATIONS_HALF_LIFE_MILLIS);
+    }
+
+    DecayingCount add(double value, long now) {
+      return new DecayingCount(valueAt(now) + value, now);
+    }
+  }
+}
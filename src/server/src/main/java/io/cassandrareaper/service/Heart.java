@@ -22,7 +22,6 @@ import io.cassandrareaper.ReaperApplicationConfiguration;
 import io.cassandrareaper.ReaperException;
 import io.cassandrareaper.core.Node;
 import io.cassandrareaper.core.NodeMetrics;
-import io.cassandrareaper.jmx.JmxProxy;
 import io.cassandrareaper.storage.IDistributedStorage;
 
 import java.util.concurrent.ExecutionException;
@@ -31,8 +30,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
-import javax.management.JMException;
-
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -102,8 +99,6 @@ final class Heart implements AutoCloseable {
     registerGauges();
 
     if (!updatingNodeMetrics.getAndSet(true)) {
-      int jmxTimeoutSeconds = context.config.getJmxConnectionTimeoutInSeconds();
-
       forkJoinPool.submit(() -> {
         try (Timer.Context t0 = timer(context, "updatingNodeMetrics")) {
 
@@ -124,10 +119,8 @@ final class Heart implements AutoCloseable {
                             req.getNode().replace('.', '-'))) {
 
                           try {
-                            JmxProxy nodeProxy
-                                = context.jmxConnectionFactory.connect(
-                                   Node.builder().withClusterName(req.getCluster()).withHostname(req.getNode()).build(),
-                                   jmxTimeoutSeconds);
+                            Node node
+                                = Node.builder().withClusterName(req.getCluster()).withHostname(req.getNode()).build();
 
                             storage.storeNodeMetrics(
                                 runId,
@@ -135,18 +128,14 @@ final class Heart implements AutoCloseable {
                                     .withNode(req.getNode())
                                     .withCluster(req.getCluster())
                                     .withDatacenter(req.getDatacenter())
-                                    .withPendingCompactions(nodeProxy.getPendingCompactions())
-                                    .withHasRepairRunning(nodeProxy.isRepairRunning())
+                                    .withPendingCompactions(context.nodeHealthCache.getPendingCompactions(node))
+                                    .withHasRepairRunning(context.nodeHealthCache.isRepairRunning(node))
                                     .withActiveAnticompactions(0) // for future use
                                     .build());
 
                             LOG.info("Responded to metric request for node {}", req.getNode());
-                          } catch (ReaperException | RuntimeException | InterruptedException ex) {
+                          } catch (ReaperException | RuntimeException ex) {
                             LOG.debug("failed seed connection in cluster " + req.getCluster(), ex);
-                          } catch (JMException e) {
-                            LOG.warn(
-                                "failed querying JMX MBean for metrics on node {} of cluster {} due to {}",
-                                req.getNode(), req.getCluster(), e.getMessage());
                           }
                         }
                       });
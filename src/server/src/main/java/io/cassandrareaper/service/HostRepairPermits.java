@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.storage.IDistributedStorage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repair permits of the nodes of all the clusters, shared by all the repair runs.
+ *
+ * <p>A node only takes part in one repair session at a time, so a segment acquires a permit on each of its replicas
+ * before it is triggered. Concurrent runs on the same cluster then wait for each other instead of finding out through
+ * JMX that a repair is already running and postponing their segments.
+ *
+ * <p>When several reaper instances share a distributed storage, permits are also held as leads in the storage, which
+ * are renewed until the permits are released and expire on their own if the instance dies.
+ */
+final class HostRepairPermits {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HostRepairPermits.class);
+
+  private final AppContext context;
+  // holding segment by cluster name and host
+  private final Map<Pair<String, String>, UUID> holders = Maps.newConcurrentMap();
+
+  HostRepairPermits(AppContext context) {
+    this.context = context;
+  }
+
+  /**
+   * Acquires the permits of all the given hosts, or none of them.
+   *
+   * @param clusterName the cluster of the hosts
+   * @param hosts the replicas of the segment
+   * @param segmentId the segment to hold the permits
+   * @return true if the permits were acquired
+   */
+  boolean tryAcquire(String clusterName, Collection<String> hosts, UUID segmentId) {
+    List<String> acquired = Lists.newArrayList();
+    for (String host : hosts) {
+      if (null != holders.putIfAbsent(Pair.of(clusterName, host), segmentId)) {
+        release(clusterName, acquired, segmentId);
+        return false;
+      }
+      acquired.add(host);
+      if (!takeLead(clusterName, host)) {
+        LOG.debug("Host {} of cluster {} is repaired by another reaper instance", host, clusterName);
+        holders.remove(Pair.of(clusterName, host), segmentId);
+        acquired.remove(host);
+        release(clusterName, acquired, segmentId);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Releases the permits of the given hosts that are held by the segment.
+   */
+  void release(String clusterName, Collection<String> hosts, UUID segmentId) {
+    for (String host : hosts) {
+      if (holders.remove(Pair.of(clusterName, host), segmentId)) {
+        releaseLead(clusterName, host);
+      }
+    }
+  }
+
+  /**
+   * @return the hosts of the cluster whose permits are held by this reaper instance
+   */
+  Set<String> getBusyHosts(String clusterName) {
+    return holders.keySet()
+        .stream()
+        .filter(key -> key.getLeft().equals(clusterName))
+        .map(Pair::getRight)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Renews the leads of the held permits, so that they don't expire while repairs are running.
+   */
+  void renew() {
+    if (context.storage instanceof IDistributedStorage) {
+      for (Pair<String, String> key : holders.keySet()) {
+        if (!((IDistributedStorage) context.storage).renewLead(leaderId(key.getLeft(), key.getRight()))) {
+          LOG.warn("Lost the repair permit of host {} of cluster {}", key.getRight(), key.getLeft());
+        }
+      }
+    }
+  }
+
+  /**
+   * The leader table is keyed by time based UUIDs, so the name based UUID of the host is given the time based version.
+   */
+  @VisibleForTesting
+  static UUID leaderId(String clusterName, String host) {
+    UUID nameUuid = UUID.nameUUIDFromBytes((clusterName + '/' + host).getBytes(StandardCharsets.UTF_8));
+    long mostSigBits = (nameUuid.getMostSignificantBits() & ~0xF000L) | 0x1000L;
+    return new UUID(mostSigBits, nameUuid.getLeastSignificantBits());
+  }
+
+  private boolean takeLead(String clusterName, String host) {
+    return !(context.storage instanceof IDistributedStorage)
+        || ((IDistributedStorage) context.storage).takeLead(leaderId(clusterName, host));
+  }
+
+  private void releaseLead(String clusterName, String host) {
+    if (context.storage instanceof IDistributedStorage) {
+      ((IDistributedStorage) context.storage).releaseLead(leaderId(clusterName, host));
+    }
+  }
+}
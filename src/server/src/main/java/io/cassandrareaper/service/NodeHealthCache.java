@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.DroppedMessages;
+import io.cassandrareaper.core.MetricsHistogram;
+import io.cassandrareaper.core.Node;
+import io.cassandrareaper.core.ThreadPoolStat;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.JMException;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide cache of the health metrics of the nodes, read through JMX.
+ *
+ * <p>Each metric expires after its own TTL. Concurrent reads of a missing or expired value trigger a single JMX read,
+ * the other readers wait for its result. The pending compactions are refreshed in the background for the nodes that
+ * were read recently, so that repair runs mostly read them from memory.
+ *
+ * <p>Whether a repair runs on a node is not cached: it changes as soon as a segment starts or finishes, and a stale
+ * value would let two repairs run on the same node.
+ */
+public final class NodeHealthCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NodeHealthCache.class);
+
+  private static final long PENDING_COMPACTIONS_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long NODE_STATS_TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  // values are refreshed at half their TTL
+  private static final long PREFETCH_INTERVAL_MILLIS = PENDING_COMPACTIONS_TTL_MILLIS / 2;
+  private static final long ACTIVE_NODE_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final int MAX_CACHED_NODES = 10_000;
+
+  private static final ScheduledExecutorService PREFETCH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("NodeHealthCache-prefetch-%d").setDaemon(true).build());
+
+  private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(
+      10,
+      new ThreadFactoryBuilder().setNameFormat("NodeHealthCache-loader-%d").setDaemon(true).build());
+
+  private final AppContext context;
+  private final LoadingCache<Pair<String, String>, Integer> pendingCompactions;
+  private final LoadingCache<Pair<String, String>, List<ThreadPoolStat>> tpStats;
+  private final LoadingCache<Pair<String, String>, List<DroppedMessages>> droppedMessages;
+  private final LoadingCache<Pair<String, String>, List<MetricsHistogram>> clientRequestLatencies;
+  // nodes read for repairs, with the last time they were
+  private final Map<Pair<String, String>, Long> activeNodes = Maps.newConcurrentMap();
+  private final AtomicBoolean prefetching = new AtomicBoolean(false);
+
+  private NodeHealthCache(AppContext context) {
+    this.context = context;
+    MetricsService metricsService = MetricsService.create(context);
+
+    pendingCompactions
+        = build("pendingCompactions", PENDING_COMPACTIONS_TTL_MILLIS, node -> connect(node).getPendingCompactions());
+
+    tpStats = build("tpStats", NODE_STATS_TTL_MILLIS, metricsService::getTpStats);
+    droppedMessages = build("droppedMessages", NODE_STATS_TTL_MILLIS, metricsService::getDroppedMessages);
+    clientRequestLatencies
+        = build("clientRequestLatencies", NODE_STATS_TTL_MILLIS, metricsService::getClientRequestLatencies);
+  }
+
+  public static NodeHealthCache create(AppContext context) {
+    return new NodeHealthCache(context);
+  }
+
+  /**
+   * @return true if the node is involved in a repair, either as coordinator or as replica, read live through JMX
+   */
+  public boolean isRepairRunning(Node node) throws ReaperException {
+    try {
+      return connect(node).isRepairRunning();
+    } catch (JMException | InterruptedException e) {
+      throw new ReaperException(e);
+    }
+  }
+
+  public int getPendingCompactions(Node node) throws ReaperException {
+    markActive(node);
+    return get(pendingCompactions, node);
+  }
+
+  public List<ThreadPoolStat> getTpStats(Node node) throws ReaperException {
+    return get(tpStats, node);
+  }
+
+  public List<DroppedMessages> getDroppedMessages(Node node) throws ReaperException {
+    return get(droppedMessages, node);
+  }
+
+  public List<MetricsHistogram> getClientRequestLatencies(Node node) throws ReaperException {
+    return get(clientRequestLatencies, node);
+  }
+
+  /**
+   * Drops what is known of the node, so that the next reads go to JMX.
+   */
+  public void invalidate(Node node) {
+    Pair<String, String> key = key(node);
+    pendingCompactions.invalidate(key);
+    tpStats.invalidate(key);
+    droppedMessages.invalidate(key);
+    clientRequestLatencies.invalidate(key);
+  }
+
+  private <T> LoadingCache<Pair<String, String>, T> build(String metric, long ttlMillis, NodeLoader<T> loader) {
+    return CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_NODES)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .build(new CacheLoader<Pair<String, String>, T>() {
+          @Override
+          public T load(Pair<String, String> key) throws Exception {
+            context.metricRegistry.meter(MetricRegistry.name(NodeHealthCache.class, "loads", metric)).mark();
+            return loader.load(Node.builder().withClusterName(key.getLeft()).withHostname(key.getRight()).build());
+          }
+        });
+  }
+
+  private JmxProxy connect(Node node) throws ReaperException, InterruptedException {
+    return context.jmxConnectionFactory.connect(node, context.config.getJmxConnectionTimeoutInSeconds());
+  }
+
+  private static <T> T get(LoadingCache<Pair<String, String>, T> cache, Node node) throws ReaperException {
+    try {
+      return cache.get(key(node));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw e.getCause() instanceof ReaperException
+          ? (ReaperException) e.getCause()
+          : new ReaperException((Exception) e.getCause());
+    }
+  }
+
+  private static Pair<String, String> key(Node node) {
+    return Pair.of(node.getCluster().getName(), node.getHostname());
+  }
+
+  private void markActive(Node node) {
+    activeNodes.put(key(node), System.currentTimeMillis());
+    if (prefetching.compareAndSet(false, true)) {
+      PREFETCH_SCHEDULER.schedule(this::prefetch, PREFETCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Refreshes the pending compactions of the nodes read recently, before their values expire.
+   * Stops once no node has been read for a while, the next read starts it again.
+   */
+  private void prefetch() {
+    long activeSince = System.currentTimeMillis() - ACTIVE_NODE_WINDOW_MILLIS;
+    activeNodes.values().removeIf(lastRead -> lastRead < activeSince);
+
+    LOG.debug("prefetching the health of {} nodes", activeNodes.size());
+
+    for (Pair<String, String> key : activeNodes.keySet()) {
+      // refresh keeps serving the current value while reloading, failed reloads are logged by the cache
+      PREFETCH_EXECUTOR.submit(() -> pendingCompactions.refresh(key));
+    }
+    if (activeNodes.isEmpty()) {
+      prefetching.set(false);
+      // a node may have been marked active while stopping
+      if (!activeNodes.isEmpty() && prefetching.compareAndSet(false, true)) {
+        PREFETCH_SCHEDULER.schedule(this::prefetch, PREFETCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    } else {
+      PREFETCH_SCHEDULER.schedule(this::prefetch, PREFETCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @FunctionalInterface
+  private interface NodeLoader<T> {
+
+    T load(Node node) throws Exception;
+  }
+}
@@ -32,18 +32,28 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
+import com.codahale.metrics.InstrumentedExecutorService;
 import com.codahale.metrics.InstrumentedScheduledExecutorService;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,18 +62,41 @@ public final class RepairManager implements AutoCloseable {
 
   private static final Logger LOG = LoggerFactory.getLogger(RepairManager.class);
 
+  // leads expire after ten minutes, segments left running by a dead instance can't be told apart before that
+  private static final long ORPHANED_SEGMENTS_SCAN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  // clusters recovered in parallel, the runs of a cluster being recovered one after the other
+  private static final int RECOVERY_THREADS = 8;
+  // segments aborted in parallel, by all the clusters and by each run
+  private static final int ABORT_THREADS = 32;
+  private static final int ABORT_THREADS_PER_RUN = 8;
+  // how long callers wait for recoveries and aborts, which then carry on in the background
+  private static final long RECOVERY_DEADLINE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
   // Caching all active RepairRunners.
   final Map<UUID, RepairRunner> repairRunners = Maps.newConcurrentMap();
 
+  // repair permits of the nodes, shared by all the runs
+  final HostRepairPermits hostPermits;
+
   private final AppContext context;
   private final Heart heart;
   private final ListeningScheduledExecutorService executor;
   private final long repairTimeoutMillis;
   private final long retryDelayMillis;
+  // last scans for orphaned segments, by run
+  private final Map<UUID, Long> orphanedSegmentsScans = Maps.newConcurrentMap();
+  private final ListeningExecutorService recoveryExecutor;
+  private final ListeningExecutorService abortExecutor;
+  // starts of the segments, their status checks, notifications and intensity delays
+  private final ListeningScheduledExecutorService segmentScheduler;
+  // recoveries in progress, by cluster name
+  private final Map<String, ListenableFuture<?>> recoveries = Maps.newConcurrentMap();
 
   private RepairManager(
       AppContext context,
       ScheduledExecutorService executor,
+      ScheduledExecutorService segmentScheduler,
       long repairTimeout,
       TimeUnit repairTimeoutTimeUnit,
       long retryDelay,
@@ -71,22 +104,57 @@ public final class RepairManager implements AutoCloseable {
 
     this.context = context;
     this.heart = Heart.create(context);
+    this.hostPermits = new HostRepairPermits(context);
     this.repairTimeoutMillis = repairTimeoutTimeUnit.toMillis(repairTimeout);
     this.retryDelayMillis = retryDelayTimeUnit.toMillis(retryDelay);
 
     this.executor = MoreExecutors.listeningDecorator(
         new InstrumentedScheduledExecutorService(executor, context.metricRegistry));
+
+    this.recoveryExecutor = newBoundedExecutor(RECOVERY_THREADS, "recovery");
+    this.abortExecutor = newBoundedExecutor(ABORT_THREADS, "abort");
+    this.segmentScheduler = MoreExecutors.listeningDecorator(
+        new InstrumentedScheduledExecutorService(
+            segmentScheduler,
+            context.metricRegistry,
+            MetricRegistry.name(SegmentRunner.class, "scheduler")));
+  }
+
+  private ListeningExecutorService newBoundedExecutor(int threads, String name) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+        threads,
+        threads,
+        1,
+        TimeUnit.MINUTES,
+        new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("RepairManager-" + name + "-%d").setDaemon(true).build());
+
+    pool.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(
+        new InstrumentedExecutorService(pool, context.metricRegistry, MetricRegistry.name(RepairManager.class, name)));
   }
 
   public static RepairManager create(
       AppContext context,
       ScheduledExecutorService executor,
+      ScheduledExecutorService segmentScheduler,
       long repairTimeout,
       TimeUnit repairTimeoutTimeUnit,
       long retryDelay,
       TimeUnit retryDelayTimeUnit) {
 
-    return new RepairManager(context, executor, repairTimeout, repairTimeoutTimeUnit, retryDelay, retryDelayTimeUnit);
+    return new RepairManager(
+        context,
+        executor,
+        segmentScheduler,
+        repairTimeout,
+        repairTimeoutTimeUnit,
+        retryDelay,
+        retryDelayTimeUnit);
+  }
+
+  ScheduledExecutorService getSegmentScheduler() {
+    return segmentScheduler;
   }
 
   long getRepairTimeoutMillis() {
@@ -95,24 +163,90 @@ public final class RepairManager implements AutoCloseable {
 
   /**
    * Consult storage to see if any repairs are running, and resume those repair runs.
+   *
+   * <p>Clusters are recovered in parallel, so that the runs of a cluster with unreachable nodes don't hold the others
+   * back. A cluster still being recovered since a previous call is skipped.
    */
   public void resumeRunningRepairRuns() throws ReaperException {
     try {
       heart.beat();
+      hostPermits.renew();
       Collection<RepairRun> runningRepairRuns = context.storage.getRepairRunsWithState(RepairRun.RunState.RUNNING);
       Collection<RepairRun> pausedRepairRuns = context.storage.getRepairRunsWithState(RepairRun.RunState.PAUSED);
+      orphanedSegmentsScans.keySet().retainAll(
+          runningRepairRuns.stream().map(RepairRun::getId).collect(Collectors.toSet()));
+
+      Map<String, List<RepairRun>> runningByCluster
+          = runningRepairRuns.stream().collect(Collectors.groupingBy(RepairRun::getClusterName));
+      Map<String, List<RepairRun>> pausedByCluster
+          = pausedRepairRuns.stream().collect(Collectors.groupingBy(RepairRun::getClusterName));
+
+      List<ListenableFuture<?>> clusterRecoveries = Lists.newArrayList();
+      for (String clusterName : Sets.union(runningByCluster.keySet(), pausedByCluster.keySet())) {
+        if (recoveries.containsKey(clusterName)) {
+          LOG.info("Repair runs of cluster {} are still being recovered", clusterName);
+          continue;
+        }
+        ListenableFuture<?> recovery = recoveryExecutor.submit(() -> resumeRepairRuns(
+            clusterName,
+            runningByCluster.getOrDefault(clusterName, Collections.emptyList()),
+            pausedByCluster.getOrDefault(clusterName, Collections.emptyList())));
+
+        recoveries.put(clusterName, recovery);
+        recovery.addListener(() -> recoveries.remove(clusterName, recovery), MoreExecutors.directExecutor());
+        clusterRecoveries.add(recovery);
+      }
+      awaitDeadline(clusterRecoveries, "recovery of the repair runs");
+    } catch (RuntimeException e) {
+      throw new ReaperException(e);
+    }
+  }
+
+  private void resumeRepairRuns(
+      String clusterName,
+      Collection<RepairRun> runningRepairRuns,
+      Collection<RepairRun> pausedRepairRuns) {
+
+    try {
       abortAllRunningSegmentsWithNoLeader(runningRepairRuns);
       abortAllRunningSegmentsInKnownPausedRepairRuns(pausedRepairRuns);
       resumeUnkownRunningRepairRuns(runningRepairRuns);
       resumeUnknownPausedRepairRuns(pausedRepairRuns);
-    } catch (RuntimeException e) {
-      throw new ReaperException(e);
+    } catch (ReaperException | RuntimeException e) {
+      LOG.error("Couldn't resume the repair runs of cluster {}", clusterName, e);
+    }
+  }
+
+  /**
+   * Waits for the tasks until the deadline, leaving the unfinished ones running in the background.
+   */
+  private static void awaitDeadline(List<ListenableFuture<?>> tasks, String description) {
+    try {
+      Futures.successfulAsList(tasks).get(RECOVERY_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      LOG.warn(
+          "The {} didn't complete within {} ms, it carries on in the background",
+          description,
+          RECOVERY_DEADLINE_MILLIS);
+    } catch (ExecutionException e) {
+      LOG.warn("The {} failed", description, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * The segments run by this instance are watched by the segment watchdog, this only looks for the ones orphaned by
+   * other instances. Runs are scanned when first seen running, then every few minutes.
+   */
   private void abortAllRunningSegmentsWithNoLeader(Collection<RepairRun> runningRepairRuns) throws ReaperException {
+    long now = System.currentTimeMillis();
     runningRepairRuns
+        .stream()
+        .filter(repairRun -> orphanedSegmentsScans.getOrDefault(repairRun.getId(), 0L)
+            + ORPHANED_SEGMENTS_SCAN_INTERVAL_MILLIS <= now)
         .forEach((repairRun) -> {
+          orphanedSegmentsScans.put(repairRun.getId(), now);
           Collection<RepairSegment> runningSegments
               = context.storage.getSegmentsWithState(repairRun.getId(), RepairSegment.State.RUNNING);
 
@@ -122,6 +256,7 @@ public final class RepairManager implements AutoCloseable {
 
   private void resumeUnkownRunningRepairRuns(Collection<RepairRun> runningRepairRuns) throws ReaperException {
     for (RepairRun repairRun : runningRepairRuns) {
+      // known runners notice the changes made by other reaper instances through their retry timer
       if (!repairRunners.containsKey(repairRun.getId())) {
         LOG.info("Restarting run id {} that has no runner", repairRun.getId());
         // it may be that this repair is already "running" actively on other reaper instances
@@ -198,6 +333,9 @@ public final class RepairManager implements AutoCloseable {
     abortSegments(runningSegments, repairRun, false, false);
   }
 
+  /**
+   * Aborts the segments of a run, spreading them over a few threads as each abort may wait on an unreachable node.
+   */
   public void abortSegments(
       Collection<RepairSegment> runningSegments,
       RepairRun repairRun,
@@ -205,10 +343,25 @@ public final class RepairManager implements AutoCloseable {
       boolean postponeWithoutAborting) {
 
     RepairUnit repairUnit = context.storage.getRepairUnit(repairRun.getRepairUnitId());
+    List<RepairSegment> segments = Lists.newArrayList(runningSegments);
 
-    for (RepairSegment segment : runningSegments) {
-      LOG.debug("Trying to abort stuck segment {} in repair run {}", segment.getId(), repairRun.getId());
-      UUID leaderElectionId = repairUnit.getIncrementalRepair() ? repairRun.getId() : segment.getId();
+    if (segments.size() <= 1) {
+      segments.forEach(segment -> abortRunningSegment(segment, repairRun, repairUnit, forced));
+    } else {
+      int segmentsPerThread = (segments.size() + ABORT_THREADS_PER_RUN - 1) / ABORT_THREADS_PER_RUN;
+      List<ListenableFuture<?>> aborts = Lists.newArrayList();
+      for (List<RepairSegment> threadSegments : Lists.partition(segments, segmentsPerThread)) {
+        aborts.add(abortExecutor.submit(
+            () -> threadSegments.forEach(segment -> abortRunningSegment(segment, repairRun, repairUnit, forced))));
+      }
+      awaitDeadline(aborts, "abort of the segments of run " + repairRun.getId());
+    }
+  }
+
+  private void abortRunningSegment(RepairSegment segment, RepairRun repairRun, RepairUnit repairUnit, boolean forced) {
+    LOG.debug("Trying to abort stuck segment {} in repair run {}", segment.getId(), repairRun.getId());
+    UUID leaderElectionId = repairUnit.getIncrementalRepair() ? repairRun.getId() : segment.getId();
+    try {
       if (forced || takeLead(context, leaderElectionId) || renewLead(context, leaderElectionId)) {
         // refresh segment once we're inside leader-election
         segment = context.storage.getRepairSegment(repairRun.getId(), segment.getId()).get();
@@ -236,6 +389,8 @@ public final class RepairManager implements AutoCloseable {
           }
         }
       }
+    } catch (RuntimeException e) {
+      LOG.warn("Failed aborting segment {} in repair run {}", segment.getId(), repairRun.getId(), e);
     }
   }
 
@@ -265,6 +420,7 @@ public final class RepairManager implements AutoCloseable {
         if (!context.storage.updateRepairRun(updatedRun)) {
           throw new ReaperException("failed updating repair run " + updatedRun.getId());
         }
+        wakeUpRunner(runId);
         return updatedRun;
       }
       case RUNNING:
@@ -292,6 +448,7 @@ public final class RepairManager implements AutoCloseable {
     if (!context.storage.updateRepairRun(updatedRun)) {
       throw new ReaperException("failed updating repair run " + updatedRun.getId());
     }
+    wakeUpRunner(updatedRun.getId());
     return updatedRun;
   }
 
@@ -301,7 +458,7 @@ public final class RepairManager implements AutoCloseable {
       try {
         RepairRunner newRunner = new RepairRunner(context, runId);
         repairRunners.put(runId, newRunner);
-        executor.submit(newRunner);
+        newRunner.wakeUp();
       } catch (ReaperException e) {
         LOG.warn("Failed to schedule repair for repair run #" + runId, e);
       }
@@ -321,6 +478,8 @@ public final class RepairManager implements AutoCloseable {
     if (!context.storage.updateRepairRun(updatedRun)) {
       throw new ReaperException("failed updating repair run " + updatedRun.getId());
     }
+    // let the runner stop starting segments and arm its retry timer
+    wakeUpRunner(updatedRun.getId());
     return updatedRun;
   }
 
@@ -334,15 +493,30 @@ public final class RepairManager implements AutoCloseable {
     if (!context.storage.updateRepairRun(updatedRun)) {
       throw new ReaperException("failed updating repair run " + updatedRun.getId());
     }
+    // let the runner notice the terminated run and clean itself up
+    wakeUpRunner(updatedRun.getId());
     return updatedRun;
   }
 
+  private void wakeUpRunner(UUID runId) {
+    RepairRunner runner = repairRunners.get(runId);
+    if (null != runner) {
+      runner.wakeUp();
+    }
+  }
+
+  void submitRunner(RepairRunner runner) {
+    executor.submit(runner);
+  }
+
   void scheduleRetry(RepairRunner runner) {
-    executor.schedule(runner, retryDelayMillis, TimeUnit.MILLISECONDS);
+    executor.schedule(runner::onRetryTimer, retryDelayMillis, TimeUnit.MILLISECONDS);
   }
 
   ListenableFuture<?> submitSegment(SegmentRunner runner) {
-    return executor.submit(runner);
+    // the segment only takes the scheduler to check its replicas and trigger the repair, never waiting on them, and the
+    // returned future completes with the segment
+    return Futures.dereference(segmentScheduler.submit(runner::start));
   }
 
   void removeRunner(RepairRunner runner) {
@@ -392,5 +566,8 @@ public final class RepairManager implements AutoCloseable {
   public void close() {
     heart.close();
     executor.shutdownNow();
+    recoveryExecutor.shutdownNow();
+    abortExecutor.shutdownNow();
+    segmentScheduler.shutdownNow();
   }
 }
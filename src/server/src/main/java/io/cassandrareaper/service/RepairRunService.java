@@ -25,14 +25,17 @@ import io.cassandrareaper.core.RepairRun;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Segment;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.jmx.JmxProxy;
 
 import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -97,6 +100,10 @@ public final class RepairRunService {
     checkNotNull(tokenSegments, "failed generating repair segments");
 
     Map<String, RingRange> nodes = getClusterNodes(cluster, repairUnit);
+    Optional<Map<String, Long>> writeCounts = !repairUnit.getIncrementalRepair()
+        && context.config.getSkipTablesWithoutWrites()
+            ? getTableWriteCounts(cluster, repairUnit, nodes.keySet())
+            : Optional.empty();
     // the next step is to prepare a repair run objec
     segments = repairUnit.getIncrementalRepair() ? nodes.keySet().size() : tokenSegments.size();
 
@@ -122,9 +129,65 @@ public final class RepairRunService {
       LOG.error(errMsg);
       throw new ReaperException(errMsg);
     }
+    if (writeCounts.isPresent()) {
+      context.storage.saveTableWriteCounts(
+          repairRun.getId(),
+          new TableWriteCounts(writeCounts.get(), getTablesWithoutWrites(repairUnit, writeCounts.get())));
+    }
     return repairRun;
   }
 
+  /**
+   * Sums the writes of the tables of the repair unit over all the nodes. Write counts are reset when a node restarts,
+   * which only makes them differ from the previous ones.
+   *
+   * @return the write counts by table, absent if a node couldn't be reached
+   */
+  private Optional<Map<String, Long>> getTableWriteCounts(Cluster cluster, RepairUnit repairUnit, Set<String> nodes) {
+    Map<String, Long> writeCounts = Maps.newHashMap();
+    for (String node : nodes) {
+      try {
+        JmxProxy jmxProxy = context.jmxConnectionFactory.connect(
+            Node.builder().withCluster(cluster).withHostname(node).build(),
+            context.config.getJmxConnectionTimeoutInSeconds());
+
+        jmxProxy.getWriteCounts(repairUnit.getKeyspaceName()).forEach((table, count) -> {
+          if ((repairUnit.getColumnFamilies().isEmpty() || repairUnit.getColumnFamilies().contains(table))
+              && !repairUnit.getBlacklistedTables().contains(table)) {
+            writeCounts.merge(table, count, Long::sum);
+          }
+        });
+      } catch (ReaperException | RuntimeException | InterruptedException e) {
+        LOG.warn("couldn't read the write counts of {} on {}, all its tables will be repaired", repairUnit, node, e);
+        return Optional.empty();
+      }
+    }
+    return Optional.of(writeCounts);
+  }
+
+  /**
+   * @return the tables whose write counts didn't change since the last successful run of the repair unit was registered
+   */
+  private Set<String> getTablesWithoutWrites(RepairUnit repairUnit, Map<String, Long> writeCounts) {
+    Optional<RepairRun> lastRun = context.storage.getRepairRunsForUnit(repairUnit.getId())
+        .stream()
+        .filter(run -> RepairRun.RunState.DONE == run.getRunState() && null != run.getEndTime())
+        .max(Comparator.comparing(RepairRun::getEndTime));
+
+    Optional<TableWriteCounts> lastWriteCounts
+        = lastRun.flatMap(run -> context.storage.getTableWriteCounts(run.getId()));
+    if (!lastWriteCounts.isPresent()) {
+      return Collections.emptySet();
+    }
+    Set<String> tablesWithoutWrites = writeCounts.keySet()
+        .stream()
+        .filter(table -> writeCounts.get(table).equals(lastWriteCounts.get().getWriteCounts().get(table)))
+        .collect(Collectors.toSet());
+
+    LOG.info("tables {} of {} had no writes since run {}", tablesWithoutWrites, repairUnit, lastRun.get().getId());
+    return tablesWithoutWrites;
+  }
+
   /**
    * Splits a token range for given table into segments
    *
@@ -174,16 +237,31 @@ public final class RepairRunService {
         globalSegmentCount = computeGlobalSegmentCount(segmentCountPerNode, endpointToRange);
       }
 
+      Optional<TokenRangeSizes> sizes = context.config.getBalanceSegmentsByDataSize()
+          ? TokenRangeSizes.create(
+              rangeToEndpoint,
+              getLiveDiskSpaceUsed(targetCluster, repairUnit, endpointToRange.keySet()),
+              sg.getRangeSize())
+          : Optional.empty();
+
+      long startTime = System.currentTimeMillis();
       segments = filterSegmentsByNodes(
               sg.generateSegments(
                   globalSegmentCount,
                   tokens,
                   repairUnit.getIncrementalRepair(),
                   replicasToRange,
-                  cassandraVersion),
+                  cassandraVersion,
+                  sizes),
               repairUnit,
               endpointToRange);
 
+      LOG.info(
+          "generated {} segments for {} out of {} token ranges in {} ms",
+          segments.size(),
+          repairUnit,
+          tokens.size(),
+          System.currentTimeMillis() - startTime);
     } catch (ReaperException e) {
       LOG.warn("couldn't connect to any host: {}, life sucks...", seedHosts, e);
     }
@@ -196,6 +274,28 @@ public final class RepairRunService {
     return segments;
   }
 
+  /**
+   * @return the disk space used by the tables of the repair unit, by node, missing the nodes that couldn't be reached
+   */
+  private Map<String, Long> getLiveDiskSpaceUsed(Cluster cluster, RepairUnit repairUnit, Set<String> nodes) {
+    Map<String, Long> bytesByNode = Maps.newHashMap();
+    for (String node : nodes) {
+      try {
+        JmxProxy jmxProxy = context.jmxConnectionFactory.connect(
+            Node.builder().withClusterName(cluster.getName()).withHostname(node).build(),
+            context.config.getJmxConnectionTimeoutInSeconds());
+
+        bytesByNode.put(
+            node,
+            jmxProxy.getLiveDiskSpaceUsed(repairUnit.getKeyspaceName(), repairUnit.getColumnFamilies()));
+      } catch (ReaperException | RuntimeException | InterruptedException e) {
+        LOG.warn("couldn't read the data size of {} on {}, assuming an average size", repairUnit, node, e);
+      }
+    }
+    LOG.debug("data sizes of {} are {}", repairUnit, bytesByNode);
+    return bytesByNode;
+  }
+
   static int computeGlobalSegmentCount(
       int segmentCountPerNode,
       Map<String, List<RingRange>> endpointToRange) {
@@ -214,21 +314,24 @@ public final class RepairRunService {
     if (repairUnit.getNodes().isEmpty()) {
       return segments;
     } else {
+      // the token ranges of the ring don't overlap, the one enclosing a segment is the last one starting before it
+      NavigableMap<BigInteger, RingRange> rangesByStart = Maps.newTreeMap();
+      for (Entry<String, List<RingRange>> entry : endpointToRange.entrySet()) {
+        if (repairUnit.getNodes().contains(entry.getKey())) {
+          entry.getValue().forEach(range -> rangesByStart.put(range.getStart(), range));
+        }
+      }
       return segments
-          .stream()
+          .parallelStream()
           .filter(
               segment -> {
                 RingRange firstRange = segment.getBaseRange();
-                for (Entry<String, List<RingRange>> entry : endpointToRange.entrySet()) {
-                  if (repairUnit.getNodes().contains(entry.getKey())) {
-                    for (RingRange range : entry.getValue()) {
-                      if (range.encloses(firstRange)) {
-                        return true;
-                      }
-                    }
-                  }
+                Entry<BigInteger, RingRange> candidate = rangesByStart.floorEntry(firstRange.getStart());
+                if (null == candidate) {
+                  // before the first range start, only the range wrapping around the ring can enclose it
+                  candidate = rangesByStart.lastEntry();
                 }
-                return false;
+                return null != candidate && candidate.getValue().encloses(firstRange);
               })
           .collect(Collectors.toList());
     }
@@ -26,6 +26,9 @@ import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Segment;
 import io.cassandrareaper.jmx.EndpointSnitchInfoProxy;
 import io.cassandrareaper.jmx.JmxProxy;
+import io.cassandrareaper.storage.IAsyncDistributedStorage;
+import io.cassandrareaper.storage.IAsyncStorage;
+import io.cassandrareaper.storage.IDistributedStorage;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -35,14 +38,17 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -60,8 +66,14 @@ final class RepairRunner implements Runnable {
   private final UUID repairRunId;
   private final String clusterName;
   private JmxProxy jmxConnection;
-  private final AtomicReferenceArray<UUID> currentlyRunningSegments;
-  private final List<RingRange> parallelRanges;
+  private final String keyspace;
+  private final boolean incrementalRepair;
+  // running segments of this runner, with their replicas
+  private final Map<UUID, List<String>> runningSegments = Maps.newConcurrentMap();
+  private final Optional<AdaptiveIntensityController> adaptiveIntensity;
+  private final SegmentDurationModel segmentDurations;
+  private final AtomicInteger pendingWakeUps = new AtomicInteger(0);
+  private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
   private final String metricNameForMillisSinceLastRepairPerKeyspace;
   private final String metricNameForMillisSinceLastRepair;
   private float repairProgress;
@@ -78,31 +90,12 @@ final class RepairRunner implements Runnable {
     assert cluster.isPresent() : "No Cluster with name " + repairRun.get().getClusterName() + " found from storage";
     RepairUnit repairUnitOpt = context.storage.getRepairUnit(repairRun.get().getRepairUnitId());
     this.clusterName = cluster.get().getName();
-
-    JmxProxy jmx = this.context.jmxConnectionFactory
-        .connectAny(cluster.get(), context.config.getJmxConnectionTimeoutInSeconds());
-
-    String keyspace = repairUnitOpt.getKeyspaceName();
-    int parallelRepairs
-        = getPossibleParallelRepairsCount(jmx.getRangeToEndpointMap(keyspace), jmx.getEndpointToHostId());
-
-    if (repairUnitOpt.getIncrementalRepair()) {
-      // with incremental repair, can't have more parallel repairs than nodes
-      // Same goes for local mode
-      parallelRepairs = 1;
-    }
-    currentlyRunningSegments = new AtomicReferenceArray(parallelRepairs);
-    for (int i = 0; i < parallelRepairs; i++) {
-      currentlyRunningSegments.set(i, null);
-    }
-
-    Collection<RepairSegment> repairSegments = context.storage.getRepairSegmentsForRun(repairRunId);
-
-    parallelRanges = getParallelRanges(
-            parallelRepairs,
-            Lists.newArrayList(
-                Collections2.transform(
-                    repairSegments, segment -> segment.getTokenRange().getBaseRange())));
+    this.keyspace = repairUnitOpt.getKeyspaceName();
+    this.incrementalRepair = repairUnitOpt.getIncrementalRepair();
+    this.adaptiveIntensity = context.config.isAdaptiveIntensityEnabled()
+        ? Optional.of(new AdaptiveIntensityController(context, clusterName, repairRun.get().getIntensity()))
+        : Optional.empty();
+    this.segmentDurations = SegmentDurationModel.create(context, repairRun.get());
 
     String repairUnitClusterName = repairUnitOpt.getClusterName();
     String repairUnitKeyspaceName = repairUnitOpt.getKeyspaceName();
@@ -136,58 +129,46 @@ final class RepairRunner implements Runnable {
 
     context.metricRegistry.register(metricNameForTotalSegmentsPerKeyspace, (Gauge<Integer>) ()  -> (int)segmentsTotal);
     context.metricRegistry.register(metricNameForTotalSegments, (Gauge<Float>) ()  -> segmentsTotal);
+
+    if (adaptiveIntensity.isPresent()) {
+      AdaptiveIntensityController controller = adaptiveIntensity.get();
+      context.metricRegistry.register(
+          metricName("adaptiveIntensity", repairUnitClusterName, repairUnitKeyspaceName, repairRunId),
+          (Gauge<Double>) controller::getIntensity);
+      context.metricRegistry.register(
+          metricName("adaptiveMaxConcurrentSegments", repairUnitClusterName, repairUnitKeyspaceName, repairRunId),
+          (Gauge<Integer>) controller::getMaxConcurrentSegments);
+    }
   }
 
   UUID getRepairRunId() {
     return repairRunId;
   }
 
-  static int getPossibleParallelRepairsCount(
-      Map<List<String>, List<String>> ranges,
-      Map<String, String> hostsInRing) throws ReaperException {
-
-    if (ranges.isEmpty()) {
-      String msg = "Repairing 0-sized cluster.";
-      LOG.error(msg);
-      throw new ReaperException(msg);
+  /**
+   * Requests that this runner looks for work as soon as possible.
+   *
+   * <p>Wake-ups that arrive while a pass is queued or executing are coalesced into a single follow-up pass, so a burst
+   * of segment completions costs one storage scan and the runner never executes concurrently with itself.
+   */
+  void wakeUp() {
+    if (0 == pendingWakeUps.getAndIncrement()) {
+      context.repairManager.submitRunner(this);
     }
-
-    LOG.debug(
-        "Possible parallel repairs : {}",
-        Math.min(
-            ranges.size() / ranges.values().iterator().next().size(),
-            Math.max(1, hostsInRing.keySet().size() / ranges.values().iterator().next().size())));
-    return Math.min(
-        ranges.size() / ranges.values().iterator().next().size(),
-        Math.max(1, hostsInRing.keySet().size() / ranges.values().iterator().next().size()));
   }
 
-  static List<RingRange> getParallelRanges(int parallelRepairs, List<RingRange> segments)
-      throws ReaperException {
-
-    if (parallelRepairs == 0) {
-      String msg = "Can't repair anything with 0 threads";
-      LOG.error(msg);
-      throw new ReaperException(msg);
-    }
-
-    Collections.sort(segments, RingRange.START_COMPARATOR);
-
-    List<RingRange> parallelRanges = Lists.newArrayList();
-    for (int i = 0; i < parallelRepairs - 1; i++) {
-      parallelRanges.add(
-          new RingRange(
-              segments.get(i * segments.size() / parallelRepairs).getStart(),
-              segments.get((i + 1) * segments.size() / parallelRepairs).getStart()));
+  /**
+   * Arms the fallback timer, unless one is armed already. Used when no local event will wake the runner up.
+   */
+  private void scheduleRetry() {
+    if (retryScheduled.compareAndSet(false, true)) {
+      context.repairManager.scheduleRetry(this);
     }
-    parallelRanges.add(
-        new RingRange(
-            segments.get((parallelRepairs - 1) * segments.size() / parallelRepairs).getStart(),
-            segments.get(0).getStart()));
-
-    LOG.debug("Parallel ranges : {}", parallelRanges);
+  }
 
-    return parallelRanges;
+  void onRetryTimer() {
+    retryScheduled.set(false);
+    wakeUp();
   }
 
   /**
@@ -195,6 +176,18 @@ final class RepairRunner implements Runnable {
    */
   @Override
   public void run() {
+    int wakeUps = pendingWakeUps.get();
+    try {
+      runOnce();
+    } finally {
+      if (0 < pendingWakeUps.addAndGet(-wakeUps)) {
+        // woken up again while running, go for another pass
+        context.repairManager.submitRunner(this);
+      }
+    }
+  }
+
+  private void runOnce() {
     Thread.currentThread().setName(clusterName + ":" + repairRunId);
 
     try {
@@ -219,14 +212,15 @@ final class RepairRunner implements Runnable {
           updateClusterNodeList();
           break;
         case PAUSED:
-          context.repairManager.scheduleRetry(this);
+          // resuming the run wakes the runner up, the timer only catches runs resumed by other reaper instances
+          scheduleRetry();
           break;
         default:
           throw new IllegalStateException("un-known/implemented state " + state);
       }
     } catch (RuntimeException | ReaperException | InterruptedException e) {
       LOG.error("RepairRun FAILURE, scheduling retry", e);
-      context.repairManager.scheduleRetry(this);
+      scheduleRetry();
     }
     // Adding this here to catch a deadlock
     LOG.debug("run() exiting for repair run #{}", repairRunId);
@@ -238,7 +232,7 @@ final class RepairRunner implements Runnable {
   private void start() throws ReaperException, InterruptedException {
     LOG.info("Repairs for repair run #{} starting", repairRunId);
     synchronized (this) {
-      RepairRun repairRun = context.storage.getRepairRun(repairRunId).get();
+      RepairRun repairRun = context.storage.getRepairRunUncached(repairRunId).get();
       context.storage.updateRepairRun(
           repairRun.with().runState(RepairRun.RunState.RUNNING).startTime(DateTime.now()).build(repairRun.getId()));
     }
@@ -274,7 +268,7 @@ final class RepairRunner implements Runnable {
   private void endRepairRun() {
     LOG.info("Repairs for repair run #{} done", repairRunId);
     synchronized (this) {
-      RepairRun repairRun = context.storage.getRepairRun(repairRunId).get();
+      RepairRun repairRun = context.storage.getRepairRunUncached(repairRunId).get();
       DateTime repairRunCompleted = DateTime.now();
       context.storage.updateRepairRun(
           repairRun
@@ -307,11 +301,11 @@ final class RepairRunner implements Runnable {
   }
 
   /**
-   * Get the next segment and repair it. If there is none, we're done.
+   * Start repairing as many segments as the replicas that are not busy yet allow. If there is none left, we're done.
    */
   private void startNextSegment() throws ReaperException, InterruptedException {
     boolean scheduleRetry = true;
-    boolean anythingRunningStill = false;
+    boolean anythingRunningStill = !runningSegments.isEmpty();
 
     confirmJmxConnectionIsOpen();
 
@@ -319,92 +313,197 @@ final class RepairRunner implements Runnable {
     // so that a rescheduling of this runner will happen.
     boolean repairStarted = false;
 
-    for (int rangeIndex = 0; rangeIndex < currentlyRunningSegments.length(); rangeIndex++) {
-
-      if (currentlyRunningSegments.get(rangeIndex) != null) {
-        anythingRunningStill = true;
-
-        // Just checking that no currently running segment runner is stuck.
-        RepairSegment supposedlyRunningSegment
-            = context.storage.getRepairSegment(repairRunId, currentlyRunningSegments.get(rangeIndex)).get();
-        DateTime startTime = supposedlyRunningSegment.getStartTime();
-        if (startTime != null && startTime.isBefore(DateTime.now().minusDays(1))) {
-          LOG.warn(
-              "Looks like segment #{} has been running more than a day. Start time: {}",
-              supposedlyRunningSegment.getId(),
-              supposedlyRunningSegment.getStartTime());
-        } else if (startTime != null && startTime.isBefore(DateTime.now().minusHours(1))) {
-          LOG.info(
-              "Looks like segment #{} has been running more than an hour. Start time: {}",
-              supposedlyRunningSegment.getId(),
-              supposedlyRunningSegment.getStartTime());
-        } else if (startTime != null && startTime.isBefore(DateTime.now().minusMinutes(2))) {
-          LOG.debug(
-              "Looks like segment #{} has been running more than two minutes. Start time: {}",
-              supposedlyRunningSegment.getId(),
-              supposedlyRunningSegment.getStartTime());
-        }
-        // No need to try starting new repair for already active slot.
-        continue;
-      }
-
-      // We have an empty slot, so let's start new segment runner if possible.
-      LOG.info("Running segment for range {}", parallelRanges.get(rangeIndex));
-      Optional<RepairSegment> nextRepairSegment = context.storage.getNextFreeSegmentInRange(
-              repairRunId, Optional.of(parallelRanges.get(rangeIndex)));
+    // with incremental repair, can't have more than one segment running at once
+    if (!incrementalRepair || !anythingRunningStill) {
+      Set<String> busyReplicas = Sets.newHashSet();
+      runningSegments.values().forEach(busyReplicas::addAll);
 
-      if (!nextRepairSegment.isPresent()) {
-        LOG.debug("No repair segment available for range {}", parallelRanges.get(rangeIndex));
+      int maxNewSegments = Integer.MAX_VALUE;
+      if (adaptiveIntensity.isPresent()) {
+        adaptiveIntensity.get().update(busyReplicas, runningSegments.size());
+        maxNewSegments = Math.max(0, adaptiveIntensity.get().getMaxConcurrentSegments() - runningSegments.size());
+      }
 
-      } else {
-        LOG.info("Next segment to run : {}", nextRepairSegment.get().getId());
-        UUID segmentId = nextRepairSegment.get().getId();
-        boolean wasSet = currentlyRunningSegments.compareAndSet(rangeIndex, null, segmentId);
-        if (!wasSet) {
-          LOG.debug("Didn't set segment id `{}` to slot {} because it was busy", segmentId, rangeIndex);
+      RingTopology topology = context.topologyCache.get(clusterName, keyspace, jmxConnection);
+      ReplicaAwareScheduler scheduler = new ReplicaAwareScheduler(topology, segmentDurations);
+      Collection<RepairSegment> candidates
+          = context.storage.getSegmentsWithState(repairRunId, RepairSegment.State.NOT_STARTED);
+      if (batchSegments(scheduler, candidates)) {
+        candidates = context.storage.getSegmentsWithState(repairRunId, RepairSegment.State.NOT_STARTED);
+      }
+      // replicas repaired by the other runs of the cluster are unavailable as well
+      Set<String> unavailableReplicas = Sets.newHashSet(busyReplicas);
+      unavailableReplicas.addAll(context.repairManager.hostPermits.getBusyHosts(clusterName));
+      List<Pair<RepairSegment, List<String>>> nextSegments
+          = scheduler.pickSegments(candidates, unavailableReplicas);
+
+      for (Pair<RepairSegment, List<String>> nextSegment : nextSegments) {
+        if (0 >= maxNewSegments) {
+          LOG.debug("Not starting more segments on run {} as its nodes are under load", repairRunId);
+          break;
+        }
+        UUID segmentId = nextSegment.getLeft().getId();
+        // another reaper instance may have taken the segment in the meantime
+        Optional<RepairSegment> nextRepairSegment = context.storage.getRepairSegment(repairRunId, segmentId);
+        if (!nextRepairSegment.isPresent() || RepairSegment.State.NOT_STARTED != nextRepairSegment.get().getState()) {
+          LOG.debug("Segment {} is no longer free", segmentId);
+        } else if (null != runningSegments.putIfAbsent(segmentId, nextSegment.getRight())) {
+          LOG.debug("Didn't start segment `{}` because it is already running", segmentId);
+        } else if (!context.repairManager.hostPermits.tryAcquire(clusterName, nextSegment.getRight(), segmentId)) {
+          LOG.debug("Didn't start segment {} because its replicas are being repaired", segmentId);
+          runningSegments.remove(segmentId);
         } else {
-          LOG.debug("Did set segment id `{}` to slot {}", segmentId, rangeIndex);
+          LOG.info("Next segment to run : {} on replicas {}", segmentId, nextSegment.getRight());
           scheduleRetry = repairSegment(
-                  rangeIndex,
-                  nextRepairSegment.get().getId(),
-                  nextRepairSegment.get().getTokenRange());
+                  segmentId,
+                  nextRepairSegment.get().getTokenRange(),
+                  nextSegment.getRight());
           if (!scheduleRetry) {
             break;
           }
-          segmentsTotal = context.storage.getSegmentAmountForRepairRun(repairRunId);
           repairStarted = true;
+          --maxNewSegments;
+          if (incrementalRepair) {
+            break;
+          }
         }
       }
     }
 
-    if (!repairStarted && !anythingRunningStill) {
-      segmentsDone = context.storage.getSegmentAmountForRepairRunWithState(repairRunId, RepairSegment.State.DONE);
-      segmentsTotal = context.storage.getSegmentAmountForRepairRun(repairRunId);
+    // the segment counts are kept up to date by the storage, they are read once per pass
+    segmentsDone = context.storage.getSegmentAmountForRepairRunWithState(repairRunId, RepairSegment.State.DONE);
+    segmentsTotal = context.storage.getSegmentAmountForRepairRun(repairRunId);
+    repairProgress = 0 < segmentsTotal ? segmentsDone / segmentsTotal : 0;
 
+    if (!repairStarted && !anythingRunningStill) {
       LOG.info("Repair amount done {}", segmentsDone);
-      repairProgress = segmentsDone / segmentsTotal;
 
       if (segmentsDone == segmentsTotal) {
         endRepairRun();
         scheduleRetry = false;
       }
-    } else {
-      segmentsDone = context.storage.getSegmentAmountForRepairRunWithState(repairRunId, RepairSegment.State.DONE);
     }
 
-    if (scheduleRetry) {
-      context.repairManager.scheduleRetry(this);
+    // segments running from this runner wake it up when they finish.
+    // otherwise nothing local will, e.g. when the remaining segments are held by other reaper instances.
+    if (scheduleRetry && runningSegments.isEmpty()) {
+      scheduleRetry();
     }
   }
 
+  /**
+   * Merges the waiting segments that share the same replicas, so that each batch is repaired by a single repair
+   * command instead of costing one repair session per segment.
+   *
+   * @return true if segments were merged
+   */
+  private boolean batchSegments(ReplicaAwareScheduler scheduler, Collection<RepairSegment> candidates) {
+    int segmentBatchSize = context.config.getSegmentBatchSize();
+    // clusters older than 2.2 only repair one token range per repair command
+    if (incrementalRepair
+        || 1 >= segmentBatchSize
+        || !SegmentGenerator.supportsSegmentCoalescing(jmxConnection.getCassandraVersion())) {
+      return false;
+    }
+    boolean batched = false;
+    for (List<RepairSegment> batch : scheduler.batchSegments(candidates, segmentBatchSize)) {
+      batched |= mergeSegments(batch);
+    }
+    return batched;
+  }
+
+  private boolean mergeSegments(List<RepairSegment> batch) {
+    Map<UUID, CompletionStage<Boolean>> leads = Maps.newLinkedHashMap();
+    try {
+      // the leads of the whole batch are taken, and their segments read, without waiting on each other
+      batch.forEach(segment -> leads.put(segment.getId(), takeLeadAsync(segment.getId())));
+      List<CompletableFuture<Optional<RepairSegment>>> reads = leads.entrySet()
+          .stream()
+          .map(lead -> lead.getValue()
+              .thenCompose(taken -> taken
+                  ? getRepairSegmentAsync(lead.getKey())
+                  : CompletableFuture.completedFuture(Optional.<RepairSegment>empty()))
+              .toCompletableFuture())
+          .collect(Collectors.toList());
+
+      // another reaper instance may have started the segment before the lead was taken
+      List<RepairSegment> segments = reads
+          .stream()
+          .map(CompletableFuture::join)
+          .filter(Optional::isPresent)
+          .map(Optional::get)
+          .filter(current -> RepairSegment.State.NOT_STARTED == current.getState() && 0 == current.getFailCount())
+          .collect(Collectors.toList());
+
+      if (2 > segments.size()) {
+        return false;
+      }
+      Segment tokenRanges = Segment.builder()
+          .withTokenRanges(
+              segments
+                  .stream()
+                  .flatMap(segment -> segment.getTokenRange().getTokenRanges().stream())
+                  .collect(Collectors.toList()))
+          .build();
+
+      if (!context.storage.replaceRepairSegments(
+          segments,
+          Collections.singletonList(RepairSegment.builder(tokenRanges, segments.get(0).getRepairUnitId())))) {
+        return false;
+      }
+      LOG.info("Batched {} segments of run {} into one covering {}", segments.size(), repairRunId, tokenRanges);
+      synchronized (this) {
+        RepairRun repairRun = context.storage.getRepairRunUncached(repairRunId).get();
+        context.storage.updateRepairRun(
+            repairRun.with().segmentCount(repairRun.getSegmentCount() - segments.size() + 1).build(repairRunId));
+      }
+      return true;
+    } catch (ReaperException e) {
+      LOG.warn("Failed batching segments of run {}", repairRunId, e);
+      return false;
+    } finally {
+      leads.forEach((segmentId, lead) -> lead.thenAccept(taken -> {
+        if (taken) {
+          releaseLeadAsync(segmentId);
+        }
+      }));
+    }
+  }
+
+  private CompletionStage<Boolean> takeLeadAsync(UUID segmentId) {
+    if (context.storage instanceof IAsyncDistributedStorage) {
+      return ((IAsyncDistributedStorage) context.storage).takeLeadAsync(segmentId);
+    }
+    return CompletableFuture.completedFuture(
+        !(context.storage instanceof IDistributedStorage)
+            || ((IDistributedStorage) context.storage).takeLead(segmentId));
+  }
+
+  private CompletionStage<Void> releaseLeadAsync(UUID segmentId) {
+    if (context.storage instanceof IAsyncDistributedStorage) {
+      return ((IAsyncDistributedStorage) context.storage).releaseLeadAsync(segmentId);
+    }
+    if (context.storage instanceof IDistributedStorage) {
+      ((IDistributedStorage) context.storage).releaseLead(segmentId);
+    }
+    return CompletableFuture.completedFuture(null);
+  }
+
+  private CompletionStage<Optional<RepairSegment>> getRepairSegmentAsync(UUID segmentId) {
+    return context.storage instanceof IAsyncStorage
+        ? ((IAsyncStorage) context.storage).getRepairSegmentAsync(repairRunId, segmentId)
+        : CompletableFuture.completedFuture(context.storage.getRepairSegment(repairRunId, segmentId));
+  }
+
   /**
    * Start the repair of a segment.
    *
    * @param segmentId id of the segment to repair.
    * @param segment token range of the segment to repair.
+   * @param replicas replicas of the segment.
    * @return Boolean indicating whether rescheduling next run is needed.
    */
-  private boolean repairSegment(final int rangeIndex, final UUID segmentId, Segment segment)
+  private boolean repairSegment(final UUID segmentId, Segment segment, List<String> replicas)
       throws InterruptedException {
 
     final UUID unitId;
@@ -413,22 +512,23 @@ final class RepairRunner implements Runnable {
     {
       RepairRun repairRun = context.storage.getRepairRun(repairRunId).get();
       unitId = repairRun.getRepairUnitId();
-      intensity = repairRun.getIntensity();
+      if (adaptiveIntensity.isPresent()) {
+        adaptiveIntensity.get().resetIfChanged(repairRun.getIntensity());
+        intensity = adaptiveIntensity.get().getIntensity();
+      } else {
+        intensity = repairRun.getIntensity();
+      }
       validationParallelism = repairRun.getRepairParallelism();
-
-      int amountDone = context.storage.getSegmentAmountForRepairRunWithState(repairRunId, RepairSegment.State.DONE);
-      repairProgress = (float) amountDone / repairRun.getSegmentCount();
     }
 
     RepairUnit repairUnit = context.storage.getRepairUnit(unitId);
-    String keyspace = repairUnit.getKeyspaceName();
     LOG.debug("preparing to repair segment {} on run with id {}", segmentId, repairRunId);
 
     try {
       confirmJmxConnectionIsOpen();
     } catch (ReaperException e) {
       LOG.warn("Failed to reestablish JMX connection in runner {}, retrying", repairRunId, e);
-      currentlyRunningSegments.set(rangeIndex, null);
+      releaseSegment(segmentId);
       return true;
     }
 
@@ -438,10 +538,12 @@ final class RepairRunner implements Runnable {
       try {
         potentialCoordinators = filterPotentialCoordinatorsByDatacenters(
                 repairUnit.getDatacenters(),
-                jmxConnection.tokenRangeToEndpoint(keyspace, segment),
+                // replicas are unknown when no range of the current ring encloses the segment
+                replicas.isEmpty() ? getReplicasOfOutdatedSegment(segment) : replicas,
                 jmxConnection);
       } catch (RuntimeException e) {
         LOG.warn("Couldn't get token ranges from coordinator: #{}", e);
+        releaseSegment(segmentId);
         return true;
       }
       if (potentialCoordinators.isEmpty()) {
@@ -451,7 +553,7 @@ final class RepairRunner implements Runnable {
             segment.toString());
         // This segment has a faulty token range. Abort the entire repair run.
         synchronized (this) {
-          RepairRun repairRun = context.storage.getRepairRun(repairRunId).get();
+          RepairRun repairRun = context.storage.getRepairRunUncached(repairRunId).get();
           context.storage.updateRepairRun(
               repairRun
                   .with()
@@ -459,13 +561,19 @@ final class RepairRunner implements Runnable {
                   .lastEvent(String.format("No coordinators for range %s", segment))
                   .endTime(DateTime.now())
                   .build(repairRunId));
+          releaseSegment(segmentId);
           killAndCleanupRunner();
         }
         return false;
       }
     } else {
       // Add random sleep time to avoid one Reaper instance locking all others during multi DC incremental repairs
-      Thread.sleep(ThreadLocalRandom.current().nextInt(0, 10 + 1) * 1000);
+      try {
+        Thread.sleep(ThreadLocalRandom.current().nextInt(0, 10 + 1) * 1000);
+      } catch (InterruptedException e) {
+        releaseSegment(segmentId);
+        throw e;
+      }
       potentialCoordinators
           = Arrays.asList(context.storage.getRepairSegment(repairRunId, segmentId).get().getCoordinatorHost());
     }
@@ -480,7 +588,8 @@ final class RepairRunner implements Runnable {
           validationParallelism,
           clusterName,
           repairUnit,
-          this);
+          this,
+          context.repairManager.getSegmentScheduler());
 
       ListenableFuture<?> segmentResult = context.repairManager.submitSegment(segmentRunner);
       Futures.addCallback(
@@ -488,23 +597,35 @@ final class RepairRunner implements Runnable {
           new FutureCallback<Object>() {
             @Override
             public void onSuccess(Object ignored) {
-              currentlyRunningSegments.set(rangeIndex, null);
-              handleResult(segmentId);
+              releaseSegment(segmentId);
+              try {
+                handleResult(segmentId);
+              } finally {
+                wakeUp();
+              }
             }
 
             @Override
             public void onFailure(Throwable throwable) {
-              currentlyRunningSegments.set(rangeIndex, null);
+              releaseSegment(segmentId);
               LOG.error("Executing SegmentRunner failed", throwable);
+              wakeUp();
             }
           });
     } catch (ReaperException ex) {
       LOG.error("Executing SegmentRunner failed", ex);
+      releaseSegment(segmentId);
     }
 
     return true;
   }
 
+  private List<String> getReplicasOfOutdatedSegment(Segment segment) {
+    // the topology may have changed since it was cached, the next ones will be read again
+    context.topologyCache.invalidate(clusterName);
+    return jmxConnection.tokenRangeToEndpoint(keyspace, segment);
+  }
+
   private static List<String> filterPotentialCoordinatorsByDatacenters(
       Collection<String> datacenters,
       List<String> potentialCoordinators,
@@ -532,6 +653,13 @@ final class RepairRunner implements Runnable {
     return result;
   }
 
+  private void releaseSegment(UUID segmentId) {
+    List<String> replicas = runningSegments.remove(segmentId);
+    if (null != replicas) {
+      context.repairManager.hostPermits.release(clusterName, replicas, segmentId);
+    }
+  }
+
   private void handleResult(UUID segmentId) {
     Optional<RepairSegment> segment = context.storage.getRepairSegment(repairRunId, segmentId);
 
@@ -559,20 +687,38 @@ final class RepairRunner implements Runnable {
           throw new AssertionError(msg);
       }
     } else {
-      LOG.warn("In repair run #{}, triggerRepair on segment {} ended, but run is missing", repairRunId, segmentId);
+      LOG.warn("In repair run #{}, triggerRepair on segment {} ended, but the segment is gone", repairRunId, segmentId);
     }
   }
 
-  void updateLastEvent(String newEvent) {
+  /**
+   * Accounts for a segment of this run that has been replaced by the given amount of smaller segments.
+   */
+  void onSegmentSplit(RepairSegment segment, int splitCount) {
     synchronized (this) {
-      RepairRun repairRun = context.storage.getRepairRun(repairRunId).get();
-      if (repairRun.getRunState().isTerminated()) {
-        LOG.warn(
-            "Will not update lastEvent of run that has already terminated. The message was: " + "\"{}\"",
-            newEvent);
-      } else {
-        context.storage.updateRepairRun(repairRun.with().lastEvent(newEvent).build(repairRunId));
-      }
+      RepairRun repairRun = context.storage.getRepairRunUncached(repairRunId).get();
+      context.storage.updateRepairRun(
+          repairRun
+              .with()
+              .segmentCount(repairRun.getSegmentCount() + splitCount - 1)
+              .lastEvent(String.format(
+                  "Split segment %s into %d segments after %d failures",
+                  segment.getId(),
+                  splitCount,
+                  segment.getFailCount()))
+              .build(repairRunId));
+    }
+  }
+
+  void updateLastEvent(String newEvent) {
+    RepairRun repairRun = context.storage.getRepairRun(repairRunId).get();
+    if (repairRun.getRunState().isTerminated()) {
+      LOG.warn(
+          "Will not update lastEvent of run that has already terminated. The message was: " + "\"{}\"",
+          newEvent);
+    } else {
+      // only the event is written, and the storage may write it behind
+      context.storage.updateRepairRunLastEvent(repairRunId, newEvent);
     }
   }
 
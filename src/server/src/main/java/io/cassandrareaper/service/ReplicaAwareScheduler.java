@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.core.RepairSegment;
+import io.cassandrareaper.core.Segment;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the segments of a repair run that can be repaired concurrently.
+ *
+ * <p>Two segments can run together when their replica sets don't intersect, as a node only takes part in one repair
+ * session at a time. Each round picks a maximal set of segments with disjoint replicas, greedily starting with the
+ * segments that are expected to take the longest, so that they don't hold the end of the run, and then with the
+ * segments whose replicas are the least contended, so that the amount of concurrent repairs grows with the size of the
+ * cluster.
+ */
+final class ReplicaAwareScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReplicaAwareScheduler.class);
+
+  private final RingTopology topology;
+  private final SegmentDurationModel durations;
+
+  ReplicaAwareScheduler(Map<List<String>, List<String>> rangeToEndpoint) {
+    this(RingTopology.of(rangeToEndpoint), SegmentDurationModel.EMPTY);
+  }
+
+  /**
+   * @param topology the token ranges of the keyspace and their replicas
+   * @param durations the expected durations of the segments
+   */
+  ReplicaAwareScheduler(RingTopology topology, SegmentDurationModel durations) {
+    this.topology = topology;
+    this.durations = durations;
+  }
+
+  /**
+   * @return the replicas of all the token ranges of the segment, empty if the topology doesn't know them
+   */
+  List<String> getReplicas(Segment segment) {
+    Set<String> replicas = Sets.newLinkedHashSet();
+    for (RingRange tokenRange : segment.getTokenRanges()) {
+      List<String> rangeReplicas = topology.getReplicas(tokenRange);
+      if (rangeReplicas.isEmpty()) {
+        LOG.debug("no replicas found for token range {}", tokenRange);
+        return Collections.emptyList();
+      }
+      replicas.addAll(rangeReplicas);
+    }
+    return Lists.newArrayList(replicas);
+  }
+
+  /**
+   * Picks the candidates to start now.
+   *
+   * <p>Picked segments have disjoint replica sets, and don't involve any of the busy replicas. A segment with unknown
+   * replicas is only ever picked alone, when nothing else is running.
+   *
+   * @param candidates the segments that are waiting to be repaired
+   * @param busyReplicas the replicas of the segments that are already running
+   * @return the picked segments along with their replicas, in the order they should be started
+   */
+  List<Pair<RepairSegment, List<String>>> pickSegments(
+      Collection<RepairSegment> candidates,
+      Set<String> busyReplicas) {
+
+    List<Pair<RepairSegment, List<String>>> withReplicas = Lists.newArrayList();
+    Map<String, Integer> demandByReplica = Maps.newHashMap();
+    Map<RepairSegment, Long> expectedMillis = Maps.newHashMap();
+    for (RepairSegment candidate : candidates) {
+      List<String> replicas = getReplicas(candidate.getTokenRange());
+      withReplicas.add(Pair.of(candidate, replicas));
+      replicas.forEach(replica -> demandByReplica.merge(replica, 1, Integer::sum));
+      expectedMillis.put(candidate, durations.estimateMillis(candidate.getTokenRange()).orElse(0));
+    }
+
+    // shuffled so that concurrent reaper instances spread over the run, then longest and least contended first
+    Collections.shuffle(withReplicas);
+    Comparator<Pair<RepairSegment, List<String>>> longestFirst
+        = Comparator.comparingLong(candidate -> -expectedMillis.get(candidate.getLeft()));
+    withReplicas.sort(
+        longestFirst.thenComparingInt(candidate -> contention(candidate.getRight(), demandByReplica)));
+
+    List<Pair<RepairSegment, List<String>>> picked = Lists.newArrayList();
+    Set<String> taken = Sets.newHashSet(busyReplicas);
+    for (Pair<RepairSegment, List<String>> candidate : withReplicas) {
+      if (candidate.getRight().isEmpty()) {
+        if (taken.isEmpty()) {
+          picked.add(candidate);
+          break;
+        }
+      } else if (Collections.disjoint(taken, candidate.getRight())) {
+        picked.add(candidate);
+        taken.addAll(candidate.getRight());
+      }
+    }
+    LOG.debug("picked {} segments out of {} candidates, busy replicas were {}", picked.size(), candidates.size(),
+        busyReplicas);
+    return picked;
+  }
+
+  /**
+   * Groups the candidates that can be repaired by a single repair command.
+   *
+   * <p>Only candidates that never failed and whose replicas are known are batched with the other candidates having the
+   * exact same replicas, in token order, as long as the batch holds at most the given amount of token ranges.
+   *
+   * @param candidates the segments that are waiting to be repaired
+   * @param maxTokenRanges the maximum amount of token ranges of a batch
+   * @return the batches of at least two segments
+   */
+  List<List<RepairSegment>> batchSegments(Collection<RepairSegment> candidates, int maxTokenRanges) {
+    Map<Set<String>, List<RepairSegment>> candidatesByReplicas = Maps.newHashMap();
+    for (RepairSegment candidate : candidates) {
+      List<String> replicas = getReplicas(candidate.getTokenRange());
+      if (0 == candidate.getFailCount() && !replicas.isEmpty()) {
+        candidatesByReplicas.computeIfAbsent(Sets.newHashSet(replicas), key -> Lists.newArrayList()).add(candidate);
+      }
+    }
+
+    List<List<RepairSegment>> batches = Lists.newArrayList();
+    for (List<RepairSegment> sharingReplicas : candidatesByReplicas.values()) {
+      sharingReplicas.sort(Comparator.comparing(RepairSegment::getTokenRange, Segment.START_COMPARATOR));
+      List<RepairSegment> batch = Lists.newArrayList();
+      int tokenRanges = 0;
+      for (RepairSegment candidate : sharingReplicas) {
+        int candidateTokenRanges = candidate.getTokenRange().getTokenRanges().size();
+        if (tokenRanges + candidateTokenRanges > maxTokenRanges) {
+          addBatch(batches, batch);
+          batch = Lists.newArrayList();
+          tokenRanges = 0;
+        }
+        if (candidateTokenRanges < maxTokenRanges) {
+          batch.add(candidate);
+          tokenRanges += candidateTokenRanges;
+        }
+      }
+      addBatch(batches, batch);
+    }
+    LOG.debug("batched {} candidates into {} batches", candidates.size(), batches.size());
+    return batches;
+  }
+
+  private static void addBatch(List<List<RepairSegment>> batches, List<RepairSegment> batch) {
+    if (1 < batch.size()) {
+      batches.add(batch);
+    }
+  }
+
+  private static int contention(List<String> replicas, Map<String, Integer> demandByReplica) {
+    return replicas.isEmpty()
+        ? Integer.MAX_VALUE
+        : replicas.stream().mapToInt(replica -> demandByReplica.get(replica)).sum();
+  }
+}
@@ -34,19 +34,28 @@ import com.google.common.base.Preconditions;
 public final class RingRange {
 
   public static final Comparator<RingRange> START_COMPARATOR
-      = (RingRange o1, RingRange o2) -> o1.start.compareTo(o2.start);
+      = (RingRange o1, RingRange o2) -> o1.longTokens && o2.longTokens
+          ? Long.compare(o1.startToken, o2.startToken)
+          : o1.start.compareTo(o2.start);
 
   private final BigInteger start;
   private final BigInteger end;
 
+  // Murmur3 tokens always fit in a long, comparing them as primitives avoids going through BigInteger
+  private final boolean longTokens;
+  private final long startToken;
+  private final long endToken;
+
   public RingRange(BigInteger start, BigInteger end) {
     this.start = start;
     this.end = end;
+    longTokens = start.bitLength() < Long.SIZE && end.bitLength() < Long.SIZE;
+    startToken = longTokens ? start.longValue() : 0;
+    endToken = longTokens ? end.longValue() : 0;
   }
 
   public RingRange(String... range) {
-    start = new BigInteger(range[0]);
-    end = new BigInteger(range[1]);
+    this(new BigInteger(range[0]), new BigInteger(range[1]));
   }
 
   public BigInteger getStart() {
@@ -74,6 +83,9 @@ public final class RingRange {
    * @return true if other is enclosed in this range.
    */
   public boolean encloses(RingRange other) {
+    if (longTokens && other.longTokens) {
+      return enclosesTokens(other);
+    }
     if (!isWrapping()) {
       return !other.isWrapping()
           && SegmentGenerator.greaterThanOrEqual(other.start, start)
@@ -87,12 +99,30 @@ public final class RingRange {
     }
   }
 
+  private boolean enclosesTokens(RingRange other) {
+    boolean otherWrapping = other.startToken >= other.endToken;
+    if (startToken < endToken) {
+      return !otherWrapping && other.startToken >= startToken && other.endToken <= endToken;
+    } else {
+      return (!otherWrapping && (other.startToken >= startToken || other.endToken <= endToken))
+          || (other.startToken >= startToken && other.endToken <= endToken);
+    }
+  }
+
   /**
    * @return true if 0 is inside of this range. Note that if start == end, then wrapping is true
    */
   @JsonIgnore
   public boolean isWrapping() {
-    return SegmentGenerator.greaterThanOrEqual(start, end);
+    return longTokens ? startToken >= endToken : SegmentGenerator.greaterThanOrEqual(start, end);
+  }
+
+  /**
+   * @return the number of tokens of this range on the Murmur3 ring, as an unsigned long, 0 standing for the whole ring
+   */
+  long murmur3Span() {
+    Preconditions.checkState(longTokens, "%s is not a Murmur3 range", this);
+    return endToken - startToken;
   }
 
   @Override
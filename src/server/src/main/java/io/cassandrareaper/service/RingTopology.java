@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Immutable snapshot of the token ranges of a keyspace and of their replicas.
+ *
+ * <p>The token ranges of a ring don't overlap, so they are kept sorted by their start token and the range enclosing a
+ * given token range is found in logarithmic time.
+ */
+public final class RingTopology {
+
+  private final Map<List<String>, List<String>> rangeToEndpoint;
+  private final NavigableMap<BigInteger, Pair<RingRange, List<String>>> replicasByStart = new TreeMap<>();
+
+  private RingTopology(Map<List<String>, List<String>> rangeToEndpoint) {
+    this.rangeToEndpoint = ImmutableMap.copyOf(rangeToEndpoint);
+    for (Map.Entry<List<String>, List<String>> entry : rangeToEndpoint.entrySet()) {
+      RingRange range = new RingRange(entry.getKey().get(0), entry.getKey().get(1));
+      replicasByStart.put(range.getStart(), Pair.of(range, ImmutableList.copyOf(entry.getValue())));
+    }
+  }
+
+  /**
+   * @param rangeToEndpoint the token range to replicas map of the keyspace, as returned by JMX
+   */
+  public static RingTopology of(Map<List<String>, List<String>> rangeToEndpoint) {
+    return new RingTopology(rangeToEndpoint);
+  }
+
+  public Map<List<String>, List<String>> getRangeToEndpointMap() {
+    return rangeToEndpoint;
+  }
+
+  /**
+   * @return the replicas of the token range, empty if no range of the ring encloses it
+   */
+  public List<String> getReplicas(RingRange tokenRange) {
+    Map.Entry<BigInteger, Pair<RingRange, List<String>>> candidate = replicasByStart.floorEntry(tokenRange.getStart());
+    if (null == candidate) {
+      // before the first range start, only the range wrapping around the ring can enclose it
+      candidate = replicasByStart.lastEntry();
+    }
+    if (null != candidate && candidate.getValue().getLeft().encloses(tokenRange)) {
+      return candidate.getValue().getRight();
+    }
+    return Collections.emptyList();
+  }
+}
@@ -179,7 +179,7 @@ public final class SchedulingManager extends TimerTask {
                   newRepairRun.getId());
               // this repair_run is identified as a duplicate (for this activation):
               // so take the last repair run, and try start it. it's ok if already running.
-              newRepairRun = context.storage.getRepairRun(newRepairRun.getId()).get();
+              newRepairRun = context.storage.getRepairRunUncached(newRepairRun.getId()).get();
               context.repairManager.startRepairRun(newRepairRun);
             } else {
               LOG.warn(
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.Cluster;
+import io.cassandrareaper.core.RepairRun;
+import io.cassandrareaper.core.RepairSegment;
+import io.cassandrareaper.core.Segment;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expected repair durations of segments, learnt from the previous runs of the same repair unit.
+ *
+ * <p>Segments covering the same token ranges as a segment repaired before are expected to take as long as it did on
+ * average. Other segments are expected to take a time proportional to their amount of tokens, at the average pace of
+ * the previous runs.
+ */
+public final class SegmentDurationModel {
+
+  static final SegmentDurationModel EMPTY = new SegmentDurationModel(Collections.emptyList(), null);
+
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentDurationModel.class);
+
+  private static final int MAX_HISTORY_RUNS = 3;
+
+  // mean duration by token ranges
+  private final Map<String, Long> durationsByRanges;
+  private final Optional<BigInteger> ringSize;
+  private final double millisPerToken;
+
+  @VisibleForTesting
+  SegmentDurationModel(Collection<RepairSegment> history, BigInteger ringSize) {
+    Map<String, long[]> totals = Maps.newHashMap();
+    BigInteger tokens = BigInteger.ZERO;
+    long millis = 0;
+    for (RepairSegment segment : history) {
+      long duration = durationMillis(segment);
+      long[] total = totals.computeIfAbsent(key(segment.getTokenRange()), k -> new long[2]);
+      total[0] += duration;
+      total[1]++;
+      if (null != ringSize) {
+        tokens = tokens.add(segment.getTokenRange().countTokens(ringSize));
+        millis += duration;
+      }
+    }
+    this.durationsByRanges = ImmutableMap.copyOf(Maps.transformValues(totals, total -> total[0] / total[1]));
+    this.ringSize = Optional.ofNullable(ringSize);
+    this.millisPerToken = 0 < tokens.signum() ? millis / tokens.doubleValue() : 0;
+  }
+
+  /**
+   * Builds the model of the segments of the given run, out of its repair unit's most recent completed runs.
+   */
+  public static SegmentDurationModel create(AppContext context, RepairRun repairRun) {
+    List<RepairRun> previousRuns = context.storage.getRepairRunsForUnit(repairRun.getRepairUnitId())
+        .stream()
+        .filter(run -> RepairRun.RunState.DONE == run.getRunState() && null != run.getEndTime())
+        .filter(run -> !run.getId().equals(repairRun.getId()))
+        .sorted(Comparator.comparing(RepairRun::getEndTime).reversed())
+        .limit(MAX_HISTORY_RUNS)
+        .collect(Collectors.toList());
+
+    if (previousRuns.isEmpty()) {
+      return EMPTY;
+    }
+    List<RepairSegment> history = previousRuns
+        .stream()
+        .flatMap(run -> context.storage.getRepairSegmentsForRun(run.getId()).stream())
+        .filter(segment -> RepairSegment.State.DONE == segment.getState())
+        .filter(segment -> null != segment.getStartTime() && null != segment.getEndTime())
+        .collect(Collectors.toList());
+
+    LOG.debug("modelling segment durations of run {} from {} segments", repairRun.getId(), history.size());
+    return new SegmentDurationModel(history, ringSize(context, repairRun.getClusterName()));
+  }
+
+  public boolean isEmpty() {
+    return durationsByRanges.isEmpty();
+  }
+
+  /**
+   * @return the expected duration of the segment's repair, if there is history to tell
+   */
+  public OptionalLong estimateMillis(Segment segment) {
+    Long duration = durationsByRanges.get(key(segment));
+    if (null != duration) {
+      return OptionalLong.of(duration);
+    }
+    if (ringSize.isPresent() && 0 < millisPerToken) {
+      return OptionalLong.of((long) (segment.countTokens(ringSize.get()).doubleValue() * millisPerToken));
+    }
+    return OptionalLong.empty();
+  }
+
+  /**
+   * Estimates when the run will be done.
+   *
+   * <p>The remaining expected work is scaled by the pace at which the run went through the expected work of its
+   * repaired segments so far, which accounts for the intensity and the concurrency of the run.
+   *
+   * @param repairRun the run, started
+   * @param segments all the segments of the run
+   * @return the estimated time of arrival, if the history tells enough
+   */
+  public Optional<DateTime> estimateTimeOfArrival(RepairRun repairRun, Collection<RepairSegment> segments) {
+    if (isEmpty() || null == repairRun.getStartTime()) {
+      return Optional.empty();
+    }
+    long now = DateTime.now().getMillis();
+    long doneMillis = 0;
+    long remainingMillis = 0;
+    for (RepairSegment segment : segments) {
+      OptionalLong estimate = estimateMillis(segment.getTokenRange());
+      if (!estimate.isPresent()) {
+        return Optional.empty();
+      }
+      switch (segment.getState()) {
+        case DONE:
+          doneMillis += estimate.getAsLong();
+          break;
+        case RUNNING:
+          long elapsed = null != segment.getStartTime() ? now - segment.getStartTime().getMillis() : 0;
+          remainingMillis += Math.max(0, estimate.getAsLong() - elapsed);
+          break;
+        default:
+          remainingMillis += estimate.getAsLong();
+          break;
+      }
+    }
+    if (0 >= doneMillis) {
+      return Optional.empty();
+    }
+    double pace = (double) (now - repairRun.getStartTime().getMillis()) / doneMillis;
+    return Optional.of(new DateTime(now + (long) (remainingMillis * pace)));
+  }
+
+  private static Optional<BigInteger> ringSizeOf(String partitioner) {
+    try {
+      return Optional.of(new SegmentGenerator(partitioner).getRangeSize());
+    } catch (ReaperException e) {
+      LOG.debug("no ring size for partitioner {}", partitioner, e);
+      return Optional.empty();
+    }
+  }
+
+  private static BigInteger ringSize(AppContext context, String clusterName) {
+    return context.storage.getCluster(clusterName)
+        .map(Cluster::getPartitioner)
+        .flatMap(SegmentDurationModel::ringSizeOf)
+        .orElse(null);
+  }
+
+  private static long durationMillis(RepairSegment segment) {
+    return Math.max(0, segment.getEndTime().getMillis() - segment.getStartTime().getMillis());
+  }
+
+  private static String key(Segment segment) {
+    return segment.getTokenRanges().toString();
+  }
+}
@@ -25,6 +25,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -45,6 +49,7 @@ final class SegmentGenerator {
   private final BigInteger rangeMin;
   private final BigInteger rangeMax;
   private final BigInteger rangeSize;
+  private final boolean murmur3;
 
   SegmentGenerator(String partitioner) throws ReaperException {
     if (partitioner.endsWith("RandomPartitioner")) {
@@ -57,6 +62,7 @@ final class SegmentGenerator {
       throw new ReaperException("Unsupported partitioner " + partitioner);
     }
     rangeSize = rangeMax.subtract(rangeMin).add(BigInteger.ONE);
+    murmur3 = isMurmur3Ring(rangeMin, rangeMax);
     this.partitioner = partitioner;
   }
 
@@ -64,9 +70,18 @@ final class SegmentGenerator {
     this.rangeMin = rangeMin;
     this.rangeMax = rangeMax;
     rangeSize = rangeMax.subtract(rangeMin).add(BigInteger.ONE);
+    murmur3 = isMurmur3Ring(rangeMin, rangeMax);
     partitioner = "(" + rangeMin + "," + rangeMax + ")";
   }
 
+  private static boolean isMurmur3Ring(BigInteger rangeMin, BigInteger rangeMax) {
+    return rangeMin.equals(BigInteger.valueOf(Long.MIN_VALUE)) && rangeMax.equals(BigInteger.valueOf(Long.MAX_VALUE));
+  }
+
+  BigInteger getRangeSize() {
+    return rangeSize;
+  }
+
   static BigInteger max(BigInteger big0, BigInteger big1) {
     return greaterThan(big0, big1) ? big0 : big1;
   }
@@ -110,7 +125,24 @@ final class SegmentGenerator {
       String cassandraVersion)
       throws ReaperException {
 
-    List<Segment> repairSegments = Lists.newArrayList();
+    return generateSegments(
+        totalSegmentCount, ringTokens, incrementalRepair, replicasToRange, cassandraVersion, Optional.empty());
+  }
+
+  /**
+   * Same as {@link #generateSegments(int, List, Boolean, Map, String)}, balancing the segments by their estimated
+   * amount of data instead of their amount of tokens when the sizes of the token ranges are known.
+   */
+  List<Segment> generateSegments(
+      int totalSegmentCount,
+      List<BigInteger> ringTokens,
+      Boolean incrementalRepair,
+      Map<List<String>, List<RingRange>> replicasToRange,
+      String cassandraVersion,
+      Optional<TokenRangeSizes> sizes)
+      throws ReaperException {
+
+    List<Segment> repairSegments;
     int tokenRangeCount = ringTokens.size();
 
     if (tokenRangeCount < totalSegmentCount || !supportsSegmentCoalescing(cassandraVersion)) {
@@ -128,111 +160,366 @@ final class SegmentGenerator {
           throw new ReaperException(
               String.format("Tokens (%s,%s): two nodes have the same token", start, stop));
         }
+      }
 
-        BigInteger rs = stop.subtract(start);
-        if (lowerThanOrEqual(rs, BigInteger.ZERO)) {
-          // wrap around case
-          rs = rs.add(rangeSize);
-        }
+      // token ranges are split independently, in ring order
+      repairSegments = IntStream.range(0, tokenRangeCount)
+          .parallel()
+          .mapToObj(i -> splitTokenRange(
+              ringTokens.get(i), ringTokens.get((i + 1) % tokenRangeCount), totalSegmentCount, sizes))
+          .flatMap(List::stream)
+          .collect(Collectors.toList());
 
-        // the below, in essence, does this:
-        // segmentCount = ceiling((rangeSize / RANGE_SIZE) * totalSegmentCount)
-        BigInteger[] segmentCountAndRemainder
-            = rs.multiply(BigInteger.valueOf(totalSegmentCount)).divideAndRemainder(rangeSize);
+      // verify that the whole range is repaired
+      if (!coversWholeRing(repairSegments) && !incrementalRepair) {
+        throw new ReaperException("Not entire ring would get repaired");
+      }
+    } else {
+      // We want less segments than there are token ranges.
+      // Token ranges will be grouped to match the requirements.
+      LOG.info("Less segments required than there are vnode. Coalescing eligible token ranges...");
+      repairSegments = sizes.isPresent()
+          ? coalesceTokenRanges(() -> new EstimatedTokenCount(sizes.get(), totalSegmentCount), replicasToRange)
+          : coalesceTokenRanges(getTargetSegmentSize(totalSegmentCount), replicasToRange);
+    }
+
+    return repairSegments;
+  }
 
-        int segmentCount = segmentCountAndRemainder[0].intValue()
-                + (segmentCountAndRemainder[1].equals(BigInteger.ZERO) ? 0 : 1);
+  private List<Segment> splitTokenRange(
+      BigInteger start,
+      BigInteger stop,
+      int totalSegmentCount,
+      Optional<TokenRangeSizes> sizes) {
 
-        LOG.info("Dividing token range [{},{}) into {} segments", start, stop, segmentCount);
+    return murmur3 && !start.equals(stop)
+        ? splitMurmur3Range(start.longValue(), stop.longValue(), totalSegmentCount, sizes)
+        : splitRange(start, stop, totalSegmentCount, sizes);
+  }
 
-        // Make big0 list of all the endpoints for the repair segments, including both start and stop
-        List<BigInteger> endpointTokens = Lists.newArrayList();
-        for (int j = 0; j <= segmentCount; j++) {
-          BigInteger offset = rs.multiply(BigInteger.valueOf(j)).divide(BigInteger.valueOf(segmentCount));
-          BigInteger reaperToken = start.add(offset);
-          if (greaterThan(reaperToken, rangeMax)) {
-            reaperToken = reaperToken.subtract(rangeSize);
-          }
-          endpointTokens.add(reaperToken);
-        }
+  private List<Segment> splitRange(
+      BigInteger start,
+      BigInteger stop,
+      int totalSegmentCount,
+      Optional<TokenRangeSizes> sizes) {
 
-        // Append the segments between the endpoints
-        for (int j = 0; j < segmentCount; j++) {
-          repairSegments.add(
-              Segment.builder()
-                  .withTokenRanges(
-                      Arrays.asList(
-                          new RingRange(endpointTokens.get(j), endpointTokens.get(j + 1))))
-                  .build());
-          LOG.debug(
-              "Segment #{}: [{},{})", j + 1, endpointTokens.get(j), endpointTokens.get(j + 1));
-        }
+    List<Segment> segments = Lists.newArrayList();
+    BigInteger rs = stop.subtract(start);
+    if (lowerThanOrEqual(rs, BigInteger.ZERO)) {
+      // wrap around case
+      rs = rs.add(rangeSize);
+    }
+
+    // the below, in essence, does this:
+    // segmentCount = ceiling((rangeSize / RANGE_SIZE) * totalSegmentCount)
+    BigInteger[] segmentCountAndRemainder
+        = rs.multiply(BigInteger.valueOf(totalSegmentCount)).divideAndRemainder(rangeSize);
+
+    int segmentCount = sizes.isPresent()
+        ? sizes.get().segmentCount(new RingRange(start, stop), totalSegmentCount)
+        : segmentCountAndRemainder[0].intValue() + (segmentCountAndRemainder[1].equals(BigInteger.ZERO) ? 0 : 1);
+
+    LOG.debug("Dividing token range [{},{}) into {} segments", start, stop, segmentCount);
+
+    // Make big0 list of all the endpoints for the repair segments, including both start and stop
+    List<BigInteger> endpointTokens = Lists.newArrayList();
+    for (int j = 0; j <= segmentCount; j++) {
+      BigInteger offset = rs.multiply(BigInteger.valueOf(j)).divide(BigInteger.valueOf(segmentCount));
+      BigInteger reaperToken = start.add(offset);
+      if (greaterThan(reaperToken, rangeMax)) {
+        reaperToken = reaperToken.subtract(rangeSize);
       }
+      endpointTokens.add(reaperToken);
+    }
 
-      // verify that the whole range is repaired
-      BigInteger total = BigInteger.ZERO;
-      for (Segment segment : repairSegments) {
+    // Append the segments between the endpoints
+    for (int j = 0; j < segmentCount; j++) {
+      segments.add(
+          Segment.builder()
+              .withTokenRanges(
+                  Arrays.asList(
+                      new RingRange(endpointTokens.get(j), endpointTokens.get(j + 1))))
+              .build());
+    }
+    return segments;
+  }
+
+  /**
+   * Same as {@link #splitRange(BigInteger, BigInteger, int, Optional)} on the Murmur3 ring, where tokens are signed
+   * longs and the ring wraps with them. Spans are unsigned longs.
+   */
+  private static List<Segment> splitMurmur3Range(
+      long start,
+      long stop,
+      int totalSegmentCount,
+      Optional<TokenRangeSizes> sizes) {
+
+    List<Segment> segments = Lists.newArrayList();
+    long rs = stop - start;
+
+    // segmentCount = ceiling((rs / 2^64) * totalSegmentCount), the upper half of the 96 bits product rounded up
+    long high = (rs >>> 32) * totalSegmentCount;
+    long low = (rs & 0xFFFFFFFFL) * totalSegmentCount;
+    RingRange range = new RingRange(BigInteger.valueOf(start), BigInteger.valueOf(stop));
+    int segmentCount = sizes.isPresent()
+        ? sizes.get().segmentCount(range, totalSegmentCount)
+        : (int) ((high + (low >>> 32)) >>> 32) + ((high << 32) + low == 0 ? 0 : 1);
+
+    LOG.debug("Dividing token range [{},{}) into {} segments", start, stop, segmentCount);
+
+    // offset(j) = rs * j / segmentCount = quotient * j + remainder * j / segmentCount, without overflowing
+    long quotient = Long.divideUnsigned(rs, segmentCount);
+    long remainder = Long.remainderUnsigned(rs, segmentCount);
+    BigInteger segmentStart = BigInteger.valueOf(start);
+    for (int j = 1; j <= segmentCount; j++) {
+      BigInteger segmentEnd = BigInteger.valueOf(start + quotient * j + remainder * j / segmentCount);
+      segments.add(Segment.builder().withTokenRanges(Arrays.asList(new RingRange(segmentStart, segmentEnd))).build());
+      segmentStart = segmentEnd;
+    }
+    return segments;
+  }
+
+  private boolean coversWholeRing(List<Segment> segments) {
+    if (murmur3) {
+      // the ring has 2^64 tokens: the unsigned sum of the spans must wrap exactly once
+      long total = 0;
+      int wraps = 0;
+      for (Segment segment : segments) {
         for (RingRange range : segment.getTokenRanges()) {
-          BigInteger size = range.span(rangeSize);
-          total = total.add(size);
+          long span = range.murmur3Span();
+          if (0 == span || Long.compareUnsigned(total + span, total) < 0) {
+            ++wraps;
+          }
+          total += span;
         }
       }
-      if (!total.equals(rangeSize) && !incrementalRepair) {
-        throw new ReaperException("Not entire ring would get repaired");
+      return 0 == total && 1 == wraps;
+    }
+    BigInteger total = BigInteger.ZERO;
+    for (Segment segment : segments) {
+      for (RingRange range : segment.getTokenRanges()) {
+        total = total.add(range.span(rangeSize));
       }
-    } else {
-      // We want less segments than there are token ranges.
-      // Token ranges will be grouped to match the requirements.
-      LOG.info("Less segments required than there are vnode. Coalescing eligible token ranges...");
-      repairSegments = coalesceTokenRanges(getTargetSegmentSize(totalSegmentCount), replicasToRange);
     }
+    return total.equals(rangeSize);
+  }
 
-    return repairSegments;
+  /**
+   * Splits a segment into at most {@code count} segments covering the same tokens.
+   *
+   * <p>Segments made of several token ranges are split along their token ranges, keeping consecutive ranges together.
+   * Segments made of a single token range are split into ranges of equal size.
+   *
+   * @return the split segments, or the segment alone if it is too small to be split
+   */
+  List<Segment> splitSegment(Segment segment, int count) {
+    Preconditions.checkArgument(1 < count, "segments must be split in at least two");
+    List<RingRange> tokenRanges = segment.getTokenRanges();
+
+    if (1 < tokenRanges.size()) {
+      int rangesPerSegment = (tokenRanges.size() + count - 1) / count;
+      List<Segment> splitSegments = Lists.newArrayList();
+      for (List<RingRange> ranges : Lists.partition(tokenRanges, rangesPerSegment)) {
+        splitSegments.add(Segment.builder().withTokenRanges(Lists.newArrayList(ranges)).build());
+      }
+      return splitSegments;
+    }
+
+    RingRange range = tokenRanges.get(0);
+    BigInteger span = range.span(rangeSize);
+    if (lowerThan(span, BigInteger.valueOf(count))) {
+      return Lists.newArrayList(segment);
+    }
+    List<Segment> splitSegments = Lists.newArrayList();
+    BigInteger start = range.getStart();
+    for (int i = 1; i <= count; i++) {
+      BigInteger end = range.getStart().add(span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count)));
+      if (greaterThan(end, rangeMax)) {
+        end = end.subtract(rangeSize);
+      }
+      splitSegments.add(Segment.builder().withTokenRange(new RingRange(start, end)).build());
+      start = end;
+    }
+    LOG.info("Split token range {} into {} segments", range, count);
+    return splitSegments;
   }
 
   @VisibleForTesting
   List<Segment> coalesceTokenRanges(
       BigInteger targetSegmentSize, Map<List<String>, List<RingRange>> replicasToRange) {
 
-    List<Segment> coalescedRepairSegments = Lists.newArrayList();
-    List<RingRange> tokenRangesForCurrentSegment = Lists.newArrayList();
-    BigInteger tokenCount = BigInteger.ZERO;
-
-    for (Entry<List<String>, List<RingRange>> tokenRangesByReplica : replicasToRange.entrySet()) {
-      LOG.info("Coalescing segments for nodes {}", tokenRangesByReplica.getKey());
-      for (RingRange tokenRange : tokenRangesByReplica.getValue()) {
-        if (tokenRange.span(rangeSize).add(tokenCount).compareTo(targetSegmentSize) > 0
-            && !tokenRangesForCurrentSegment.isEmpty()) {
-          // enough tokens in that segment
-          LOG.info(
-              "Got enough tokens for one segment ({}) : {}",
-              tokenCount,
-              tokenRangesForCurrentSegment);
-          coalescedRepairSegments.add(
-              Segment.builder().withTokenRanges(tokenRangesForCurrentSegment).build());
-          tokenRangesForCurrentSegment = Lists.newArrayList();
-          tokenCount = BigInteger.ZERO;
-        }
+    return coalesceTokenRanges(
+        () -> murmur3 ? new Murmur3TokenCount(targetSegmentSize) : new BigTokenCount(targetSegmentSize),
+        replicasToRange);
+  }
+
+  /**
+   * Token ranges are only coalesced with ranges of the same replicas, so each replica set is coalesced on its own.
+   */
+  private List<Segment> coalesceTokenRanges(
+      Supplier<TokenCount> tokenCounts, Map<List<String>, List<RingRange>> replicasToRange) {
 
-        tokenCount = tokenCount.add(tokenRange.span(rangeSize));
-        tokenRangesForCurrentSegment.add(tokenRange);
+    List<Segment> coalescedRepairSegments = replicasToRange
+        .entrySet()
+        .parallelStream()
+        .map(tokenRangesByReplica -> coalesceTokenRanges(tokenCounts.get(), tokenRangesByReplica))
+        .flatMap(List::stream)
+        .collect(Collectors.toList());
 
-      }
+    // Check that we haven't left any token range outside of the resulting segments
+    Preconditions.checkState(
+        allTokensHaveBeenCoalesced(coalescedRepairSegments, replicasToRange),
+        "Number of coalesced tokens doesn't match with the total number of tokens");
+
+    return coalescedRepairSegments;
+  }
 
-      if (!tokenRangesForCurrentSegment.isEmpty()) {
+  private static List<Segment> coalesceTokenRanges(
+      TokenCount tokenCount, Entry<List<String>, List<RingRange>> tokenRangesByReplica) {
+
+    List<Segment> coalescedRepairSegments = Lists.newArrayList();
+    List<RingRange> tokenRangesForCurrentSegment = Lists.newArrayList();
+
+    LOG.debug("Coalescing segments for nodes {}", tokenRangesByReplica.getKey());
+    for (RingRange tokenRange : tokenRangesByReplica.getValue()) {
+      if (tokenCount.wouldExceedTarget(tokenRange) && !tokenRangesForCurrentSegment.isEmpty()) {
+        // enough tokens in that segment
+        LOG.debug(
+            "Got enough tokens for one segment ({}) : {}",
+            tokenCount,
+            tokenRangesForCurrentSegment);
         coalescedRepairSegments.add(
             Segment.builder().withTokenRanges(tokenRangesForCurrentSegment).build());
         tokenRangesForCurrentSegment = Lists.newArrayList();
+        tokenCount.reset();
       }
+
+      tokenCount.add(tokenRange);
+      tokenRangesForCurrentSegment.add(tokenRange);
     }
 
+    if (!tokenRangesForCurrentSegment.isEmpty()) {
+      coalescedRepairSegments.add(
+          Segment.builder().withTokenRanges(tokenRangesForCurrentSegment).build());
+    }
+    return coalescedRepairSegments;
+  }
 
-    // Check that we haven't left any token range outside of the resulting segments
-    Preconditions.checkState(
-        allTokensHaveBeenCoalesced(coalescedRepairSegments, replicasToRange),
-        "Number of coalesced tokens doesn't match with the total number of tokens");
+  /**
+   * Sums the tokens of the ranges coalesced into a segment.
+   */
+  private interface TokenCount {
 
-    return coalescedRepairSegments;
+    boolean wouldExceedTarget(RingRange tokenRange);
+
+    void add(RingRange tokenRange);
+
+    void reset();
+  }
+
+  private final class BigTokenCount implements TokenCount {
+
+    private final BigInteger target;
+    private BigInteger count = BigInteger.ZERO;
+
+    BigTokenCount(BigInteger target) {
+      this.target = target;
+    }
+
+    @Override
+    public boolean wouldExceedTarget(RingRange tokenRange) {
+      return greaterThan(tokenRange.span(rangeSize).add(count), target);
+    }
+
+    @Override
+    public void add(RingRange tokenRange) {
+      count = count.add(tokenRange.span(rangeSize));
+    }
+
+    @Override
+    public void reset() {
+      count = BigInteger.ZERO;
+    }
+
+    @Override
+    public String toString() {
+      return count.toString();
+    }
+  }
+
+  /**
+   * Sums the estimated bytes of the token ranges, aiming at segments of even sizes.
+   */
+  private static final class EstimatedTokenCount implements TokenCount {
+
+    private final TokenRangeSizes sizes;
+    private final double target;
+    private double bytes = 0;
+
+    EstimatedTokenCount(TokenRangeSizes sizes, int segmentCount) {
+      this.sizes = sizes;
+      this.target = sizes.getTotal() / segmentCount;
+    }
+
+    @Override
+    public boolean wouldExceedTarget(RingRange tokenRange) {
+      return bytes + sizes.estimate(tokenRange) > target;
+    }
+
+    @Override
+    public void add(RingRange tokenRange) {
+      bytes += sizes.estimate(tokenRange);
+    }
+
+    @Override
+    public void reset() {
+      bytes = 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0f bytes", bytes);
+    }
+  }
+
+  /**
+   * Counts with unsigned longs, saturating at 2^64 - 1 instead of overflowing.
+   */
+  private static final class Murmur3TokenCount implements TokenCount {
+
+    private final long target;
+    private long count = 0;
+
+    Murmur3TokenCount(BigInteger target) {
+      this.target = Long.SIZE < target.bitLength() ? -1L : target.longValue();
+    }
+
+    @Override
+    public boolean wouldExceedTarget(RingRange tokenRange) {
+      return Long.compareUnsigned(saturatedAdd(count, tokenRange), target) > 0;
+    }
+
+    @Override
+    public void add(RingRange tokenRange) {
+      count = saturatedAdd(count, tokenRange);
+    }
+
+    @Override
+    public void reset() {
+      count = 0;
+    }
+
+    private static long saturatedAdd(long count, RingRange tokenRange) {
+      long span = tokenRange.murmur3Span();
+      long sum = count + span;
+      // a zero span is the whole ring
+      return 0 == span || Long.compareUnsigned(sum, count) < 0 ? -1L : sum;
+    }
+
+    @Override
+    public String toString() {
+      return Long.toUnsignedString(count);
+    }
   }
 
   private static boolean allTokensHaveBeenCoalesced(
@@ -264,7 +551,10 @@ final class SegmentGenerator {
     return !(lowerThan(token, rangeMin) || greaterThan(token, rangeMax));
   }
 
-  private boolean supportsSegmentCoalescing(String cassandraVersion) {
+  /**
+   * @return true if the cluster repairs several token ranges in a single repair command
+   */
+  static boolean supportsSegmentCoalescing(String cassandraVersion) {
     if (COALESCING_DISABLED) {
       LOG.info("Token range coalescing is disabled");
     }
@@ -20,33 +20,46 @@ package io.cassandrareaper.service;
 import io.cassandrareaper.AppContext;
 import io.cassandrareaper.ReaperApplicationConfiguration.DatacenterAvailability;
 import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.Compaction;
 import io.cassandrareaper.core.Node;
 import io.cassandrareaper.core.NodeMetrics;
 import io.cassandrareaper.core.RepairRun;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
+import io.cassandrareaper.core.Segment;
+import io.cassandrareaper.core.Stream;
+import io.cassandrareaper.core.StreamSession;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.jmx.EndpointSnitchInfoProxy;
 import io.cassandrareaper.jmx.JmxProxy;
 import io.cassandrareaper.jmx.RepairStatusHandler;
 import io.cassandrareaper.jmx.SnapshotProxy;
+import io.cassandrareaper.storage.IAsyncDistributedStorage;
+import io.cassandrareaper.storage.IAsyncStorage;
 import io.cassandrareaper.storage.IDistributedStorage;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -58,6 +71,12 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.sun.management.UnixOperatingSystemMXBean;
 import org.apache.cassandra.repair.RepairParallelism;
 import org.apache.cassandra.service.ActiveRepairService;
@@ -83,13 +102,16 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
       = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
 
   private static final long SLEEP_TIME_AFTER_POSTPONE_IN_MS = 10000;
-  private static final ExecutorService METRICS_GRABBER_EXECUTOR = Executors.newFixedThreadPool(10);
+  private static final ListeningExecutorService METRICS_GRABBER_EXECUTOR
+      = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(10));
   private static final long METRICS_POLL_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
   private static final long METRICS_MAX_WAIT_MS = TimeUnit.MINUTES.toMillis(2);
+  private static final String REPAIR_STREAM_DESCRIPTION = "Repair";
+  private static final long UNKNOWN_PROGRESS_MARK = -1;
 
   private final AppContext context;
   private final UUID segmentId;
-  private final Condition condition = new SimpleCondition();
+  private final Object lock = new Object();
   private final Collection<String> potentialCoordinators;
   private final long timeoutMillis;
   private final double intensity;
@@ -97,12 +119,31 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
   private final String clusterName;
   private final RepairRunner repairRunner;
   private final RepairUnit repairUnit;
+  // drives the status checks, the notifications and the intensity delays, shared by all the segments
+  private final ScheduledExecutorService scheduler;
   private volatile int repairNo;
   private final AtomicBoolean segmentFailed;
   private final UUID leaderElectionId;
   private final AtomicBoolean successOrFailedNotified = new AtomicBoolean(false);
   private final AtomicBoolean completeNotified = new AtomicBoolean(false);
-
+  private final AtomicBoolean finished = new AtomicBoolean(false);
+  private final AtomicBoolean postponedByHandler = new AtomicBoolean(false);
+  private final SettableFuture<Void> completion = SettableFuture.create();
+  private volatile ScheduledFuture<?> statusCheck;
+  private volatile long deadlineSetAt;
+  private volatile long deadline;
+  private volatile long lastNotificationMillis;
+  // progress marks of the replicas when the deadline was last set, and as last read
+  private volatile long progressMark = UNKNOWN_PROGRESS_MARK;
+  private volatile long latestProgressMark = UNKNOWN_PROGRESS_MARK;
+  private final AtomicBoolean progressMarkReading = new AtomicBoolean(false);
+  private volatile Set<String> repairedTables = Collections.emptySet();
+  private volatile long statusCheckIntervalMillis;
+  private volatile int timeoutExtensions;
+  private volatile Timer.Context repairingTimer;
+  // notifications of the repair, handled in order on the scheduler rather than on the JMX notification thread
+  private final Queue<Supplier<CompletionStage<Void>>> pendingNotifications = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingNotificationCount = new AtomicInteger();
 
   SegmentRunner(
       AppContext context,
@@ -113,7 +154,8 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
       RepairParallelism validationParallelism,
       String clusterName,
       RepairUnit repairUnit,
-      RepairRunner repairRunner)
+      RepairRunner repairRunner,
+      ScheduledExecutorService scheduler)
       throws ReaperException {
 
     if (SEGMENT_RUNNERS.containsKey(segmentId)) {
@@ -129,25 +171,52 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     this.clusterName = clusterName;
     this.repairUnit = repairUnit;
     this.repairRunner = repairRunner;
+    this.scheduler = scheduler;
     this.segmentFailed = new AtomicBoolean(false);
     this.leaderElectionId = repairUnit.getIncrementalRepair() ? repairRunner.getRepairRunId() : segmentId;
   }
 
+  /**
+   * Starts repairing the segment without blocking on its outcome.
+   *
+   * <p>The calling thread only asks for the lead on the segment. The repair is triggered from the scheduler once the
+   * lead is taken, the rest of the work is driven by the JMX notifications and by the periodic status checks, and the
+   * returned future completes once the segment is done, postponed or aborted and the delay before the next segment has
+   * elapsed. The lead on the segment is held until then.
+   */
+  ListenableFuture<Void> start() {
+    takeLeadAsync().whenCompleteAsync(
+        (taken, error) -> {
+          if (null != error) {
+            LOG.error("Failed taking the lead on segment {}", segmentId, error);
+            completion.setException(error);
+          } else if (!taken) {
+            completion.set(null);
+          } else {
+            try {
+              runRepair();
+            } catch (RuntimeException e) {
+              fail(e);
+            }
+          }
+        },
+        scheduler);
+    return completion;
+  }
+
+  private void fail(RuntimeException e) {
+    LOG.error("Failed running segment {}", segmentId, e);
+    if (finished.compareAndSet(false, true)) {
+      releaseLeadAndThen(() -> completion.setException(e));
+    }
+  }
+
   @Override
   public void run() {
-    if (takeLead()) {
-      try {
-        if (runRepair()) {
-          long delay = intensityBasedDelayMillis(intensity);
-          try {
-            Thread.sleep(delay);
-          } catch (InterruptedException e) {
-            LOG.warn("Slept shorter than intended delay.");
-          }
-        }
-      } finally {
-        releaseLead();
-      }
+    try {
+      start().get();
+    } catch (InterruptedException | ExecutionException e) {
+      LOG.warn("Segment {} did not complete cleanly", segmentId, e);
     }
   }
 
@@ -165,7 +234,8 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
               .withCoordinatorHost(repairUnit.getIncrementalRepair() ? segment.getCoordinatorHost() : null)
               .withFailCount(segment.getFailCount() + 1)
               .withId(segment.getId())
-              .build());
+              .build(),
+          segment.getState());
     } finally {
       SEGMENT_RUNNERS.remove(segment.getId());
       context.metricRegistry.counter(metricNameForPostpone(repairUnit, segment)).inc();
@@ -190,19 +260,13 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
   }
 
   /**
-   * Remember to call method postponeCurrentSegment() outside of synchronized(condition) block.
+   * Remember to call method postponeCurrentSegment() outside of synchronized(lock) block.
    */
   void postponeCurrentSegment() {
-    synchronized (condition) {
+    synchronized (lock) {
       RepairSegment segment = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId).get();
       postpone(context, segment, context.storage.getRepairUnit(segment.getRepairUnitId()));
     }
-
-    try {
-      Thread.sleep(SLEEP_TIME_AFTER_POSTPONE_IN_MS);
-    } catch (InterruptedException e) {
-      LOG.debug("Interrupted while sleeping after a segment was postponed... weird stuff...");
-    }
   }
 
   /**
@@ -217,166 +281,384 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     return amountOfOpenFiles;
   }
 
-  private boolean runRepair() {
+  /**
+   * Checks whether the segment can be repaired, without waiting on the replicas: their metrics are gathered in the
+   * background and the repair goes on from the scheduler once they are all in.
+   */
+  private void runRepair() {
     LOG.debug("Run repair for segment #{}", segmentId);
-    RepairSegment segment = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId).get();
-    Thread.currentThread().setName(clusterName + ":" + segment.getRunId() + ":" + segmentId);
-
-    try (Timer.Context cxt = context.metricRegistry.timer(metricNameForRunRepair(segment)).time()) {
-      JmxProxy coordinator
-          = context.jmxConnectionFactory.connectAny(
-              potentialCoordinators
-                  .stream()
-                  .map(
-                      host ->
-                          Node.builder().withClusterName(clusterName).withHostname(host).build())
-                  .collect(Collectors.toSet()),
-              context.config.getJmxConnectionTimeoutInSeconds());
+    Optional<RepairSegment> storedSegment = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId);
+    if (!storedSegment.isPresent()) {
+      // the segment was split or batched with others since it was picked
+      LOG.info("Segment {} was replaced before its repair could start", segmentId);
+      complete(0);
+      return;
+    }
+    RepairSegment segment = storedSegment.get();
+    Timer.Context runRepairTimer = context.metricRegistry.timer(metricNameForRunRepair(segment)).time();
+    try {
+      JmxProxy coordinator = context.coordinatorSelector.connect(clusterName, potentialCoordinators);
 
       if (SEGMENT_RUNNERS.containsKey(segmentId)) {
         LOG.error("SegmentRunner already exists for segment with ID: {}", segmentId);
         throw new ReaperException("SegmentRunner already exists for segment with ID: " + segmentId);
       }
 
-      String keyspace = repairUnit.getKeyspaceName();
-      boolean fullRepair = !repairUnit.getIncrementalRepair();
-
       LazyInitializer<Set<String>> busyHosts = new BusyHostsInitializer(coordinator);
-      if (!canRepair(segment, keyspace, coordinator, busyHosts)) {
-        LOG.info(
-            "Cannot run segment {} for repair {} at the moment. Will try again later",
-            segmentId,
-            segment.getRunId());
-        SEGMENT_RUNNERS.remove(segment.getId());
-        try {
-          Thread.sleep(SLEEP_TIME_AFTER_POSTPONE_IN_MS);
-        } catch (InterruptedException e) {
-          LOG.debug("Interrupted while sleeping after a segment was postponed... weird stuff...");
-        }
-        return false;
+      Futures.addCallback(
+          canRepair(segment, repairUnit.getKeyspaceName(), coordinator, busyHosts),
+          new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean canRepair) {
+              try {
+                if (canRepair) {
+                  repairSegment(segment, coordinator);
+                } else {
+                  LOG.info(
+                      "Cannot run segment {} for repair {} at the moment. Will try again later",
+                      segmentId,
+                      segment.getRunId());
+                  complete(SLEEP_TIME_AFTER_POSTPONE_IN_MS);
+                }
+              } catch (RuntimeException e) {
+                fail(e);
+              } finally {
+                endRunRepair(segment, runRepairTimer);
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+              try {
+                postponeUnreachable(throwable);
+              } catch (RuntimeException e) {
+                fail(e);
+              } finally {
+                endRunRepair(segment, runRepairTimer);
+              }
+            }
+          },
+          scheduler);
+    } catch (RuntimeException | ReaperException e) {
+      try {
+        postponeUnreachable(e);
+      } finally {
+        endRunRepair(segment, runRepairTimer);
+      }
+    }
+  }
+
+  private void endRunRepair(RepairSegment segment, Timer.Context runRepairTimer) {
+    runRepairTimer.stop();
+    SEGMENT_RUNNERS.remove(segment.getId());
+    context.metricRegistry
+        .histogram(MetricRegistry.name(SegmentRunner.class, "open-files"))
+        .update(getOpenFilesAmount());
+  }
+
+  private void postponeUnreachable(Throwable throwable) {
+    LOG.warn("Failed to connect to a coordinator node for segment {}", segmentId, throwable);
+    String msg = "Postponed a segment because no coordinator was reachable";
+    repairRunner.updateLastEvent(msg);
+    postponeCurrentSegment();
+    LOG.warn("Open files amount for process: " + getOpenFilesAmount());
+    complete(SLEEP_TIME_AFTER_POSTPONE_IN_MS);
+  }
+
+  private void repairSegment(RepairSegment segment, JmxProxy coordinator) {
+    String keyspace = repairUnit.getKeyspaceName();
+    try {
+      Timer.Context repairing = context.metricRegistry.timer(metricNameForRepairing(segment)).time();
+      Set<String> tablesToRepair;
+      try {
+        tablesToRepair = getTablesToRepair(coordinator, repairUnit);
+      } catch (IllegalStateException e) {
+        repairing.stop();
+        String msg = "Invalid blacklist definition. It filtered all tables in the keyspace.";
+        LOG.error(msg, e);
+        RepairRun repairRun = context.storage.getRepairRunUncached(segment.getRunId()).get();
+        context.storage.updateRepairRun(
+            repairRun
+                .with()
+                .runState(RepairRun.RunState.ERROR)
+                .lastEvent(String.format(msg))
+                .endTime(DateTime.now())
+                .build(segment.getRunId()));
+        repairRunner.killAndCleanupRunner();
+
+        context.storage.updateRepairSegment(
+            segment
+                .with()
+                .withState(RepairSegment.State.DONE)
+                .withStartTime(DateTime.now())
+                .withEndTime(DateTime.now())
+                .withId(segmentId)
+                .build(),
+            segment.getState());
+        complete(0);
+        return;
       }
 
-      try (Timer.Context cxt1 = context.metricRegistry.timer(metricNameForRepairing(segment)).time()) {
-        Set<String> tablesToRepair;
-        try {
-          tablesToRepair = getTablesToRepair(coordinator, repairUnit);
-        } catch (IllegalStateException e) {
-          String msg = "Invalid blacklist definition. It filtered all tables in the keyspace.";
-          LOG.error(msg, e);
-          RepairRun repairRun = context.storage.getRepairRun(segment.getRunId()).get();
-          context.storage.updateRepairRun(
-              repairRun
-                  .with()
-                  .runState(RepairRun.RunState.ERROR)
-                  .lastEvent(String.format(msg))
-                  .endTime(DateTime.now())
-                  .build(segment.getRunId()));
-          repairRunner.killAndCleanupRunner();
+      Set<String> skippedTables = context.storage.getTableWriteCounts(segment.getRunId())
+          .map(TableWriteCounts::getSkippedTables)
+          .orElse(Collections.emptySet());
+      if (!skippedTables.isEmpty()) {
+        tablesToRepair = removeSkippedTables(coordinator, keyspace, tablesToRepair, skippedTables);
+        LOG.debug("skipping tables {} without writes since the last repair of segment {}", skippedTables, segmentId);
+      }
+      // nothing to repair when none of the tables had writes since the last repair
+      boolean nothingToRepair = !skippedTables.isEmpty() && tablesToRepair.isEmpty();
+      Set<String> tables = tablesToRepair;
+
+      RepairSegment startedSegment = segment
+          .with()
+          .withCoordinatorHost(coordinator.getHost())
+          .withStartTime(DateTime.now())
+          .withId(segmentId)
+          .build();
+
+      // the repair is triggered once the segment is stored as started, without holding a thread meanwhile
+      updateRepairSegmentAsync(startedSegment, segment.getState()).whenCompleteAsync(
+          (updated, error) -> {
+            try {
+              if (null != error) {
+                repairing.stop();
+                postponeUnreachable(error);
+              } else {
+                triggerRepair(startedSegment, coordinator, tables, nothingToRepair, repairing);
+              }
+            } catch (RuntimeException e) {
+              fail(e);
+            }
+          },
+          scheduler);
+    } catch (RuntimeException | ReaperException e) {
+      postponeUnreachable(e);
+    }
+  }
+
+  private void triggerRepair(
+      RepairSegment segment,
+      JmxProxy coordinator,
+      Set<String> tablesToRepair,
+      boolean nothingToRepair,
+      Timer.Context repairing) {
+
+    String keyspace = repairUnit.getKeyspaceName();
+    try {
+      LOG.debug("Enter synchronized section with segment ID {}", segmentId);
+      synchronized (lock) {
+
+        repairedTables = tablesToRepair;
+        repairNo = nothingToRepair
+            ? 0
+            : coordinator.triggerRepair(
+                segment.getStartToken(),
+                segment.getEndToken(),
+                keyspace,
+                validationParallelism,
+                tablesToRepair,
+                !repairUnit.getIncrementalRepair(),
+                repairUnit.getDatacenters(),
+                this,
+                segment.getTokenRange().getTokenRanges(),
+                repairUnit.getRepairThreadCount());
+
+        if (0 != repairNo) {
+          repairingTimer = repairing;
+          processTriggeredSegment(segment, coordinator);
+        } else {
+          repairing.stop();
+          LOG.info("Nothing to repair for segment {} in keyspace {}", segmentId, keyspace);
 
           context.storage.updateRepairSegment(
               segment
                   .with()
                   .withState(RepairSegment.State.DONE)
-                  .withStartTime(DateTime.now())
                   .withEndTime(DateTime.now())
                   .withId(segmentId)
-                  .build());
-          return false;
-        }
+                  .build(),
+              segment.getState());
 
-        try {
-          LOG.debug("Enter synchronized section with segment ID {}", segmentId);
-          synchronized (condition) {
-
-            segment = segment
-                    .with()
-                    .withCoordinatorHost(coordinator.getHost())
-                    .withStartTime(DateTime.now())
-                    .withId(segmentId)
-                    .build();
-            context.storage.updateRepairSegment(segment);
-
-            repairNo = coordinator.triggerRepair(
-                    segment.getStartToken(),
-                    segment.getEndToken(),
-                    keyspace,
-                    validationParallelism,
-                    tablesToRepair,
-                    fullRepair,
-                    repairUnit.getDatacenters(),
-                    this,
-                    segment.getTokenRange().getTokenRanges(),
-                    repairUnit.getRepairThreadCount());
-
-            if (0 != repairNo) {
-              processTriggeredSegment(segment, coordinator, repairNo);
-            } else {
-              LOG.info("Nothing to repair for segment {} in keyspace {}", segmentId, keyspace);
-
-              context.storage.updateRepairSegment(
-                  segment
-                      .with()
-                      .withState(RepairSegment.State.DONE)
-                      .withEndTime(DateTime.now())
-                      .withId(segmentId)
-                      .build());
-
-              SEGMENT_RUNNERS.remove(segment.getId());
-            }
-          }
-        } finally {
-          LOG.debug("Exiting synchronized section with segment ID {}", segmentId);
+          SEGMENT_RUNNERS.remove(segment.getId());
+          complete(intensityBasedDelayMillis(intensity));
         }
       }
     } catch (RuntimeException | ReaperException e) {
-      LOG.warn("Failed to connect to a coordinator node for segment {}", segmentId, e);
-      String msg = "Postponed a segment because no coordinator was reachable";
-      repairRunner.updateLastEvent(msg);
-      postponeCurrentSegment();
-      LOG.warn("Open files amount for process: " + getOpenFilesAmount());
-      return false;
+      postponeUnreachable(e);
     } finally {
-      SEGMENT_RUNNERS.remove(segment.getId());
-      context.metricRegistry
-          .histogram(MetricRegistry.name(SegmentRunner.class, "open-files"))
-          .update(getOpenFilesAmount());
+      LOG.debug("Exiting synchronized section with segment ID {}", segmentId);
     }
-    return true;
   }
 
-  private void processTriggeredSegment(final RepairSegment segment, final JmxProxy coordinator, int repairNo) {
+  private void processTriggeredSegment(final RepairSegment segment, final JmxProxy coordinator) {
 
     repairRunner.updateLastEvent(
         String.format("Triggered repair of segment %s via host %s", segment.getId(), coordinator.getHost()));
 
-    {
-      long timeout = repairUnit.getIncrementalRepair() ? timeoutMillis * MAX_TIMEOUT_EXTENSIONS : timeoutMillis;
-      LOG.info("Repair for segment {} started, status wait will timeout in {} millis", segmentId, timeout);
+    long timeout = repairUnit.getIncrementalRepair() ? timeoutMillis * MAX_TIMEOUT_EXTENSIONS : timeoutMillis;
+    LOG.info("Repair for segment {} started, status wait will timeout in {} millis", segmentId, timeout);
+
+    deadlineSetAt = System.currentTimeMillis();
+    deadline = deadlineSetAt + timeout;
+    // the status checks may stop, the watchdog aborts the segment once it can't have any extension left
+    context.segmentWatchdog.watch(
+        segment.getRunId(), segmentId, timeout + timeoutMillis * (MAX_TIMEOUT_EXTENSIONS + 1));
+    if (finished.get()) {
+      // the repair was over before being watched
+      context.segmentWatchdog.unwatch(segmentId);
     }
+    // the baseline the progress of the repair is measured against
+    readProgressMark();
+    statusCheckIntervalMillis = Math.min(timeoutMillis, 60000);
+
+    statusCheck = scheduler.scheduleWithFixedDelay(
+        () -> checkTriggeredSegment(coordinator),
+        statusCheckIntervalMillis,
+        statusCheckIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
 
+  /**
+   * Periodic check of a triggered repair, in case its final notifications never arrive.
+   * Finishes the segment once it is done or timed out, otherwise keeps the lead on it.
+   */
+  private void checkTriggeredSegment(JmxProxy coordinator) {
     try {
-      final long startTime = System.currentTimeMillis();
-      final long maxTime = startTime + timeoutMillis;
-      final long waitTime = Math.min(timeoutMillis, 60000);
-      long lastLoopTime = startTime;
+      boolean isDoneOrTimedOut = RepairSegment.State.DONE == context.storage
+          .getRepairSegment(repairRunner.getRepairRunId(), segmentId).get().getState();
+
+      long now = System.currentTimeMillis();
+      isDoneOrTimedOut |= now >= deadline && !extendTimeout();
+
+      if (!isDoneOrTimedOut && now + statusCheckIntervalMillis >= deadline) {
+        // read ahead of the next check, which may have to decide on extending the timeout
+        readProgressMark();
+      }
 
-      while (System.currentTimeMillis() < maxTime) {
-        condition.await(waitTime, TimeUnit.MILLISECONDS);
+      if (isDoneOrTimedOut) {
+        finish(coordinator);
+      } else {
+        renewLeadAsync();
+      }
+    } catch (RuntimeException | AssertionError e) {
+      LOG.warn("Failed checking the status of repair command {} on segment {}", repairNo, segmentId, e);
+      finish(coordinator);
+    }
+  }
 
-        boolean isDoneOrTimedOut = lastLoopTime + 60_000 > System.currentTimeMillis();
+  /**
+   * Pushes the deadline of a timed out repair back by another timeout if the repair moved forward since the deadline
+   * was set: the coordinator sent notifications, or the validation compactions or streams of the replicas progressed.
+   * Slow but healthy repairs then keep their validation work, while stuck ones are still aborted.
+   *
+   * @return true if the deadline was extended
+   */
+  private boolean extendTimeout() {
+    if (MAX_TIMEOUT_EXTENSIONS <= timeoutExtensions) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    long mark = latestProgressMark;
+    boolean notified = lastNotificationMillis >= deadlineSetAt;
+    boolean progressed = UNKNOWN_PROGRESS_MARK != progressMark
+        && UNKNOWN_PROGRESS_MARK != mark
+        && progressMark != mark;
+
+    if (!notified && !progressed) {
+      return false;
+    }
+    progressMark = mark;
+    ++timeoutExtensions;
+    deadlineSetAt = now;
+    deadline = now + timeoutMillis;
+    context.metricRegistry.meter(MetricRegistry.name(SegmentRunner.class, "timeoutExtensions")).mark();
+    LOG.info(
+        "Repair command {} on segment {} is still progressing, extending its timeout by {} millis ({}/{})",
+        repairNo,
+        segmentId,
+        timeoutMillis,
+        timeoutExtensions,
+        MAX_TIMEOUT_EXTENSIONS);
+    return true;
+  }
 
-        isDoneOrTimedOut |= RepairSegment.State.DONE == context.storage
-            .getRepairSegment(segment.getRunId(), segmentId).get().getState();
+  /**
+   * Reads the progress mark of the replicas in the background, as the JMX calls to each of them would otherwise hold
+   * a scheduler thread. The first mark read is the baseline of the repair.
+   */
+  private void readProgressMark() {
+    if (progressMarkReading.compareAndSet(false, true)) {
+      METRICS_GRABBER_EXECUTOR.execute(() -> {
+        try {
+          long mark = getProgressMark();
+          if (UNKNOWN_PROGRESS_MARK == progressMark) {
+            progressMark = mark;
+          }
+          latestProgressMark = mark;
+        } finally {
+          progressMarkReading.set(false);
+        }
+      });
+    }
+  }
 
-        if (isDoneOrTimedOut) {
-          break;
+  /**
+   * @return the bytes validated and streamed so far for the repaired tables by the replicas that could be reached
+   */
+  private long getProgressMark() {
+    long mark = 0;
+    for (String host : potentialCoordinators) {
+      Node node = Node.builder().withClusterName(clusterName).withHostname(host).build();
+      try {
+        for (Compaction compaction : CompactionService.create(context).listActiveCompactions(node)) {
+          if ("Validation".equals(compaction.getType())
+              && repairUnit.getKeyspaceName().equals(compaction.getKeyspace())
+              && isRepairedTable(compaction.getTable())) {
+            mark += compaction.getProgress();
+          }
+        }
+        for (StreamSession session : StreamService.create(context).listStreams(node)) {
+          if (REPAIR_STREAM_DESCRIPTION.equals(session.getDescription())) {
+            for (Stream stream : session.getStreams().values()) {
+              mark += getRepairedTablesProgress(stream.getProgressSent())
+                  + getRepairedTablesProgress(stream.getProgressReceived());
+            }
+          }
         }
-        renewLead();
-        lastLoopTime = System.currentTimeMillis();
+      } catch (ReaperException | RuntimeException e) {
+        LOG.debug("Failed reading the repair progress of {}", node, e);
+      }
+    }
+    return mark;
+  }
+
+  private long getRepairedTablesProgress(List<Stream.TableProgress> progresses) {
+    String keyspacePrefix = repairUnit.getKeyspaceName() + ".";
+    return progresses.stream()
+        .filter(progress -> progress.getTable().startsWith(keyspacePrefix))
+        .filter(progress -> isRepairedTable(progress.getTable().substring(keyspacePrefix.length())))
+        .mapToLong(Stream.TableProgress::getCurrent)
+        .sum();
+  }
+
+  private boolean isRepairedTable(String table) {
+    // no tables means the whole keyspace
+    return repairedTables.isEmpty() || repairedTables.contains(table);
+  }
+
+  /**
+   * Wraps up a triggered repair, exactly once, whether it ended through notifications or the status checks.
+   */
+  private void finish(JmxProxy coordinator) {
+    if (!finished.compareAndSet(false, true)) {
+      return;
+    }
+    long delay = 0;
+    try {
+      if (null != repairingTimer) {
+        repairingTimer.stop();
       }
-    } catch (InterruptedException e) {
-      LOG.warn("Repair command {} on segment {} interrupted", this.repairNo, segmentId, e);
-    } finally {
       coordinator.removeRepairStatusHandler(repairNo);
       RepairSegment resultingSegment
           = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId).get();
@@ -411,8 +693,75 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
         segmentFailed.set(true);
         abort(resultingSegment, coordinator);
       }
+      if (segmentFailed.get()) {
+        splitIfFailingRepeatedly();
+      }
       // Repair is still running, we'll renew lead on the segment when using Cassandra as storage backend
-      renewLead();
+      renewLeadAsync();
+      delay = postponedByHandler.get() ? SLEEP_TIME_AFTER_POSTPONE_IN_MS : intensityBasedDelayMillis(intensity);
+    } catch (RuntimeException | AssertionError e) {
+      LOG.warn("Failed wrapping up repair command {} on segment {}", repairNo, segmentId, e);
+    } finally {
+      complete(delay);
+    }
+  }
+
+  /**
+   * Replaces the segment with smaller ones once its repairs failed or timed out too many times, so that a hot or wide
+   * token range doesn't hold the run back and each failure loses less work. Called while holding the lead.
+   */
+  private void splitIfFailingRepeatedly() {
+    int failureThreshold = context.config.getSegmentSplitFailureThreshold();
+    if (repairUnit.getIncrementalRepair() || 0 >= failureThreshold) {
+      // incremental repair segments cover all the ranges of their coordinator
+      return;
+    }
+    RepairSegment segment = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId).get();
+    if (RepairSegment.State.NOT_STARTED != segment.getState() || segment.getFailCount() < failureThreshold) {
+      return;
+    }
+    try {
+      String partitioner = context.storage.getCluster(clusterName).get().getPartitioner();
+      List<Segment> splitSegments = new SegmentGenerator(partitioner)
+          .splitSegment(segment.getTokenRange(), context.config.getSegmentSplitCount());
+
+      if (1 < splitSegments.size()) {
+        List<RepairSegment.Builder> replacements = splitSegments
+            .stream()
+            .map(split -> RepairSegment.builder(split, segment.getRepairUnitId()))
+            .collect(Collectors.toList());
+
+        if (context.storage.replaceRepairSegments(Collections.singletonList(segment), replacements)) {
+          LOG.info(
+              "Split segment {} into {} segments after {} failures",
+              segmentId,
+              replacements.size(),
+              segment.getFailCount());
+
+          repairRunner.onSegmentSplit(segment, replacements.size());
+        }
+      }
+    } catch (ReaperException e) {
+      LOG.warn("Failed splitting segment {}", segmentId, e);
+    }
+  }
+
+  /**
+   * Completes this runner once the given delay has elapsed, keeping the lead on the segment until then so that the
+   * intensity setting is honoured.
+   */
+  private void complete(long delayMillis) {
+    finished.set(true);
+    context.segmentWatchdog.unwatch(segmentId);
+    if (null != statusCheck) {
+      statusCheck.cancel(false);
+    }
+    Runnable release = () -> releaseLeadAndThen(() -> completion.set(null));
+    if (0 < delayMillis) {
+      LOG.debug("Completing segment {} in {} ms", segmentId, delayMillis);
+      scheduler.schedule(release, delayMillis, TimeUnit.MILLISECONDS);
+    } else {
+      release.run();
     }
   }
 
@@ -453,7 +802,11 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     repairRunner.updateLastEvent(msg);
   }
 
-  boolean canRepair(
+  /**
+   * Checks that the replicas of the segment aren't busy. The metrics of the replicas are grabbed in the background and
+   * the outcome is decided on the scheduler, so no thread waits on them.
+   */
+  ListenableFuture<Boolean> canRepair(
       RepairSegment segment,
       String keyspace,
       JmxProxy coordinator,
@@ -461,83 +814,95 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
 
     if (repairUnit.getIncrementalRepair()) {
       // In incremental repairs, only one segment is allowed at once (one segment == the full primary range of one node)
-      if (repairHasSegmentRunning(segment.getRunId())) {
-        declineRun();
-        return false;
-      }
-      if (isRepairRunningOnOneNode(segment)) {
-        declineRun();
-        return false;
-      }
-      return true;
+      return METRICS_GRABBER_EXECUTOR.submit(() -> {
+        if (repairHasSegmentRunning(segment.getRunId()) || isRepairRunningOnOneNode(segment)) {
+          declineRun();
+          return false;
+        }
+        return true;
+      });
     }
 
     Collection<String> nodes;
     try {
       // when hosts are coming up or going down, this method can throw an
       //  UndeclaredThrowableException
-      nodes = coordinator.tokenRangeToEndpoint(keyspace, segment.getTokenRange());
-    } catch (RuntimeException e) {
+      nodes = context.topologyCache.get(clusterName, keyspace, coordinator)
+          .getReplicas(segment.getTokenRange().getTokenRanges().get(0));
+    } catch (ReaperException | RuntimeException e) {
       LOG.warn("SegmentRunner couldn't get token ranges from coordinator: ", e);
       String msg = "SegmentRunner couldn't get token ranges from coordinator";
       repairRunner.updateLastEvent(msg);
-      return false;
+      return Futures.immediateFuture(false);
     }
     String dc = EndpointSnitchInfoProxy.create(coordinator).getDataCenter();
-    boolean allLocalDcHosts = true;
-    boolean allHosts = true;
     Map<String, String> dcByNode = Maps.newHashMap();
     nodes.forEach(node -> dcByNode.put(node, EndpointSnitchInfoProxy.create(coordinator).getDataCenter(node)));
 
-    List<Callable<Pair<String, Optional<NodeMetrics>>>> getMetricsTasks = nodes.stream()
+    List<ListenableFuture<Pair<String, Optional<NodeMetrics>>>> nodeMetrics = nodes.stream()
         .filter(node
             -> repairUnit.getDatacenters().isEmpty() || repairUnit.getDatacenters().contains(dcByNode.get(node)))
         .map(node -> getNodeMetrics(node, dc != null ? dc : "", dcByNode.get(node) != null ? dcByNode.get(node) : ""))
         .collect(Collectors.toList());
 
-    try {
-      for (Future<Pair<String, Optional<NodeMetrics>>> future : METRICS_GRABBER_EXECUTOR.invokeAll(getMetricsTasks)) {
-        try {
-          Pair<String, Optional<NodeMetrics>> result = future.get();
-          if (!result.getRight().isPresent()) {
-            // We failed at getting metrics for that node
-            allHosts = false;
-            if (dcByNode.get(result.getLeft()).equals(dc)) {
-              allLocalDcHosts = false;
-            }
-          } else {
-            NodeMetrics metrics = result.getRight().get();
-            int pendingCompactions = metrics.getPendingCompactions();
-            if (pendingCompactions > context.config.getMaxPendingCompactions()) {
-              LOG.info(
-                  "SegmentRunner declined to repair segment {} because of"
-                      + " too many pending compactions (> {}) on host \"{}\"",
-                  segmentId, context.config.getMaxPendingCompactions(), metrics.getNode());
-
-              String msg = String.format("Postponed due to pending compactions (%d)", pendingCompactions);
-              repairRunner.updateLastEvent(msg);
-              return false;
-            }
-            if (metrics.hasRepairRunning()) {
-              LOG.info(
-                  "SegmentRunner declined to repair segment {} because one of the hosts ({}) was "
-                    + "already involved in a repair",
-                  segmentId, metrics.getNode());
-
-              String msg = "Postponed due to affected hosts already doing repairs";
-              repairRunner.updateLastEvent(msg);
-              handlePotentialStuckRepairs(busyHosts, metrics.getNode());
-              return false;
-            }
-          }
-        } catch (InterruptedException | ExecutionException | ConcurrentException e) {
-          LOG.warn("Failed grabbing metrics from at least one node. Cannot repair segment :'(", e);
+    // a node whose metrics couldn't be grabbed comes back as null
+    return Futures.transform(
+        Futures.successfulAsList(nodeMetrics),
+        (List<Pair<String, Optional<NodeMetrics>>> results) -> canRepair(segment, dc, dcByNode, busyHosts, results),
+        scheduler);
+  }
+
+  private boolean canRepair(
+      RepairSegment segment,
+      String dc,
+      Map<String, String> dcByNode,
+      LazyInitializer<Set<String>> busyHosts,
+      List<Pair<String, Optional<NodeMetrics>>> results) {
+
+    boolean allLocalDcHosts = true;
+    boolean allHosts = true;
+    for (Pair<String, Optional<NodeMetrics>> result : results) {
+      try {
+        if (null == result) {
+          LOG.warn("Failed grabbing metrics from at least one node. Cannot repair segment :'(");
           allLocalDcHosts = false;
           allHosts = false;
+        } else if (!result.getRight().isPresent()) {
+          // We failed at getting metrics for that node
+          allHosts = false;
+          if (dcByNode.get(result.getLeft()).equals(dc)) {
+            allLocalDcHosts = false;
+          }
+        } else {
+          NodeMetrics metrics = result.getRight().get();
+          int pendingCompactions = metrics.getPendingCompactions();
+          if (pendingCompactions > context.config.getMaxPendingCompactions()) {
+            LOG.info(
+                "SegmentRunner declined to repair segment {} because of"
+                    + " too many pending compactions (> {}) on host \"{}\"",
+                segmentId, context.config.getMaxPendingCompactions(), metrics.getNode());
+
+            String msg = String.format("Postponed due to pending compactions (%d)", pendingCompactions);
+            repairRunner.updateLastEvent(msg);
+            return false;
+          }
+          if (metrics.hasRepairRunning()) {
+            LOG.info(
+                "SegmentRunner declined to repair segment {} because one of the hosts ({}) was "
+                  + "already involved in a repair",
+                segmentId, metrics.getNode());
+
+            String msg = "Postponed due to affected hosts already doing repairs";
+            repairRunner.updateLastEvent(msg);
+            handlePotentialStuckRepairs(busyHosts, metrics.getNode());
+            return false;
+          }
         }
+      } catch (ConcurrentException e) {
+        LOG.warn("Failed grabbing metrics from at least one node. Cannot repair segment :'(", e);
+        allLocalDcHosts = false;
+        allHosts = false;
       }
-    } catch (InterruptedException e) {
-      LOG.debug("failed grabbing nodes metrics", e);
     }
 
     if (okToRepairSegment(allLocalDcHosts, allHosts, context.config.getDatacenterAvailability())) {
@@ -579,44 +944,46 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     }
   }
 
-  Callable<Pair<String, Optional<NodeMetrics>>> getNodeMetrics(String node, String localDc, String nodeDc) {
-
-    return () -> {
-      LOG.debug("getMetricsForHost {} / {} / {}", node, localDc, nodeDc);
+  ListenableFuture<Pair<String, Optional<NodeMetrics>>> getNodeMetrics(String node, String localDc, String nodeDc) {
+    LOG.debug("getMetricsForHost {} / {} / {}", node, localDc, nodeDc);
 
-      if (DatacenterAvailability.ALL != context.config.getDatacenterAvailability()
-          && !nodeDc.equals(localDc)
-          && context.storage instanceof IDistributedStorage) {
-        // If DatacenterAvailability is not ALL, we should assume jmx on remote dc is not reachable.
-        return Pair.of(node, getRemoteNodeMetrics(node, nodeDc));
-      } else {
+    ListenableFuture<Optional<NodeMetrics>> metrics;
+    if (DatacenterAvailability.ALL != context.config.getDatacenterAvailability()
+        && !nodeDc.equals(localDc)
+        && context.storage instanceof IDistributedStorage) {
+      // If DatacenterAvailability is not ALL, we should assume jmx on remote dc is not reachable.
+      metrics = getRemoteNodeMetrics(node, nodeDc);
+    } else {
+      ListenableFuture<Optional<NodeMetrics>> localMetrics = METRICS_GRABBER_EXECUTOR.submit(() -> {
         try {
-          JmxProxy nodeProxy = context.jmxConnectionFactory.connect(
-                  Node.builder().withClusterName(clusterName).withHostname(node).build(),
-                  context.config.getJmxConnectionTimeoutInSeconds());
+          Node host = Node.builder().withClusterName(clusterName).withHostname(node).build();
 
-          NodeMetrics metrics = NodeMetrics.builder()
+          return Optional.of(
+              NodeMetrics.builder()
                   .withNode(node)
                   .withDatacenter(nodeDc)
-                  .withCluster(nodeProxy.getClusterName())
-                  .withPendingCompactions(nodeProxy.getPendingCompactions())
-                  .withHasRepairRunning(nodeProxy.isRepairRunning())
+                  .withCluster(clusterName)
+                  .withPendingCompactions(context.nodeHealthCache.getPendingCompactions(host))
+                  .withHasRepairRunning(context.nodeHealthCache.isRepairRunning(host))
                   .withActiveAnticompactions(0) // for future use
-                  .build();
-
-          return Pair.of(node, Optional.of(metrics));
+                  .build());
         } catch (RuntimeException | ReaperException e) {
           LOG.debug(
               "failed to query metrics for host {}, trying to get metrics from storage...",
               node,
               e);
-          return Pair.of(node, getRemoteNodeMetrics(node, nodeDc));
+          return Optional.empty();
         }
-      }
-    };
+      });
+      metrics = Futures.transformAsync(
+          localMetrics,
+          local -> local.isPresent() ? Futures.immediateFuture(local) : getRemoteNodeMetrics(node, nodeDc),
+          scheduler);
+    }
+    return Futures.transform(metrics, (Optional<NodeMetrics> result) -> Pair.of(node, result), scheduler);
   }
 
-  private Optional<NodeMetrics> getRemoteNodeMetrics(String node, String nodeDc) {
+  private ListenableFuture<Optional<NodeMetrics>> getRemoteNodeMetrics(String node, String nodeDc) {
     Preconditions.checkState(DatacenterAvailability.ALL != context.config.getDatacenterAvailability());
 
     Optional<NodeMetrics> result = Optional.empty();
@@ -634,20 +1001,41 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
                 .withRequested(true)
                 .build());
 
-        long start = System.currentTimeMillis();
-
-        while ( (!result.isPresent() || result.get().isRequested())
-            && start + METRICS_MAX_WAIT_MS > System.currentTimeMillis()) {
-
-          try {
-            Thread.sleep(METRICS_POLL_INTERVAL_MS);
-          } catch (InterruptedException ignore) { }
-          LOG.info("Trying to get metrics from remote DCs for {} in {} of {}", node, nodeDc, clusterName);
-          result = storage.getNodeMetrics(repairRunner.getRepairRunId(), node);
-        }
+        SettableFuture<Optional<NodeMetrics>> remoteMetrics = SettableFuture.create();
+        pollRemoteNodeMetrics(storage, node, nodeDc, System.currentTimeMillis() + METRICS_MAX_WAIT_MS, remoteMetrics);
+        return remoteMetrics;
       }
     }
-    return result;
+    return Futures.immediateFuture(result);
+  }
+
+  /**
+   * Reads the metrics the other reaper instances were asked for every poll interval from the scheduler, until they
+   * answered or the wait is over.
+   */
+  private void pollRemoteNodeMetrics(
+      IDistributedStorage storage,
+      String node,
+      String nodeDc,
+      long deadlineMillis,
+      SettableFuture<Optional<NodeMetrics>> remoteMetrics) {
+
+    scheduler.schedule(
+        () -> {
+          try {
+            LOG.info("Trying to get metrics from remote DCs for {} in {} of {}", node, nodeDc, clusterName);
+            Optional<NodeMetrics> result = storage.getNodeMetrics(repairRunner.getRepairRunId(), node);
+            if ((result.isPresent() && !result.get().isRequested()) || deadlineMillis <= System.currentTimeMillis()) {
+              remoteMetrics.set(result);
+            } else {
+              pollRemoteNodeMetrics(storage, node, nodeDc, deadlineMillis, remoteMetrics);
+            }
+          } catch (RuntimeException e) {
+            remoteMetrics.setException(e);
+          }
+        },
+        METRICS_POLL_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
   }
 
   private boolean isRepairRunningOnOneNode(RepairSegment segment) {
@@ -707,8 +1095,41 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
       String message,
       JmxProxy jmxProxy) {
 
-    final RepairSegment segment = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId).get();
-    Thread.currentThread().setName(clusterName + ":" + segment.getRunId() + ":" + segmentId);
+    synchronized (lock) {
+      // checked under the lock, as repairNo is only known once triggerRepair(..) has returned
+      Preconditions.checkArgument(
+          repairNo == this.repairNo,
+          "Handler for command id %s not handling message with number %s", this.repairNo, repairNo);
+    }
+    lastNotificationMillis = System.currentTimeMillis();
+    pendingNotifications.add(() -> handleNotification(repairNo, status, progress, message, jmxProxy));
+    if (1 == pendingNotificationCount.incrementAndGet()) {
+      scheduler.execute(this::handlePendingNotifications);
+    }
+  }
+
+  /**
+   * Handles the queued notifications one after the other, so that they are still processed in the order they arrived.
+   * The next notification is handled once the segment updates of the previous one are stored.
+   */
+  private void handlePendingNotifications() {
+    supplyNow(pendingNotifications.poll()).thenCompose(handled -> handled).whenComplete((ignored, error) -> {
+      if (null != error) {
+        LOG.warn("Failed handling a notification of repair command {} on segment {}", repairNo, segmentId, error);
+      }
+      if (0 < pendingNotificationCount.decrementAndGet()) {
+        scheduler.execute(this::handlePendingNotifications);
+      }
+    });
+  }
+
+  private CompletionStage<Void> handleNotification(
+      int repairNo,
+      Optional<ActiveRepairService.Status> status,
+      Optional<ProgressEventType> progress,
+      String message,
+      JmxProxy jmxProxy) {
+
     LOG.debug(
         "handle called for repairCommandId {}, outcome {} / {} and message: {}",
         repairNo,
@@ -716,13 +1137,9 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
         progress,
         message);
 
-    Preconditions.checkArgument(
-        repairNo == this.repairNo,
-        "Handler for command id %s not handling message with number %s", this.repairNo, repairNo);
-
-    boolean failOutsideSynchronizedBlock = false;
+    CompletionStage<Boolean> failOutsideSynchronizedBlock = CompletableFuture.completedFuture(false);
     // DO NOT ADD EXTERNAL CALLS INSIDE THIS SYNCHRONIZED BLOCK (JMX PROXY ETC)
-    synchronized (condition) {
+    synchronized (lock) {
       RepairSegment currentSegment = context.storage.getRepairSegment(repairRunner.getRepairRunId(), segmentId).get();
       // See status explanations at: https://wiki.apache.org/cassandra/RepairAsyncAPI
       // Old repair API – up to Cassandra-2.1.x
@@ -731,64 +1148,87 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             status,
             currentSegment,
             repairNo,
-            failOutsideSynchronizedBlock,
-            progress,
-            jmxProxy);
+            progress);
       }
       // New repair API – Cassandra-2.2 onwards
       if (progress.isPresent()) {
-        failOutsideSynchronizedBlock = handleJmxNotificationForCassandra22(
-            progress,
-            currentSegment,
-            repairNo,
-            failOutsideSynchronizedBlock,
-            jmxProxy);
+        failOutsideSynchronizedBlock = failOutsideSynchronizedBlock.thenCombine(
+            handleJmxNotificationForCassandra22(progress, currentSegment, repairNo),
+            Boolean::logicalOr);
       }
     }
 
-    if (failOutsideSynchronizedBlock) {
-      if (takeLead() || renewLead()) {
-        try {
-          postponeCurrentSegment();
-          tryClearSnapshots(message);
-        } finally {
-          // if someone else does hold the lease, ie renewLead(..) was true,
-          // then their writes to repair_run table and any call to releaseLead(..) will throw an exception
-          try {
-            releaseLead();
-          } catch (AssertionError ignore) { }
-        }
-      }
-    }
+    return failOutsideSynchronizedBlock.thenAcceptAsync(
+        failed -> {
+          if (failed) {
+            if (takeLead() || renewLead()) {
+              try {
+                postponeCurrentSegment();
+                tryClearSnapshots(message);
+              } finally {
+                // if someone else does hold the lease, ie renewLead(..) was true,
+                // then their writes to repair_run table and any call to releaseLead(..) will throw an exception
+                try {
+                  releaseLead();
+                } catch (AssertionError ignore) { }
+              }
+            }
+            postponedByHandler.set(true);
+          }
+          // Since we can get out of order notifications, the segment is only over once both the
+          // SUCCESS/FAILURE and the COMPLETE notifications have arrived.
+          if (successOrFailedNotified.get() && completeNotified.get()) {
+            finish(jmxProxy);
+          }
+        },
+        scheduler);
   }
 
-  private boolean handleJmxNotificationForCassandra22(
+  /**
+   * Stores the segment update of a notification once the lead on the segment is renewed, then runs the given action.
+   * The segment is failed instead if the lead was lost, as its repair has since timed out.
+   */
+  private CompletionStage<Boolean> updateOnNotification(
+      RepairSegment segment,
+      RepairSegment.State previousState,
+      Runnable onUpdated) {
+
+    return renewLeadAsync()
+        .thenCompose(renewed -> renewed
+            ? updateRepairSegmentAsync(segment, previousState)
+            : CompletableFuture.completedFuture(false))
+        .handle((updated, error) -> {
+          Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+          if (null != cause && !(cause instanceof AssertionError)) {
+            throw new CompletionException(cause);
+          }
+          if (Boolean.TRUE.equals(updated)) {
+            onUpdated.run();
+          } else {
+            segmentFailed.set(true);
+          }
+          return false;
+        });
+  }
+
+  private CompletionStage<Boolean> handleJmxNotificationForCassandra22(
       Optional<ProgressEventType> progress,
       RepairSegment currentSegment,
-      int repairNumber,
-      boolean failOutsideSynchronizedBlock,
-      JmxProxy jmxProxy) {
+      int repairNumber) {
 
+    boolean failOutsideSynchronizedBlock = false;
     switch (progress.get()) {
       case START:
-        try {
-          // avoid changing state to RUNNING if later notifications have already arrived
-          if (!successOrFailedNotified.get()
-              && RepairSegment.State.NOT_STARTED == currentSegment.getState()
-              && renewLead()) {
-
-            context.storage.updateRepairSegment(
-                currentSegment
-                    .with()
-                    .withState(RepairSegment.State.RUNNING)
-                    .withId(segmentId)
-                    .build());
-
-            LOG.debug("updated segment {} with state {}", segmentId, RepairSegment.State.RUNNING);
-            break;
-          }
-        } catch (AssertionError er) {
-          // ignore. segment repair has since timed out.
+        // avoid changing state to RUNNING if later notifications have already arrived
+        if (!successOrFailedNotified.get() && RepairSegment.State.NOT_STARTED == currentSegment.getState()) {
+          return updateOnNotification(
+              currentSegment
+                  .with()
+                  .withState(RepairSegment.State.RUNNING)
+                  .withId(segmentId)
+                  .build(),
+              currentSegment.getState(),
+              () -> LOG.debug("updated segment {} with state {}", segmentId, RepairSegment.State.RUNNING));
         }
         segmentFailed.set(true);
         break;
@@ -799,40 +1239,27 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             !successOrFailedNotified.get(),
             "illegal multiple 'SUCCESS' and 'FAILURE', %s:%s", repairRunner.getRepairRunId(), segmentId);
 
-        try {
-          if (segmentFailed.get()) {
-            LOG.debug(
-                "Got SUCCESS for segment with id '{}' and repair number '{}', but it had already timed out",
-                segmentId,
-                repairNumber);
-          } else if (renewLead()) {
-            LOG.debug(
-                "repair session succeeded for segment with id '{}' and repair number '{}'",
-                segmentId,
-                repairNumber);
-
-            context.storage.updateRepairSegment(
-                currentSegment
-                    .with()
-                    .withState(RepairSegment.State.DONE)
-                    .withEndTime(DateTime.now())
-                    .withId(segmentId)
-                    .build());
-
-            successOrFailedNotified.set(true);
-            // Since we can get out of order notifications,
-            // we need to exit if we already got the COMPLETE notification.
-            if (completeNotified.get()) {
-              condition.signalAll();
-              jmxProxy.removeRepairStatusHandler(repairNumber);
-            }
-            break;
-          }
-        } catch (AssertionError er) {
-          // ignore. segment repair has since timed out.
+        if (segmentFailed.get()) {
+          LOG.debug(
+              "Got SUCCESS for segment with id '{}' and repair number '{}', but it had already timed out",
+              segmentId,
+              repairNumber);
+          break;
         }
-        segmentFailed.set(true);
-        break;
+        LOG.debug(
+            "repair session succeeded for segment with id '{}' and repair number '{}'",
+            segmentId,
+            repairNumber);
+
+        return updateOnNotification(
+            currentSegment
+                .with()
+                .withState(RepairSegment.State.DONE)
+                .withEndTime(DateTime.now())
+                .withId(segmentId)
+                .build(),
+            currentSegment.getState(),
+            () -> successOrFailedNotified.set(true));
 
       case ERROR:
       case ABORT:
@@ -847,12 +1274,6 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             repairNumber);
         failOutsideSynchronizedBlock = true;
         successOrFailedNotified.set(true);
-        // Since we can get out of order notifications,
-        // we need to exit if we already got the COMPLETE notification.
-        if (completeNotified.get()) {
-          condition.signalAll();
-          jmxProxy.removeRepairStatusHandler(repairNumber);
-        }
         break;
 
       case COMPLETE:
@@ -870,10 +1291,6 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             segmentId,
             repairNumber);
         completeNotified.set(true);
-        if (successOrFailedNotified.get()) {
-          condition.signalAll();
-          jmxProxy.removeRepairStatusHandler(repairNumber);
-        }
         break;
       default:
         LOG.debug(
@@ -882,37 +1299,28 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             segmentId,
             repairNumber);
     }
-    return failOutsideSynchronizedBlock;
+    return CompletableFuture.completedFuture(failOutsideSynchronizedBlock);
   }
 
-  private boolean handleJmxNotificationForCassandra21(
+  private CompletionStage<Boolean> handleJmxNotificationForCassandra21(
       Optional<ActiveRepairService.Status> status,
       RepairSegment currentSegment,
       int repairNumber,
-      boolean failOutsideSynchronizedBlock,
-      Optional<ProgressEventType> progress,
-      JmxProxy jmxProxy) {
+      Optional<ProgressEventType> progress) {
 
+    boolean failOutsideSynchronizedBlock = false;
     switch (status.get()) {
       case STARTED:
-        try {
-          // avoid changing state to RUNNING if later notifications have already arrived
-          if (!successOrFailedNotified.get()
-              && RepairSegment.State.NOT_STARTED == currentSegment.getState()
-              && renewLead()) {
-
-            context.storage.updateRepairSegment(
-                currentSegment
-                    .with()
-                    .withState(RepairSegment.State.RUNNING)
-                    .withId(segmentId)
-                    .build());
-
-            LOG.debug("updated segment {} with state {}", segmentId, RepairSegment.State.RUNNING);
-            break;
-          }
-        } catch (AssertionError er) {
-          // ignore. segment repair has since timed out.
+        // avoid changing state to RUNNING if later notifications have already arrived
+        if (!successOrFailedNotified.get() && RepairSegment.State.NOT_STARTED == currentSegment.getState()) {
+          return updateOnNotification(
+              currentSegment
+                  .with()
+                  .withState(RepairSegment.State.RUNNING)
+                  .withId(segmentId)
+                  .build(),
+              currentSegment.getState(),
+              () -> LOG.debug("updated segment {} with state {}", segmentId, RepairSegment.State.RUNNING));
         }
         segmentFailed.set(true);
         break;
@@ -926,41 +1334,27 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
               repairRunner.getRepairRunId(),
               segmentId);
 
-          try {
-            if (segmentFailed.get()) {
-              LOG.debug(
-                  "Got SESSION_SUCCESS for segment with id '{}' and repair number '{}', but it had already timed out",
-                  segmentId,
-                  repairNumber);
-            } else if (renewLead()) {
-              LOG.debug(
-                  "repair session succeeded for segment with id '{}' and repair number '{}'",
-                  segmentId,
-                  repairNumber);
-
-              context.storage.updateRepairSegment(
-                  currentSegment
-                      .with()
-                      .withState(RepairSegment.State.DONE)
-                      .withEndTime(DateTime.now())
-                      .withId(segmentId)
-                      .build());
-
-              // Since we can get out of order notifications,
-              // we need to exit if we already got the COMPLETE notification.
-              successOrFailedNotified.set(true);
-              if (completeNotified.get()) {
-                condition.signalAll();
-                jmxProxy.removeRepairStatusHandler(repairNumber);
-              }
-
-              break;
-            }
-          } catch (AssertionError er) {
-            // ignore. segment repair has since timed out.
+          if (segmentFailed.get()) {
+            LOG.debug(
+                "Got SESSION_SUCCESS for segment with id '{}' and repair number '{}', but it had already timed out",
+                segmentId,
+                repairNumber);
+            break;
           }
-          segmentFailed.set(true);
-          break;
+          LOG.debug(
+              "repair session succeeded for segment with id '{}' and repair number '{}'",
+              segmentId,
+              repairNumber);
+
+          return updateOnNotification(
+              currentSegment
+                  .with()
+                  .withState(RepairSegment.State.DONE)
+                  .withEndTime(DateTime.now())
+                  .withId(segmentId)
+                  .build(),
+              currentSegment.getState(),
+              () -> successOrFailedNotified.set(true));
         }
         break;
 
@@ -978,13 +1372,7 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
               segmentId,
               repairNumber);
           failOutsideSynchronizedBlock = true;
-          // Since we can get out of order notifications,
-          // we need to exit if we already got the COMPLETE notification.
           successOrFailedNotified.set(true);
-          if (completeNotified.get()) {
-            condition.signalAll();
-            jmxProxy.removeRepairStatusHandler(repairNumber);
-          }
           break;
         }
         break;
@@ -1003,10 +1391,7 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             "repair session finished for segment with id '{}' and repair number '{}'",
             segmentId,
             repairNumber);
-        if (successOrFailedNotified.get()) {
-          condition.signalAll();
-          jmxProxy.removeRepairStatusHandler(repairNumber);
-        }
+        completeNotified.set(true);
         break;
       default:
         LOG.debug(
@@ -1015,7 +1400,7 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
             segmentId,
             repairNumber);
     }
-    return failOutsideSynchronizedBlock;
+    return CompletableFuture.completedFuture(failOutsideSynchronizedBlock);
   }
 
   /**
@@ -1122,6 +1507,83 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     }
   }
 
+  private CompletionStage<Boolean> takeLeadAsync() {
+    if (!(context.storage instanceof IAsyncDistributedStorage)) {
+      return supplyNow(this::takeLead);
+    }
+    Timer.Context cx = context.metricRegistry.timer(MetricRegistry.name(SegmentRunner.class, "takeLead")).time();
+    return ((IAsyncDistributedStorage) context.storage).takeLeadAsync(leaderElectionId)
+        .whenComplete((taken, error) -> {
+          cx.stop();
+          if (!Boolean.TRUE.equals(taken)) {
+            context.metricRegistry.counter(MetricRegistry.name(SegmentRunner.class, "takeLead", "failed")).inc();
+          }
+        });
+  }
+
+  private CompletionStage<Boolean> renewLeadAsync() {
+    if (!(context.storage instanceof IAsyncDistributedStorage)) {
+      return supplyNow(this::renewLead);
+    }
+    Timer.Context cx = context.metricRegistry.timer(MetricRegistry.name(SegmentRunner.class, "renewLead")).time();
+    return ((IAsyncDistributedStorage) context.storage).renewLeadAsync(leaderElectionId)
+        .whenComplete((renewed, error) -> {
+          cx.stop();
+          if (!Boolean.TRUE.equals(renewed)) {
+            LOG.warn("Failed renewing the lead on segment {}", segmentId, error);
+            context.metricRegistry.counter(MetricRegistry.name(SegmentRunner.class, "renewLead", "failed")).inc();
+          }
+        });
+  }
+
+  /**
+   * Releases the lead without waiting on the storage, then runs the given action whether the release went through or
+   * not.
+   */
+  private void releaseLeadAndThen(Runnable then) {
+    CompletionStage<Void> released;
+    try {
+      if (context.storage instanceof IAsyncDistributedStorage) {
+        Timer.Context cx
+            = context.metricRegistry.timer(MetricRegistry.name(SegmentRunner.class, "releaseLead")).time();
+        released = ((IAsyncDistributedStorage) context.storage).releaseLeadAsync(leaderElectionId)
+            .whenComplete((ignored, error) -> cx.stop());
+      } else {
+        releaseLead();
+        released = CompletableFuture.completedFuture(null);
+      }
+    } catch (RuntimeException | AssertionError e) {
+      then.run();
+      throw e;
+    }
+    released.whenComplete((ignored, error) -> {
+      if (null != error) {
+        LOG.warn("Failed releasing the lead on segment {}", segmentId, error);
+      }
+      then.run();
+    });
+  }
+
+  private CompletionStage<Boolean> updateRepairSegmentAsync(RepairSegment segment, RepairSegment.State previousState) {
+    if (context.storage instanceof IAsyncStorage) {
+      return ((IAsyncStorage) context.storage).updateRepairSegmentAsync(segment, previousState);
+    }
+    return supplyNow(() -> context.storage.updateRepairSegment(segment, previousState));
+  }
+
+  /**
+   * Runs the given synchronous call, capturing its outcome, including any failed assertion, into a completed stage.
+   */
+  private static <T> CompletionStage<T> supplyNow(Supplier<T> supplier) {
+    CompletableFuture<T> supplied = new CompletableFuture<>();
+    try {
+      supplied.complete(supplier.get());
+    } catch (RuntimeException | AssertionError e) {
+      supplied.completeExceptionally(e);
+    }
+    return supplied;
+  }
+
   private int countRunningReapers() {
     return context.storage instanceof IDistributedStorage
         ? ((IDistributedStorage) context.storage).countRunningReapers()
@@ -1162,6 +1624,21 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     return tables;
   }
 
+  /**
+   * @param tables the tables to repair, all the tables of the keyspace if empty
+   * @param skippedTables the tables without writes since the last repair
+   * @return the tables to repair without the skipped ones, empty if they are all skipped
+   */
+  static Set<String> removeSkippedTables(
+      JmxProxy coordinator,
+      String keyspace,
+      Set<String> tables,
+      Set<String> skippedTables) throws ReaperException {
+
+    Set<String> allTables = tables.isEmpty() ? coordinator.getTableNamesForKeyspace(keyspace) : tables;
+    return Sets.newHashSet(Sets.difference(allTables, skippedTables));
+  }
+
   private class BusyHostsInitializer extends LazyInitializer<Set<String>> {
 
     private final JmxProxy coordinator;
@@ -1171,12 +1648,18 @@ final class SegmentRunner implements RepairStatusHandler, Runnable {
     }
 
     @Override
-    protected Set<String> initialize() {
+    protected Set<String> initialize() throws ConcurrentException {
       Collection<RepairParameters> ongoingRepairs = context.storage.getOngoingRepairsInCluster(clusterName);
       Set<String> busyHosts = Sets.newHashSet();
-      ongoingRepairs.forEach((ongoingRepair) -> {
-        busyHosts.addAll(coordinator.tokenRangeToEndpoint(ongoingRepair.keyspaceName, ongoingRepair.tokenRange));
-      });
+      try {
+        for (RepairParameters ongoingRepair : ongoingRepairs) {
+          busyHosts.addAll(
+              context.topologyCache.get(clusterName, ongoingRepair.keyspaceName, coordinator)
+                  .getReplicas(ongoingRepair.tokenRange.getTokenRanges().get(0)));
+        }
+      } catch (ReaperException e) {
+        throw new ConcurrentException(e);
+      }
       return busyHosts;
     }
   }
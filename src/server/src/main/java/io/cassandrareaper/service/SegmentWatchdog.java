@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.core.RepairRun;
+import io.cassandrareaper.core.RepairSegment;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide watchdog of the running segments, aborting the ones that outlive their deadline.
+ *
+ * <p>Segment runners register their segment once its repair is triggered and unregister it once it is over. The
+ * deadlines are kept in the heap of a scheduled executor, so nothing is polled: a warning is issued when a segment
+ * nears its deadline, and the segment is aborted when the deadline expires while it is still running. Segment runners
+ * time out on their own much earlier, the watchdog only catches the ones whose status checks stopped.
+ */
+public final class SegmentWatchdog {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SegmentWatchdog.class);
+
+  // warnings are issued once that fraction of the time given to a segment is left
+  private static final double NEAR_DEADLINE_FRACTION = 0.25;
+
+  private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(
+      1,
+      new ThreadFactoryBuilder().setNameFormat("SegmentWatchdog-%d").setDaemon(true).build());
+
+  static {
+    SCHEDULER.setRemoveOnCancelPolicy(true);
+  }
+
+  private final AppContext context;
+  private final ConcurrentMap<UUID, Watch> watches = Maps.newConcurrentMap();
+
+  private SegmentWatchdog(AppContext context) {
+    this.context = context;
+  }
+
+  public static SegmentWatchdog create(AppContext context) {
+    return new SegmentWatchdog(context);
+  }
+
+  /**
+   * Watches a running segment, replacing the previous deadline of the segment if any.
+   *
+   * @param runId the run of the segment
+   * @param segmentId the segment
+   * @param timeoutMillis the time the segment has left to finish
+   */
+  void watch(UUID runId, UUID segmentId, long timeoutMillis) {
+    Watch watch = new Watch(runId, segmentId);
+    Optional.ofNullable(watches.put(segmentId, watch)).ifPresent(Watch::cancel);
+    watch.schedule(timeoutMillis);
+  }
+
+  /**
+   * Stops watching a segment, once its repair is over.
+   */
+  void unwatch(UUID segmentId) {
+    Optional.ofNullable(watches.remove(segmentId)).ifPresent(Watch::cancel);
+  }
+
+  @VisibleForTesting
+  boolean isWatched(UUID segmentId) {
+    return watches.containsKey(segmentId);
+  }
+
+  private final class Watch {
+
+    private final UUID runId;
+    private final UUID segmentId;
+    private volatile ScheduledFuture<?> nearDeadline;
+    private volatile ScheduledFuture<?> deadline;
+
+    Watch(UUID runId, UUID segmentId) {
+      this.runId = runId;
+      this.segmentId = segmentId;
+    }
+
+    void schedule(long timeoutMillis) {
+      long nearDeadlineMillis = (long) (timeoutMillis * (1 - NEAR_DEADLINE_FRACTION));
+      nearDeadline = SCHEDULER.schedule(this::nearDeadline, nearDeadlineMillis, TimeUnit.MILLISECONDS);
+      deadline = SCHEDULER.schedule(this::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void cancel() {
+      // a watch replaced before being scheduled is dropped when it fires
+      if (null != nearDeadline) {
+        nearDeadline.cancel(false);
+      }
+      if (null != deadline) {
+        deadline.cancel(false);
+      }
+    }
+
+    private void nearDeadline() {
+      if (this == watches.get(segmentId)) {
+        context.metricRegistry.meter(MetricRegistry.name(SegmentWatchdog.class, "nearDeadline")).mark();
+        LOG.info("Segment {} of run {} is running for long and is nearing its deadline", segmentId, runId);
+      }
+    }
+
+    private void expire() {
+      if (!watches.remove(segmentId, this)) {
+        return;
+      }
+      context.metricRegistry.meter(MetricRegistry.name(SegmentWatchdog.class, "expired")).mark();
+      try {
+        Optional<RepairSegment> segment = context.storage.getRepairSegment(runId, segmentId);
+        Optional<RepairRun> run = context.storage.getRepairRun(runId);
+        if (segment.isPresent() && run.isPresent() && RepairSegment.State.RUNNING == segment.get().getState()) {
+          LOG.warn("Segment {} of run {} is still running past its deadline, aborting it", segmentId, runId);
+          if (null != context.repairManager) {
+            context.repairManager.abortSegments(Collections.singletonList(segment.get()), run.get());
+          }
+        }
+      } catch (RuntimeException e) {
+        LOG.warn("Failed aborting segment {} of run {} past its deadline", segmentId, runId, e);
+      }
+    }
+  }
+}
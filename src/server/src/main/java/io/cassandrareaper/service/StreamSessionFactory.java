@@ -48,6 +48,7 @@ public final class StreamSessionFactory {
 
     return StreamSession.builder()
         .withPlanId(planId.toString())
+        .withDescription(streamState.description)
         .withStreams(streams)
         .build();
   }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Estimates the amount of data held by token ranges, from the disk space used on each node.
+ *
+ * <p>Cassandra only exposes data sizes per node through JMX, so the data of a node is assumed to be evenly spread over
+ * the tokens it replicates. A token range then holds its span times the mean data density of its replicas, which
+ * weighs the ranges of large or unbalanced nodes more than the token span alone.
+ */
+final class TokenRangeSizes {
+
+  private final RingTopology topology;
+  private final BigInteger ringSize;
+  private final Map<String, Double> bytesPerToken;
+  private final double meanBytesPerToken;
+  private final double totalBytes;
+
+  private TokenRangeSizes(
+      RingTopology topology,
+      BigInteger ringSize,
+      Map<String, Double> bytesPerToken,
+      double meanBytesPerToken) {
+
+    this.topology = topology;
+    this.ringSize = ringSize;
+    this.bytesPerToken = bytesPerToken;
+    this.meanBytesPerToken = meanBytesPerToken;
+    double total = 0;
+    for (List<String> range : topology.getRangeToEndpointMap().keySet()) {
+      total += estimate(new RingRange(range.get(0), range.get(1)));
+    }
+    this.totalBytes = total;
+  }
+
+  /**
+   * @param rangeToEndpoint the token range to replicas map of the keyspace
+   * @param bytesByNode the disk space used by the keyspace on the nodes, nodes that couldn't be reached can be missing
+   * @param ringSize the number of tokens of the ring
+   * @return the estimates, absent if the size of no node is known
+   */
+  static Optional<TokenRangeSizes> create(
+      Map<List<String>, List<String>> rangeToEndpoint,
+      Map<String, Long> bytesByNode,
+      BigInteger ringSize) {
+
+    Map<String, BigInteger> replicatedTokens = Maps.newHashMap();
+    for (Map.Entry<List<String>, List<String>> entry : rangeToEndpoint.entrySet()) {
+      BigInteger span = new RingRange(entry.getKey().get(0), entry.getKey().get(1)).span(ringSize);
+      entry.getValue().forEach(node -> replicatedTokens.merge(node, span, BigInteger::add));
+    }
+
+    Map<String, Double> bytesPerToken = Maps.newHashMap();
+    long knownBytes = 0;
+    BigInteger knownTokens = BigInteger.ZERO;
+    for (Map.Entry<String, BigInteger> entry : replicatedTokens.entrySet()) {
+      Long bytes = bytesByNode.get(entry.getKey());
+      if (null != bytes) {
+        bytesPerToken.put(entry.getKey(), bytes / entry.getValue().doubleValue());
+        knownBytes += bytes;
+        knownTokens = knownTokens.add(entry.getValue());
+      }
+    }
+    if (0 == knownBytes) {
+      return Optional.empty();
+    }
+    RingTopology topology = RingTopology.of(rangeToEndpoint);
+    return Optional.of(new TokenRangeSizes(topology, ringSize, bytesPerToken, knownBytes / knownTokens.doubleValue()));
+  }
+
+  /**
+   * @return the estimated bytes of the token range, on a single replica
+   */
+  double estimate(RingRange tokenRange) {
+    List<String> replicas = topology.getReplicas(tokenRange);
+    double density = replicas.stream()
+        .mapToDouble(node -> bytesPerToken.getOrDefault(node, meanBytesPerToken))
+        .average()
+        .orElse(meanBytesPerToken);
+
+    return tokenRange.span(ringSize).doubleValue() * density;
+  }
+
+  /**
+   * @return the estimated bytes of the whole ring, on a single replica
+   */
+  double getTotal() {
+    return totalBytes;
+  }
+
+  /**
+   * @return the number of segments the token range must be split into, for segments of even sizes
+   */
+  int segmentCount(RingRange tokenRange, int totalSegmentCount) {
+    return Math.max(1, (int) Math.ceil(estimate(tokenRange) / totalBytes * totalSegmentCount));
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide cache of the ring topologies, by cluster and keyspace.
+ *
+ * <p>The token ranges to replicas map of a keyspace is large and was read through JMX for every segment. It is now
+ * read once per topology version: every so often the much smaller endpoint to host id map of the cluster is compared
+ * with the one the topology was read with, and the topology is read again when nodes joined, left or were replaced.
+ * Topologies are read again after a while anyway, so that token moves and replication changes are picked up too.
+ */
+public final class TopologyCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TopologyCache.class);
+
+  private static final long CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private final AppContext context;
+  private final ConcurrentMap<Pair<String, String>, Snapshot> snapshots = Maps.newConcurrentMap();
+
+  private TopologyCache(AppContext context) {
+    this.context = context;
+  }
+
+  public static TopologyCache create(AppContext context) {
+    return new TopologyCache(context);
+  }
+
+  /**
+   * @param clusterName the cluster of the keyspace
+   * @param keyspace the keyspace
+   * @param jmxProxy a connection to a node of the cluster, used when the cached topology is outdated
+   * @return the current topology of the keyspace
+   */
+  public RingTopology get(String clusterName, String keyspace, JmxProxy jmxProxy) throws ReaperException {
+    Pair<String, String> key = Pair.of(clusterName, keyspace);
+    Snapshot snapshot = snapshots.get(key);
+    if (null != snapshot && !snapshot.needsCheck()) {
+      return snapshot.topology;
+    }
+    synchronized (this) {
+      snapshot = snapshots.get(key);
+      if (null != snapshot && !snapshot.needsCheck()) {
+        return snapshot.topology;
+      }
+      Map<String, String> endpoints = ImmutableMap.copyOf(jmxProxy.getEndpointToHostId());
+      if (null != snapshot && snapshot.isCurrent(endpoints)) {
+        snapshot.checked();
+        return snapshot.topology;
+      }
+      LOG.debug("reading the topology of keyspace {} in cluster {}", keyspace, clusterName);
+      context.metricRegistry.meter(MetricRegistry.name(TopologyCache.class, "loads")).mark();
+      RingTopology topology = RingTopology.of(jmxProxy.getRangeToEndpointMap(keyspace));
+      snapshots.put(key, new Snapshot(topology, endpoints));
+      return topology;
+    }
+  }
+
+  /**
+   * Drops the topologies of the cluster, so that the next reads go to JMX.
+   */
+  public void invalidate(String clusterName) {
+    snapshots.keySet().removeIf(key -> key.getLeft().equals(clusterName));
+  }
+
+  private static final class Snapshot {
+
+    private final RingTopology topology;
+    private final Map<String, String> endpoints;
+    private final long loadedAt = System.currentTimeMillis();
+    private volatile long checkedAt = loadedAt;
+
+    Snapshot(RingTopology topology, Map<String, String> endpoints) {
+      this.topology = topology;
+      this.endpoints = endpoints;
+    }
+
+    boolean needsCheck() {
+      return checkedAt + CHECK_INTERVAL_MILLIS <= System.currentTimeMillis();
+    }
+
+    boolean isCurrent(Map<String, String> currentEndpoints) {
+      return endpoints.equals(currentEndpoints) && loadedAt + MAX_AGE_MILLIS > System.currentTimeMillis();
+    }
+
+    void checked() {
+      checkedAt = System.currentTimeMillis();
+    }
+  }
+}
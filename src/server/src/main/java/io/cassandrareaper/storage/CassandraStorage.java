@@ -19,6 +19,7 @@ package io.cassandrareaper.storage;
 
 import io.cassandrareaper.AppContext;
 import io.cassandrareaper.ReaperApplicationConfiguration;
+import io.cassandrareaper.ReaperException;
 import io.cassandrareaper.core.Cluster;
 import io.cassandrareaper.core.NodeMetrics;
 import io.cassandrareaper.core.RepairRun;
@@ -30,6 +31,7 @@ import io.cassandrareaper.core.RepairSegment.State;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Segment;
 import io.cassandrareaper.core.Snapshot;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.resources.view.RepairRunStatus;
 import io.cassandrareaper.resources.view.RepairScheduleStatus;
 import io.cassandrareaper.service.RepairParameters;
@@ -38,22 +40,31 @@ import io.cassandrareaper.storage.cassandra.DateTimeCodec;
 import io.cassandrareaper.storage.cassandra.Migration003;
 import io.cassandrareaper.storage.cassandra.Migration009;
 import io.cassandrareaper.storage.cassandra.Migration016;
+import io.cassandrareaper.storage.cassandra.Migration018;
+import io.cassandrareaper.storage.cassandra.Migration020;
+import io.cassandrareaper.storage.cassandra.PipelinedBatchWriter;
 
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import javax.annotation.Nullable;
-
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.CodecRegistry;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PoolingOptions;
@@ -69,7 +80,6 @@ import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.VersionNumber;
 import com.datastax.driver.core.WriteType;
 import com.datastax.driver.core.exceptions.DriverException;
-import com.datastax.driver.core.exceptions.InvalidQueryException;
 import com.datastax.driver.core.policies.DefaultRetryPolicy;
 import com.datastax.driver.core.policies.DowngradingConsistencyRetryPolicy;
 import com.datastax.driver.core.policies.RetryPolicy;
@@ -82,8 +92,14 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.util.Duration;
 import org.apache.cassandra.repair.RepairParallelism;
@@ -98,7 +114,7 @@ import systems.composable.dropwizard.cassandra.CassandraFactory;
 import systems.composable.dropwizard.cassandra.pooling.PoolingOptionsFactory;
 import systems.composable.dropwizard.cassandra.retry.RetryPolicyFactory;
 
-public final class CassandraStorage implements IStorage, IDistributedStorage {
+public final class CassandraStorage implements IAsyncStorage, IAsyncDistributedStorage, Managed {
 
   /* Simple stmts */
   private static final String SELECT_CLUSTER = "SELECT * FROM cluster";
@@ -108,11 +124,23 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
   private static final String SELECT_RUNNING_REAPERS = "SELECT reaper_instance_id FROM running_reapers";
 
   private static final Logger LOG = LoggerFactory.getLogger(CassandraStorage.class);
+  private static final int MAX_SEGMENT_IDS_PER_QUERY = 100;
+  private static final int MAX_SEGMENTS_BY_STATE_PER_BATCH = 100;
+  private static final long MAX_CACHED_REPAIR_RUNS = 1000;
+  private static final long MAX_CACHED_CLUSTERS = 100;
+  private static final long CACHE_INVALIDATIONS_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(2);
+  // invalidations are polled a bit before the previous poll, in case the clocks of the reaper instances drift apart
+  private static final long MAX_CLOCK_DRIFT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final String REPAIR_RUN_CACHE = "repair_run";
+  private static final String CLUSTER_CACHE = "cluster";
+  private static final String REPAIR_SEGMENT_CACHE = "repair_segment";
 
   private final com.datastax.driver.core.Cluster cassandra;
   private final Session session;
   private final ObjectMapper objectMapper = new ObjectMapper();
   private final VersionNumber version;
+  private final MetricRegistry metricRegistry;
+  private final int maxInFlightSegmentBatches;
 
   private final LoadingCache<UUID, RepairUnit> repairUnits = CacheBuilder.newBuilder()
       .build(new CacheLoader<UUID, RepairUnit>() {
@@ -122,11 +150,26 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
         }
       });
 
+  private final RepairSegmentIndex segmentIndex = new RepairSegmentIndex(this::getRepairSegmentsForRun);
+  private final RepairRunEventBuffer lastEvents = new RepairRunEventBuffer(this::writeRepairRunLastEvent);
+
+  private final ReadThroughCache<UUID, RepairRun> repairRuns
+      = new ReadThroughCache<>(MAX_CACHED_REPAIR_RUNS, this::getRepairRunImpl);
+
+  private final ReadThroughCache<String, Cluster> clusters
+      = new ReadThroughCache<>(MAX_CACHED_CLUSTERS, this::getClusterImpl);
+
+  private final ScheduledExecutorService cacheInvalidationsPoller = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("CacheInvalidationsPoller-%d").setDaemon(true).build());
+
+  private volatile long lastCacheInvalidationsPoll = System.currentTimeMillis();
+
   /* prepared stmts */
   private PreparedStatement insertClusterPrepStmt;
   private PreparedStatement getClusterPrepStmt;
   private PreparedStatement deleteClusterPrepStmt;
   private PreparedStatement insertRepairRunPrepStmt;
+  private PreparedStatement insertRepairRunLastEventPrepStmt;
   private PreparedStatement insertRepairRunClusterIndexPrepStmt;
   private PreparedStatement insertRepairRunUnitIndexPrepStmt;
   private PreparedStatement getRepairRunPrepStmt;
@@ -142,13 +185,18 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
   private PreparedStatement insertRepairSegmentIncrementalPrepStmt;
   private PreparedStatement updateRepairSegmentPrepStmt;
   private PreparedStatement insertRepairSegmentEndTimePrepStmt;
+  private PreparedStatement deleteRepairSegmentPrepStmt;
   private PreparedStatement getRepairSegmentPrepStmt;
   private PreparedStatement getRepairSegmentsByRunIdPrepStmt;
-  private PreparedStatement getRepairSegmentCountByRunIdPrepStmt;
-  @Nullable // null on Cassandra-2 as it's not supported syntax
-  private PreparedStatement getRepairSegmentsByRunIdAndStatePrepStmt = null;
-  @Nullable // null on Cassandra-2 as it's not supported syntax
-  private PreparedStatement getRepairSegmentCountByRunIdAndStatePrepStmt = null;
+  private PreparedStatement getRepairSegmentsByIdsPrepStmt;
+  private PreparedStatement insertSegmentByStatePrepStmt;
+  private PreparedStatement deleteSegmentByStatePrepStmt;
+  private PreparedStatement deleteSegmentsByStatePrepStmt;
+  private PreparedStatement getSegmentIdsByStatePrepStmt;
+  private PreparedStatement addToSegmentCountPrepStmt;
+  private PreparedStatement getSegmentCountsPrepStmt;
+  private PreparedStatement getSegmentCountPrepStmt;
+  private PreparedStatement deleteSegmentCountsPrepStmt;
   private PreparedStatement insertRepairSchedulePrepStmt;
   private PreparedStatement getRepairSchedulePrepStmt;
   private PreparedStatement getRepairScheduleByClusterAndKsPrepStmt;
@@ -167,8 +215,15 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
   private PreparedStatement getSnapshotPrepStmt;
   private PreparedStatement deleteSnapshotPrepStmt;
   private PreparedStatement saveSnapshotPrepStmt;
+  private PreparedStatement saveTableWriteCountsPrepStmt;
+  private PreparedStatement getTableWriteCountsPrepStmt;
+  private PreparedStatement deleteTableWriteCountsPrepStmt;
+  private PreparedStatement insertCacheInvalidationPrepStmt;
+  private PreparedStatement getCacheInvalidationsPrepStmt;
 
   public CassandraStorage(ReaperApplicationConfiguration config, Environment environment) {
+    metricRegistry = environment.metrics();
+    maxInFlightSegmentBatches = config.getMaxInFlightSegmentBatches();
     CassandraFactory cassandraFactory = config.getCassandraFactory();
     overrideQueryOptions(cassandraFactory);
     overrideRetryPolicy(cassandraFactory);
@@ -190,6 +245,26 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
         .get();
 
     prepareStatements();
+
+    cacheInvalidationsPoller.scheduleWithFixedDelay(
+        this::pollCacheInvalidations,
+        CACHE_INVALIDATIONS_POLL_INTERVAL_MILLIS,
+        CACHE_INVALIDATIONS_POLL_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void start() {
+    // connected when constructed
+  }
+
+  /**
+   * Called before the session closes, as the cassandra cluster was managed by the application first.
+   */
+  @Override
+  public void stop() {
+    cacheInvalidationsPoller.shutdownNow();
+    lastEvents.flush();
   }
 
   private static void initializeAndUpgradeSchema(
@@ -228,6 +303,14 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
         // Migration009 needs to happen before `migration.migrate()` in case it fails and needs re-trying
         Migration009.migrate(session);
       }
+      if (currentVersion > 3 && currentVersion < 18) {
+        // Migration018 needs to happen before `migration.migrate()` in case it fails and needs re-trying
+        Migration018.migrate(session);
+      }
+      if (currentVersion > 3 && currentVersion < 20) {
+        // Migration020 needs to happen before `migration.migrate()` in case it fails and needs re-trying
+        Migration020.migrate(session);
+      }
       MigrationTask migration = new MigrationTask(database, migrationRepo);
       migration.migrate();
       Migration003.migrate(session);
@@ -235,6 +318,11 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
       if (currentVersion <= 15) {
         Migration016.migrate(session, keyspace);
       }
+      if (currentVersion <= 3) {
+        // the repair_run table only has uuids once `003_switch_to_uuids.cql` has run
+        Migration018.migrate(session);
+        Migration020.migrate(session);
+      }
     }
   }
 
@@ -254,6 +342,9 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
                 + "start_time, end_time, pause_time, intensity, last_event, segment_count, repair_parallelism) "
                 + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
         .setConsistencyLevel(ConsistencyLevel.QUORUM);
+    insertRepairRunLastEventPrepStmt = session
+        .prepare("INSERT INTO repair_run(id, last_event) VALUES(?, ?) USING TIMESTAMP ?")
+        .setConsistencyLevel(ConsistencyLevel.QUORUM);
     insertRepairRunClusterIndexPrepStmt
         = session.prepare("INSERT INTO repair_run_by_cluster(cluster_name, id) values(?, ?)");
     insertRepairRunUnitIndexPrepStmt
@@ -302,6 +393,7 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     insertRepairSegmentEndTimePrepStmt = session
         .prepare("INSERT INTO repair_run(id, segment_id, segment_end_time) VALUES(?, ?, ?)")
         .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    deleteRepairSegmentPrepStmt = session.prepare("DELETE FROM repair_run WHERE id = ? AND segment_id = ?");
     getRepairSegmentPrepStmt = session
             .prepare(
                 "SELECT id,repair_unit_id,segment_id,start_token,end_token,segment_state,coordinator_host,"
@@ -311,7 +403,38 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     getRepairSegmentsByRunIdPrepStmt = session.prepare(
         "SELECT id,repair_unit_id,segment_id,start_token,end_token,segment_state,coordinator_host,segment_start_time,"
             + "segment_end_time,fail_count, token_ranges FROM repair_run WHERE id = ?");
-    getRepairSegmentCountByRunIdPrepStmt = session.prepare("SELECT count(*) FROM repair_run WHERE id = ?");
+    getRepairSegmentsByIdsPrepStmt = session
+        .prepare(
+            "SELECT id,repair_unit_id,segment_id,start_token,end_token,segment_state,coordinator_host,"
+                + "segment_start_time,segment_end_time,fail_count, token_ranges"
+                + " FROM repair_run WHERE id = ? and segment_id IN ?")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    insertSegmentByStatePrepStmt = session
+        .prepare(
+            "INSERT INTO repair_run_segment_by_state (id,segment_state,segment_id,start_token,end_token)"
+                + " VALUES(?, ?, ?, ?, ?)")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    deleteSegmentByStatePrepStmt = session
+        .prepare("DELETE FROM repair_run_segment_by_state WHERE id = ? AND segment_state = ? AND segment_id = ?")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    deleteSegmentsByStatePrepStmt = session
+        .prepare("DELETE FROM repair_run_segment_by_state WHERE id = ? AND segment_state = ?");
+    getSegmentIdsByStatePrepStmt = session
+        .prepare("SELECT segment_id FROM repair_run_segment_by_state WHERE id = ? AND segment_state = ?")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    // counter updates can't be replayed safely, they are left to the default retry policy
+    addToSegmentCountPrepStmt = session
+        .prepare(
+            "UPDATE repair_run_segment_count SET segment_count = segment_count + ? WHERE id = ? AND segment_state = ?")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
+        .setIdempotent(false);
+    getSegmentCountsPrepStmt = session
+        .prepare("SELECT segment_state, segment_count FROM repair_run_segment_count WHERE id = ?")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    getSegmentCountPrepStmt = session
+        .prepare("SELECT segment_count FROM repair_run_segment_count WHERE id = ? AND segment_state = ?")
+        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    deleteSegmentCountsPrepStmt = session.prepare("DELETE FROM repair_run_segment_count WHERE id = ?");
     insertRepairSchedulePrepStmt = session
             .prepare(
                 "INSERT INTO repair_schedule_v1(id, repair_unit_id, state, days_between, next_activation, run_history, "
@@ -363,20 +486,15 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
             "INSERT INTO snapshot (cluster, snapshot_name, owner, cause, creation_time)"
                 + " VALUES(?,?,?,?,?)");
 
-    if (0 >= VersionNumber.parse("3.0").compareTo(version)) {
-      try {
-        getRepairSegmentsByRunIdAndStatePrepStmt = session.prepare(
-            "SELECT id,repair_unit_id,segment_id,start_token,end_token,segment_state,coordinator_host,"
-                + "segment_start_time,segment_end_time,fail_count, token_ranges FROM repair_run "
-                + "WHERE id = ? AND segment_state = ? ALLOW FILTERING");
-        getRepairSegmentCountByRunIdAndStatePrepStmt = session.prepare(
-            "SELECT count(segment_id) FROM repair_run WHERE id = ? AND segment_state = ? ALLOW FILTERING");
-      } catch (InvalidQueryException ex) {
-        throw new AssertionError(
-            "Failure preparing `SELECT… FROM repair_run WHERE… ALLOW FILTERING` should only happen on Cassandra-2",
-            ex);
-      }
-    }
+    saveTableWriteCountsPrepStmt = session.prepare(
+        "INSERT INTO repair_run_table_writes (id, write_counts, skipped_tables) VALUES(?, ?, ?)");
+    getTableWriteCountsPrepStmt = session.prepare("SELECT * FROM repair_run_table_writes WHERE id = ?");
+    deleteTableWriteCountsPrepStmt = session.prepare("DELETE FROM repair_run_table_writes WHERE id = ?");
+    insertCacheInvalidationPrepStmt = session.prepare(
+        "INSERT INTO cache_invalidations (time_partition, invalidated_at, reaper_instance_id, cache, key)"
+            + " VALUES(?, ?, ?, ?, ?)");
+    getCacheInvalidationsPrepStmt = session.prepare(
+        "SELECT * FROM cache_invalidations WHERE time_partition = ? AND invalidated_at > ?");
   }
 
   @Override
@@ -402,6 +520,8 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
   @Override
   public boolean addCluster(Cluster cluster) {
     session.execute(insertClusterPrepStmt.bind(cluster.getName(), cluster.getPartitioner(), cluster.getSeedHosts()));
+    // missing clusters aren't cached, and other instances can wait for their entry to expire to see new seed hosts
+    clusters.invalidate(cluster.getName());
     return true;
   }
 
@@ -412,6 +532,10 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
 
   @Override
   public Optional<Cluster> getCluster(String clusterName) {
+    return clusters.get(clusterName);
+  }
+
+  private Optional<Cluster> getClusterImpl(String clusterName) {
     Row row = session.execute(getClusterPrepStmt.bind(clusterName)).one();
 
     return row != null
@@ -439,33 +563,21 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
       }
     }
     session.executeAsync(deleteClusterPrepStmt.bind(clusterName));
+    invalidateCluster(clusterName);
     return Optional.ofNullable(new Cluster(clusterName, null, null));
   }
 
   @Override
-  public RepairRun addRepairRun(Builder repairRun, Collection<RepairSegment.Builder> newSegments) {
+  public RepairRun addRepairRun(Builder repairRun, Collection<RepairSegment.Builder> newSegments)
+      throws ReaperException {
+    long start = System.currentTimeMillis();
     RepairRun newRepairRun = repairRun.build(UUIDs.timeBased());
-    BatchStatement repairRunBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
-    List<ResultSetFuture> futures = Lists.newArrayList();
+    PipelinedBatchWriter writer = new PipelinedBatchWriter(session, maxInFlightSegmentBatches, metricRegistry);
+    // batches stay within a single partition: the one of the run, or the one of its NOT_STARTED segments
+    List<Statement> repairRunBatch = Lists.newArrayList(bindUpdateRepairRun(newRepairRun));
+    List<Statement> segmentsByStateBatch = Lists.newArrayList();
     Boolean isIncremental = null;
 
-    repairRunBatch.add(
-        insertRepairRunPrepStmt.bind(
-            newRepairRun.getId(),
-            newRepairRun.getClusterName(),
-            newRepairRun.getRepairUnitId(),
-            newRepairRun.getCause(),
-            newRepairRun.getOwner(),
-            newRepairRun.getRunState().toString(),
-            newRepairRun.getCreationTime(),
-            newRepairRun.getStartTime(),
-            newRepairRun.getEndTime(),
-            newRepairRun.getPauseTime(),
-            newRepairRun.getIntensity(),
-            newRepairRun.getLastEvent(),
-            newRepairRun.getSegmentCount(),
-            newRepairRun.getRepairParallelism().toString()));
-
     int nbRanges = 0;
     for (RepairSegment.Builder builder : newSegments) {
       RepairSegment segment = builder.withRunId(newRepairRun.getId()).withId(UUIDs.timeBased()).build();
@@ -477,86 +589,130 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
       assert 0 == segment.getFailCount();
       assert (null != segment.getCoordinatorHost()) == isIncremental;
 
-      if (isIncremental) {
-        repairRunBatch.add(
-            insertRepairSegmentIncrementalPrepStmt.bind(
-              segment.getRunId(),
-              segment.getId(),
-              segment.getRepairUnitId(),
-              segment.getStartToken(),
-              segment.getEndToken(),
-              segment.getState().ordinal(),
-              segment.getCoordinatorHost(),
-              segment.getFailCount()));
-      } else {
-        try {
-          repairRunBatch.add(
-              insertRepairSegmentPrepStmt.bind(
-                  segment.getRunId(),
-                  segment.getId(),
-                  segment.getRepairUnitId(),
-                  segment.getStartToken(),
-                  segment.getEndToken(),
-                  segment.getState().ordinal(),
-                  segment.getFailCount(),
-                  objectMapper.writeValueAsString(segment.getTokenRange().getTokenRanges())));
-        } catch (JsonProcessingException e) {
-          throw new IllegalStateException(e);
-        }
-      }
-
+      repairRunBatch.add(bindInsertRepairSegment(segment));
+      segmentsByStateBatch.add(bindInsertSegmentByState(segment));
       nbRanges += segment.getTokenRange().getTokenRanges().size();
 
       if (100 <= nbRanges) {
         // Limit batch size to prevent queries being rejected
-        futures.add(session.executeAsync(repairRunBatch));
-        repairRunBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        writer.write(repairRunBatch);
+        repairRunBatch = Lists.newArrayList();
         nbRanges = 0;
       }
+      if (MAX_SEGMENTS_BY_STATE_PER_BATCH <= segmentsByStateBatch.size()) {
+        writer.write(segmentsByStateBatch);
+        segmentsByStateBatch = Lists.newArrayList();
+      }
     }
     assert getRepairUnit(newRepairRun.getRepairUnitId()).getIncrementalRepair() == isIncremental.booleanValue();
 
-    futures.add(session.executeAsync(repairRunBatch));
-    futures.add(
-        session.executeAsync(
-            insertRepairRunClusterIndexPrepStmt.bind(newRepairRun.getClusterName(), newRepairRun.getId())));
-    futures.add(
-        session.executeAsync(
-            insertRepairRunUnitIndexPrepStmt.bind(newRepairRun.getRepairUnitId(), newRepairRun.getId())));
+    writer.write(repairRunBatch);
+    writer.write(segmentsByStateBatch);
 
     try {
-      Futures.allAsList(futures).get();
-    } catch (InterruptedException | ExecutionException ex) {
-      LOG.error("failed to quorum insert new repair run " + newRepairRun.getId(), ex);
+      writer.await();
+      addToSegmentCounts(newRepairRun.getId(), Collections.singletonMap(State.NOT_STARTED, newSegments.size()));
+      // the run only gets listed once all of its segments are stored
+      session.execute(insertRepairRunClusterIndexPrepStmt.bind(newRepairRun.getClusterName(), newRepairRun.getId()));
+      session.execute(insertRepairRunUnitIndexPrepStmt.bind(newRepairRun.getRepairUnitId(), newRepairRun.getId()));
+      LOG.info(
+          "inserted repair run {} with {} segments in {} ms",
+          newRepairRun.getId(),
+          newSegments.size(),
+          System.currentTimeMillis() - start);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      deletePartialRepairRun(newRepairRun.getId());
+      throw new ReaperException("interrupted while inserting new repair run " + newRepairRun.getId(), ex);
+    } catch (ExecutionException | DriverException ex) {
+      deletePartialRepairRun(newRepairRun.getId());
+      throw new ReaperException("failed to quorum insert new repair run " + newRepairRun.getId(), ex);
     }
     return newRepairRun;
   }
 
+  private void deletePartialRepairRun(UUID runId) {
+    try {
+      deleteRepairRun(runId);
+    } catch (DriverException ex) {
+      LOG.warn("failed to delete the partially inserted repair run {}", runId, ex);
+    }
+  }
+
   @Override
   public boolean updateRepairRun(RepairRun repairRun) {
-    session.execute(
-          insertRepairRunPrepStmt.bind(
-              repairRun.getId(),
-              repairRun.getClusterName(),
-              repairRun.getRepairUnitId(),
-              repairRun.getCause(),
-              repairRun.getOwner(),
-              repairRun.getRunState().toString(),
-              repairRun.getCreationTime(),
-              repairRun.getStartTime(),
-              repairRun.getEndTime(),
-              repairRun.getPauseTime(),
-              repairRun.getIntensity(),
-              repairRun.getLastEvent(),
-              repairRun.getSegmentCount(),
-            repairRun.getRepairParallelism().toString()));
+    lastEvents.discard(repairRun.getId());
+    Optional<RepairRun> previous = repairRuns.getIfPresent(repairRun.getId());
+    session.execute(bindUpdateRepairRun(repairRun));
+    invalidateRepairRun(repairRun, previous);
     return true;
   }
 
+  @Override
+  public CompletionStage<Boolean> updateRepairRunAsync(RepairRun repairRun) {
+    lastEvents.discard(repairRun.getId());
+    Optional<RepairRun> previous = repairRuns.getIfPresent(repairRun.getId());
+    return toCompletionStage(session.executeAsync(bindUpdateRepairRun(repairRun))).thenApply(result -> {
+      invalidateRepairRun(repairRun, previous);
+      return true;
+    });
+  }
+
+  private BoundStatement bindUpdateRepairRun(RepairRun repairRun) {
+    return insertRepairRunPrepStmt.bind(
+        repairRun.getId(),
+        repairRun.getClusterName(),
+        repairRun.getRepairUnitId(),
+        repairRun.getCause(),
+        repairRun.getOwner(),
+        repairRun.getRunState().toString(),
+        repairRun.getCreationTime(),
+        repairRun.getStartTime(),
+        repairRun.getEndTime(),
+        repairRun.getPauseTime(),
+        repairRun.getIntensity(),
+        repairRun.getLastEvent(),
+        repairRun.getSegmentCount(),
+        repairRun.getRepairParallelism().toString());
+  }
+
+  @Override
+  public void updateRepairRunLastEvent(UUID runId, String lastEvent) {
+    lastEvents.record(runId, lastEvent);
+  }
+
+  private void writeRepairRunLastEvent(UUID runId, String lastEvent, long recordedAtMillis) {
+    // written with the time the event was reported at, so that full updates of the run made since then win
+    session.execute(
+        insertRepairRunLastEventPrepStmt.bind(runId, lastEvent, TimeUnit.MILLISECONDS.toMicros(recordedAtMillis)));
+    // other instances see the last events once their cache expires
+    repairRuns.invalidate(runId);
+  }
+
   @Override
   public Optional<RepairRun> getRepairRun(UUID id) {
+    return repairRuns.get(id);
+  }
+
+  @Override
+  public Optional<RepairRun> getRepairRunUncached(UUID id) {
+    return getRepairRunImpl(id);
+  }
+
+  @Override
+  public CompletionStage<Optional<RepairRun>> getRepairRunAsync(UUID id) {
+    return repairRuns.getAsync(
+        id,
+        runId -> toCompletionStage(session.executeAsync(getRepairRunPrepStmt.bind(runId)))
+            .thenApply(result -> createRepairRunFromRow(result.one(), runId)));
+  }
+
+  private Optional<RepairRun> getRepairRunImpl(UUID id) {
+    return createRepairRunFromRow(session.execute(getRepairRunPrepStmt.bind(id)).one(), id);
+  }
+
+  private Optional<RepairRun> createRepairRunFromRow(Row repairRunResult, UUID id) {
     RepairRun repairRun = null;
-    Row repairRunResult = session.execute(getRepairRunPrepStmt.bind(id)).one();
     if (repairRunResult != null) {
       try {
         repairRun = buildRepairRunFromRow(repairRunResult, id);
@@ -657,15 +813,119 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
 
   @Override
   public Optional<RepairRun> deleteRepairRun(UUID id) {
+    lastEvents.discard(id);
     Optional<RepairRun> repairRun = getRepairRun(id);
     if (repairRun.isPresent()) {
       session.executeAsync(deleteRepairRunByUnitPrepStmt.bind(id, repairRun.get().getRepairUnitId()));
       session.executeAsync(deleteRepairRunByClusterPrepStmt.bind(id, repairRun.get().getClusterName()));
     }
     session.executeAsync(deleteRepairRunPrepStmt.bind(id));
+    for (State state : State.values()) {
+      session.executeAsync(deleteSegmentsByStatePrepStmt.bind(id, state.ordinal()));
+    }
+    session.executeAsync(deleteTableWriteCountsPrepStmt.bind(id));
+    session.executeAsync(deleteSegmentCountsPrepStmt.bind(id));
+    segmentIndex.invalidate(id);
+    publishCacheInvalidation(REPAIR_SEGMENT_CACHE, id.toString());
+    invalidateRepairRun(id);
     return repairRun;
   }
 
+  private void invalidateRepairRun(UUID runId) {
+    repairRuns.invalidate(runId);
+    publishCacheInvalidation(REPAIR_RUN_CACHE, runId.toString());
+  }
+
+  /**
+   * Other instances are only told about the updates they act upon, changing the state or the intensity of the run.
+   * They see the other updates once their cache expires.
+   */
+  private void invalidateRepairRun(RepairRun repairRun, Optional<RepairRun> previous) {
+    if (!previous.isPresent()
+        || previous.get().getRunState() != repairRun.getRunState()
+        || Double.compare(previous.get().getIntensity(), repairRun.getIntensity()) != 0) {
+      invalidateRepairRun(repairRun.getId());
+    } else {
+      repairRuns.invalidate(repairRun.getId());
+    }
+  }
+
+  private void invalidateCluster(String clusterName) {
+    clusters.invalidateAll();
+    publishCacheInvalidation(CLUSTER_CACHE, clusterName);
+  }
+
+  private void publishCacheInvalidation(String cache, String key) {
+    session.executeAsync(bindCacheInvalidation(cache, key));
+  }
+
+  private BoundStatement bindCacheInvalidation(String cache, String key) {
+    return insertCacheInvalidationPrepStmt.bind(
+        TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis()),
+        UUIDs.timeBased(),
+        AppContext.REAPER_INSTANCE_ID,
+        cache,
+        key);
+  }
+
+  /**
+   * The segment invalidations are keyed by run id and segment id, or by run id alone when segments were added or
+   * removed.
+   */
+  private static String segmentCacheKey(UUID runId, UUID segmentId) {
+    return runId + ":" + segmentId;
+  }
+
+  /**
+   * Drops the repair runs and clusters that other reaper instances wrote since the previous poll from the caches, and
+   * brings the segments they changed up to date in the segment index.
+   */
+  private void pollCacheInvalidations() {
+    long now = System.currentTimeMillis();
+    long since = lastCacheInvalidationsPoll - MAX_CLOCK_DRIFT_MILLIS;
+    long lastMinute = TimeUnit.MILLISECONDS.toMinutes(now);
+    try {
+      Map<UUID, Set<UUID>> changedSegments = Maps.newHashMap();
+      for (long minute = TimeUnit.MILLISECONDS.toMinutes(since); minute <= lastMinute; ++minute) {
+        for (Row row : session.execute(getCacheInvalidationsPrepStmt.bind(minute, UUIDs.startOf(since)))) {
+          if (!AppContext.REAPER_INSTANCE_ID.equals(row.getUUID("reaper_instance_id"))) {
+            if (REPAIR_RUN_CACHE.equals(row.getString("cache"))) {
+              repairRuns.invalidate(UUID.fromString(row.getString("key")));
+            } else if (CLUSTER_CACHE.equals(row.getString("cache"))) {
+              clusters.invalidateAll();
+            } else if (REPAIR_SEGMENT_CACHE.equals(row.getString("cache"))) {
+              String[] key = row.getString("key").split(":");
+              UUID runId = UUID.fromString(key[0]);
+              if (1 == key.length) {
+                segmentIndex.invalidate(runId);
+                changedSegments.remove(runId);
+              } else if (segmentIndex.isIndexed(runId)) {
+                changedSegments.computeIfAbsent(runId, id -> Sets.newHashSet()).add(UUID.fromString(key[1]));
+              }
+            }
+          }
+        }
+      }
+      changedSegments.forEach(this::refreshIndexedSegments);
+      lastCacheInvalidationsPoll = now;
+    } catch (RuntimeException e) {
+      // the cached entries expire shortly anyway
+      LOG.warn("Failed polling the cache invalidations of the other reaper instances", e);
+    }
+  }
+
+  private void refreshIndexedSegments(UUID runId, Set<UUID> segmentIds) {
+    List<ResultSetFuture> futures = Lists.newArrayList();
+    for (List<UUID> ids : Lists.partition(Lists.newArrayList(segmentIds), MAX_SEGMENT_IDS_PER_QUERY)) {
+      futures.add(session.executeAsync(getRepairSegmentsByIdsPrepStmt.bind(runId, ids)));
+    }
+    for (ResultSetFuture future : futures) {
+      for (Row segmentRow : future.getUninterruptibly()) {
+        segmentIndex.update(createRepairSegmentFromRow(segmentRow));
+      }
+    }
+  }
+
   @Override
   public RepairUnit addRepairUnit(RepairUnit.Builder newRepairUnit) {
     RepairUnit repairUnit = newRepairUnit.build(UUIDs.timeBased());
@@ -746,13 +1006,63 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
 
   @Override
   public boolean updateRepairSegment(RepairSegment segment) {
+    return updateRepairSegment(segment, getStoredSegmentState(segment));
+  }
+
+  @Override
+  public boolean updateRepairSegment(RepairSegment segment, State previousState) {
+    session.execute(bindUpdateRepairSegment(segment, previousState));
+    addToSegmentCounts(segment.getRunId(), segmentCountDeltas(previousState, segment.getState()));
+    segmentIndex.update(segment);
+    return true;
+  }
+
+  @Override
+  public CompletionStage<Boolean> updateRepairSegmentAsync(RepairSegment segment) {
+    return getRepairSegmentAsync(segment.getRunId(), segment.getId())
+        .thenCompose(stored -> updateRepairSegmentAsync(segment, stored.map(RepairSegment::getState).orElse(null)));
+  }
+
+  @Override
+  public CompletionStage<Boolean> updateRepairSegmentAsync(RepairSegment segment, State previousState) {
+    // invalid segments fail the returned stage rather than the call
+    return CompletableFuture
+        .supplyAsync(() -> bindUpdateRepairSegment(segment, previousState), MoreExecutors.directExecutor())
+        .thenCompose(batch -> toCompletionStage(session.executeAsync(batch)))
+        .thenCompose(result -> {
+          BatchStatement countsBatch
+              = bindAddToSegmentCounts(segment.getRunId(), segmentCountDeltas(previousState, segment.getState()));
+          return 0 < countsBatch.size()
+              ? toCompletionStage(session.executeAsync(countsBatch))
+              : CompletableFuture.completedFuture(result);
+        })
+        .thenApply(result -> {
+          segmentIndex.update(segment);
+          return true;
+        });
+  }
+
+  private State getStoredSegmentState(RepairSegment segment) {
+    Row row = session.execute(getRepairSegmentPrepStmt.bind(segment.getRunId(), segment.getId())).one();
+    return null != row ? State.values()[row.getInt("segment_state")] : null;
+  }
+
+  /**
+   * The update of the segment within the run partition, along with the updates of the segment state lookup.
+   *
+   * <p>The batch is logged so that a segment never ends up in the lookup partitions of two states, which would count
+   * it twice. Nothing is deleted from the lookup while the state stays the same, so that steady updates don't leave
+   * tombstones behind. State changes are published to the other reaper instances in the same batch, so that their
+   * segment index follows.
+   */
+  private BatchStatement bindUpdateRepairSegment(RepairSegment segment, State previousState) {
 
     assert hasLeadOnSegment(segment.getId())
         || (hasLeadOnSegment(segment.getRunId())
           && getRepairUnit(segment.getRepairUnitId()).getIncrementalRepair())
         : "non-leader trying to update repair segment " + segment.getId() + " of run " + segment.getRunId();
 
-    BatchStatement updateRepairSegmentBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+    BatchStatement updateRepairSegmentBatch = new BatchStatement(BatchStatement.Type.LOGGED);
 
     updateRepairSegmentBatch.add(
         updateRepairSegmentPrepStmt.bind(
@@ -783,10 +1093,91 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
               segment.getId(),
               segment.hasEndTime() ? segment.getEndTime().toDate() : null));
     }
-    session.execute(updateRepairSegmentBatch);
+
+    updateRepairSegmentBatch.add(bindInsertSegmentByState(segment));
+    if (null != previousState && previousState != segment.getState()) {
+      updateRepairSegmentBatch.add(
+          deleteSegmentByStatePrepStmt.bind(segment.getRunId(), previousState.ordinal(), segment.getId()));
+    }
+    if (previousState != segment.getState()) {
+      updateRepairSegmentBatch.add(
+          bindCacheInvalidation(REPAIR_SEGMENT_CACHE, segmentCacheKey(segment.getRunId(), segment.getId())));
+    }
+    return updateRepairSegmentBatch;
+  }
+
+  @Override
+  public boolean replaceRepairSegments(
+      Collection<RepairSegment> segments,
+      Collection<RepairSegment.Builder> replacements) {
+
+    Preconditions.checkArgument(!segments.isEmpty(), "no segment to replace");
+    UUID runId = segments.iterator().next().getRunId();
+    // the segments and their state lookup span several partitions, the logged batch applies them all or none
+    BatchStatement replaceRepairSegmentBatch = new BatchStatement(BatchStatement.Type.LOGGED);
+    Map<State, Integer> countDeltas = new EnumMap<>(State.class);
+    for (RepairSegment segment : segments) {
+      Optional<RepairSegment> stored = getRepairSegment(runId, segment.getId());
+      if (!stored.isPresent()) {
+        return false;
+      }
+      replaceRepairSegmentBatch.add(deleteRepairSegmentPrepStmt.bind(runId, segment.getId()));
+      replaceRepairSegmentBatch.add(
+          deleteSegmentByStatePrepStmt.bind(runId, stored.get().getState().ordinal(), segment.getId()));
+      countDeltas.merge(stored.get().getState(), -1, Integer::sum);
+    }
+    List<RepairSegment> newSegments = Lists.newArrayList();
+    for (RepairSegment.Builder replacement : replacements) {
+      RepairSegment newSegment = replacement.withRunId(runId).withId(UUIDs.timeBased()).build();
+      replaceRepairSegmentBatch.add(bindInsertRepairSegment(newSegment));
+      replaceRepairSegmentBatch.add(bindInsertSegmentByState(newSegment));
+      countDeltas.merge(newSegment.getState(), 1, Integer::sum);
+      newSegments.add(newSegment);
+    }
+    replaceRepairSegmentBatch.add(bindCacheInvalidation(REPAIR_SEGMENT_CACHE, runId.toString()));
+    session.execute(replaceRepairSegmentBatch);
+    addToSegmentCounts(runId, countDeltas);
+    segmentIndex.replace(segments, newSegments);
     return true;
   }
 
+  private BoundStatement bindInsertRepairSegment(RepairSegment segment) {
+    if (null != segment.getCoordinatorHost()) {
+      // incremental repair segments are bound to their coordinator, and have a single token range
+      return insertRepairSegmentIncrementalPrepStmt.bind(
+          segment.getRunId(),
+          segment.getId(),
+          segment.getRepairUnitId(),
+          segment.getStartToken(),
+          segment.getEndToken(),
+          segment.getState().ordinal(),
+          segment.getCoordinatorHost(),
+          segment.getFailCount());
+    }
+    try {
+      return insertRepairSegmentPrepStmt.bind(
+          segment.getRunId(),
+          segment.getId(),
+          segment.getRepairUnitId(),
+          segment.getStartToken(),
+          segment.getEndToken(),
+          segment.getState().ordinal(),
+          segment.getFailCount(),
+          objectMapper.writeValueAsString(segment.getTokenRange().getTokenRanges()));
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private BoundStatement bindInsertSegmentByState(RepairSegment segment) {
+    return insertSegmentByStatePrepStmt.bind(
+        segment.getRunId(),
+        segment.getState().ordinal(),
+        segment.getId(),
+        segment.getStartToken(),
+        segment.getEndToken());
+  }
+
   @Override
   public Optional<RepairSegment> getRepairSegment(UUID runId, UUID segmentId) {
     RepairSegment segment = null;
@@ -798,6 +1189,12 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return Optional.ofNullable(segment);
   }
 
+  @Override
+  public CompletionStage<Optional<RepairSegment>> getRepairSegmentAsync(UUID runId, UUID segmentId) {
+    return toCompletionStage(session.executeAsync(getRepairSegmentPrepStmt.bind(runId, segmentId)))
+        .thenApply(result -> Optional.ofNullable(result.one()).map(CassandraStorage::createRepairSegmentFromRow));
+  }
+
   @Override
   public Collection<RepairSegment> getRepairSegmentsForRun(UUID runId) {
     Collection<RepairSegment> segments = Lists.newArrayList();
@@ -810,10 +1207,6 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return segments;
   }
 
-  private static boolean segmentIsWithinRange(RepairSegment segment, RingRange range) {
-    return range.encloses(new RingRange(segment.getStartToken(), segment.getEndToken()));
-  }
-
   private static RepairSegment createRepairSegmentFromRow(Row segmentRow) {
 
     List<RingRange> tokenRanges
@@ -849,31 +1242,28 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return builder.withId(segmentRow.getUUID("segment_id")).build();
   }
 
-  @Override
-  public Optional<RepairSegment> getNextFreeSegmentInRange(UUID runId, Optional<RingRange> range) {
-    List<RepairSegment> segments = Lists.<RepairSegment>newArrayList(getRepairSegmentsForRun(runId));
-    Collections.shuffle(segments);
-
-    for (RepairSegment seg : segments) {
-      if (seg.getState().equals(State.NOT_STARTED) && withinRange(seg, range)) {
-        return Optional.of(seg);
-      }
-    }
-    return Optional.empty();
-  }
-
   @Override
   public Collection<RepairSegment> getSegmentsWithState(UUID runId, State segmentState) {
+    if (State.NOT_STARTED == segmentState) {
+      // free segments are looked up on every scheduling round, the index follows the updates of the other instances
+      // through the cache invalidations and picking a segment is always checked against storage
+      return segmentIndex.getFreeSegments(runId);
+    }
+    List<UUID> segmentIds = Lists.newArrayList();
+    for (Row row : session.execute(getSegmentIdsByStatePrepStmt.bind(runId, segmentState.ordinal()))) {
+      segmentIds.add(row.getUUID("segment_id"));
+    }
+    List<ResultSetFuture> futures = Lists.newArrayList();
+    for (List<UUID> ids : Lists.partition(segmentIds, MAX_SEGMENT_IDS_PER_QUERY)) {
+      futures.add(session.executeAsync(getRepairSegmentsByIdsPrepStmt.bind(runId, ids)));
+    }
     Collection<RepairSegment> segments = Lists.newArrayList();
-
-    ResultSet segmentsIdResultSet = null != getRepairSegmentsByRunIdAndStatePrepStmt
-        ? session.execute(getRepairSegmentsByRunIdAndStatePrepStmt.bind(runId, segmentState.ordinal()))
-        // legacy mode for Cassandra-2 backends
-        : session.execute(getRepairSegmentsByRunIdPrepStmt.bind(runId));
-
-    for (Row segmentRow : segmentsIdResultSet) {
-      if (segmentRow.getInt("segment_state") == segmentState.ordinal()) {
-        segments.add(createRepairSegmentFromRow(segmentRow));
+    for (ResultSetFuture future : futures) {
+      for (Row segmentRow : future.getUninterruptibly()) {
+        // the lookup is updated apart from the segments, so a segment that just changed state may still be listed
+        if (segmentRow.getInt("segment_state") == segmentState.ordinal()) {
+          segments.add(createRepairSegmentFromRow(segmentRow));
+        }
       }
     }
     return segments;
@@ -916,25 +1306,60 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
 
   @Override
   public int getSegmentAmountForRepairRun(UUID runId) {
-    return (int) session
-        .execute(getRepairSegmentCountByRunIdPrepStmt.bind(runId))
-        .one()
-        .getLong(0);
+    int segmentCount = 0;
+    for (Row row : session.execute(getSegmentCountsPrepStmt.bind(runId))) {
+      segmentCount += row.getLong("segment_count");
+    }
+    return segmentCount;
   }
 
   @Override
   public int getSegmentAmountForRepairRunWithState(UUID runId, State state) {
-    if (null != getRepairSegmentCountByRunIdAndStatePrepStmt) {
-      return (int) session
-          .execute(getRepairSegmentCountByRunIdAndStatePrepStmt.bind(runId, state.ordinal()))
-          .one()
-          .getLong(0);
-    } else {
-      // legacy mode for Cassandra-2 backends
-      return getSegmentsWithState(runId, state).size();
+    // read from the counters rather than from the segment index, which lags behind the updates of other instances
+    return getCount(getSegmentCountAsync(runId, state));
+  }
+
+  private ResultSetFuture getSegmentCountAsync(UUID runId, State state) {
+    return session.executeAsync(getSegmentCountPrepStmt.bind(runId, state.ordinal()));
+  }
+
+  private static int getCount(ResultSetFuture count) {
+    Row row = count.getUninterruptibly().one();
+    return null != row ? (int) row.getLong("segment_count") : 0;
+  }
+
+  /**
+   * The updates of the segment counts of a run, which all go to the partition of the run. Counter updates can't be
+   * part of the logged batches of the segments, they are applied once the segments are written.
+   */
+  private BatchStatement bindAddToSegmentCounts(UUID runId, Map<State, Integer> countDeltas) {
+    BatchStatement batch = new BatchStatement(BatchStatement.Type.COUNTER);
+    countDeltas.forEach((state, delta) -> {
+      if (0 != delta) {
+        batch.add(addToSegmentCountPrepStmt.bind((long) delta, runId, state.ordinal()));
+      }
+    });
+    batch.setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+    batch.setIdempotent(false);
+    return batch;
+  }
+
+  private void addToSegmentCounts(UUID runId, Map<State, Integer> countDeltas) {
+    BatchStatement batch = bindAddToSegmentCounts(runId, countDeltas);
+    if (0 < batch.size()) {
+      session.execute(batch);
     }
   }
 
+  private static Map<State, Integer> segmentCountDeltas(State previousState, State newState) {
+    Map<State, Integer> countDeltas = new EnumMap<>(State.class);
+    if (null != previousState && previousState != newState) {
+      countDeltas.put(previousState, -1);
+      countDeltas.put(newState, 1);
+    }
+    return countDeltas;
+  }
+
   @Override
   public RepairSchedule addRepairSchedule(io.cassandrareaper.core.RepairSchedule.Builder repairSchedule) {
     RepairSchedule schedule = repairSchedule.build(UUIDs.timeBased());
@@ -1097,14 +1522,15 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
   public Collection<RepairRunStatus> getClusterRunStatuses(String clusterName, int limit) {
     Collection<RepairRunStatus> repairRunStatuses = Lists.<RepairRunStatus>newArrayList();
     Collection<RepairRun> repairRuns = getRepairRunsForCluster(clusterName, Optional.of(limit));
+    Map<UUID, ResultSetFuture> segmentsRepaired = Maps.newHashMap();
+    for (RepairRun repairRun : repairRuns) {
+      segmentsRepaired.put(repairRun.getId(), getSegmentCountAsync(repairRun.getId(), State.DONE));
+    }
     for (RepairRun repairRun : repairRuns) {
-      Collection<RepairSegment> segments = getRepairSegmentsForRun(repairRun.getId());
       RepairUnit repairUnit = getRepairUnit(repairRun.getRepairUnitId());
+      int segmentsDone = getCount(segmentsRepaired.get(repairRun.getId()));
 
-      int segmentsRepaired
-          = (int) segments.stream().filter(seg -> seg.getState().equals(RepairSegment.State.DONE)).count();
-
-      repairRunStatuses.add(new RepairRunStatus(repairRun, repairUnit, segmentsRepaired));
+      repairRunStatuses.add(new RepairRunStatus(repairRun, repairUnit, segmentsDone));
     }
 
     return repairRunStatuses;
@@ -1155,6 +1581,18 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return false;
   }
 
+  @Override
+  public CompletionStage<Boolean> takeLeadAsync(UUID leaderId) {
+    LOG.debug("Trying to take lead on segment {}", leaderId);
+    return toCompletionStage(
+        session.executeAsync(
+            takeLeadPrepStmt.bind(leaderId, AppContext.REAPER_INSTANCE_ID, AppContext.REAPER_INSTANCE_ADDRESS)))
+        .thenApply(lwtResult -> {
+          LOG.debug("{} lead on segment {}", lwtResult.wasApplied() ? "Took" : "Could not take", leaderId);
+          return lwtResult.wasApplied();
+        });
+  }
+
   @Override
   public boolean renewLead(UUID leaderId) {
     ResultSet lwtResult = session.execute(
@@ -1173,6 +1611,25 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return false;
   }
 
+  @Override
+  public CompletionStage<Boolean> renewLeadAsync(UUID leaderId) {
+    return toCompletionStage(
+        session.executeAsync(
+            renewLeadPrepStmt.bind(
+                AppContext.REAPER_INSTANCE_ID,
+                AppContext.REAPER_INSTANCE_ADDRESS,
+                leaderId,
+                AppContext.REAPER_INSTANCE_ID)))
+        .thenApply(lwtResult -> {
+          if (lwtResult.wasApplied()) {
+            LOG.debug("Renewed lead on segment {}", leaderId);
+            return true;
+          }
+          LOG.error("Failed to renew lead on segment {}", leaderId);
+          return false;
+        });
+  }
+
   @Override
   public List<UUID> getLeaders() {
     return session.execute(new SimpleStatement(SELECT_LEADERS))
@@ -1195,6 +1652,19 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     }
   }
 
+  @Override
+  public CompletionStage<Void> releaseLeadAsync(UUID leaderId) {
+    Preconditions.checkNotNull(leaderId);
+    return toCompletionStage(session.executeAsync(releaseLeadPrepStmt.bind(leaderId, AppContext.REAPER_INSTANCE_ID)))
+        .thenAccept(lwtResult -> {
+          if (lwtResult.wasApplied()) {
+            LOG.debug("Released lead on segment {}", leaderId);
+          } else {
+            LOG.error("Could not release lead on segment {}", leaderId);
+          }
+        });
+  }
+
   @Override
   public void forceReleaseLead(UUID leaderId) {
     session.execute(forceReleaseLeadPrepStmt.bind(leaderId));
@@ -1221,8 +1691,19 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     storeNodeMetricsImpl(runId, nodeMetrics, minute + 2);
   }
 
-  private void storeNodeMetricsImpl(UUID runId, NodeMetrics nodeMetrics, long minute) {
-    session.executeAsync(
+  @Override
+  public CompletionStage<Void> storeNodeMetricsAsync(UUID runId, NodeMetrics nodeMetrics) {
+    long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    return toCompletionStage(
+        Futures.allAsList(
+            storeNodeMetricsImpl(runId, nodeMetrics, minute),
+            storeNodeMetricsImpl(runId, nodeMetrics, minute + 1),
+            storeNodeMetricsImpl(runId, nodeMetrics, minute + 2)))
+        .thenAccept(results -> { });
+  }
+
+  private ResultSetFuture storeNodeMetricsImpl(UUID runId, NodeMetrics nodeMetrics, long minute) {
+    return session.executeAsync(
         storeNodeMetricsPrepStmt.bind(
             minute,
             runId,
@@ -1244,6 +1725,16 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
         .collect(Collectors.toSet());
   }
 
+  @Override
+  public CompletionStage<Collection<NodeMetrics>> getNodeMetricsAsync(UUID runId) {
+    long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+
+    return toCompletionStage(session.executeAsync(getNodeMetricsPrepStmt.bind(minute, runId)))
+        .thenApply(result -> result.all().stream()
+            .map((row) -> createNodeMetrics(row))
+            .collect(Collectors.toSet()));
+  }
+
   @Override
   public Optional<NodeMetrics> getNodeMetrics(UUID runId, String node) {
     long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
@@ -1251,6 +1742,35 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return null != row ? Optional.of(createNodeMetrics(row)) : Optional.empty();
   }
 
+  @Override
+  public CompletionStage<Optional<NodeMetrics>> getNodeMetricsAsync(UUID runId, String node) {
+    long minute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    return toCompletionStage(session.executeAsync(getNodeMetricsByNodePrepStmt.bind(minute, runId, node)))
+        .thenApply(result -> Optional.ofNullable(result.one()).map(CassandraStorage::createNodeMetrics));
+  }
+
+  /**
+   * Stages complete on the threads of the driver, so what is chained to them must not block.
+   */
+  private static <T> CompletionStage<T> toCompletionStage(ListenableFuture<T> future) {
+    CompletableFuture<T> stage = new CompletableFuture<>();
+    Futures.addCallback(
+        future,
+        new FutureCallback<T>() {
+          @Override
+          public void onSuccess(T result) {
+            stage.complete(result);
+          }
+
+          @Override
+          public void onFailure(Throwable throwable) {
+            stage.completeExceptionally(throwable);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return stage;
+  }
+
   private static NodeMetrics createNodeMetrics(Row row) {
     return NodeMetrics.builder()
         .withNode(row.getString("node"))
@@ -1314,10 +1834,6 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     cassandraFactory.setPoolingOptions(java.util.Optional.of(newPoolingOptionsFactory));
   }
 
-  private static boolean withinRange(RepairSegment segment, Optional<RingRange> range) {
-    return !range.isPresent() || segmentIsWithinRange(segment, range.get());
-  }
-
   /**
    * Retry all statements.
    *
@@ -1421,4 +1937,26 @@ public final class CassandraStorage implements IStorage, IDistributedStorage {
     return snapshotBuilder.build();
   }
 
+  @Override
+  public boolean saveTableWriteCounts(UUID runId, TableWriteCounts tableWriteCounts) {
+    session.execute(
+        saveTableWriteCountsPrepStmt.bind(
+            runId,
+            tableWriteCounts.getWriteCounts(),
+            tableWriteCounts.getSkippedTables()));
+
+    return true;
+  }
+
+  @Override
+  public Optional<TableWriteCounts> getTableWriteCounts(UUID runId) {
+    Row row = session.execute(getTableWriteCountsPrepStmt.bind(runId)).one();
+    return null != row
+        ? Optional.of(
+            new TableWriteCounts(
+                row.getMap("write_counts", String.class, Long.class),
+                row.getSet("skipped_tables", String.class)))
+        : Optional.empty();
+  }
+
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import io.cassandrareaper.core.NodeMetrics;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+
+
+/**
+ * Asynchronous variant of the leader and node metrics calls of a distributed storage.
+ *
+ * <p>Implementations must not block the calling thread, as the repair engine composes these calls on its schedulers.
+ */
+public interface IAsyncDistributedStorage extends IDistributedStorage {
+
+  CompletionStage<Boolean> takeLeadAsync(UUID leaderId);
+
+  CompletionStage<Boolean> renewLeadAsync(UUID leaderId);
+
+  CompletionStage<Void> releaseLeadAsync(UUID leaderId);
+
+  CompletionStage<Collection<NodeMetrics>> getNodeMetricsAsync(UUID runId);
+
+  CompletionStage<Optional<NodeMetrics>> getNodeMetricsAsync(UUID runId, String node);
+
+  CompletionStage<Void> storeNodeMetricsAsync(UUID runId, NodeMetrics nodeMetrics);
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import io.cassandrareaper.core.RepairRun;
+import io.cassandrareaper.core.RepairSegment;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+
+/**
+ * Asynchronous variant of the most frequent calls of the storage API, so that callers can compose them without
+ * blocking threads.
+ *
+ * <p>The default implementations run the synchronous calls on the {@link #asyncExecutor()}, which runs them in the
+ * calling thread unless overridden. Storages with a non-blocking driver override the calls themselves, and their
+ * stages complete on the threads of the driver: what is chained to them must not block.
+ */
+public interface IAsyncStorage extends IStorage {
+
+  /**
+   * @return the executor the default implementations run the synchronous calls on
+   */
+  default Executor asyncExecutor() {
+    return MoreExecutors.directExecutor();
+  }
+
+  default CompletionStage<Optional<RepairRun>> getRepairRunAsync(UUID id) {
+    return CompletableFuture.supplyAsync(() -> getRepairRun(id), asyncExecutor());
+  }
+
+  default CompletionStage<Boolean> updateRepairRunAsync(RepairRun repairRun) {
+    return CompletableFuture.supplyAsync(() -> updateRepairRun(repairRun), asyncExecutor());
+  }
+
+  default CompletionStage<Optional<RepairSegment>> getRepairSegmentAsync(UUID runId, UUID segmentId) {
+    return CompletableFuture.supplyAsync(() -> getRepairSegment(runId, segmentId), asyncExecutor());
+  }
+
+  default CompletionStage<Boolean> updateRepairSegmentAsync(RepairSegment newRepairSegment) {
+    return CompletableFuture.supplyAsync(() -> updateRepairSegment(newRepairSegment), asyncExecutor());
+  }
+
+  default CompletionStage<Boolean> updateRepairSegmentAsync(
+      RepairSegment newRepairSegment,
+      RepairSegment.State previousState) {
+
+    return CompletableFuture.supplyAsync(() -> updateRepairSegment(newRepairSegment, previousState), asyncExecutor());
+  }
+}
@@ -24,10 +24,10 @@ import io.cassandrareaper.core.RepairSchedule;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Snapshot;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.resources.view.RepairRunStatus;
 import io.cassandrareaper.resources.view.RepairScheduleStatus;
 import io.cassandrareaper.service.RepairParameters;
-import io.cassandrareaper.service.RingRange;
 
 import java.util.Collection;
 import java.util.Optional;
@@ -64,8 +64,20 @@ public interface IStorage {
 
   boolean updateRepairRun(RepairRun repairRun);
 
+  /**
+   * Records the last event of a repair run, leaving its other fields as they are. The event may be written behind,
+   * and is superseded by the next full update of the run.
+   */
+  void updateRepairRunLastEvent(UUID runId, String lastEvent);
+
   Optional<RepairRun> getRepairRun(UUID id);
 
+  /**
+   * Reads the repair run from the storage, bypassing any cache. To be used for the runs that are modified and written
+   * back, as a cached run may miss the changes made since by other threads or instances.
+   */
+  Optional<RepairRun> getRepairRunUncached(UUID id);
+
   /** return all the repair runs in a cluster, in reverse chronological order, with default limit is 1000 */
   Collection<RepairRun> getRepairRunsForCluster(String clusterName, Optional<Integer> limit);
 
@@ -89,17 +101,25 @@ public interface IStorage {
 
   boolean updateRepairSegment(RepairSegment newRepairSegment);
 
-  Optional<RepairSegment> getRepairSegment(UUID runId, UUID segmentId);
-
-  Collection<RepairSegment> getRepairSegmentsForRun(UUID runId);
+  /**
+   * Updates a segment whose state before the update is known by the caller,
+   * sparing storages that look segments up by state from reading it first.
+   */
+  boolean updateRepairSegment(RepairSegment newRepairSegment, RepairSegment.State previousState);
 
   /**
-   * @param runId the run id that the segment belongs to.
-   * @param range a ring range. The start of the range may be greater than or equal to the end. This case has to be
-   *      handled. When start = end, consider that as a range that covers the whole ring.
-   * @return a segment enclosed by the range with state NOT_STARTED, or nothing.
+   * Replaces segments of a repair run with new segments, which are expected to cover the same token ranges.
+   *
+   * @param segments the segments to replace, all from the same run.
+   * @param replacements the segments to add to the segments' run in their place.
+   * @return true if the segments were replaced, false if one of them could not be found.
    */
-  Optional<RepairSegment> getNextFreeSegmentInRange(UUID runId, Optional<RingRange> range);
+  boolean replaceRepairSegments(Collection<RepairSegment> segments, Collection<RepairSegment.Builder> replacements)
+      throws ReaperException;
+
+  Optional<RepairSegment> getRepairSegment(UUID runId, UUID segmentId);
+
+  Collection<RepairSegment> getRepairSegmentsForRun(UUID runId);
 
   Collection<RepairSegment> getSegmentsWithState(UUID runId, RepairSegment.State segmentState);
 
@@ -144,4 +164,11 @@ public interface IStorage {
 
   Snapshot getSnapshot(String clusterName, String snapshotName);
 
+  /**
+   * Records the write counts of the tables of a repair run. They are deleted along with the run.
+   */
+  boolean saveTableWriteCounts(UUID runId, TableWriteCounts tableWriteCounts);
+
+  Optional<TableWriteCounts> getTableWriteCounts(UUID runId);
+
 }
@@ -22,7 +22,9 @@ import io.cassandrareaper.service.RingRange;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -57,8 +59,28 @@ public final class JsonParseUtils {
   }
 
   public static String writeTokenRangesTxt(List<RingRange> tokenRanges) throws ReaperException {
+    return writeJson(tokenRanges);
+  }
+
+  public static Map<String, Long> parseWriteCounts(String json) {
+    return parseJson(json, new TypeReference<Map<String, Long>>() {});
+  }
+
+  public static String writeWriteCountsTxt(Map<String, Long> writeCounts) throws ReaperException {
+    return writeJson(writeCounts);
+  }
+
+  public static Set<String> parseTables(String json) {
+    return parseJson(json, new TypeReference<Set<String>>() {});
+  }
+
+  public static String writeTablesTxt(Set<String> tables) throws ReaperException {
+    return writeJson(tables);
+  }
+
+  private static String writeJson(Object value) throws ReaperException {
     try {
-      return new ObjectMapper().writeValueAsString(tokenRanges);
+      return new ObjectMapper().writeValueAsString(value);
     } catch (JsonProcessingException e) {
       throw new ReaperException(e);
     }
@@ -23,10 +23,10 @@ import io.cassandrareaper.core.RepairSchedule;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Snapshot;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.resources.view.RepairRunStatus;
 import io.cassandrareaper.resources.view.RepairScheduleStatus;
 import io.cassandrareaper.service.RepairParameters;
-import io.cassandrareaper.service.RingRange;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -39,6 +39,7 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.datastax.driver.core.utils.UUIDs;
 import com.google.common.base.Preconditions;
@@ -50,7 +51,7 @@ import org.apache.commons.lang3.StringUtils;
 /**
  * Implements the StorageAPI using transient Java classes.
  */
-public final class MemoryStorage implements IStorage {
+public final class MemoryStorage implements IAsyncStorage {
 
   private final ConcurrentMap<String, Cluster> clusters = Maps.newConcurrentMap();
   private final ConcurrentMap<UUID, RepairRun> repairRuns = Maps.newConcurrentMap();
@@ -58,8 +59,11 @@ public final class MemoryStorage implements IStorage {
   private final ConcurrentMap<RepairUnit.Builder, RepairUnit> repairUnitsByKey = Maps.newConcurrentMap();
   private final ConcurrentMap<UUID, RepairSegment> repairSegments = Maps.newConcurrentMap();
   private final ConcurrentMap<UUID, LinkedHashMap<UUID, RepairSegment>> repairSegmentsByRunId = Maps.newConcurrentMap();
+  private final ConcurrentMap<UUID, Map<RepairSegment.State, AtomicInteger>> segmentCountsByRunId
+      = Maps.newConcurrentMap();
   private final ConcurrentMap<UUID, RepairSchedule> repairSchedules = Maps.newConcurrentMap();
   private final ConcurrentMap<String, Snapshot> snapshots = Maps.newConcurrentMap();
+  private final ConcurrentMap<UUID, TableWriteCounts> tableWriteCounts = Maps.newConcurrentMap();
 
   @Override
   public boolean isStorageConnected() {
@@ -135,11 +139,21 @@ public final class MemoryStorage implements IStorage {
     }
   }
 
+  @Override
+  public void updateRepairRunLastEvent(UUID runId, String lastEvent) {
+    repairRuns.computeIfPresent(runId, (id, repairRun) -> repairRun.with().lastEvent(lastEvent).build(id));
+  }
+
   @Override
   public Optional<RepairRun> getRepairRun(UUID id) {
     return Optional.ofNullable(repairRuns.get(id));
   }
 
+  @Override
+  public Optional<RepairRun> getRepairRunUncached(UUID id) {
+    return getRepairRun(id);
+  }
+
   @Override
   public List<RepairRun> getRepairRunsForCluster(String clusterName, Optional<Integer> limit) {
     List<RepairRun> foundRepairRuns = new ArrayList<>();
@@ -209,6 +223,7 @@ public final class MemoryStorage implements IStorage {
   }
 
   private int deleteRepairSegmentsForRun(UUID runId) {
+    segmentCountsByRunId.remove(runId);
     Map<UUID, RepairSegment> segmentsMap = repairSegmentsByRunId.remove(runId);
     if (null != segmentsMap) {
       for (RepairSegment segment : segmentsMap.values()) {
@@ -225,6 +240,7 @@ public final class MemoryStorage implements IStorage {
       if (getSegmentAmountForRepairRunWithState(id, RepairSegment.State.RUNNING) == 0) {
         deleteRepairUnit(deletedRun.getRepairUnitId());
         deleteRepairSegmentsForRun(id);
+        tableWriteCounts.remove(id);
         deletedRun = deletedRun.with().runState(RepairRun.RunState.DELETED).build(id);
       }
     }
@@ -258,26 +274,69 @@ public final class MemoryStorage implements IStorage {
 
   private void addRepairSegments(Collection<RepairSegment.Builder> segments, UUID runId) {
     LinkedHashMap<UUID, RepairSegment> newSegments = Maps.newLinkedHashMap();
+    Map<RepairSegment.State, AtomicInteger> counts = Maps.newEnumMap(RepairSegment.State.class);
+    for (RepairSegment.State state : RepairSegment.State.values()) {
+      counts.put(state, new AtomicInteger(0));
+    }
     for (RepairSegment.Builder segment : segments) {
       RepairSegment newRepairSegment = segment.withRunId(runId).withId(UUIDs.timeBased()).build();
       repairSegments.put(newRepairSegment.getId(), newRepairSegment);
       newSegments.put(newRepairSegment.getId(), newRepairSegment);
+      counts.get(newRepairSegment.getState()).incrementAndGet();
     }
+    segmentCountsByRunId.put(runId, counts);
     repairSegmentsByRunId.put(runId, newSegments);
   }
 
+  @Override
+  public boolean updateRepairSegment(RepairSegment newRepairSegment, RepairSegment.State previousState) {
+    return updateRepairSegment(newRepairSegment);
+  }
+
   @Override
   public boolean updateRepairSegment(RepairSegment newRepairSegment) {
     if (getRepairSegment(newRepairSegment.getRunId(), newRepairSegment.getId()) == null) {
       return false;
     } else {
-      repairSegments.put(newRepairSegment.getId(), newRepairSegment);
+      RepairSegment oldRepairSegment = repairSegments.put(newRepairSegment.getId(), newRepairSegment);
       LinkedHashMap<UUID, RepairSegment> updatedSegment = repairSegmentsByRunId.get(newRepairSegment.getRunId());
       updatedSegment.put(newRepairSegment.getId(), newRepairSegment);
+
+      Map<RepairSegment.State, AtomicInteger> counts = segmentCountsByRunId.get(newRepairSegment.getRunId());
+      if (null != counts && null != oldRepairSegment && oldRepairSegment.getState() != newRepairSegment.getState()) {
+        counts.get(oldRepairSegment.getState()).decrementAndGet();
+        counts.get(newRepairSegment.getState()).incrementAndGet();
+      }
       return true;
     }
   }
 
+  @Override
+  public boolean replaceRepairSegments(
+      Collection<RepairSegment> segments,
+      Collection<RepairSegment.Builder> replacements) {
+
+    Preconditions.checkArgument(!segments.isEmpty(), "no segment to replace");
+    UUID runId = segments.iterator().next().getRunId();
+    LinkedHashMap<UUID, RepairSegment> runSegments = repairSegmentsByRunId.get(runId);
+    if (null == runSegments || !segments.stream().allMatch(segment -> runSegments.containsKey(segment.getId()))) {
+      return false;
+    }
+    Map<RepairSegment.State, AtomicInteger> counts = segmentCountsByRunId.get(runId);
+    for (RepairSegment segment : segments) {
+      repairSegments.remove(segment.getId());
+      RepairSegment replaced = runSegments.remove(segment.getId());
+      counts.get(replaced.getState()).decrementAndGet();
+    }
+    for (RepairSegment.Builder replacement : replacements) {
+      RepairSegment newRepairSegment = replacement.withRunId(runId).withId(UUIDs.timeBased()).build();
+      repairSegments.put(newRepairSegment.getId(), newRepairSegment);
+      runSegments.put(newRepairSegment.getId(), newRepairSegment);
+      counts.get(newRepairSegment.getState()).incrementAndGet();
+    }
+    return true;
+  }
+
   @Override
   public Optional<RepairSegment> getRepairSegment(UUID runId, UUID segmentId) {
     return Optional.ofNullable(repairSegments.get(segmentId));
@@ -288,30 +347,6 @@ public final class MemoryStorage implements IStorage {
     return repairSegmentsByRunId.get(runId).values();
   }
 
-  private Optional<RepairSegment> getNextFreeSegment(UUID runId) {
-    for (RepairSegment segment : repairSegmentsByRunId.get(runId).values()) {
-      if (segment.getState() == RepairSegment.State.NOT_STARTED) {
-        return Optional.of(segment);
-      }
-    }
-    return Optional.empty();
-  }
-
-  @Override
-  public Optional<RepairSegment> getNextFreeSegmentInRange(UUID runId, Optional<RingRange> range) {
-    if (range.isPresent()) {
-      for (RepairSegment segment : repairSegmentsByRunId.get(runId).values()) {
-        if (segment.getState() == RepairSegment.State.NOT_STARTED
-            && range.get().encloses(segment.getTokenRange().getBaseRange())) {
-          return Optional.of(segment);
-        }
-      }
-    } else {
-      return getNextFreeSegment(runId);
-    }
-    return Optional.empty();
-  }
-
   @Override
   public Collection<RepairSegment> getSegmentsWithState(UUID runId, RepairSegment.State segmentState) {
     List<RepairSegment> segments = Lists.newArrayList();
@@ -356,16 +391,8 @@ public final class MemoryStorage implements IStorage {
 
   @Override
   public int getSegmentAmountForRepairRunWithState(UUID runId, RepairSegment.State state) {
-    Map<UUID, RepairSegment> segmentsMap = repairSegmentsByRunId.get(runId);
-    int amount = 0;
-    if (null != segmentsMap) {
-      for (RepairSegment segment : segmentsMap.values()) {
-        if (segment.getState() == state) {
-          amount += 1;
-        }
-      }
-    }
-    return amount;
+    Map<RepairSegment.State, AtomicInteger> counts = segmentCountsByRunId.get(runId);
+    return null == counts ? 0 : counts.get(state).get();
   }
 
   @Override
@@ -512,4 +539,15 @@ public final class MemoryStorage implements IStorage {
     Snapshot snapshot = snapshots.get(clusterName + "-" + snapshotName);
     return snapshot;
   }
+
+  @Override
+  public boolean saveTableWriteCounts(UUID runId, TableWriteCounts writeCounts) {
+    tableWriteCounts.put(runId, writeCounts);
+    return true;
+  }
+
+  @Override
+  public Optional<TableWriteCounts> getTableWriteCounts(UUID runId) {
+    return Optional.ofNullable(tableWriteCounts.get(runId));
+  }
 }
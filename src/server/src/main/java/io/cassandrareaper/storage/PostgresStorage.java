@@ -24,10 +24,10 @@ import io.cassandrareaper.core.RepairSchedule;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Snapshot;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.resources.view.RepairRunStatus;
 import io.cassandrareaper.resources.view.RepairScheduleStatus;
 import io.cassandrareaper.service.RepairParameters;
-import io.cassandrareaper.service.RingRange;
 import io.cassandrareaper.storage.postgresql.BigIntegerArgumentFactory;
 import io.cassandrareaper.storage.postgresql.IStoragePostgreSql;
 import io.cassandrareaper.storage.postgresql.LongCollectionSqlTypeArgumentFactory;
@@ -43,14 +43,22 @@ import io.cassandrareaper.storage.postgresql.UuidUtil;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.SortedSet;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
 import org.apache.commons.lang3.StringUtils;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
@@ -61,16 +69,54 @@ import org.slf4j.LoggerFactory;
 /**
  * Implements the StorageAPI using PostgreSQL database.
  */
-public final class PostgresStorage implements IStorage {
+public final class PostgresStorage implements IAsyncStorage, Managed {
 
   private static final Logger LOG = LoggerFactory.getLogger(PostgresStorage.class);
 
+  private static final long MAX_CACHED_REPAIR_RUNS = 1000;
+  private static final long MAX_CACHED_CLUSTERS = 100;
+  // asynchronous calls are run on a few threads of their own, as JDBC calls block
+  private static final int ASYNC_THREADS = 8;
+  private static final long ASYNC_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
   private final DBI jdbi;
+  private final ExecutorService asyncExecutor = Executors.newFixedThreadPool(
+      ASYNC_THREADS,
+      new ThreadFactoryBuilder().setNameFormat("PostgresStorage-%d").setDaemon(true).build());
+  private final RepairRunEventBuffer lastEvents = new RepairRunEventBuffer(this::writeRepairRunLastEvent);
+
+  private final ReadThroughCache<UUID, RepairRun> repairRuns
+      = new ReadThroughCache<>(MAX_CACHED_REPAIR_RUNS, this::getRepairRunImpl);
+
+  private final ReadThroughCache<String, Cluster> clusters
+      = new ReadThroughCache<>(MAX_CACHED_CLUSTERS, this::getClusterImpl);
 
   public PostgresStorage(DBI jdbi) {
     this.jdbi = jdbi;
   }
 
+  @Override
+  public void start() {
+    // connections are opened on demand
+  }
+
+  /**
+   * Called before the data source closes, as it was managed by the application first.
+   */
+  @Override
+  public void stop() throws InterruptedException {
+    asyncExecutor.shutdown();
+    if (!asyncExecutor.awaitTermination(ASYNC_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      LOG.warn("asynchronous storage calls still running after {} seconds", ASYNC_SHUTDOWN_TIMEOUT_SECONDS);
+    }
+    lastEvents.flush();
+  }
+
+  @Override
+  public Executor asyncExecutor() {
+    return asyncExecutor;
+  }
+
   private static IStoragePostgreSql getPostgresStorage(Handle handle) {
     handle.registerArgumentFactory(new LongCollectionSqlTypeArgumentFactory());
     handle.registerArgumentFactory(new PostgresArrayArgumentFactory());
@@ -85,6 +131,10 @@ public final class PostgresStorage implements IStorage {
 
   @Override
   public Optional<Cluster> getCluster(String clusterName) {
+    return clusters.get(clusterName);
+  }
+
+  private Optional<Cluster> getClusterImpl(String clusterName) {
     Cluster result;
     try (Handle h = jdbi.open()) {
       result = getPostgresStorage(h).getCluster(clusterName);
@@ -112,6 +162,7 @@ public final class PostgresStorage implements IStorage {
         }
       }
     }
+    clusters.invalidateAll();
     return Optional.ofNullable(result);
   }
 
@@ -146,6 +197,7 @@ public final class PostgresStorage implements IStorage {
         result = newCluster; // no created id, as cluster name used for primary key
       }
     }
+    clusters.invalidateAll();
     return result != null;
   }
 
@@ -160,11 +212,21 @@ public final class PostgresStorage implements IStorage {
         result = true;
       }
     }
+    clusters.invalidateAll();
     return result;
   }
 
   @Override
   public Optional<RepairRun> getRepairRun(UUID id) {
+    return repairRuns.get(id);
+  }
+
+  @Override
+  public Optional<RepairRun> getRepairRunUncached(UUID id) {
+    return getRepairRunImpl(id);
+  }
+
+  private Optional<RepairRun> getRepairRunImpl(UUID id) {
     RepairRun result;
     try (Handle h = jdbi.open()) {
       result = getPostgresStorage(h).getRepairRun(UuidUtil.toSequenceId(id));
@@ -201,6 +263,7 @@ public final class PostgresStorage implements IStorage {
 
   @Override
   public Optional<RepairRun> deleteRepairRun(UUID id) {
+    lastEvents.discard(id);
     RepairRun result = null;
     Handle handle = null;
     try {
@@ -213,6 +276,8 @@ public final class PostgresStorage implements IStorage {
             = pg.getSegmentAmountForRepairRunWithState(UuidUtil.toSequenceId(id), RepairSegment.State.RUNNING);
         if (segmentsRunning == 0) {
           pg.deleteRepairSegmentsForRun(UuidUtil.toSequenceId(runToDelete.getId()));
+          pg.deleteSegmentCounts(UuidUtil.toSequenceId(id));
+          pg.deleteTableWriteCounts(UuidUtil.toSequenceId(id));
           pg.deleteRepairRun(UuidUtil.toSequenceId(id));
           result = runToDelete.with().runState(RepairRun.RunState.DELETED).build(id);
         } else {
@@ -230,6 +295,7 @@ public final class PostgresStorage implements IStorage {
         handle.close();
       }
     }
+    repairRuns.invalidate(id);
     return Optional.ofNullable(result);
   }
 
@@ -248,6 +314,7 @@ public final class PostgresStorage implements IStorage {
 
   @Override
   public boolean updateRepairRun(RepairRun repairRun) {
+    lastEvents.discard(repairRun.getId());
     boolean result = false;
     try (Handle h = jdbi.open()) {
       int rowsAdded = getPostgresStorage(h).updateRepairRun(repairRun);
@@ -257,9 +324,22 @@ public final class PostgresStorage implements IStorage {
         result = true;
       }
     }
+    repairRuns.invalidate(repairRun.getId());
     return result;
   }
 
+  @Override
+  public void updateRepairRunLastEvent(UUID runId, String lastEvent) {
+    lastEvents.record(runId, lastEvent);
+  }
+
+  private void writeRepairRunLastEvent(UUID runId, String lastEvent, long recordedAtMillis) {
+    try (Handle h = jdbi.open()) {
+      getPostgresStorage(h).updateRepairRunLastEvent(UuidUtil.toSequenceId(runId), lastEvent);
+    }
+    repairRuns.invalidate(runId);
+  }
+
   @Override
   public RepairUnit addRepairUnit(RepairUnit.Builder newRepairUnit) {
     long insertedId;
@@ -300,23 +380,49 @@ public final class PostgresStorage implements IStorage {
   private void addRepairSegments(Collection<RepairSegment.Builder> newSegments, UUID runId)
       throws ReaperException {
     List<PostgresRepairSegment> insertableSegments = new ArrayList<>();
+    Map<RepairSegment.State, Integer> segmentCounts = new EnumMap<>(RepairSegment.State.class);
+    for (RepairSegment.State state : RepairSegment.State.values()) {
+      segmentCounts.put(state, 0);
+    }
     for (RepairSegment.Builder segment : newSegments) {
-      insertableSegments.add(
-          new PostgresRepairSegment(segment.withRunId(runId).withId(null).build()));
+      RepairSegment newSegment = segment.withRunId(runId).withId(null).build();
+      insertableSegments.add(new PostgresRepairSegment(newSegment));
+      segmentCounts.merge(newSegment.getState(), 1, Integer::sum);
     }
     try (Handle h = jdbi.open()) {
-      getPostgresStorage(h).insertRepairSegments(insertableSegments.iterator());
+      h.begin();
+      IStoragePostgreSql pg = getPostgresStorage(h);
+      pg.insertRepairSegments(insertableSegments.iterator());
+      // every state gets a count, so that the state changes only ever update it
+      segmentCounts.forEach((state, count) -> pg.insertSegmentCount(UuidUtil.toSequenceId(runId), state, count));
+      h.commit();
     }
   }
 
+  @Override
+  public boolean updateRepairSegment(RepairSegment repairSegment, RepairSegment.State previousState) {
+    return updateRepairSegment(repairSegment);
+  }
+
   @Override
   public boolean updateRepairSegment(RepairSegment repairSegment) {
     boolean result = false;
     try (Handle h = jdbi.open()) {
-      int rowsAdded = getPostgresStorage(h).updateRepairSegment(repairSegment);
+      h.begin();
+      IStoragePostgreSql pg = getPostgresStorage(h);
+      // the stored state is locked until the segment counts follow the update
+      Integer storedState = pg.getRepairSegmentStateForUpdate(UuidUtil.toSequenceId(repairSegment.getId()));
+      int rowsAdded = pg.updateRepairSegment(repairSegment);
       if (rowsAdded < 1) {
         LOG.warn("failed updating repair segment with id: {}", repairSegment.getId());
+        h.rollback();
       } else {
+        if (null != storedState && storedState != repairSegment.getState().ordinal()) {
+          long runId = UuidUtil.toSequenceId(repairSegment.getRunId());
+          pg.addToSegmentCount(runId, RepairSegment.State.values()[storedState], -1);
+          pg.addToSegmentCount(runId, repairSegment.getState(), 1);
+        }
+        h.commit();
         result = true;
       }
     }
@@ -324,46 +430,50 @@ public final class PostgresStorage implements IStorage {
   }
 
   @Override
-  public Optional<RepairSegment> getRepairSegment(UUID runId, UUID segmentId) {
-    RepairSegment result;
-    try (Handle h = jdbi.open()) {
-      result = getPostgresStorage(h).getRepairSegment(UuidUtil.toSequenceId(segmentId));
-    }
-    return Optional.ofNullable(result);
-  }
+  public boolean replaceRepairSegments(
+      Collection<RepairSegment> segments,
+      Collection<RepairSegment.Builder> replacements) throws ReaperException {
 
-  @Override
-  public Collection<RepairSegment> getRepairSegmentsForRun(UUID runId) {
+    Preconditions.checkArgument(!segments.isEmpty(), "no segment to replace");
+    UUID runId = segments.iterator().next().getRunId();
+    List<PostgresRepairSegment> insertableSegments = new ArrayList<>();
+    Map<RepairSegment.State, Integer> countDeltas = new EnumMap<>(RepairSegment.State.class);
+    for (RepairSegment.Builder replacement : replacements) {
+      RepairSegment newSegment = replacement.withRunId(runId).withId(null).build();
+      insertableSegments.add(new PostgresRepairSegment(newSegment));
+      countDeltas.merge(newSegment.getState(), 1, Integer::sum);
+    }
     try (Handle h = jdbi.open()) {
-      return getPostgresStorage(h).getRepairSegmentsForRun(UuidUtil.toSequenceId(runId));
+      h.begin();
+      IStoragePostgreSql pg = getPostgresStorage(h);
+      for (RepairSegment segment : segments) {
+        Integer storedState = pg.getRepairSegmentStateForUpdate(UuidUtil.toSequenceId(segment.getId()));
+        if (null == storedState || 0 == pg.deleteRepairSegment(UuidUtil.toSequenceId(segment.getId()))) {
+          h.rollback();
+          return false;
+        }
+        countDeltas.merge(RepairSegment.State.values()[storedState], -1, Integer::sum);
+      }
+      pg.insertRepairSegments(insertableSegments.iterator());
+      countDeltas.forEach((state, delta) -> pg.addToSegmentCount(UuidUtil.toSequenceId(runId), state, delta));
+      h.commit();
     }
+    return true;
   }
 
-  private Optional<RepairSegment> getNextFreeSegment(UUID runId) {
+  @Override
+  public Optional<RepairSegment> getRepairSegment(UUID runId, UUID segmentId) {
     RepairSegment result;
     try (Handle h = jdbi.open()) {
-      result = getPostgresStorage(h).getNextFreeRepairSegment(UuidUtil.toSequenceId(runId));
+      result = getPostgresStorage(h).getRepairSegment(UuidUtil.toSequenceId(segmentId));
     }
     return Optional.ofNullable(result);
   }
 
   @Override
-  public Optional<RepairSegment> getNextFreeSegmentInRange(UUID runId, Optional<RingRange> range) {
-    if (range.isPresent()) {
-      RepairSegment result;
-      try (Handle h = jdbi.open()) {
-        IStoragePostgreSql storage = getPostgresStorage(h);
-        if (!range.get().isWrapping()) {
-          result = storage.getNextFreeRepairSegmentInNonWrappingRange(
-              UuidUtil.toSequenceId(runId), range.get().getStart(), range.get().getEnd());
-        } else {
-          result = storage.getNextFreeRepairSegmentInWrappingRange(
-              UuidUtil.toSequenceId(runId), range.get().getStart(), range.get().getEnd());
-        }
-      }
-      return Optional.ofNullable(result);
-    } else {
-      return getNextFreeSegment(runId);
+  public Collection<RepairSegment> getRepairSegmentsForRun(UUID runId) {
+    try (Handle h = jdbi.open()) {
+      return getPostgresStorage(h).getRepairSegmentsForRun(UuidUtil.toSequenceId(runId));
     }
   }
 
@@ -545,4 +655,26 @@ public final class PostgresStorage implements IStorage {
       return getPostgresStorage(h).getSnapshot(clusterName, snapshotName);
     }
   }
+
+  @Override
+  public boolean saveTableWriteCounts(UUID runId, TableWriteCounts tableWriteCounts) {
+    try (Handle h = jdbi.open()) {
+      int rowsAdded = getPostgresStorage(h).insertTableWriteCounts(
+          UuidUtil.toSequenceId(runId),
+          JsonParseUtils.writeWriteCountsTxt(tableWriteCounts.getWriteCounts()),
+          JsonParseUtils.writeTablesTxt(tableWriteCounts.getSkippedTables()));
+
+      return 0 < rowsAdded;
+    } catch (ReaperException e) {
+      LOG.warn("failed saving the table write counts of repair run {}", runId, e);
+      return false;
+    }
+  }
+
+  @Override
+  public Optional<TableWriteCounts> getTableWriteCounts(UUID runId) {
+    try (Handle h = jdbi.open()) {
+      return Optional.ofNullable(getPostgresStorage(h).getTableWriteCounts(UuidUtil.toSequenceId(runId)));
+    }
+  }
 }
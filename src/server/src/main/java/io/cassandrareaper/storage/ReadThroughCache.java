@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded read-through cache of the entities that are read many times per segment, like repair runs and clusters.
+ *
+ * <p>Entries expire shortly after being loaded, and are invalidated by the writes made through the storage, so that
+ * this reaper instance reads its own writes. Writes made by other reaper instances are seen once the entries expire,
+ * or as soon as the storage relays their invalidations. Entities that don't exist aren't cached, so that they are seen
+ * as soon as they are created.
+ */
+final class ReadThroughCache<K, V> {
+
+  private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Cache<K, V> cache;
+  private final Function<K, Optional<V>> loader;
+  // bumped on every invalidation, so that values loaded concurrently with a write aren't cached
+  private final AtomicLong invalidations = new AtomicLong();
+
+  ReadThroughCache(long maxSize, Function<K, Optional<V>> loader) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS)
+        .build();
+    this.loader = loader;
+  }
+
+  Optional<V> get(K key) {
+    V value = cache.getIfPresent(key);
+    if (null != value) {
+      return Optional.of(value);
+    }
+    long invalidationsBeforeLoad = invalidations.get();
+    Optional<V> loaded = loader.apply(key);
+    cache(key, loaded, invalidationsBeforeLoad);
+    return loaded;
+  }
+
+  /**
+   * @return the cached value, without loading it when missing
+   */
+  Optional<V> getIfPresent(K key) {
+    return Optional.ofNullable(cache.getIfPresent(key));
+  }
+
+  /**
+   * Same as {@link #get(Object)}, loading missing entries with the given asynchronous loader.
+   */
+  CompletionStage<Optional<V>> getAsync(K key, Function<K, CompletionStage<Optional<V>>> asyncLoader) {
+    V value = cache.getIfPresent(key);
+    if (null != value) {
+      return CompletableFuture.completedFuture(Optional.of(value));
+    }
+    long invalidationsBeforeLoad = invalidations.get();
+    return asyncLoader.apply(key).thenApply(loaded -> {
+      cache(key, loaded, invalidationsBeforeLoad);
+      return loaded;
+    });
+  }
+
+  private void cache(K key, Optional<V> loaded, long invalidationsBeforeLoad) {
+    if (loaded.isPresent() && invalidationsBeforeLoad == invalidations.get()) {
+      cache.put(key, loaded.get());
+    }
+  }
+
+  void invalidate(K key) {
+    invalidations.incrementAndGet();
+    cache.invalidate(key);
+  }
+
+  void invalidateAll() {
+    invalidations.incrementAndGet();
+    cache.invalidateAll();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind buffer of the last events of the repair runs.
+ *
+ * <p>An event is reported every time a segment is triggered or postponed, and each of them used to be a full write of
+ * the run. Events are now kept per run and only the latest one is written, a few seconds after the first one came in.
+ * Full run updates, which carry the state transitions, are still written right away and supersede the buffered event
+ * of their run.
+ */
+final class RepairRunEventBuffer {
+
+  interface Writer {
+
+    /**
+     * Writes the last event of a run, leaving the other fields of the run as they are.
+     *
+     * @param recordedAtMillis when the event was reported, so that it doesn't override a later full update of the run
+     */
+    void write(UUID runId, String lastEvent, long recordedAtMillis);
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepairRunEventBuffer.class);
+
+  private static final long FLUSH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setNameFormat("RepairRunEventBuffer-%d").setDaemon(true).build());
+
+  private final ConcurrentMap<UUID, Event> pending = Maps.newConcurrentMap();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private final Writer writer;
+
+  RepairRunEventBuffer(Writer writer) {
+    this.writer = writer;
+  }
+
+  /**
+   * Buffers the last event of a run, replacing the one not written yet if any.
+   */
+  void record(UUID runId, String lastEvent) {
+    pending.put(runId, new Event(lastEvent));
+    if (flushScheduled.compareAndSet(false, true)) {
+      SCHEDULER.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Drops the buffered event of a run, once the run has been written in full or deleted.
+   */
+  void discard(UUID runId) {
+    pending.remove(runId);
+  }
+
+  /**
+   * Writes the buffered events right away, which the storage also does when it stops.
+   */
+  void flush() {
+    // events recorded from now on schedule another flush
+    flushScheduled.set(false);
+    for (UUID runId : pending.keySet()) {
+      Event event = pending.remove(runId);
+      if (null != event) {
+        try {
+          writer.write(runId, event.lastEvent, event.recordedAtMillis);
+        } catch (RuntimeException e) {
+          LOG.warn("Failed writing the last event of run {}", runId, e);
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int pendingCount() {
+    return pending.size();
+  }
+
+  private static final class Event {
+
+    private final String lastEvent;
+    private final long recordedAtMillis = System.currentTimeMillis();
+
+    Event(String lastEvent) {
+      this.lastEvent = lastEvent;
+    }
+  }
+}
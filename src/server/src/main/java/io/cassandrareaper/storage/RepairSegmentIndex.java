@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import io.cassandrareaper.core.RepairSegment;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * In-memory index of the segments of the repair runs this reaper instance is working on.
+ *
+ * <p>NOT_STARTED segments are kept in token order, so listing the free segments of a run doesn't read the whole run
+ * from storage.
+ *
+ * <p>The index follows the segment updates made through this storage instance, and the updates made by other reaper
+ * instances as their cache invalidations are polled. Each run is also reloaded periodically in case an invalidation
+ * was missed. Local updates made while a run is being reloaded are carried over to the reloaded index.
+ */
+final class RepairSegmentIndex {
+
+  private static final long RECONCILE_INTERVAL_SECONDS = 60;
+  private static final int MAX_INDEXED_RUNS = 100;
+
+  private final LoadingCache<UUID, RunIndex> runs;
+
+  RepairSegmentIndex(Function<UUID, Collection<RepairSegment>> segmentsLoader) {
+    this(segmentsLoader, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RepairSegmentIndex(Function<UUID, Collection<RepairSegment>> segmentsLoader, Ticker ticker) {
+    runs = CacheBuilder.newBuilder()
+        .maximumSize(MAX_INDEXED_RUNS)
+        .refreshAfterWrite(RECONCILE_INTERVAL_SECONDS, TimeUnit.SECONDS)
+        .ticker(ticker)
+        .build(new CacheLoader<UUID, RunIndex>() {
+          @Override
+          public RunIndex load(UUID runId) throws Exception {
+            return new RunIndex(segmentsLoader.apply(runId));
+          }
+
+          @Override
+          public ListenableFuture<RunIndex> reload(UUID runId, RunIndex previous) throws Exception {
+            previous.startReload();
+            RunIndex reloaded = null;
+            try {
+              reloaded = new RunIndex(segmentsLoader.apply(runId));
+            } finally {
+              previous.endReload(reloaded);
+            }
+            return Futures.immediateFuture(reloaded);
+          }
+        });
+  }
+
+  /**
+   * Returns the NOT_STARTED segments of the run, in token order.
+   */
+  Collection<RepairSegment> getFreeSegments(UUID runId) {
+    return get(runId).getFreeSegments();
+  }
+
+  /**
+   * Records a segment update. Runs that aren't indexed yet are left alone, they will be loaded fresh when needed.
+   */
+  void update(RepairSegment segment) {
+    RunIndex index = runs.getIfPresent(segment.getRunId());
+    if (null != index) {
+      index.update(segment);
+    }
+  }
+
+  /**
+   * Records that segments have been replaced by other segments of the same run.
+   */
+  void replace(Collection<RepairSegment> segments, Collection<RepairSegment> replacements) {
+    RunIndex index = runs.getIfPresent(segments.iterator().next().getRunId());
+    if (null != index) {
+      index.replace(segments, replacements);
+    }
+  }
+
+  boolean isIndexed(UUID runId) {
+    return null != runs.getIfPresent(runId);
+  }
+
+  void invalidate(UUID runId) {
+    runs.invalidate(runId);
+  }
+
+  private RunIndex get(UUID runId) {
+    try {
+      return runs.get(runId);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static final class RunIndex {
+
+    private final Map<UUID, RepairSegment.State> states = Maps.newHashMap();
+    private final NavigableMap<Pair<BigInteger, UUID>, RepairSegment> notStarted = new TreeMap<>();
+    // the changes made while the run is being reloaded, and then the reloaded index they are forwarded to
+    private List<Consumer<RunIndex>> changesDuringReload;
+    private RunIndex successor;
+
+    RunIndex(Collection<RepairSegment> segments) {
+      segments.forEach(this::applyUpdate);
+    }
+
+    synchronized void startReload() {
+      changesDuringReload = Lists.newArrayList();
+    }
+
+    synchronized void endReload(RunIndex reloaded) {
+      if (null != reloaded) {
+        changesDuringReload.forEach(change -> change.accept(reloaded));
+        successor = reloaded;
+      }
+      changesDuringReload = null;
+    }
+
+    synchronized void update(RepairSegment segment) {
+      applyUpdate(segment);
+      forward(index -> index.update(segment));
+    }
+
+    synchronized void replace(Collection<RepairSegment> segments, Collection<RepairSegment> replacements) {
+      for (RepairSegment segment : segments) {
+        RepairSegment.State previous = states.remove(segment.getId());
+        if (RepairSegment.State.NOT_STARTED == previous) {
+          notStarted.remove(key(segment));
+        }
+      }
+      replacements.forEach(this::applyUpdate);
+      forward(index -> index.replace(segments, replacements));
+    }
+
+    private void forward(Consumer<RunIndex> change) {
+      if (null != changesDuringReload) {
+        changesDuringReload.add(change);
+      }
+      if (null != successor) {
+        change.accept(successor);
+      }
+    }
+
+    private void applyUpdate(RepairSegment segment) {
+      RepairSegment.State previous = states.put(segment.getId(), segment.getState());
+      if (RepairSegment.State.NOT_STARTED == previous) {
+        notStarted.remove(key(segment));
+      }
+      if (RepairSegment.State.NOT_STARTED == segment.getState()) {
+        notStarted.put(key(segment), segment);
+      }
+    }
+
+    synchronized Collection<RepairSegment> getFreeSegments() {
+      return Lists.newArrayList(notStarted.values());
+    }
+
+    private static Pair<BigInteger, UUID> key(RepairSegment segment) {
+      Preconditions.checkNotNull(segment.getId());
+      return Pair.of(segment.getStartToken(), segment.getId());
+    }
+  }
+}
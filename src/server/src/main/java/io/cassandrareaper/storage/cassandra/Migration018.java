@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage.cassandra;
+
+
+import java.util.List;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class Migration018 {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Migration018.class);
+  private static final int MAX_PENDING_WRITES = 1000;
+
+  private Migration018() {
+  }
+
+  /**
+   * fill the repair_run_segment_by_state table with the segments of the existing repair runs.
+   *
+   * <p>Runs before the schema version is raised, so that it is retried when it fails. The table is created here as it
+   * is by `018_segments_by_state.cql`.
+   */
+  public static void migrate(Session session) {
+    LOG.warn("Indexing the segments of the repair_run table by state. This may take some minutes…");
+
+    session.execute(
+        "CREATE TABLE IF NOT EXISTS repair_run_segment_by_state ("
+            + "id timeuuid, segment_state int, segment_id timeuuid, start_token varint, end_token varint,"
+            + " PRIMARY KEY ((id, segment_state), segment_id))"
+            + " WITH compaction = {'class':'LeveledCompactionStrategy'}"
+            + " AND caching = {'keys':'ALL', 'rows_per_partition':'ALL'}"
+            + " AND gc_grace_seconds = 864000"
+            + " AND default_time_to_live = 0");
+
+    Statement getRepairSegmentsStmt
+        = new SimpleStatement("SELECT id,segment_id,segment_state,start_token,end_token FROM repair_run")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM);
+
+    PreparedStatement insertSegmentByStatePrepStmt = session
+        .prepare("INSERT INTO repair_run_segment_by_state (id,segment_state,segment_id,start_token,end_token)"
+            + " VALUES(?, ?, ?, ?, ?)")
+        .setConsistencyLevel(ConsistencyLevel.EACH_QUORUM);
+
+    ResultSet resultSet = session.execute(getRepairSegmentsStmt);
+    List<ResultSetFuture> pendingWrites = Lists.newArrayList();
+    int rowsRead = 0;
+    for (Row row : resultSet) {
+      resultSet.fetchMoreResults();
+      // static columns of runs without segments come back as rows without segment
+      if (null != row.getUUID("segment_id")) {
+        pendingWrites.add(session.executeAsync(
+            insertSegmentByStatePrepStmt.bind(
+                row.getUUID("id"),
+                row.getInt("segment_state"),
+                row.getUUID("segment_id"),
+                row.getVarint("start_token"),
+                row.getVarint("end_token"))));
+      }
+      if (MAX_PENDING_WRITES <= pendingWrites.size()) {
+        awaitWrites(pendingWrites);
+      }
+      ++rowsRead;
+      if (0 == rowsRead % 1000) {
+        LOG.warn("rows read: " + rowsRead);
+      }
+    }
+    awaitWrites(pendingWrites);
+
+    LOG.warn("Indexing the segments of the repair_run table by state completed.");
+  }
+
+  /** a failed write fails the migration, so that it is run again */
+  private static void awaitWrites(List<ResultSetFuture> pendingWrites) {
+    pendingWrites.forEach(ResultSetFuture::getUninterruptibly);
+    pendingWrites.clear();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage.cassandra;
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class Migration020 {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Migration020.class);
+  private static final int MAX_PENDING_WRITES = 1000;
+
+  private Migration020() {
+  }
+
+  /**
+   * fill the repair_run_segment_count table with the amount of segments of the existing repair runs in each state.
+   *
+   * <p>Runs before the schema version is raised, so that it is retried when it fails. The table is created here as it
+   * is by `020_segment_counts.cql`, and emptied first as counters can't be written twice.
+   */
+  public static void migrate(Session session) {
+    LOG.warn("Counting the segments of the repair_run table by state. This may take some minutes…");
+
+    session.execute(
+        "CREATE TABLE IF NOT EXISTS repair_run_segment_count ("
+            + "id timeuuid, segment_state int, segment_count counter, PRIMARY KEY (id, segment_state))"
+            + " WITH compaction = {'class':'LeveledCompactionStrategy'}"
+            + " AND caching = {'keys':'ALL', 'rows_per_partition':'ALL'}"
+            + " AND gc_grace_seconds = 864000");
+    session.execute("TRUNCATE repair_run_segment_count");
+
+    Statement getRepairSegmentsStmt
+        = new SimpleStatement("SELECT id,segment_id,segment_state FROM repair_run")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM);
+
+    PreparedStatement addToSegmentCountPrepStmt = session
+        .prepare(
+            "UPDATE repair_run_segment_count SET segment_count = segment_count + ? WHERE id = ? AND segment_state = ?")
+        .setConsistencyLevel(ConsistencyLevel.EACH_QUORUM)
+        .setIdempotent(false);
+
+    Map<Pair<UUID, Integer>, Long> segmentCounts = Maps.newHashMap();
+    ResultSet resultSet = session.execute(getRepairSegmentsStmt);
+    int rowsRead = 0;
+    for (Row row : resultSet) {
+      resultSet.fetchMoreResults();
+      // static columns of runs without segments come back as rows without segment
+      if (null != row.getUUID("segment_id")) {
+        segmentCounts.merge(Pair.of(row.getUUID("id"), row.getInt("segment_state")), 1L, Long::sum);
+      }
+      ++rowsRead;
+      if (0 == rowsRead % 1000) {
+        LOG.warn("rows read: " + rowsRead);
+      }
+    }
+
+    List<ResultSetFuture> pendingWrites = Lists.newArrayList();
+    for (Map.Entry<Pair<UUID, Integer>, Long> segmentCount : segmentCounts.entrySet()) {
+      pendingWrites.add(session.executeAsync(
+          addToSegmentCountPrepStmt.bind(
+              segmentCount.getValue(), segmentCount.getKey().getLeft(), segmentCount.getKey().getRight())));
+      if (MAX_PENDING_WRITES <= pendingWrites.size()) {
+        awaitWrites(pendingWrites);
+      }
+    }
+    awaitWrites(pendingWrites);
+
+    LOG.warn("Counting the segments of the repair_run table by state completed.");
+  }
+
+  /** a failed write fails the migration, so that it is run again */
+  private static void awaitWrites(List<ResultSetFuture> pendingWrites) {
+    pendingWrites.forEach(ResultSetFuture::getUninterruptibly);
+    pendingWrites.clear();
+  }
+}
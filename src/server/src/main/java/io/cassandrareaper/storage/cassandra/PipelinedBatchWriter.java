@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage.cassandra;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes batches of statements asynchronously, with a bounded amount of batches in flight.
+ *
+ * <p>Writing a batch blocks while the limit is reached, so that the writes of a large repair run reach the backing
+ * cluster at the pace it takes them instead of all at once. Failed batches are retried a few times. The statements of
+ * a batch must target a single partition, and be idempotent.
+ */
+public final class PipelinedBatchWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PipelinedBatchWriter.class);
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final Session session;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+  private final Meter statementsWritten;
+  private final Meter batchesRetried;
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  public PipelinedBatchWriter(Session session, int maxInFlight, MetricRegistry metricRegistry) {
+    Preconditions.checkArgument(0 < maxInFlight, "at least one batch must be allowed in flight");
+    this.session = session;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.statementsWritten = metricRegistry.meter(MetricRegistry.name(PipelinedBatchWriter.class, "statements"));
+    this.batchesRetried = metricRegistry.meter(MetricRegistry.name(PipelinedBatchWriter.class, "retries"));
+  }
+
+  /**
+   * Writes the statements in an UNLOGGED batch, once less than the maximum amount of batches are in flight. Nothing is
+   * written anymore once a batch failed.
+   */
+  public void write(Collection<? extends Statement> statements) {
+    if (statements.isEmpty() || null != failure.get()) {
+      return;
+    }
+    BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+    batch.addAll(statements);
+    inFlight.acquireUninterruptibly();
+    execute(batch, 1);
+  }
+
+  /**
+   * Waits for all the batches written so far.
+   *
+   * @throws ExecutionException with the cause of the first batch that failed all its attempts
+   */
+  public void await() throws InterruptedException, ExecutionException {
+    inFlight.acquire(maxInFlight);
+    inFlight.release(maxInFlight);
+    if (null != failure.get()) {
+      throw new ExecutionException(failure.get());
+    }
+  }
+
+  private void execute(BatchStatement batch, int attempt) {
+    ResultSetFuture future;
+    try {
+      future = session.executeAsync(batch);
+    } catch (RuntimeException e) {
+      failure.compareAndSet(null, e);
+      inFlight.release();
+      return;
+    }
+    Futures.addCallback(
+        future,
+        new FutureCallback<ResultSet>() {
+          @Override
+          public void onSuccess(ResultSet result) {
+            statementsWritten.mark(batch.size());
+            inFlight.release();
+          }
+
+          @Override
+          public void onFailure(Throwable throwable) {
+            if (attempt < MAX_ATTEMPTS) {
+              LOG.debug("retrying batch of {} statements after failed attempt {}", batch.size(), attempt, throwable);
+              batchesRetried.mark();
+              execute(batch, attempt + 1);
+            } else {
+              failure.compareAndSet(null, throwable);
+              inFlight.release();
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+}
@@ -23,11 +23,11 @@ import io.cassandrareaper.core.RepairSchedule;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Snapshot;
+import io.cassandrareaper.core.TableWriteCounts;
 import io.cassandrareaper.resources.view.RepairRunStatus;
 import io.cassandrareaper.resources.view.RepairScheduleStatus;
 import io.cassandrareaper.service.RepairParameters;
 
-import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -76,6 +76,7 @@ public interface IStoragePostgreSql {
       + "start_time = :startTime, end_time = :endTime, pause_time = :pauseTime, "
       + "intensity = :intensity, last_event = :lastEvent, segment_count = :segmentCount, "
       + "repair_parallelism = :repairParallelism WHERE id = :id";
+  String SQL_UPDATE_REPAIR_RUN_LAST_EVENT = "UPDATE repair_run SET last_event = :lastEvent WHERE id = :id";
   String SQL_GET_REPAIR_RUN = "SELECT " + SQL_REPAIR_RUN_ALL_FIELDS + " FROM repair_run WHERE id = :id";
   String SQL_GET_REPAIR_RUNS_FOR_CLUSTER = "SELECT " + SQL_REPAIR_RUN_ALL_FIELDS
       + " FROM repair_run WHERE cluster_name = :clusterName ORDER BY id desc LIMIT :limit";
@@ -124,6 +125,7 @@ public interface IStoragePostgreSql {
           + "coordinator_host = :coordinatorHost, start_time = :startTime, end_time = :endTime, "
           + "fail_count = :failCount WHERE id = :id";
   String SQL_GET_REPAIR_SEGMENT = "SELECT " + SQL_REPAIR_SEGMENT_ALL_FIELDS + " FROM repair_segment WHERE id = :id";
+  String SQL_GET_REPAIR_SEGMENT_STATE_FOR_UPDATE = "SELECT state FROM repair_segment WHERE id = :id FOR UPDATE";
   String SQL_GET_REPAIR_SEGMENTS_FOR_RUN = "SELECT " + SQL_REPAIR_SEGMENT_ALL_FIELDS
       + " FROM repair_segment WHERE run_id = :runId";
   String SQL_GET_REPAIR_SEGMENTS_FOR_RUN_WITH_STATE = "SELECT " + SQL_REPAIR_SEGMENT_ALL_FIELDS
@@ -134,24 +136,8 @@ public interface IStoragePostgreSql {
           + "JOIN repair_run ON run_id = repair_run.id "
           + "JOIN repair_unit ON repair_run.repair_unit_id = repair_unit.id "
           + "WHERE repair_segment.state = 1 AND repair_unit.cluster_name = :clusterName";
-  String SQL_GET_NEXT_FREE_REPAIR_SEGMENT = "SELECT "
-          + SQL_REPAIR_SEGMENT_ALL_FIELDS
-          + " FROM repair_segment WHERE run_id = :runId "
-          + "AND state = 0 ORDER BY random() LIMIT 1";
-  String SQL_GET_NEXT_FREE_REPAIR_SEGMENT_IN_NON_WRAPPING_RANGE = "SELECT "
-          + SQL_REPAIR_SEGMENT_ALL_FIELDS
-          + " FROM repair_segment WHERE "
-          + "run_id = :runId AND state = 0 AND start_token < end_token AND "
-          + "(start_token >= :startToken AND end_token <= :endToken) "
-          + "ORDER BY random() LIMIT 1";
-  String SQL_GET_NEXT_FREE_REPAIR_SEGMENT_IN_WRAPPING_RANGE = "SELECT "
-          + SQL_REPAIR_SEGMENT_ALL_FIELDS
-          + " FROM repair_segment WHERE "
-          + "run_id = :runId AND state = 0 AND "
-          + "((start_token < end_token AND (start_token >= :startToken OR end_token <= :endToken)) OR "
-          + "(start_token >= :startToken AND end_token <= :endToken)) "
-          + "ORDER BY random() LIMIT 1";
   String SQL_DELETE_REPAIR_SEGMENTS_FOR_RUN = "DELETE FROM repair_segment WHERE run_id = :runId";
+  String SQL_DELETE_REPAIR_SEGMENT = "DELETE FROM repair_segment WHERE id = :id";
 
   // RepairSchedule
   //
@@ -193,18 +179,24 @@ public interface IStoragePostgreSql {
   // Utility methods
   //
   String SQL_GET_REPAIR_RUN_IDS_FOR_CLUSTER = "SELECT id FROM repair_run WHERE cluster_name = :clusterName";
-  String SQL_SEGMENT_AMOUNT_FOR_REPAIR_RUN = "SELECT count(*) FROM repair_segment WHERE run_id = :runId";
+  String SQL_SEGMENT_AMOUNT_FOR_REPAIR_RUN
+      = "SELECT COALESCE(SUM(segment_count), 0) FROM repair_segment_count WHERE run_id = :runId";
   String SQL_SEGMENT_AMOUNT_FOR_REPAIR_RUN_WITH_STATE
-      = "SELECT count(*) FROM repair_segment WHERE run_id = :runId AND state = :state";
+      = "SELECT COALESCE(SUM(segment_count), 0) FROM repair_segment_count WHERE run_id = :runId AND state = :state";
+  String SQL_INSERT_SEGMENT_COUNT = "INSERT INTO repair_segment_count (run_id, state, segment_count) "
+      + "VALUES (:runId, :state, :segmentCount)";
+  String SQL_ADD_TO_SEGMENT_COUNT = "UPDATE repair_segment_count SET segment_count = segment_count + :delta "
+      + "WHERE run_id = :runId AND state = :state";
+  String SQL_DELETE_SEGMENT_COUNTS = "DELETE FROM repair_segment_count WHERE run_id = :runId";
 
   // View-specific queries
   //
   String SQL_CLUSTER_RUN_OVERVIEW = "SELECT repair_run.id, repair_unit.cluster_name, keyspace_name, column_families, "
           + "nodes, datacenters, blacklisted_tables, "
-          + "(SELECT COUNT(case when state = 2 then 1 else null end) "
-          + "FROM repair_segment "
-          + "WHERE run_id = repair_run.id) AS segments_repaired, "
-          + "(SELECT COUNT(*) FROM repair_segment WHERE run_id = repair_run.id) AS segments_total, "
+          + "(SELECT COALESCE(SUM(segment_count), 0) FROM repair_segment_count "
+          + "WHERE run_id = repair_run.id AND state = 2) AS segments_repaired, "
+          + "(SELECT COALESCE(SUM(segment_count), 0) FROM repair_segment_count "
+          + "WHERE run_id = repair_run.id) AS segments_total, "
           + "repair_run.state, repair_run.start_time, "
           + "repair_run.end_time, cause, owner, last_event, creation_time, "
           + "pause_time, intensity, repair_parallelism, incremental_repair, repair_thread_count "
@@ -232,6 +224,14 @@ public interface IStoragePostgreSql {
   String SQL_GET_SNAPSHOT = "SELECT cluster, snapshot_name, owner, cause, creation_time "
           + " FROM snapshot WHERE cluster = :clusterName AND snapshot_name = :snapshotName";
 
+  // Table write counts
+  //
+  String SQL_INSERT_TABLE_WRITE_COUNTS = "INSERT INTO repair_run_table_writes (run_id, write_counts, skipped_tables) "
+      + "VALUES (:runId, :writeCounts, :skippedTables)";
+  String SQL_GET_TABLE_WRITE_COUNTS
+      = "SELECT write_counts, skipped_tables FROM repair_run_table_writes WHERE run_id = :runId";
+  String SQL_DELETE_TABLE_WRITE_COUNTS = "DELETE FROM repair_run_table_writes WHERE run_id = :runId";
+
 
   @SqlQuery("SELECT CURRENT_TIMESTAMP")
   String getCurrentDate();
@@ -287,6 +287,11 @@ public interface IStoragePostgreSql {
   int updateRepairRun(
       @BindBean RepairRun newRepairRun);
 
+  @SqlUpdate(SQL_UPDATE_REPAIR_RUN_LAST_EVENT)
+  int updateRepairRunLastEvent(
+      @Bind("id") long repairRunId,
+      @Bind("lastEvent") String lastEvent);
+
   @SqlUpdate(SQL_DELETE_REPAIR_RUN)
   int deleteRepairRun(
       @Bind("id") long repairRunId);
@@ -334,6 +339,10 @@ public interface IStoragePostgreSql {
   RepairSegment getRepairSegment(
       @Bind("id") long repairSegmentId);
 
+  @SqlQuery(SQL_GET_REPAIR_SEGMENT_STATE_FOR_UPDATE)
+  Integer getRepairSegmentStateForUpdate(
+      @Bind("id") long repairSegmentId);
+
   @SqlQuery(SQL_GET_REPAIR_SEGMENTS_FOR_RUN)
   @Mapper(RepairSegmentMapper.class)
   Collection<RepairSegment> getRepairSegmentsForRun(
@@ -350,29 +359,14 @@ public interface IStoragePostgreSql {
   Collection<RepairParameters> getRunningRepairsForCluster(
       @Bind("clusterName") String clusterName);
 
-  @SqlQuery(SQL_GET_NEXT_FREE_REPAIR_SEGMENT)
-  @Mapper(RepairSegmentMapper.class)
-  RepairSegment getNextFreeRepairSegment(
-      @Bind("runId") long runId);
-
-  @SqlQuery(SQL_GET_NEXT_FREE_REPAIR_SEGMENT_IN_NON_WRAPPING_RANGE)
-  @Mapper(RepairSegmentMapper.class)
-  RepairSegment getNextFreeRepairSegmentInNonWrappingRange(
-      @Bind("runId") long runId,
-      @Bind("startToken") BigInteger startToken,
-      @Bind("endToken") BigInteger endToken);
-
-  @SqlQuery(SQL_GET_NEXT_FREE_REPAIR_SEGMENT_IN_WRAPPING_RANGE)
-  @Mapper(RepairSegmentMapper.class)
-  RepairSegment getNextFreeRepairSegmentInWrappingRange(
-      @Bind("runId") long runId,
-      @Bind("startToken") BigInteger startToken,
-      @Bind("endToken") BigInteger endToken);
-
   @SqlUpdate(SQL_DELETE_REPAIR_SEGMENTS_FOR_RUN)
   int deleteRepairSegmentsForRun(
       @Bind("runId") long repairRunId);
 
+  @SqlUpdate(SQL_DELETE_REPAIR_SEGMENT)
+  int deleteRepairSegment(
+      @Bind("id") long repairSegmentId);
+
   @SqlQuery(SQL_GET_REPAIR_SCHEDULE)
   @Mapper(RepairScheduleMapper.class)
   RepairSchedule getRepairSchedule(
@@ -424,6 +418,22 @@ public interface IStoragePostgreSql {
       @Bind("runId") long runId,
       @Bind("state") RepairSegment.State state);
 
+  @SqlUpdate(SQL_INSERT_SEGMENT_COUNT)
+  int insertSegmentCount(
+      @Bind("runId") long runId,
+      @Bind("state") RepairSegment.State state,
+      @Bind("segmentCount") int segmentCount);
+
+  @SqlUpdate(SQL_ADD_TO_SEGMENT_COUNT)
+  int addToSegmentCount(
+      @Bind("runId") long runId,
+      @Bind("state") RepairSegment.State state,
+      @Bind("delta") int delta);
+
+  @SqlUpdate(SQL_DELETE_SEGMENT_COUNTS)
+  int deleteSegmentCounts(
+      @Bind("runId") long runId);
+
   @SqlQuery(SQL_CLUSTER_RUN_OVERVIEW)
   @Mapper(RepairRunStatusMapper.class)
   List<RepairRunStatus> getClusterRunOverview(
@@ -447,4 +457,17 @@ public interface IStoragePostgreSql {
   @SqlUpdate(SQL_SAVE_SNAPSHOT)
   int saveSnapshot(@BindBean Snapshot snapshot);
 
+  @SqlUpdate(SQL_INSERT_TABLE_WRITE_COUNTS)
+  int insertTableWriteCounts(
+      @Bind("runId") long runId,
+      @Bind("writeCounts") String writeCounts,
+      @Bind("skippedTables") String skippedTables);
+
+  @SqlQuery(SQL_GET_TABLE_WRITE_COUNTS)
+  @Mapper(TableWriteCountsMapper.class)
+  TableWriteCounts getTableWriteCounts(@Bind("runId") long runId);
+
+  @SqlUpdate(SQL_DELETE_TABLE_WRITE_COUNTS)
+  int deleteTableWriteCounts(@Bind("runId") long runId);
+
 }
@@ -0,0 +1,32 @@
+--
+--  Copyright 2018-2018 The Last Pickle Ltd
+--
+--  Licensed under the Apache License, Version 2.0 (the "License");
+--  you may not use this file except in compliance with the License.
+--  You may obtain a copy of the License at
+--
+--      http://www.apache.org/licenses/LICENSE-2.0
+--
+--  Unless required by applicable law or agreed to in writing, software
+--  distributed under the License is distributed on an "AS IS" BASIS,
+--  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--  See the License for the specific language governing permissions and
+--  limitations under the License.
+--
+-- Amount of segments of repair runs in each state, updated along with the state of the segments
+--
+
+CREATE TABLE IF NOT EXISTS repair_segment_count (
+  run_id                  INT      NOT NULL REFERENCES repair_run (id),
+-- see (Java) RepairSegment.State for state values
+  state                   SMALLINT NOT NULL,
+  segment_count           INT      NOT NULL,
+  PRIMARY KEY (run_id, state)
+);
+
+INSERT INTO repair_segment_count (run_id, state, segment_count)
+  SELECT id, 0, (SELECT COUNT(*) FROM repair_segment WHERE run_id = repair_run.id AND state = 0) FROM repair_run;
+INSERT INTO repair_segment_count (run_id, state, segment_count)
+  SELECT id, 1, (SELECT COUNT(*) FROM repair_segment WHERE run_id = repair_run.id AND state = 1) FROM repair_run;
+INSERT INTO repair_segment_count (run_id, state, segment_count)
+  SELECT id, 2, (SELECT COUNT(*) FROM repair_segment WHERE run_id = repair_run.id AND state = 2) FROM repair_run;
@@ -0,0 +1,23 @@
+--
+--  Copyright 2018-2018 The Last Pickle Ltd
+--
+--  Licensed under the Apache License, Version 2.0 (the "License");
+--  you may not use this file except in compliance with the License.
+--  You may obtain a copy of the License at
+--
+--      http://www.apache.org/licenses/LICENSE-2.0
+--
+--  Unless required by applicable law or agreed to in writing, software
+--  distributed under the License is distributed on an "AS IS" BASIS,
+--  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--  See the License for the specific language governing permissions and
+--  limitations under the License.
+--
+-- Write counts of the tables of repair runs, to skip the tables without writes
+--
+
+CREATE TABLE IF NOT EXISTS "repair_run_table_writes" (
+  "run_id"                  INT PRIMARY KEY REFERENCES "repair_run" ("id"),
+  "write_counts"            TEXT NOT NULL,
+  "skipped_tables"          TEXT NOT NULL
+);
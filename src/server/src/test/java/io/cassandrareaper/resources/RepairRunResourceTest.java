@@ -110,6 +110,7 @@ public final class RepairRunResourceTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(THREAD_CNT),
+        Executors.newScheduledThreadPool(THREAD_CNT),
         REPAIR_TIMEOUT_S,
         TimeUnit.SECONDS,
         RETRY_DELAY_S,
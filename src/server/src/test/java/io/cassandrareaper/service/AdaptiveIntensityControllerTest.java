@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperApplicationConfiguration;
+import io.cassandrareaper.ReaperApplicationConfiguration.AdaptiveIntensityConfiguration;
+import io.cassandrareaper.core.Node;
+import io.cassandrareaper.jmx.JmxConnectionFactory;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+
+public final class AdaptiveIntensityControllerTest {
+
+  private static final double DELTA = 0.0001;
+
+  @Test
+  public void testDecreaseHalvesIntensityAndConcurrency() {
+    AdaptiveIntensityController controller = new AdaptiveIntensityController(newContext(), "test", 0.9);
+    assertEquals(Integer.MAX_VALUE, controller.getMaxConcurrentSegments());
+
+    controller.decrease(6);
+    assertEquals(0.45, controller.getIntensity(), DELTA);
+    assertEquals(3, controller.getMaxConcurrentSegments());
+
+    for (int i = 0; i < 10; ++i) {
+      controller.decrease(1);
+    }
+    assertEquals(AdaptiveIntensityController.MIN_INTENSITY, controller.getIntensity(), DELTA);
+    assertEquals(1, controller.getMaxConcurrentSegments());
+  }
+
+  @Test
+  public void testIncreaseIsAdditive() {
+    AdaptiveIntensityController controller = new AdaptiveIntensityController(newContext(), "test", 0.5);
+
+    controller.increase(4);
+    assertEquals(0.55, controller.getIntensity(), DELTA);
+    assertEquals(Integer.MAX_VALUE, controller.getMaxConcurrentSegments());
+
+    controller.decrease(4);
+    controller.increase(2);
+    controller.increase(3);
+    assertEquals(4, controller.getMaxConcurrentSegments());
+
+    for (int i = 0; i < 20; ++i) {
+      controller.increase(1);
+    }
+    assertEquals(AdaptiveIntensityController.MAX_INTENSITY, controller.getIntensity(), DELTA);
+    assertEquals(2, controller.getMaxConcurrentSegments());
+  }
+
+  @Test
+  public void testResetToTheIntensityOfTheRun() {
+    AdaptiveIntensityController controller = new AdaptiveIntensityController(newContext(), "test", 0.8);
+    controller.decrease(4);
+
+    controller.resetIfChanged(0.8);
+    assertEquals(0.4, controller.getIntensity(), DELTA);
+
+    controller.resetIfChanged(0.3);
+    assertEquals(0.3, controller.getIntensity(), DELTA);
+
+    controller.increase(4);
+    controller.resetIfChanged(0.3);
+    assertEquals(0.35, controller.getIntensity(), DELTA);
+  }
+
+  @Test
+  public void testUpdateFollowsTheLoadOfTheReplicas() throws Exception {
+    AppContext context = newContext();
+    context.config.getAdaptiveIntensity().setMaxPendingCompactions(10);
+    JmxProxy idle = Mockito.mock(JmxProxy.class);
+    Mockito.when(idle.getPendingCompactions()).thenReturn(0);
+    JmxProxy busy = Mockito.mock(JmxProxy.class);
+    Mockito.when(busy.getPendingCompactions()).thenReturn(50);
+    Mockito.when(context.jmxConnectionFactory.connect(any(), anyInt())).thenAnswer(
+        invocation -> "127.0.0.2".equals(((Node) invocation.getArgument(0)).getHostname()) ? busy : idle);
+
+    AdaptiveIntensityController controller = new AdaptiveIntensityController(context, "test", 0.8);
+    controller.update(Collections.emptyList(), 0);
+    assertEquals(0.8, controller.getIntensity(), DELTA);
+
+    controller.update(Arrays.asList("127.0.0.1", "127.0.0.2"), 4);
+    assertEquals(0.4, controller.getIntensity(), DELTA);
+    assertEquals(2, controller.getMaxConcurrentSegments());
+
+    // sampled at most once per interval
+    controller.update(Arrays.asList("127.0.0.1", "127.0.0.2"), 4);
+    assertEquals(0.4, controller.getIntensity(), DELTA);
+    assertEquals(2, controller.getMaxConcurrentSegments());
+  }
+
+  private static AppContext newContext() {
+    AppContext context = new AppContext();
+    context.config = new ReaperApplicationConfiguration();
+    AdaptiveIntensityConfiguration adaptiveIntensity = new AdaptiveIntensityConfiguration();
+    adaptiveIntensity.setEnabled(true);
+    context.config.setAdaptiveIntensity(adaptiveIntensity);
+    context.jmxConnectionFactory = Mockito.mock(JmxConnectionFactory.class);
+    return context;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperApplicationConfiguration;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.Node;
+import io.cassandrareaper.jmx.JmxConnectionFactory;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public final class CoordinatorSelectorTest {
+
+  @Test
+  public void testLoadedReplicasAreRankedLast() throws Exception {
+    Map<String, JmxProxy> proxies = Maps.newHashMap();
+    proxies.put("idle", proxy(0, false));
+    proxies.put("compacting", proxy(100, false));
+    proxies.put("repairing", proxy(0, true));
+    AppContext context = newContext(proxies, Sets.newHashSet("unreachable"));
+
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(
+          Arrays.asList("idle", "compacting", "repairing", "unreachable"),
+          context.coordinatorSelector.rank("test", Arrays.asList("unreachable", "repairing", "compacting", "idle")));
+    }
+  }
+
+  @Test
+  public void testCoordinationIsSpreadOverIdleReplicas() throws Exception {
+    Map<String, JmxProxy> proxies = Maps.newHashMap();
+    proxies.put("a1", proxy(0, false));
+    proxies.put("a2", proxy(0, false));
+    proxies.put("a3", proxy(0, false));
+    AppContext context = newContext(proxies, Sets.newHashSet("a4"));
+
+    Set<JmxProxy> coordinators = Sets.newHashSet();
+    for (int i = 0; i < 3; ++i) {
+      coordinators.add(context.coordinatorSelector.connect("test", Arrays.asList("a1", "a2", "a3", "a4")));
+    }
+    // each replica coordinated once
+    assertEquals(3, coordinators.size());
+
+    assertNotEquals(
+        "a4",
+        context.coordinatorSelector.rank("test", Arrays.asList("a1", "a4")).get(0));
+  }
+
+  private static JmxProxy proxy(int pendingCompactions, boolean repairRunning) throws Exception {
+    JmxProxy proxy = Mockito.mock(JmxProxy.class);
+    Mockito.when(proxy.getPendingCompactions()).thenReturn(pendingCompactions);
+    Mockito.when(proxy.isRepairRunning()).thenReturn(repairRunning);
+    return proxy;
+  }
+
+  private static AppContext newContext(Map<String, JmxProxy> proxies, Set<String> unreachable) {
+    AppContext context = new AppContext();
+    context.config = new ReaperApplicationConfiguration();
+    context.jmxConnectionFactory = new JmxConnectionFactory() {
+      @Override
+      protected JmxProxy connectImpl(Node node, int connectionTimeout) throws ReaperException {
+        if (unreachable.contains(node.getHostname())) {
+          throw new ReaperException("unreachable");
+        }
+        return proxies.get(node.getHostname());
+      }
+    };
+    return context;
+  }
+}
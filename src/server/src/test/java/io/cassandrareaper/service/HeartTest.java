@@ -145,6 +145,7 @@ public final class HeartTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         REPAIR_TIMEOUT_S,
         TimeUnit.SECONDS,
         RETRY_DELAY_S,
@@ -175,6 +176,7 @@ public final class HeartTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         REPAIR_TIMEOUT_S,
         TimeUnit.SECONDS,
         RETRY_DELAY_S,
@@ -213,6 +215,7 @@ public final class HeartTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         REPAIR_TIMEOUT_S,
         TimeUnit.SECONDS,
         RETRY_DELAY_S,
@@ -272,6 +275,7 @@ public final class HeartTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         REPAIR_TIMEOUT_S,
         TimeUnit.SECONDS,
         RETRY_DELAY_S,
@@ -305,7 +309,8 @@ public final class HeartTest {
 
     Mockito.verify((CassandraStorage)context.storage, Mockito.times(1)).saveHeartbeat();
     Mockito.verify((CassandraStorage)context.storage, Mockito.times(2)).getNodeMetrics(any());
-    Mockito.verify(context.jmxConnectionFactory, Mockito.times(2)).connect(any(), anyInt());
+    // pending compactions are read once and cached, whether a repair runs is read live for each request
+    Mockito.verify(context.jmxConnectionFactory, Mockito.times(3)).connect(any(), anyInt());
     Mockito.verify((CassandraStorage)context.storage, Mockito.times(2)).storeNodeMetrics(any(), any());
   }
 
@@ -321,6 +326,7 @@ public final class HeartTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         REPAIR_TIMEOUT_S,
         TimeUnit.SECONDS,
         RETRY_DELAY_S,
@@ -363,7 +369,8 @@ public final class HeartTest {
 
     Mockito.verify((CassandraStorage)context.storage, Mockito.times(2)).saveHeartbeat();
     Mockito.verify((CassandraStorage)context.storage, Mockito.times(2)).getNodeMetrics(any());
-    Mockito.verify(context.jmxConnectionFactory, Mockito.times(2)).connect(any(), anyInt());
+    // pending compactions are read once and cached, whether a repair runs is read live for each request
+    Mockito.verify(context.jmxConnectionFactory, Mockito.times(3)).connect(any(), anyInt());
     Mockito.verify((CassandraStorage)context.storage, Mockito.times(2)).storeNodeMetrics(any(), any());
   }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.storage.IDistributedStorage;
+import io.cassandrareaper.storage.IStorage;
+import io.cassandrareaper.storage.MemoryStorage;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class HostRepairPermitsTest {
+
+  @Test
+  public void testPermitsAreAcquiredForAllHostsOrNone() {
+    AppContext context = new AppContext();
+    context.storage = new MemoryStorage();
+    HostRepairPermits permits = new HostRepairPermits(context);
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+
+    assertTrue(permits.tryAcquire("test", Arrays.asList("a1", "a2", "a3"), first));
+    assertFalse(permits.tryAcquire("test", Arrays.asList("a4", "a3"), second));
+    assertEquals(Sets.newHashSet("a1", "a2", "a3"), permits.getBusyHosts("test"));
+    assertTrue(permits.getBusyHosts("other").isEmpty());
+
+    // hosts of other clusters are independent
+    assertTrue(permits.tryAcquire("other", Arrays.asList("a3"), second));
+
+    // only the holder releases its permits
+    permits.release("test", Arrays.asList("a1", "a2", "a3"), second);
+    assertEquals(3, permits.getBusyHosts("test").size());
+    permits.release("test", Arrays.asList("a1", "a2", "a3"), first);
+    assertTrue(permits.tryAcquire("test", Arrays.asList("a4", "a3"), second));
+  }
+
+  @Test
+  public void testPermitsAreSharedThroughDistributedStorage() {
+    AppContext context = new AppContext();
+    context.storage = Mockito.mock(IStorage.class, Mockito.withSettings().extraInterfaces(IDistributedStorage.class));
+    IDistributedStorage storage = (IDistributedStorage) context.storage;
+    UUID a1 = HostRepairPermits.leaderId("test", "a1");
+    UUID a2 = HostRepairPermits.leaderId("test", "a2");
+    Mockito.when(storage.takeLead(a1)).thenReturn(true);
+    Mockito.when(storage.takeLead(a2)).thenReturn(false);
+    Mockito.when(storage.renewLead(a1)).thenReturn(true);
+
+    HostRepairPermits permits = new HostRepairPermits(context);
+    UUID segmentId = UUID.randomUUID();
+
+    // a2 is held by another reaper instance
+    assertFalse(permits.tryAcquire("test", Arrays.asList("a1", "a2"), segmentId));
+    Mockito.verify(storage).releaseLead(a1);
+    assertTrue(permits.getBusyHosts("test").isEmpty());
+
+    assertTrue(permits.tryAcquire("test", Arrays.asList("a1"), segmentId));
+    permits.renew();
+    Mockito.verify(storage).renewLead(a1);
+
+    // leader ids are stable time based uuids
+    assertEquals(1, a1.version());
+    assertEquals(a1, HostRepairPermits.leaderId("test", "a1"));
+    assertNotEquals(a1, HostRepairPermits.leaderId("other", "a1"));
+  }
+}
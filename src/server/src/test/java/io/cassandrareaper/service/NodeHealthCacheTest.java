@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.ReaperApplicationConfiguration;
+import io.cassandrareaper.ReaperException;
+import io.cassandrareaper.core.Node;
+import io.cassandrareaper.jmx.JmxConnectionFactory;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+
+public final class NodeHealthCacheTest {
+
+  private static final Node NODE = Node.builder().withClusterName("test").withHostname("127.0.0.1").build();
+
+  @Test
+  public void testValuesAreCachedUntilInvalidated() throws Exception {
+    AppContext context = newContext();
+    JmxProxy proxy = Mockito.mock(JmxProxy.class);
+    Mockito.when(proxy.getPendingCompactions()).thenReturn(3);
+    Mockito.when(proxy.isRepairRunning()).thenReturn(false);
+    Mockito.when(context.jmxConnectionFactory.connect(any(), anyInt())).thenReturn(proxy);
+
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(3, context.nodeHealthCache.getPendingCompactions(NODE));
+      assertFalse(context.nodeHealthCache.isRepairRunning(NODE));
+    }
+    Mockito.verify(proxy, Mockito.times(1)).getPendingCompactions();
+    // a repair starts or finishes at any time, it is always read live
+    Mockito.verify(proxy, Mockito.times(10)).isRepairRunning();
+
+    context.nodeHealthCache.invalidate(NODE);
+    assertEquals(3, context.nodeHealthCache.getPendingCompactions(NODE));
+    Mockito.verify(proxy, Mockito.times(2)).getPendingCompactions();
+  }
+
+  @Test
+  public void testConcurrentReadsLoadOnce() throws Exception {
+    AppContext context = newContext();
+    JmxProxy proxy = Mockito.mock(JmxProxy.class);
+    Mockito.when(proxy.getPendingCompactions()).thenAnswer(invocation -> {
+      Thread.sleep(200);
+      return 7;
+    });
+    Mockito.when(context.jmxConnectionFactory.connect(any(), anyInt())).thenReturn(proxy);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<Integer>> reads = Lists.newArrayList();
+      for (int i = 0; i < 8; ++i) {
+        reads.add(() -> context.nodeHealthCache.getPendingCompactions(NODE));
+      }
+      for (Integer pending : Collections2.transform(executor.invokeAll(reads), NodeHealthCacheTest::getUnchecked)) {
+        assertEquals(7, pending.intValue());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Mockito.verify(proxy, Mockito.times(1)).getPendingCompactions();
+  }
+
+  @Test
+  public void testFailuresAreNotCached() throws Exception {
+    AppContext context = newContext();
+    JmxProxy proxy = Mockito.mock(JmxProxy.class);
+    Mockito.when(proxy.getPendingCompactions()).thenReturn(1);
+    Mockito.when(context.jmxConnectionFactory.connect(any(), anyInt()))
+        .thenThrow(new ReaperException("unreachable"))
+        .thenReturn(proxy);
+
+    try {
+      context.nodeHealthCache.getPendingCompactions(NODE);
+      fail("expected the connection failure to be reported");
+    } catch (ReaperException expected) {
+      assertEquals("unreachable", expected.getMessage());
+    }
+    assertEquals(1, context.nodeHealthCache.getPendingCompactions(NODE));
+  }
+
+  private static AppContext newContext() {
+    AppContext context = new AppContext();
+    context.config = new ReaperApplicationConfiguration();
+    context.jmxConnectionFactory = Mockito.mock(JmxConnectionFactory.class);
+    return context;
+  }
+
+  private static <T> T getUnchecked(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
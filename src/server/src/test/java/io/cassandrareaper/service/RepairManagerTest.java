@@ -21,25 +21,34 @@ import io.cassandrareaper.AppContext;
 import io.cassandrareaper.ReaperApplicationConfiguration;
 import io.cassandrareaper.ReaperException;
 import io.cassandrareaper.core.Cluster;
+import io.cassandrareaper.core.Node;
 import io.cassandrareaper.core.RepairRun;
 import io.cassandrareaper.core.RepairSegment;
 import io.cassandrareaper.core.RepairUnit;
 import io.cassandrareaper.core.Segment;
+import io.cassandrareaper.jmx.JmxConnectionFactory;
+import io.cassandrareaper.jmx.JmxProxy;
 import io.cassandrareaper.storage.CassandraStorage;
 import io.cassandrareaper.storage.IDistributedStorage;
 import io.cassandrareaper.storage.IStorage;
+import io.cassandrareaper.storage.MemoryStorage;
 
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.cassandra.repair.RepairParallelism;
 import org.fest.assertions.api.Assertions;
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
@@ -79,6 +88,7 @@ public final class RepairManagerTest {
     RepairManager repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         500,
         TimeUnit.MILLISECONDS,
         1,
@@ -157,6 +167,7 @@ public final class RepairManagerTest {
     RepairManager repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         500,
         TimeUnit.MILLISECONDS,
         1,
@@ -235,6 +246,7 @@ public final class RepairManagerTest {
     RepairManager repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         500,
         TimeUnit.MILLISECONDS,
         1,
@@ -310,6 +322,7 @@ public final class RepairManagerTest {
     RepairManager repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         500,
         TimeUnit.MILLISECONDS,
         1,
@@ -368,6 +381,7 @@ public final class RepairManagerTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         500,
         TimeUnit.MILLISECONDS,
         1,
@@ -408,6 +422,78 @@ public final class RepairManagerTest {
     Mockito.verify(context.storage, Mockito.times(1)).updateRepairRun(any());
   }
 
+  @Test
+  public void abortSegmentsInParallelTest() throws ReaperException {
+    AppContext context = new AppContext();
+    context.config = new ReaperApplicationConfiguration();
+    context.storage = new MemoryStorage();
+
+    context.repairManager = RepairManager.create(
+        context,
+        Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
+        500,
+        TimeUnit.MILLISECONDS,
+        1,
+        TimeUnit.MILLISECONDS);
+
+    RepairUnit cf = context.storage.addRepairUnit(
+        RepairUnit.builder()
+            .clusterName("reaper")
+            .keyspaceName("reaper")
+            .columnFamilies(Sets.newHashSet("reaper"))
+            .incrementalRepair(false)
+            .nodes(Sets.newHashSet("127.0.0.1"))
+            .repairThreadCount(1));
+
+    List<RepairSegment.Builder> segmentBuilders = Lists.newArrayList();
+    for (int i = 0; i < 16; ++i) {
+      segmentBuilders.add(RepairSegment.builder(
+          Segment.builder().withTokenRange(new RingRange(BigInteger.valueOf(i), BigInteger.valueOf(i + 1))).build(),
+          cf.getId()));
+    }
+    RepairRun run = context.storage.addRepairRun(
+        RepairRun.builder("reaper", cf.getId())
+            .intensity(0.5)
+            .segmentCount(16)
+            .repairParallelism(RepairParallelism.PARALLEL),
+        segmentBuilders);
+
+    List<RepairSegment> runningSegments = Lists.newArrayList();
+    for (RepairSegment segment : context.storage.getRepairSegmentsForRun(run.getId())) {
+      RepairSegment running = segment.with()
+          .withState(RepairSegment.State.RUNNING)
+          .withStartTime(DateTime.now())
+          .withCoordinatorHost("127.0.0.1")
+          .withId(segment.getId())
+          .build();
+
+      context.storage.updateRepairSegment(running);
+      runningSegments.add(running);
+    }
+
+    AtomicInteger connecting = new AtomicInteger();
+    AtomicInteger maxConnecting = new AtomicInteger();
+    context.jmxConnectionFactory = new JmxConnectionFactory() {
+      @Override
+      protected JmxProxy connectImpl(Node node, int connectionTimeout) throws ReaperException, InterruptedException {
+        maxConnecting.accumulateAndGet(connecting.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(100);
+        } finally {
+          connecting.decrementAndGet();
+        }
+        throw new ReaperException("unreachable");
+      }
+    };
+
+    context.repairManager.abortSegments(runningSegments, run);
+
+    // the segments were aborted several at a time, and postponed as their coordinator was unreachable
+    Assertions.assertThat(maxConnecting.get()).isGreaterThan(1).isLessThanOrEqualTo(8);
+    Assertions.assertThat(context.storage.getSegmentsWithState(run.getId(), RepairSegment.State.RUNNING)).isEmpty();
+  }
+
   private static class NotEmptyList implements ArgumentMatcher<Collection<RepairSegment>> {
     @Override
     public boolean matches(Collection<RepairSegment> segments) {
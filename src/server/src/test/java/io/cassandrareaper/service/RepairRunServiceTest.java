@@ -99,6 +99,27 @@ public final class RepairRunServiceTest {
 
   }
 
+  @Test
+  public void filterSegmentsByNodesWrappingRangeTest() throws ReaperException {
+    Map<List<String>, List<String>> rangeToEndpoint = Maps.newHashMap();
+    rangeToEndpoint.put(Arrays.asList("10", "20"), Arrays.asList("node1"));
+    rangeToEndpoint.put(Arrays.asList("20", "10"), Arrays.asList("node2"));
+
+    List<Segment> segments = Arrays.asList(
+            Segment.builder().withTokenRange(new RingRange("5", "10")).build(),
+            Segment.builder().withTokenRange(new RingRange("10", "15")).build(),
+            Segment.builder().withTokenRange(new RingRange("15", "20")).build(),
+            Segment.builder().withTokenRange(new RingRange("20", "30")).build());
+
+    final RepairUnit repairUnit = mock(RepairUnit.class);
+    when(repairUnit.getNodes()).thenReturn(new HashSet<String>(Arrays.asList("node2")));
+
+    List<Segment> filtered = RepairRunService.filterSegmentsByNodes(
+            segments, repairUnit, RepairRunService.buildEndpointToRangeMap(rangeToEndpoint));
+
+    assertEquals(Arrays.asList(segments.get(0), segments.get(3)), filtered);
+  }
+
   @Test
   public void computeGlobalSegmentCountSubdivisionOkTest() {
 
@@ -46,7 +46,6 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -118,7 +117,8 @@ public final class RepairRunnerTest {
                     cf.getId())));
 
     final UUID RUN_ID = run.getId();
-    final UUID SEGMENT_ID = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID SEGMENT_ID
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
     assertEquals(storage.getRepairSegment(RUN_ID, SEGMENT_ID).get().getState(), RepairSegment.State.NOT_STARTED);
     AppContext context = new AppContext();
     context.storage = storage;
@@ -126,7 +126,14 @@ public final class RepairRunnerTest {
     final Semaphore mutex = new Semaphore(0);
 
     context.repairManager = RepairManager
-        .create(context, Executors.newScheduledThreadPool(1), 500, TimeUnit.MILLISECONDS, 1, TimeUnit.MILLISECONDS);
+        .create(
+            context,
+            Executors.newScheduledThreadPool(1),
+            SegmentRunnerTest.INLINE_SCHEDULER,
+            500,
+            TimeUnit.MILLISECONDS,
+            1,
+            TimeUnit.MILLISECONDS);
 
     context.jmxConnectionFactory = new JmxConnectionFactory() {
           final AtomicInteger repairAttempts = new AtomicInteger(1);
@@ -271,7 +278,8 @@ public final class RepairRunnerTest {
                     cf.getId())));
 
     final UUID RUN_ID = run.getId();
-    final UUID SEGMENT_ID = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID SEGMENT_ID
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
     assertEquals(storage.getRepairSegment(RUN_ID, SEGMENT_ID).get().getState(), RepairSegment.State.NOT_STARTED);
     AppContext context = new AppContext();
     context.storage = storage;
@@ -279,7 +287,14 @@ public final class RepairRunnerTest {
     final Semaphore mutex = new Semaphore(0);
 
     context.repairManager = RepairManager
-        .create(context, Executors.newScheduledThreadPool(1), 500, TimeUnit.MILLISECONDS, 1, TimeUnit.MILLISECONDS);
+        .create(
+            context,
+            Executors.newScheduledThreadPool(1),
+            SegmentRunnerTest.INLINE_SCHEDULER,
+            500,
+            TimeUnit.MILLISECONDS,
+            1,
+            TimeUnit.MILLISECONDS);
 
     context.jmxConnectionFactory = new JmxConnectionFactory() {
           final AtomicInteger repairAttempts = new AtomicInteger(1);
@@ -404,6 +419,7 @@ public final class RepairRunnerTest {
     context.repairManager = RepairManager.create(
         context,
         Executors.newScheduledThreadPool(1),
+        Executors.newScheduledThreadPool(1),
         500,
         TimeUnit.MILLISECONDS,
         1,
@@ -446,7 +462,8 @@ public final class RepairRunnerTest {
                     cf)));
 
     final UUID RUN_ID = run.getId();
-    final UUID SEGMENT_ID = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID SEGMENT_ID
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
     assertEquals(storage.getRepairSegment(RUN_ID, SEGMENT_ID).get().getState(), RepairSegment.State.NOT_STARTED);
     context.jmxConnectionFactory = new JmxConnectionFactory() {
           @Override
@@ -525,72 +542,6 @@ public final class RepairRunnerTest {
     assertEquals(RepairRun.RunState.DONE, storage.getRepairRun(RUN_ID).get().getRunState());
   }
 
-  @Test
-  public void getPossibleParallelRepairsTest() throws Exception {
-    Map<List<String>, List<String>> map = RepairRunnerTest.threeNodeCluster();
-    Map<String, String> endpointsThreeNodes = RepairRunnerTest.threeNodeClusterEndpoint();
-    assertEquals(1, RepairRunner.getPossibleParallelRepairsCount(map, endpointsThreeNodes));
-
-    map = RepairRunnerTest.sixNodeCluster();
-    Map<String, String> endpointsSixNodes = RepairRunnerTest.sixNodeClusterEndpoint();
-    assertEquals(2, RepairRunner.getPossibleParallelRepairsCount(map, endpointsSixNodes));
-  }
-
-  @Test
-  public void getParallelSegmentsTest() throws ReaperException {
-    List<BigInteger> tokens = Lists
-        .transform(Lists.newArrayList("0", "50", "100", "150", "200", "250"), (string) -> new BigInteger(string));
-
-    SegmentGenerator generator = new SegmentGenerator(new BigInteger("0"), new BigInteger("299"));
-
-    List<Segment> segments = generator.generateSegments(
-            32,
-            tokens,
-            Boolean.FALSE,
-            RepairRunService.buildReplicasToRangeMap(RepairRunnerTest.sixNodeCluster()),
-            "2.2.10");
-
-    Map<List<String>, List<String>> map = RepairRunnerTest.sixNodeCluster();
-    Map<String, String> endpointsSixNodes = RepairRunnerTest.sixNodeClusterEndpoint();
-
-    List<RingRange> ranges = RepairRunner.getParallelRanges(
-            RepairRunner.getPossibleParallelRepairsCount(map, endpointsSixNodes),
-            Lists.newArrayList(
-                Collections2.transform(segments, segment -> segment.getBaseRange())));
-
-    assertEquals(2, ranges.size());
-    assertEquals("0", ranges.get(0).getStart().toString());
-    assertEquals("150", ranges.get(0).getEnd().toString());
-    assertEquals("150", ranges.get(1).getStart().toString());
-    assertEquals("0", ranges.get(1).getEnd().toString());
-  }
-
-  @Test
-  public void getParallelSegmentsTest2() throws ReaperException {
-    List<BigInteger> tokens = Lists.transform(
-        Lists.newArrayList("0", "25", "50", "75", "100", "125", "150", "175", "200", "225", "250"),
-        (string) -> new BigInteger(string));
-
-    SegmentGenerator generator = new SegmentGenerator(new BigInteger("0"), new BigInteger("299"));
-
-    Map<List<String>, List<String>> map = RepairRunnerTest.sixNodeCluster();
-    Map<String, String> endpointsSixNodes = RepairRunnerTest.sixNodeClusterEndpoint();
-
-    List<Segment> segments = generator.generateSegments(
-            32, tokens, Boolean.FALSE, RepairRunService.buildReplicasToRangeMap(map), "2.2.10");
-
-    List<RingRange> ranges = RepairRunner.getParallelRanges(
-            RepairRunner.getPossibleParallelRepairsCount(map, endpointsSixNodes),
-            Lists.newArrayList(
-                Collections2.transform(segments, segment -> segment.getBaseRange())));
-
-    assertEquals(2, ranges.size());
-    assertEquals("0", ranges.get(0).getStart().toString());
-    assertEquals("150", ranges.get(0).getEnd().toString());
-    assertEquals("150", ranges.get(1).getStart().toString());
-    assertEquals("0", ranges.get(1).getEnd().toString());
-  }
-
   @Test
   public void getNoSegmentCoalescingTest() throws ReaperException {
     List<BigInteger> tokens = Lists.transform(
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.core.RepairSegment;
+import io.cassandrareaper.core.Segment;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang3.tuple.Pair;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ReplicaAwareSchedulerTest {
+
+  private final ReplicaAwareScheduler scheduler = new ReplicaAwareScheduler(RepairRunnerTest.sixNodeCluster());
+
+  @Test
+  public void testReplicasOfSegment() {
+    assertEquals(Lists.newArrayList("a1", "a2", "a3"), scheduler.getReplicas(segment(10, 20).getTokenRange()));
+    assertEquals(Lists.newArrayList("a6", "a1", "a2"), scheduler.getReplicas(segment(260, 0).getTokenRange()));
+
+    Segment coalesced = Segment.builder()
+        .withTokenRanges(Lists.newArrayList(range(0, 50), range(50, 100)))
+        .build();
+
+    assertEquals(Lists.newArrayList("a1", "a2", "a3", "a4"), scheduler.getReplicas(coalesced));
+    assertTrue(scheduler.getReplicas(segment(40, 60).getTokenRange()).isEmpty());
+  }
+
+  @Test
+  public void testPickedSegmentsHaveDisjointReplicas() {
+    List<RepairSegment> segments = Lists.newArrayList();
+    for (int start = 0; start < 300; start += 25) {
+      segments.add(segment(start, (start + 25) % 300));
+    }
+
+    for (int i = 0; i < 20; ++i) {
+      List<Pair<RepairSegment, List<String>>> picked = scheduler.pickSegments(segments, Collections.emptySet());
+      // six nodes with RF=3 can hold two repairs at once
+      assertEquals(2, picked.size());
+      assertTrue(Collections.disjoint(picked.get(0).getRight(), picked.get(1).getRight()));
+    }
+  }
+
+  @Test
+  public void testBusyReplicasAreAvoided() {
+    List<RepairSegment> segments = Lists.newArrayList(segment(0, 50), segment(50, 100), segment(150, 200));
+    Set<String> busy = Sets.newHashSet("a1", "a2", "a3");
+
+    List<Pair<RepairSegment, List<String>>> picked = scheduler.pickSegments(segments, busy);
+    assertEquals(1, picked.size());
+    assertEquals(BigInteger.valueOf(150), picked.get(0).getLeft().getStartToken());
+  }
+
+  @Test
+  public void testSegmentWithUnknownReplicasRunsAlone() {
+    List<RepairSegment> segments = Lists.newArrayList(segment(40, 60));
+
+    assertEquals(1, scheduler.pickSegments(segments, Collections.emptySet()).size());
+    assertTrue(scheduler.pickSegments(segments, Sets.newHashSet("a6")).isEmpty());
+  }
+
+  @Test
+  public void testLongestSegmentsArePickedFirst() {
+    RepairSegment shortSegment = segment(0, 25);
+    RepairSegment longSegment = segment(25, 50);
+    SegmentDurationModel durations = new SegmentDurationModel(
+        Lists.newArrayList(repaired(shortSegment, 1_000), repaired(longSegment, 60_000)),
+        null);
+
+    ReplicaAwareScheduler scheduler
+        = new ReplicaAwareScheduler(RingTopology.of(RepairRunnerTest.sixNodeCluster()), durations);
+    for (int i = 0; i < 20; ++i) {
+      List<Pair<RepairSegment, List<String>>> picked
+          = scheduler.pickSegments(Lists.newArrayList(shortSegment, longSegment), Collections.emptySet());
+
+      // both segments share their replicas
+      assertEquals(1, picked.size());
+      assertEquals(longSegment.getId(), picked.get(0).getLeft().getId());
+    }
+  }
+
+  @Test
+  public void testSegmentsSharingReplicasAreBatched() {
+    RepairSegment failed = segment(40, 50).with().withFailCount(1).build();
+    List<RepairSegment> segments = Lists.newArrayList(
+        segment(30, 40), segment(10, 20), failed, segment(0, 10), segment(20, 30),
+        segment(60, 70), segment(50, 60),
+        segment(150, 200),
+        segment(40, 60));
+
+    List<List<RepairSegment>> batches = scheduler.batchSegments(segments, 3);
+    batches.sort(Comparator.comparing(batch -> batch.get(0).getStartToken()));
+    assertEquals(2, batches.size());
+
+    // in token order, up to three token ranges
+    assertEquals(
+        Lists.newArrayList(BigInteger.valueOf(0), BigInteger.valueOf(10), BigInteger.valueOf(20)),
+        batches.get(0).stream().map(RepairSegment::getStartToken).collect(Collectors.toList()));
+
+    assertEquals(
+        Lists.newArrayList(BigInteger.valueOf(50), BigInteger.valueOf(60)),
+        batches.get(1).stream().map(RepairSegment::getStartToken).collect(Collectors.toList()));
+
+    assertTrue(scheduler.batchSegments(segments, 1).isEmpty());
+  }
+
+  static RepairSegment repaired(RepairSegment segment, long durationMillis) {
+    DateTime startTime = DateTime.now().minusHours(1);
+    return segment.with()
+        .withState(RepairSegment.State.DONE)
+        .withStartTime(startTime)
+        .withEndTime(startTime.plus(durationMillis))
+        .build();
+  }
+
+  private static RingRange range(long start, long end) {
+    return new RingRange(BigInteger.valueOf(start), BigInteger.valueOf(end));
+  }
+
+  static RepairSegment segment(long start, long end) {
+    return RepairSegment.builder(Segment.builder().withTokenRange(range(start, end)).build(), UUID.randomUUID())
+        .withRunId(UUID.randomUUID())
+        .withId(UUID.randomUUID())
+        .build();
+  }
+}
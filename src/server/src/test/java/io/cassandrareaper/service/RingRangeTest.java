@@ -99,6 +99,30 @@ public final class RingRangeTest {
     assertFalse(r190To0.encloses(r0To0));
   }
 
+  @Test
+  public void testEnclosesBeyondLongTokens() {
+    BigInteger longMax = BigInteger.valueOf(Long.MAX_VALUE);
+    BigInteger big = longMax.add(BigInteger.TEN);
+    RingRange r0ToBig = new RingRange(BigInteger.ZERO, big);
+    RingRange r5To15 = new RingRange(BigInteger.valueOf(5L), BigInteger.valueOf(15L));
+    RingRange rLongMaxToBig = new RingRange(longMax, big);
+    RingRange rBigTo5 = new RingRange(big, BigInteger.valueOf(5L));
+
+    assertTrue(r0ToBig.encloses(r5To15));
+    assertTrue(r0ToBig.encloses(rLongMaxToBig));
+    assertFalse(r5To15.encloses(rLongMaxToBig));
+    assertTrue(rBigTo5.isWrapping());
+    assertTrue(rBigTo5.encloses(new RingRange(BigInteger.ONE, BigInteger.valueOf(5L))));
+    assertFalse(rBigTo5.encloses(r5To15));
+
+    RingRange rLongMinToLongMax = new RingRange(BigInteger.valueOf(Long.MIN_VALUE), longMax);
+    assertFalse(rLongMinToLongMax.isWrapping());
+    assertTrue(rLongMinToLongMax.encloses(r5To15));
+    assertEquals(-1L, rLongMinToLongMax.murmur3Span());
+    assertEquals(0L, new RingRange(BigInteger.TEN, BigInteger.TEN).murmur3Span());
+    assertEquals(Long.MAX_VALUE, new RingRange(BigInteger.ZERO, longMax).murmur3Span());
+  }
+
   @Test
   public void isWrappingTest() {
     RingRange r0To0 = new RingRange(BigInteger.valueOf(0L), BigInteger.valueOf(0L));
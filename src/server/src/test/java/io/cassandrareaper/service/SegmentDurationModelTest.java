@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.core.RepairRun;
+import io.cassandrareaper.core.RepairSegment;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import com.google.common.collect.Lists;
+import org.apache.cassandra.repair.RepairParallelism;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static io.cassandrareaper.service.ReplicaAwareSchedulerTest.repaired;
+import static io.cassandrareaper.service.ReplicaAwareSchedulerTest.segment;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class SegmentDurationModelTest {
+
+  private static final BigInteger RING_SIZE = BigInteger.valueOf(300);
+
+  @Test
+  public void testSameRangesAreExpectedToTakeTheirMeanDuration() {
+    SegmentDurationModel durations = new SegmentDurationModel(
+        Lists.newArrayList(
+            repaired(segment(0, 100), 1_000),
+            repaired(segment(0, 100), 3_000),
+            repaired(segment(100, 200), 10_000)),
+        RING_SIZE);
+
+    assertFalse(durations.isEmpty());
+    assertEquals(2_000, durations.estimateMillis(segment(0, 100).getTokenRange()).getAsLong());
+    assertEquals(10_000, durations.estimateMillis(segment(100, 200).getTokenRange()).getAsLong());
+  }
+
+  @Test
+  public void testOtherRangesAreExpectedToTakeTimeProportionalToTheirTokens() {
+    SegmentDurationModel durations = new SegmentDurationModel(
+        Lists.newArrayList(repaired(segment(0, 100), 1_000), repaired(segment(100, 200), 3_000)),
+        RING_SIZE);
+
+    // 20 ms per token on average
+    assertEquals(500, durations.estimateMillis(segment(200, 225).getTokenRange()).getAsLong());
+    assertEquals(2_000, durations.estimateMillis(segment(250, 50).getTokenRange()).getAsLong());
+
+    SegmentDurationModel withoutRingSize
+        = new SegmentDurationModel(Lists.newArrayList(repaired(segment(0, 100), 1_000)), null);
+
+    assertFalse(withoutRingSize.estimateMillis(segment(200, 225).getTokenRange()).isPresent());
+    assertTrue(SegmentDurationModel.EMPTY.isEmpty());
+    assertFalse(SegmentDurationModel.EMPTY.estimateMillis(segment(0, 100).getTokenRange()).isPresent());
+  }
+
+  @Test
+  public void testTimeOfArrivalFollowsThePaceOfTheRun() {
+    SegmentDurationModel durations = new SegmentDurationModel(
+        Lists.newArrayList(repaired(segment(0, 100), 1_000), repaired(segment(100, 300), 9_000)),
+        RING_SIZE);
+
+    // the first segment, expected to take a tenth of the run, took an hour
+    RepairRun run = run(DateTime.now().minusHours(1));
+    List<RepairSegment> segments = Lists.newArrayList(
+        repaired(segment(0, 100), 1_000),
+        segment(100, 300));
+
+    Optional<DateTime> eta = durations.estimateTimeOfArrival(run, segments);
+    assertTrue(eta.isPresent());
+    long expected = DateTime.now().plusHours(9).getMillis();
+    assertTrue(Math.abs(eta.get().getMillis() - expected) < 60_000);
+
+    assertFalse(durations.estimateTimeOfArrival(run, Lists.newArrayList(segment(0, 100))).isPresent());
+    assertFalse(SegmentDurationModel.EMPTY.estimateTimeOfArrival(run, Collections.emptyList()).isPresent());
+  }
+
+  private static RepairRun run(DateTime startTime) {
+    return RepairRun.builder("test", UUID.randomUUID())
+        .intensity(0.9)
+        .segmentCount(2)
+        .repairParallelism(RepairParallelism.PARALLEL)
+        .runState(RepairRun.RunState.RUNNING)
+        .startTime(startTime)
+        .build(UUID.randomUUID());
+  }
+}
@@ -22,11 +22,15 @@ import io.cassandrareaper.core.Segment;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -87,6 +91,57 @@ public final class SegmentGeneratorTest {
         segments.get(10).getBaseRange().toString());
   }
 
+  @Test
+  public void testMurmur3SegmentsMatchUnsignedRing() throws Exception {
+    // the Murmur3 ring shifted by 2^63 is a ring of unsigned tokens, that isn't split with long arithmetic
+    BigInteger shift = BigInteger.valueOf(Long.MIN_VALUE).negate();
+    SegmentGenerator murmur3 = new SegmentGenerator("foo.bar.Murmur3Partitioner");
+    SegmentGenerator unsigned = new SegmentGenerator(BigInteger.ZERO, shift.shiftLeft(1).subtract(BigInteger.ONE));
+    Random random = new Random(42);
+
+    for (int i = 0; i < 20; ++i) {
+      TreeSet<Long> sortedTokens = Sets.newTreeSet();
+      int tokenCount = 1 + random.nextInt(32);
+      while (sortedTokens.size() < tokenCount) {
+        sortedTokens.add(random.nextLong());
+      }
+      List<BigInteger> tokens = Lists.newArrayList();
+      sortedTokens.forEach(token -> tokens.add(BigInteger.valueOf(token)));
+      Collections.rotate(tokens, random.nextInt(tokenCount));
+      int segmentCount = 1 + random.nextInt(1000);
+
+      List<Segment> segments = murmur3.generateSegments(segmentCount, tokens, false, Maps.newHashMap(), "2.1.19");
+      List<Segment> expected = unsigned.generateSegments(
+          segmentCount,
+          Lists.transform(tokens, token -> token.add(shift)),
+          false,
+          Maps.newHashMap(),
+          "2.1.19");
+
+      assertEquals(expected.size(), segments.size());
+      for (int j = 0; j < segments.size(); ++j) {
+        RingRange expectedRange = expected.get(j).getBaseRange();
+        assertEquals(expectedRange.getStart().subtract(shift), segments.get(j).getBaseRange().getStart());
+        assertEquals(expectedRange.getEnd().subtract(shift), segments.get(j).getBaseRange().getEnd());
+      }
+
+      Map<List<String>, List<RingRange>> replicasToRange = Maps.newLinkedHashMap();
+      Map<List<String>, List<RingRange>> shiftedReplicasToRange = Maps.newLinkedHashMap();
+      for (int j = 0; j < segments.size(); ++j) {
+        List<String> replicas = Arrays.asList("node" + j % 3);
+        RingRange range = segments.get(j).getBaseRange();
+        replicasToRange.computeIfAbsent(replicas, key -> Lists.newArrayList()).add(range);
+        shiftedReplicasToRange.computeIfAbsent(replicas, key -> Lists.newArrayList())
+            .add(new RingRange(range.getStart().add(shift), range.getEnd().add(shift)));
+      }
+      BigInteger targetSize = murmur3.getRangeSize().divide(BigInteger.valueOf(1 + random.nextInt(segments.size())));
+      assertEquals(
+          Lists.transform(
+              unsigned.coalesceTokenRanges(targetSize, shiftedReplicasToRange), s -> s.getTokenRanges().size()),
+          Lists.transform(murmur3.coalesceTokenRanges(targetSize, replicasToRange), s -> s.getTokenRanges().size()));
+    }
+  }
+
   @Test(expected = ReaperException.class)
   public void testZeroSizeRange() throws Exception {
 
@@ -265,4 +320,48 @@ public final class SegmentGeneratorTest {
     // Ranges with 100 tokens will get coalesced two by two
     assertEquals(7, segments.size());
   }
+
+  @Test
+  public void splitSegmentTest() {
+    SegmentGenerator sg = new SegmentGenerator(BigInteger.valueOf(1), BigInteger.valueOf(1500));
+
+    List<Segment> segments = sg.splitSegment(
+        Segment.builder().withTokenRange(new RingRange(BigInteger.valueOf(100), BigInteger.valueOf(500))).build(),
+        4);
+
+    assertEquals(
+        Lists.newArrayList("(100,200]", "(200,300]", "(300,400]", "(400,500]"),
+        Lists.transform(segments, segment -> segment.getBaseRange().toString()));
+
+    // wrapping ranges wrap at the end of the ring
+    segments = sg.splitSegment(
+        Segment.builder().withTokenRange(new RingRange(BigInteger.valueOf(1400), BigInteger.valueOf(100))).build(),
+        4);
+
+    assertEquals(
+        Lists.newArrayList("(1400,1450]", "(1450,1500]", "(1500,50]", "(50,100]"),
+        Lists.transform(segments, segment -> segment.getBaseRange().toString()));
+
+    // too small to be split
+    assertEquals(
+        1,
+        sg.splitSegment(
+            Segment.builder().withTokenRange(new RingRange(BigInteger.valueOf(10), BigInteger.valueOf(12))).build(),
+            4).size());
+  }
+
+  @Test
+  public void splitCoalescedSegmentTest() {
+    SegmentGenerator sg = new SegmentGenerator(BigInteger.valueOf(1), BigInteger.valueOf(1500));
+    List<RingRange> ranges = Lists.newArrayList();
+    for (int start = 0; start < 500; start += 100) {
+      ranges.add(new RingRange(BigInteger.valueOf(start), BigInteger.valueOf(start + 100)));
+    }
+
+    List<Segment> segments = sg.splitSegment(Segment.builder().withTokenRanges(ranges).build(), 2);
+
+    assertEquals(2, segments.size());
+    assertEquals(ranges.subList(0, 3), segments.get(0).getTokenRanges());
+    assertEquals(ranges.subList(3, 5), segments.get(1).getTokenRanges());
+  }
 }
@@ -45,6 +45,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -73,6 +75,14 @@ import static org.mockito.Mockito.when;
 public final class SegmentRunnerTest {
   // TODO: Clean up tests. There's a lot of code duplication across these tests.
 
+  // runs the notifications inline, so that the tests can check the segment right after each of them
+  static final ScheduledExecutorService INLINE_SCHEDULER = new ScheduledThreadPoolExecutor(2) {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
   @Before
   public void setUp() throws Exception {
     SegmentRunner.SEGMENT_RUNNERS.clear();
@@ -108,7 +118,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = context.storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId = context.storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED)
+        .iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -189,7 +200,8 @@ public final class SegmentRunnerTest {
         RepairParallelism.PARALLEL,
         "reaper",
         ru,
-        rr);
+        rr,
+        INLINE_SCHEDULER);
 
     sr.run();
 
@@ -200,6 +212,143 @@ public final class SegmentRunnerTest {
     assertEquals(1, context.storage.getRepairSegment(runId, segmentId).get().getFailCount());
   }
 
+  @Test
+  public void timeoutExtendedWhileProgressingTest()
+      throws InterruptedException, ReaperException, ExecutionException {
+
+    final AppContext context = new AppContext();
+    context.config = Mockito.mock(ReaperApplicationConfiguration.class);
+    when(context.config.getJmxConnectionTimeoutInSeconds()).thenReturn(30);
+    when(context.config.getDatacenterAvailability()).thenReturn(DatacenterAvailability.ALL);
+    context.storage = new MemoryStorage();
+
+    RepairUnit cf = context.storage.addRepairUnit(
+            RepairUnit.builder()
+                .clusterName("reaper")
+                .keyspaceName("reaper")
+                .columnFamilies(Sets.newHashSet("reaper"))
+                .incrementalRepair(false)
+                .nodes(Sets.newHashSet("127.0.0.1"))
+                .repairThreadCount(1));
+
+    RepairRun run = context.storage.addRepairRun(
+            RepairRun.builder("reaper", cf.getId())
+                .intensity(0.5)
+                .segmentCount(1)
+                .repairParallelism(RepairParallelism.PARALLEL),
+            Collections.singleton(
+                RepairSegment.builder(
+                    Segment.builder()
+                        .withTokenRange(new RingRange(BigInteger.ONE, BigInteger.ZERO))
+                        .build(),
+                    cf.getId())));
+
+    final UUID runId = run.getId();
+    final UUID segmentId = context.storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED)
+        .iterator().next().getId();
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final MutableObject<Future<?>> future = new MutableObject<>();
+
+    context.jmxConnectionFactory = new JmxConnectionFactory() {
+          @Override
+          protected JmxProxy connectImpl(Node host, int connectionTimeout) throws ReaperException {
+            JmxProxy jmx = JmxProxyTest.mockJmxProxyImpl();
+            when(jmx.getClusterName()).thenReturn("reaper");
+            when(jmx.isConnectionAlive()).thenReturn(true);
+            when(jmx.tokenRangeToEndpoint(anyString(), any(Segment.class))).thenReturn(Lists.newArrayList(""));
+            EndpointSnitchInfoMBean endpointSnitchInfoMBean = mock(EndpointSnitchInfoMBean.class);
+            when(endpointSnitchInfoMBean.getDatacenter()).thenReturn("dc1");
+            try {
+              when(endpointSnitchInfoMBean.getDatacenter(anyString())).thenReturn("dc1");
+            } catch (UnknownHostException ex) {
+              throw new AssertionError(ex);
+            }
+            JmxProxyTest.mockGetEndpointSnitchInfoMBean(jmx, endpointSnitchInfoMBean);
+
+            when(jmx.triggerRepair(
+                    any(BigInteger.class),
+                    any(BigInteger.class),
+                    any(),
+                    any(RepairParallelism.class),
+                    any(),
+                    anyBoolean(),
+                    any(),
+                    any(),
+                    any(),
+                    any(Integer.class)))
+                .then(
+                    (invocation) -> {
+                      RepairStatusHandler handler = invocation.getArgument(7);
+                      future.setValue(
+                          executor.submit(
+                              () -> {
+                                handler.handle(
+                                    1,
+                                    Optional.empty(),
+                                    Optional.of(ProgressEventType.START),
+                                    "Repair command 1 has started",
+                                    jmx);
+
+                                // the repair keeps progressing for several times its timeout
+                                for (int i = 0; i < 8; ++i) {
+                                  try {
+                                    Thread.sleep(50);
+                                  } catch (InterruptedException ex) {
+                                    throw new AssertionError(ex);
+                                  }
+                                  handler.handle(
+                                      1,
+                                      Optional.empty(),
+                                      Optional.of(ProgressEventType.PROGRESS),
+                                      "Repair session in progress",
+                                      jmx);
+                                }
+                                assertEquals(
+                                    RepairSegment.State.RUNNING,
+                                    context.storage.getRepairSegment(runId, segmentId).get().getState());
+
+                                handler.handle(
+                                    1,
+                                    Optional.empty(),
+                                    Optional.of(ProgressEventType.SUCCESS),
+                                    "Repair session succeeded in command 1",
+                                    jmx);
+
+                                handler.handle(
+                                    1,
+                                    Optional.empty(),
+                                    Optional.of(ProgressEventType.COMPLETE),
+                                    "Repair command 1 has finished",
+                                    jmx);
+                              }));
+                      return 1;
+                    });
+
+            return jmx;
+          }
+        };
+
+    SegmentRunner sr = new SegmentRunner(
+        context,
+        segmentId,
+        Collections.singleton(""),
+        100,
+        0.5,
+        RepairParallelism.PARALLEL,
+        "reaper",
+        mock(RepairUnit.class),
+        mock(RepairRunner.class), INLINE_SCHEDULER);
+
+    sr.run();
+
+    future.getValue().get();
+    executor.shutdown();
+
+    assertEquals(RepairSegment.State.DONE, context.storage.getRepairSegment(runId, segmentId).get().getState());
+    assertEquals(0, context.storage.getRepairSegment(runId, segmentId).get().getFailCount());
+  }
+
   @Test
   public void successTest() throws InterruptedException, ReaperException, ExecutionException {
     final IStorage storage = new MemoryStorage();
@@ -226,7 +375,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -341,7 +491,8 @@ public final class SegmentRunnerTest {
         RepairParallelism.PARALLEL,
         "reaper",
         ru,
-        rr);
+        rr,
+        INLINE_SCHEDULER);
 
     sr.run();
 
@@ -377,7 +528,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -482,7 +634,8 @@ public final class SegmentRunnerTest {
         RepairParallelism.PARALLEL,
         "reaper",
         ru,
-        rr);
+        rr,
+        INLINE_SCHEDULER);
 
     sr.run();
 
@@ -520,7 +673,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -621,7 +775,8 @@ public final class SegmentRunnerTest {
             RepairParallelism.PARALLEL,
             "reaper",
             ru,
-            rr);
+            rr,
+            INLINE_SCHEDULER);
 
     sr.run();
 
@@ -660,7 +815,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -761,7 +917,8 @@ public final class SegmentRunnerTest {
             RepairParallelism.PARALLEL,
             "reaper",
             ru,
-            rr);
+            rr,
+            INLINE_SCHEDULER);
 
     sr.run();
 
@@ -800,7 +957,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -901,7 +1059,8 @@ public final class SegmentRunnerTest {
             RepairParallelism.PARALLEL,
             "reaper",
             ru,
-            rr);
+            rr,
+            INLINE_SCHEDULER);
 
     sr.run();
 
@@ -941,7 +1100,8 @@ public final class SegmentRunnerTest {
                     cf.getId())));
 
     final UUID runId = run.getId();
-    final UUID segmentId = storage.getNextFreeSegmentInRange(run.getId(), Optional.empty()).get().getId();
+    final UUID segmentId
+        = storage.getSegmentsWithState(run.getId(), RepairSegment.State.NOT_STARTED).iterator().next().getId();
 
     final ExecutorService executor = Executors.newSingleThreadExecutor();
     final MutableObject<Future<?>> future = new MutableObject<>();
@@ -1042,7 +1202,8 @@ public final class SegmentRunnerTest {
             RepairParallelism.PARALLEL,
             "reaper",
             ru,
-            rr);
+            rr,
+            INLINE_SCHEDULER);
 
     sr.run();
 
@@ -1127,6 +1288,25 @@ public final class SegmentRunnerTest {
     assertEquals(Sets.newHashSet("table2"), SegmentRunner.getTablesToRepair(coord, unit));
   }
 
+  @Test
+  public void removeSkippedTablesTest() throws ReaperException {
+    JmxProxy coord = JmxProxyTest.mockJmxProxyImpl();
+    when(coord.getTableNamesForKeyspace("test")).thenReturn(Sets.newHashSet("table1", "table2", "table3"));
+
+    assertEquals(
+        Sets.newHashSet("table2", "table3"),
+        SegmentRunner.removeSkippedTables(coord, "test", Sets.newHashSet(), Sets.newHashSet("table1")));
+
+    assertEquals(
+        Sets.newHashSet("table2"),
+        SegmentRunner.removeSkippedTables(
+            coord, "test", Sets.newHashSet("table1", "table2"), Sets.newHashSet("table1", "table3")));
+
+    assertTrue(
+        SegmentRunner.removeSkippedTables(
+            coord, "test", Sets.newHashSet("table1"), Sets.newHashSet("table1", "table3")).isEmpty());
+  }
+
   @Test(expected = IllegalStateException.class)
   public void getTablesToRepairRemoveAllFailingTest() throws ReaperException {
     JmxProxy coord = JmxProxyTest.mockJmxProxyImpl();
@@ -1168,9 +1348,9 @@ public final class SegmentRunnerTest {
     context.config.setDatacenterAvailability(DatacenterAvailability.LOCAL);
     SegmentRunner segmentRunner = new SegmentRunner(context,UUID.randomUUID(), Collections.emptyList(),
             1000, 1.1,RepairParallelism.DATACENTER_AWARE,
-            "test", mock(RepairUnit.class), mock(RepairRunner.class));
+            "test", mock(RepairUnit.class), mock(RepairRunner.class), INLINE_SCHEDULER);
 
-    Pair<String, Optional<NodeMetrics>> result = segmentRunner.getNodeMetrics("node-some", "dc1", "dc2").call();
+    Pair<String, Optional<NodeMetrics>> result = segmentRunner.getNodeMetrics("node-some", "dc1", "dc2").get();
     assertFalse(result.getRight().isPresent());
     verify(jmxConnectionFactory, times(0)).connect(any(), anyInt());
   }
@@ -1194,8 +1374,8 @@ public final class SegmentRunnerTest {
 
     SegmentRunner segmentRunner = new SegmentRunner(context,UUID.randomUUID(), Collections.emptyList(),
           1000, 1.1,RepairParallelism.DATACENTER_AWARE,
-          "test", mock(RepairUnit.class), mock(RepairRunner.class));
-    Pair<String, Optional<NodeMetrics>> result = segmentRunner.getNodeMetrics("node-some", "dc1", "dc1").call();
+          "test", mock(RepairUnit.class), mock(RepairRunner.class), INLINE_SCHEDULER);
+    Pair<String, Optional<NodeMetrics>> result = segmentRunner.getNodeMetrics("node-some", "dc1", "dc1").get();
     assertTrue(result.getRight().isPresent());
     NodeMetrics metrics = result.getRight().get();
     assertEquals("test", metrics.getCluster());
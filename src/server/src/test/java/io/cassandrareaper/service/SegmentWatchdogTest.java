@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.core.RepairRun;
+import io.cassandrareaper.core.RepairSegment;
+import io.cassandrareaper.core.Segment;
+import io.cassandrareaper.storage.IStorage;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+
+import com.datastax.driver.core.utils.UUIDs;
+import org.apache.cassandra.repair.RepairParallelism;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+public final class SegmentWatchdogTest {
+
+  @Test
+  public void testRunningSegmentIsAbortedPastItsDeadline() throws InterruptedException {
+    AppContext context = newContext();
+    RepairRun run = addRun(context);
+    RepairSegment segment = addRunningSegment(context, run);
+
+    context.segmentWatchdog.watch(run.getId(), segment.getId(), 50);
+    assertTrue(context.segmentWatchdog.isWatched(segment.getId()));
+
+    Mockito.verify(context.repairManager, Mockito.timeout(5000))
+        .abortSegments(Collections.singletonList(segment), run);
+    assertFalse(context.segmentWatchdog.isWatched(segment.getId()));
+    assertEquals(1, context.metricRegistry.meter("io.cassandrareaper.service.SegmentWatchdog.expired").getCount());
+  }
+
+  @Test
+  public void testUnwatchedSegmentIsLeftAlone() throws InterruptedException {
+    AppContext context = newContext();
+    RepairRun run = addRun(context);
+    RepairSegment segment = addRunningSegment(context, run);
+
+    context.segmentWatchdog.watch(run.getId(), segment.getId(), 100);
+    // watching again replaces the deadline
+    context.segmentWatchdog.watch(run.getId(), segment.getId(), 200);
+    context.segmentWatchdog.unwatch(segment.getId());
+    assertFalse(context.segmentWatchdog.isWatched(segment.getId()));
+
+    Thread.sleep(500);
+    Mockito.verify(context.repairManager, Mockito.never()).abortSegments(any(), any());
+    assertEquals(0, context.metricRegistry.meter("io.cassandrareaper.service.SegmentWatchdog.expired").getCount());
+  }
+
+  private static AppContext newContext() {
+    AppContext context = new AppContext();
+    context.storage = Mockito.mock(IStorage.class);
+    context.repairManager = Mockito.mock(RepairManager.class);
+    return context;
+  }
+
+  private static RepairRun addRun(AppContext context) {
+    RepairRun run = RepairRun.builder("test", UUIDs.timeBased())
+        .intensity(0.5)
+        .segmentCount(1)
+        .repairParallelism(RepairParallelism.PARALLEL)
+        .build(UUIDs.timeBased());
+
+    Mockito.when(context.storage.getRepairRun(run.getId())).thenReturn(Optional.of(run));
+    return run;
+  }
+
+  private static RepairSegment addRunningSegment(AppContext context, RepairRun run) {
+    UUID segmentId = UUIDs.timeBased();
+    RepairSegment segment = RepairSegment.builder(
+            Segment.builder().withTokenRange(new RingRange("-1", "1")).build(), run.getRepairUnitId())
+        .withRunId(run.getId())
+        .withId(segmentId)
+        .withState(RepairSegment.State.RUNNING)
+        .withStartTime(DateTime.now())
+        .build();
+
+    Mockito.when(context.storage.getRepairSegment(run.getId(), segmentId)).thenReturn(Optional.of(segment));
+    return segment;
+  }
+}
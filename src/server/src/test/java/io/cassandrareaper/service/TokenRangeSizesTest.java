@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.core.Segment;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class TokenRangeSizesTest {
+
+  private static final BigInteger RING_SIZE = BigInteger.valueOf(300);
+
+  // a1 holds ten times more data than the other nodes
+  private static final Map<String, Long> BYTES_BY_NODE = ImmutableMap.<String, Long>builder()
+      .put("a1", 1500L)
+      .put("a2", 150L)
+      .put("a3", 150L)
+      .put("a4", 150L)
+      .put("a5", 150L)
+      .put("a6", 150L)
+      .build();
+
+  @Test
+  public void testRangesAreWeightedByTheDensityOfTheirReplicas() {
+    TokenRangeSizes sizes = TokenRangeSizes.create(RepairRunnerTest.sixNodeCluster(), BYTES_BY_NODE, RING_SIZE).get();
+
+    assertEquals(200, sizes.estimate(new RingRange("0", "50")), 0.001);
+    assertEquals(50, sizes.estimate(new RingRange("50", "100")), 0.001);
+    assertEquals(160, sizes.estimate(new RingRange("260", "0")), 0.001);
+    assertEquals(750, sizes.getTotal(), 0.001);
+    assertEquals(4, sizes.segmentCount(new RingRange("0", "50"), 15));
+    assertEquals(1, sizes.segmentCount(new RingRange("50", "100"), 15));
+
+    // unknown nodes get the mean density of the others
+    Map<String, Long> withoutA6 = Maps.newHashMap(BYTES_BY_NODE);
+    withoutA6.remove("a6");
+    sizes = TokenRangeSizes.create(RepairRunnerTest.sixNodeCluster(), withoutA6, RING_SIZE).get();
+    assertEquals(50 * (1 + 1 + 2.8) / 3, sizes.estimate(new RingRange("150", "200")), 0.001);
+
+    assertFalse(TokenRangeSizes.create(RepairRunnerTest.sixNodeCluster(), Maps.newHashMap(), RING_SIZE).isPresent());
+  }
+
+  @Test
+  public void testSegmentsAreBalancedByDataSize() throws Exception {
+    Optional<TokenRangeSizes> sizes
+        = TokenRangeSizes.create(RepairRunnerTest.sixNodeCluster(), BYTES_BY_NODE, RING_SIZE);
+    SegmentGenerator generator = new SegmentGenerator(BigInteger.ZERO, BigInteger.valueOf(299));
+    List<BigInteger> tokens = Lists.transform(
+        Lists.newArrayList("0", "50", "100", "150", "200", "250"),
+        (String string) -> new BigInteger(string));
+
+    List<Segment> segments = generator.generateSegments(15, tokens, false, Maps.newHashMap(), "2.1.19", sizes);
+    assertEquals(15, segments.size());
+    assertEquals("(0,12]", segments.get(0).getBaseRange().toString());
+    assertEquals("(37,50]", segments.get(3).getBaseRange().toString());
+    assertEquals("(50,100]", segments.get(4).getBaseRange().toString());
+
+    Map<List<String>, List<RingRange>> replicasToRange = ImmutableMap.of(
+        Arrays.asList("a1", "a2", "a3"),
+        Lists.transform(tokens, token -> new RingRange(token, token.add(BigInteger.valueOf(50)).mod(RING_SIZE))));
+
+    segments = generator.generateSegments(3, tokens, false, replicasToRange, "2.2.10", sizes);
+    assertEquals(
+        Arrays.asList(2, 2, 1, 1),
+        Lists.transform(segments, segment -> segment.getTokenRanges().size()));
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.service;
+
+import io.cassandrareaper.AppContext;
+import io.cassandrareaper.jmx.JmxProxy;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class TopologyCacheTest {
+
+  @Test
+  public void testReplicasAreFoundByEnclosingRange() {
+    RingTopology topology = RingTopology.of(RepairRunnerTest.sixNodeCluster());
+
+    assertEquals(Arrays.asList("a1", "a2", "a3"), topology.getReplicas(new RingRange("0", "50")));
+    assertEquals(Arrays.asList("a2", "a3", "a4"), topology.getReplicas(new RingRange("60", "70")));
+    assertEquals(Arrays.asList("a5", "a6", "a1"), topology.getReplicas(new RingRange("200", "250")));
+    // the range wrapping around the ring
+    assertEquals(Arrays.asList("a6", "a1", "a2"), topology.getReplicas(new RingRange("260", "0")));
+    // spans two ranges of the ring
+    assertTrue(topology.getReplicas(new RingRange("40", "60")).isEmpty());
+  }
+
+  @Test
+  public void testTopologyIsReadOncePerCluster() throws Exception {
+    AppContext context = new AppContext();
+    JmxProxy proxy = Mockito.mock(JmxProxy.class);
+    Mockito.when(proxy.getEndpointToHostId()).thenReturn(RepairRunnerTest.sixNodeClusterEndpoint());
+    Mockito.when(proxy.getRangeToEndpointMap("ks")).thenReturn(RepairRunnerTest.sixNodeCluster());
+
+    RingTopology topology = context.topologyCache.get("test", "ks", proxy);
+    assertSame(topology, context.topologyCache.get("test", "ks", proxy));
+    Mockito.verify(proxy, Mockito.times(1)).getRangeToEndpointMap("ks");
+    assertEquals(RepairRunnerTest.sixNodeCluster(), topology.getRangeToEndpointMap());
+
+    context.topologyCache.invalidate("other");
+    assertSame(topology, context.topologyCache.get("test", "ks", proxy));
+
+    context.topologyCache.invalidate("test");
+    context.topologyCache.get("test", "ks", proxy);
+    Mockito.verify(proxy, Mockito.times(2)).getRangeToEndpointMap("ks");
+    assertEquals(2, context.metricRegistry.meter("io.cassandrareaper.service.TopologyCache.loads").getCount());
+  }
+}
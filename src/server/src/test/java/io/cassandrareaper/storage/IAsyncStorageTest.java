@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import io.cassandrareaper.core.RepairRun;
+import io.cassandrareaper.core.RepairSegment;
+import io.cassandrareaper.core.Segment;
+import io.cassandrareaper.service.RingRange;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.cassandra.repair.RepairParallelism;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class IAsyncStorageTest {
+
+  @Test
+  public void testStagesComposeOverSynchronousStorage() throws Exception {
+    IAsyncStorage storage = new MemoryStorage();
+    UUID unitId = UUID.randomUUID();
+    RepairRun run = storage.addRepairRun(
+        RepairRun.builder("test", unitId)
+            .intensity(0.5)
+            .segmentCount(1)
+            .repairParallelism(RepairParallelism.PARALLEL),
+        Collections.singleton(
+            RepairSegment.builder(
+                Segment.builder().withTokenRange(new RingRange(BigInteger.ZERO, BigInteger.ONE)).build(),
+                unitId)));
+
+    RepairSegment segment = storage.getRepairSegmentsForRun(run.getId()).iterator().next();
+
+    CompletableFuture<RepairRun> updated = storage.getRepairSegmentAsync(run.getId(), segment.getId())
+        .thenCompose(stored -> storage.getRepairRunAsync(stored.get().getRunId()))
+        .thenCompose(stored -> storage.updateRepairRunAsync(
+            stored.get().with().lastEvent("composed").build(run.getId())))
+        .thenCompose(applied -> storage.getRepairRunAsync(run.getId()))
+        .thenApply(stored -> stored.get())
+        .toCompletableFuture();
+
+    // the memory storage completes its stages in the calling thread
+    assertTrue(updated.isDone());
+    assertEquals("composed", updated.get().getLastEvent());
+  }
+
+  @Test
+  public void testFailuresCompleteTheStage() throws InterruptedException {
+    IAsyncStorage storage = Mockito.mock(IAsyncStorage.class, Mockito.CALLS_REAL_METHODS);
+    Mockito.doThrow(new IllegalStateException("storage failure")).when(storage).getRepairRun(Mockito.any());
+
+    CompletableFuture<?> stage = storage.getRepairRunAsync(UUID.randomUUID()).toCompletableFuture();
+    assertTrue(stage.isCompletedExceptionally());
+    try {
+      stage.get();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class ReadThroughCacheTest {
+
+  @Test
+  public void testReadsAreServedFromCacheUntilInvalidated() {
+    Map<String, String> stored = Maps.newHashMap();
+    stored.put("key", "first");
+    AtomicInteger loads = new AtomicInteger();
+    ReadThroughCache<String, String> cache = new ReadThroughCache<>(10, key -> {
+      loads.incrementAndGet();
+      return Optional.ofNullable(stored.get(key));
+    });
+
+    assertEquals("first", cache.get("key").get());
+    stored.put("key", "second");
+    assertEquals("first", cache.get("key").get());
+    assertEquals(1, loads.get());
+
+    cache.invalidate("key");
+    assertEquals("second", cache.get("key").get());
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void testMissingEntriesAreNotCached() {
+    Map<String, String> stored = Maps.newHashMap();
+    ReadThroughCache<String, String> cache = new ReadThroughCache<>(10, key -> Optional.ofNullable(stored.get(key)));
+
+    assertFalse(cache.get("key").isPresent());
+    stored.put("key", "created");
+    assertEquals("created", cache.get("key").get());
+  }
+
+  @Test
+  public void testGetIfPresentDoesNotLoad() {
+    AtomicInteger loads = new AtomicInteger();
+    ReadThroughCache<String, String> cache = new ReadThroughCache<>(10, key -> {
+      loads.incrementAndGet();
+      return Optional.of("value");
+    });
+
+    assertFalse(cache.getIfPresent("key").isPresent());
+    assertEquals(0, loads.get());
+
+    cache.get("key");
+    assertEquals("value", cache.getIfPresent("key").get());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testValueLoadedDuringWriteIsNotCached() {
+    Map<String, String> stored = Maps.newHashMap();
+    stored.put("key", "stale");
+    List<ReadThroughCache<String, String>> caches = Lists.newArrayList();
+    caches.add(new ReadThroughCache<>(10, key -> {
+      Optional<String> value = Optional.ofNullable(stored.get(key));
+      // a write lands, and invalidates the key, once the previous value has been read
+      if ("stale".equals(stored.put(key, "fresh"))) {
+        caches.get(0).invalidate(key);
+      }
+      return value;
+    }));
+
+    assertEquals("stale", caches.get(0).get("key").get());
+    assertEquals("fresh", caches.get(0).get("key").get());
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class RepairRunEventBufferTest {
+
+  @Test
+  public void testOnlyLatestEventOfEachRunIsWritten() {
+    Map<UUID, String> written = Maps.newHashMap();
+    RepairRunEventBuffer buffer = new RepairRunEventBuffer((runId, lastEvent, recordedAt) -> {
+      assertEquals(null, written.put(runId, lastEvent));
+    });
+    UUID run1 = UUID.randomUUID();
+    UUID run2 = UUID.randomUUID();
+
+    for (int i = 0; i < 10; ++i) {
+      buffer.record(run1, "event " + i);
+    }
+    buffer.record(run2, "other event");
+    assertEquals(2, buffer.pendingCount());
+
+    buffer.flush();
+    assertEquals(0, buffer.pendingCount());
+    assertEquals(2, written.size());
+    assertEquals("event 9", written.get(run1));
+    assertEquals("other event", written.get(run2));
+  }
+
+  @Test
+  public void testDiscardedEventIsNotWritten() {
+    Map<UUID, String> written = Maps.newHashMap();
+    RepairRunEventBuffer buffer = new RepairRunEventBuffer((runId, lastEvent, recordedAt) -> {
+      written.put(runId, lastEvent);
+    });
+    UUID run = UUID.randomUUID();
+
+    buffer.record(run, "superseded by a full update of the run");
+    buffer.discard(run);
+    buffer.flush();
+    assertEquals(0, written.size());
+  }
+}
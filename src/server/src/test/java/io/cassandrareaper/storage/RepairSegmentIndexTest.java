@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage;
+
+import io.cassandrareaper.core.RepairSegment;
+import io.cassandrareaper.core.Segment;
+import io.cassandrareaper.service.RingRange;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class RepairSegmentIndexTest {
+
+  private static final UUID RUN_ID = UUID.randomUUID();
+  private static final UUID UNIT_ID = UUID.randomUUID();
+
+  @Test
+  public void testUpdatesRemoveAndRestoreFreeSegments() {
+    List<RepairSegment> segments = segments(0, 10, 20);
+    RepairSegmentIndex index = new RepairSegmentIndex(runId -> segments);
+
+    RepairSegment segment = index.getFreeSegments(RUN_ID).iterator().next();
+    RepairSegment running = segment.with()
+        .withState(RepairSegment.State.RUNNING)
+        .withStartTime(DateTime.now())
+        .build();
+
+    index.update(running);
+    assertEquals(2, index.getFreeSegments(RUN_ID).size());
+    assertFalse(index.getFreeSegments(RUN_ID).stream().anyMatch(free -> free.getId().equals(segment.getId())));
+
+    index.update(running.reset().withFailCount(1).build());
+    assertEquals(3, index.getFreeSegments(RUN_ID).size());
+    assertTrue(index.getFreeSegments(RUN_ID).stream().anyMatch(free -> free.getId().equals(segment.getId())));
+  }
+
+  @Test
+  public void testUpdatesDuringReloadAreKept() {
+    List<RepairSegment> segments = segments(0, 10, 20);
+    AtomicLong nanos = new AtomicLong(0);
+    List<RepairSegmentIndex> holder = Lists.newArrayList();
+    RepairSegment running = segments.get(0).with()
+        .withState(RepairSegment.State.RUNNING)
+        .withStartTime(DateTime.now())
+        .build();
+
+    AtomicInteger loads = new AtomicInteger(0);
+    RepairSegmentIndex index = new RepairSegmentIndex(
+        runId -> {
+          if (1 < loads.incrementAndGet()) {
+            // the segment starts running after the reload read the run
+            holder.get(0).update(running);
+          }
+          return segments;
+        },
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        });
+    holder.add(index);
+
+    assertEquals(3, index.getFreeSegments(RUN_ID).size());
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(5));
+
+    index.getFreeSegments(RUN_ID);
+    assertEquals(2, loads.get());
+    assertEquals(2, index.getFreeSegments(RUN_ID).size());
+    assertFalse(
+        index.getFreeSegments(RUN_ID).stream().anyMatch(segment -> segment.getId().equals(running.getId())));
+  }
+
+  @Test
+  public void testReplacedSegmentsAreReindexed() {
+    List<RepairSegment> segments = segments(0, 100);
+    RepairSegmentIndex index = new RepairSegmentIndex(runId -> segments);
+    assertEquals(2, index.getFreeSegments(RUN_ID).size());
+
+    index.replace(Collections.singletonList(segments.get(1)), segments(100, 150, 200));
+
+    assertEquals(4, index.getFreeSegments(RUN_ID).size());
+    assertFalse(
+        index.getFreeSegments(RUN_ID).stream().anyMatch(segment -> segment.getId().equals(segments.get(1).getId())));
+
+    index.replace(index.getFreeSegments(RUN_ID), segments(0));
+    assertEquals(1, index.getFreeSegments(RUN_ID).size());
+  }
+
+  @Test
+  public void testRunIsLoadedOnce() {
+    List<RepairSegment> segments = segments(0, 10, 20);
+    AtomicInteger loads = new AtomicInteger(0);
+    RepairSegmentIndex index = new RepairSegmentIndex(runId -> {
+      loads.incrementAndGet();
+      return segments;
+    });
+
+    assertFalse(index.isIndexed(RUN_ID));
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(3, index.getFreeSegments(RUN_ID).size());
+    }
+    assertEquals(1, loads.get());
+    assertTrue(index.isIndexed(RUN_ID));
+
+    index.invalidate(RUN_ID);
+    assertFalse(index.isIndexed(RUN_ID));
+    index.getFreeSegments(RUN_ID);
+    assertEquals(2, loads.get());
+  }
+
+  private static List<RepairSegment> segments(int... starts) {
+    List<RepairSegment> segments = Lists.newArrayList();
+    for (int i = 0; i < starts.length; ++i) {
+      BigInteger start = BigInteger.valueOf(starts[i]);
+      BigInteger end = BigInteger.valueOf(starts[(i + 1) % starts.length]);
+      segments.add(
+          RepairSegment.builder(Segment.builder().withTokenRange(new RingRange(start, end)).build(), UNIT_ID)
+              .withRunId(RUN_ID)
+              .withId(UUID.randomUUID())
+              .build());
+    }
+    return segments;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018-2018 The Last Pickle Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.cassandrareaper.storage.cassandra;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AbstractFuture;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class PipelinedBatchWriterTest {
+
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(8);
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testInFlightBatchesAreBoundedAndFailedOnesRetried() throws Exception {
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    Set<Statement> failedOnce = Sets.newConcurrentHashSet();
+    Session session = session(batch -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      // every batch fails its first attempt
+      return complete(failedOnce.add(batch), inFlight::decrementAndGet);
+    });
+
+    PipelinedBatchWriter writer = new PipelinedBatchWriter(session, 4, metricRegistry);
+    for (int i = 0; i < 50; ++i) {
+      writer.write(Collections.nCopies(10, new SimpleStatement("INSERT")));
+    }
+    writer.await();
+
+    assertEquals(0, inFlight.get());
+    assertTrue(4 >= maxInFlight.get());
+    assertEquals(500, metricRegistry.meter(MetricRegistry.name(PipelinedBatchWriter.class, "statements")).getCount());
+    assertEquals(50, metricRegistry.meter(MetricRegistry.name(PipelinedBatchWriter.class, "retries")).getCount());
+  }
+
+  @Test
+  public void testBatchFailingAllAttemptsFailsTheWrite() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    Session session = session(batch -> {
+      attempts.incrementAndGet();
+      return complete(true, () -> { });
+    });
+
+    PipelinedBatchWriter writer = new PipelinedBatchWriter(session, 4, metricRegistry);
+    writer.write(Collections.singletonList(new SimpleStatement("INSERT")));
+    try {
+      writer.await();
+      fail("the batch failed all its attempts");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof WriteTimeoutException);
+    }
+    assertEquals(3, attempts.get());
+
+    // nothing is written anymore once a batch failed
+    writer.write(Collections.singletonList(new SimpleStatement("INSERT")));
+    assertEquals(3, attempts.get());
+  }
+
+  private static Session session(Function<BatchStatement, ResultSetFuture> executeAsync) {
+    Session session = Mockito.mock(Session.class);
+    Mockito.when(session.executeAsync(Mockito.any(Statement.class)))
+        .then(invocation -> executeAsync.apply(invocation.getArgument(0)));
+    return session;
+  }
+
+  private ResultSetFuture complete(boolean fails, Runnable beforeCompletion) {
+    TestResultSetFuture future = new TestResultSetFuture();
+    executor.schedule(
+        () -> {
+          beforeCompletion.run();
+          if (fails) {
+            future.setException(Mockito.mock(WriteTimeoutException.class));
+          } else {
+            future.set(Mockito.mock(ResultSet.class));
+          }
+        },
+        5,
+        TimeUnit.MILLISECONDS);
+    return future;
+  }
+
+  private static final class TestResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+
+    @Override
+    public boolean set(ResultSet value) {
+      return super.set(value);
+    }
+
+    @Override
+    public boolean setException(Throwable throwable) {
+      return super.setException(throwable);
+    }
+
+    @Override
+    public ResultSet getUninterruptibly() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}